@@ -0,0 +1,110 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the thresholding and cube-index loops of {@link PlaneKernels} against
+ * the per-voxel loops they replace, on random float planes. That both give the
+ * same cube indices is tested by {@code PlaneKernelsTest}.
+ */
+public class PlaneKernelsBenchmark
+{
+	public static void main( final String[] args )
+	{
+		final int sx = 512;
+		final int sy = 512;
+		final int sz = 64;
+		final double isoLevel = 0.5;
+		final int isx = sx + 2;
+		final int isy = sy + 2;
+
+		final Random ran = new Random( 1l );
+		final float[] data = new float[ sx * sy * sz ];
+		for ( int i = 0; i < data.length; i++ )
+			data[ i ] = ran.nextFloat();
+
+		final byte[] lower = new byte[ isx * isy ];
+		final byte[] upper = new byte[ isx * isy ];
+		final byte[] indices = new byte[ isx * isy ];
+		final byte[] lowerCodes = new byte[ isx * isy ];
+		final byte[] upperCodes = new byte[ isx * isy ];
+		final byte[] expected = new byte[ isx * isy ];
+
+		for ( int run = 0; run < 10; run++ )
+		{
+			long start = System.nanoTime();
+			long sum = 0;
+			for ( int z = 1; z < sz; z++ )
+			{
+				thresholdScalar( data, z - 1, sx, sy, isoLevel, lower );
+				thresholdScalar( data, z, sx, sy, isoLevel, upper );
+				indicesScalar( lower, upper, isx, isy, expected );
+				sum += expected[ isx + 1 ];
+			}
+			final long scalar = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final float threshold = PlaneKernels.threshold( isoLevel );
+			for ( int z = 1; z < sz; z++ )
+			{
+				thresholdKernel( data, z - 1, sx, sy, threshold, lower );
+				PlaneKernels.cornerCodes( lower, isx, lowerCodes );
+				thresholdKernel( data, z, sx, sy, threshold, upper );
+				PlaneKernels.cornerCodes( upper, isx, upperCodes );
+				PlaneKernels.cubeIndices( lowerCodes, upperCodes, indices );
+				sum += indices[ isx + 1 ];
+			}
+			final long kernel = System.nanoTime() - start;
+
+			System.out.println( String.format( "Run %d: per-voxel loops %.1f ms, kernels %.1f ms (%d)",
+					run, scalar / 1e6, kernel / 1e6, sum ) );
+		}
+	}
+
+	private static void thresholdScalar( final float[] data, final int z, final int sx, final int sy, final double isoLevel, final byte[] plane )
+	{
+		Arrays.fill( plane, ( byte ) 0 );
+		final int isx = sx + 2;
+		int i = z * sx * sy;
+		int j = isx + 1;
+		for ( int y = 0; y < sy; ++y )
+		{
+			for ( int x = 0; x < sx; ++x )
+			{
+				if ( data[ i++ ] >= isoLevel )
+					plane[ j ] = 1;
+				++j;
+			}
+			j += 2;
+		}
+	}
+
+	private static void thresholdKernel( final float[] data, final int z, final int sx, final int sy, final float threshold, final byte[] plane )
+	{
+		Arrays.fill( plane, ( byte ) 0 );
+		final int isx = sx + 2;
+		for ( int y = 0; y < sy; ++y )
+			PlaneKernels.threshold( data, ( z * sy + y ) * sx, sx, threshold, plane, ( y + 1 ) * isx + 1 );
+	}
+
+	private static void indicesScalar( final byte[] lower, final byte[] upper, final int isx, final int isy, final byte[] indices )
+	{
+		for ( int my = 0; my < isy - 1; ++my )
+		{
+			int i = my * isx;
+			for ( int mx = 0; mx < isx - 1; ++mx )
+			{
+				indices[ i ] = ( byte ) ( lower[ i ]
+						| ( lower[ i + 1 ] << 1 )
+						| ( lower[ i + isx ] << 2 )
+						| ( lower[ i + isx + 1 ] << 3 )
+						| ( upper[ i ] << 4 )
+						| ( upper[ i + 1 ] << 5 )
+						| ( upper[ i + isx ] << 6 )
+						| ( upper[ i + isx + 1 ] << 7 ) );
+				++i;
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.mastodon.mesh.alg;
+
+import org.mastodon.mesh.MeshAssert;
+import org.mastodon.mesh.Meshes;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.TriangleAdder;
+import org.mastodon.mesh.Vertex;
+
+/**
+ * Compares building a mesh from flat buffers with {@link TriMeshBuilder} with
+ * adding its vertices and triangles one by one with a {@link TriangleAdder},
+ * with and without the edge index, on the mesh of a large sphere, and checks
+ * that they give the same topology.
+ */
+public class TriMeshBuilderBenchmark
+{
+	public static void main( final String[] args )
+	{
+		final TriMesh source = Meshes.marchingCubesIndexed( TestImages.sphere( 256, 256, 256, 120 ), 0. );
+		final double[] positions = new double[ 3 * source.vertices().size() ];
+		for ( final Vertex v : source.vertices() )
+		{
+			final int i = 3 * v.getInternalPoolIndex();
+			positions[ i ] = v.x();
+			positions[ i + 1 ] = v.y();
+			positions[ i + 2 ] = v.z();
+		}
+		final int[] triangles = new int[ 3 * source.triangles().size() ];
+		int j = 0;
+		for ( final Triangle t : source.triangles() )
+		{
+			triangles[ j++ ] = t.v0();
+			triangles[ j++ ] = t.v1();
+			triangles[ j++ ] = t.v2();
+		}
+		System.out.println( String.format( "Mesh with %d vertices and %d triangles.", positions.length / 3, triangles.length / 3 ) );
+
+		for ( int run = 0; run < 10; run++ )
+		{
+			long start = System.nanoTime();
+			final TriMesh added = add( positions, triangles, false );
+			final long adder = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final TriMesh indexed = add( positions, triangles, true );
+			final long indexedAdder = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final TriMesh built = TriMeshBuilder.build( positions, triangles );
+			final long builder = System.nanoTime() - start;
+
+			if ( run == 0 )
+			{
+				MeshAssert.assertSameTopology( added, built );
+				MeshAssert.assertSameTopology( indexed, built );
+			}
+			System.out.println( String.format( "Run %d: triangle adder %.1f ms, with edge index %.1f ms, builder %.1f ms",
+					run, adder / 1e6, indexedAdder / 1e6, builder / 1e6 ) );
+		}
+	}
+
+	private static TriMesh add( final double[] positions, final int[] triangles, final boolean edgeIndex )
+	{
+		final TriMesh mesh = new TriMesh( positions.length / 3, triangles.length / 3 );
+		mesh.setEdgeIndexEnabled( edgeIndex );
+		final Vertex[] vertices = new Vertex[ positions.length / 3 ];
+		for ( int i = 0; i < vertices.length; i++ )
+			vertices[ i ] = mesh.addVertex().init( positions[ 3 * i ], positions[ 3 * i + 1 ], positions[ 3 * i + 2 ] );
+		final TriangleAdder adder = mesh.triangleAdder();
+		final Triangle ref = mesh.triangleRef();
+		for ( int t = 0; t < triangles.length; t += 3 )
+			adder.add( vertices[ triangles[ t ] ], vertices[ triangles[ t + 1 ] ], vertices[ triangles[ t + 2 ] ], ref );
+		mesh.releaseRef( ref );
+		adder.releaseRefs();
+		return mesh;
+	}
+}
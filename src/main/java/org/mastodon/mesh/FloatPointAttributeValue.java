@@ -0,0 +1,210 @@
+package org.mastodon.mesh;
+
+import org.mastodon.pool.attributes.FloatArrayAttribute;
+import org.mastodon.pool.attributes.RealPointAttributeValue;
+
+import net.imglib2.Localizable;
+import net.imglib2.RealLocalizable;
+
+/**
+ * A {@link RealPointAttributeValue} backed by a 3-element float array
+ * attribute, for the vertices of single-precision meshes.
+ * <p>
+ * Positions are stored as <code>float</code>s, so setting a
+ * <code>double</code> position rounds it to the nearest <code>float</code>.
+ */
+class FloatPointAttributeValue implements RealPointAttributeValue
+{
+
+	private final FloatArrayAttribute< Vertex > attribute;
+
+	private final Vertex obj;
+
+	FloatPointAttributeValue( final FloatArrayAttribute< Vertex > attribute, final Vertex obj )
+	{
+		this.attribute = attribute;
+		this.obj = obj;
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return 3;
+	}
+
+	@Override
+	public void localize( final float[] position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			position[ d ] = attribute.get( obj, d );
+	}
+
+	@Override
+	public void localize( final double[] position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			position[ d ] = attribute.get( obj, d );
+	}
+
+	@Override
+	public float getFloatPosition( final int d )
+	{
+		return attribute.get( obj, d );
+	}
+
+	@Override
+	public double getDoublePosition( final int d )
+	{
+		return attribute.get( obj, d );
+	}
+
+	@Override
+	public void move( final float distance, final int d )
+	{
+		attribute.set( obj, d, attribute.get( obj, d ) + distance );
+	}
+
+	@Override
+	public void move( final double distance, final int d )
+	{
+		attribute.set( obj, d, ( float ) ( attribute.get( obj, d ) + distance ) );
+	}
+
+	@Override
+	public void move( final RealLocalizable distance )
+	{
+		for ( int d = 0; d < 3; d++ )
+			move( distance.getDoublePosition( d ), d );
+	}
+
+	@Override
+	public void move( final float[] distance )
+	{
+		for ( int d = 0; d < 3; d++ )
+			move( distance[ d ], d );
+	}
+
+	@Override
+	public void move( final double[] distance )
+	{
+		for ( int d = 0; d < 3; d++ )
+			move( distance[ d ], d );
+	}
+
+	@Override
+	public void setPosition( final RealLocalizable position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			setPosition( position.getDoublePosition( d ), d );
+	}
+
+	@Override
+	public void setPosition( final float[] position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			setPosition( position[ d ], d );
+	}
+
+	@Override
+	public void setPosition( final double[] position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			setPosition( position[ d ], d );
+	}
+
+	@Override
+	public void setPosition( final float position, final int d )
+	{
+		attribute.set( obj, d, position );
+	}
+
+	@Override
+	public void setPosition( final double position, final int d )
+	{
+		attribute.set( obj, d, ( float ) position );
+	}
+
+	@Override
+	public void fwd( final int d )
+	{
+		move( 1f, d );
+	}
+
+	@Override
+	public void bck( final int d )
+	{
+		move( -1f, d );
+	}
+
+	@Override
+	public void move( final int distance, final int d )
+	{
+		move( ( double ) distance, d );
+	}
+
+	@Override
+	public void move( final long distance, final int d )
+	{
+		move( ( double ) distance, d );
+	}
+
+	@Override
+	public void move( final Localizable distance )
+	{
+		for ( int d = 0; d < 3; d++ )
+			move( distance.getDoublePosition( d ), d );
+	}
+
+	@Override
+	public void move( final int[] distance )
+	{
+		for ( int d = 0; d < 3; d++ )
+			move( ( double ) distance[ d ], d );
+	}
+
+	@Override
+	public void move( final long[] distance )
+	{
+		for ( int d = 0; d < 3; d++ )
+			move( ( double ) distance[ d ], d );
+	}
+
+	@Override
+	public void setPosition( final Localizable position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			setPosition( position.getDoublePosition( d ), d );
+	}
+
+	@Override
+	public void setPosition( final int[] position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			setPosition( ( double ) position[ d ], d );
+	}
+
+	@Override
+	public void setPosition( final long[] position )
+	{
+		for ( int d = 0; d < 3; d++ )
+			setPosition( ( double ) position[ d ], d );
+	}
+
+	@Override
+	public void setPosition( final int position, final int d )
+	{
+		setPosition( ( double ) position, d );
+	}
+
+	@Override
+	public void setPosition( final long position, final int d )
+	{
+		setPosition( ( double ) position, d );
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "(%f, %f, %f)", attribute.get( obj, 0 ), attribute.get( obj, 1 ), attribute.get( obj, 2 ) );
+	}
+}
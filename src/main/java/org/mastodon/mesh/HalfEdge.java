@@ -46,6 +46,24 @@ public class HalfEdge extends AbstractEdge< HalfEdge, Vertex, HalfEdgePool, Byte
 			pool.twin.set( this, twin.getInternalPoolIndex() );
 			pool.twin.set( twin, getInternalPoolIndex() );
 		}
+		else
+		{
+			// The slot may have been used by a removed half-edge.
+			pool.twin.set( this, -1 );
+		}
+	}
+
+	/**
+	 * Sets the ids of the next, previous and twin half-edges and of the face
+	 * of this half-edge as they are, without updating the twin. Used to
+	 * restore a mesh whose half-edges are all created before being linked.
+	 */
+	void initIds( final int next, final int previous, final int twin, final int face )
+	{
+		pool.next.setQuiet( this, next );
+		pool.previous.setQuiet( this, previous );
+		pool.twin.setQuiet( this, twin );
+		pool.face.setQuiet( this, face );
 	}
 
 	@Override
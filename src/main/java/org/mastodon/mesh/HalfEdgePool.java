@@ -2,8 +2,6 @@ package org.mastodon.mesh;
 
 import org.mastodon.graph.ref.AbstractEdgePool;
 import org.mastodon.pool.ByteMappedElement;
-import org.mastodon.pool.ByteMappedElementArray;
-import org.mastodon.pool.SingleArrayMemPool;
 import org.mastodon.pool.attributes.IntAttribute;
 
 public class HalfEdgePool extends AbstractEdgePool< HalfEdge, Vertex, ByteMappedElement >
@@ -23,7 +21,12 @@ public class HalfEdgePool extends AbstractEdgePool< HalfEdge, Vertex, ByteMapped
 
 	HalfEdgePool( final int initialCapacity, final VertexPool vertexPool )
 	{
-		super( initialCapacity, layout, HalfEdge.class, SingleArrayMemPool.factory( ByteMappedElementArray.factory ), vertexPool );
+		this( initialCapacity, vertexPool, PoolStorage.SINGLE_ARRAY );
+	}
+
+	HalfEdgePool( final int initialCapacity, final VertexPool vertexPool, final PoolStorage storage )
+	{
+		super( initialCapacity, layout, HalfEdge.class, storage.factory, vertexPool );
 		this.next = new IntAttribute<>( layout.next, this );
 		this.previous = new IntAttribute<>( layout.previous, this );
 		this.twin = new IntAttribute<>( layout.twin, this );
@@ -1,23 +1,32 @@
 package org.mastodon.mesh;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
 
-import org.mastodon.collection.IntRefMap;
 import org.mastodon.collection.RefCollections;
-import org.mastodon.collection.RefMaps;
 import org.mastodon.collection.RefSet;
 import org.mastodon.mesh.alg.MarchingCubesBooleanType;
+import org.mastodon.mesh.alg.MarchingCubesLabels;
 import org.mastodon.mesh.alg.MarchingCubesRealType;
 import org.mastodon.mesh.alg.MeshConnectedComponents;
+import org.mastodon.mesh.alg.MultiResolutionMarchingCubes;
 import org.mastodon.mesh.alg.RemoveDuplicateVertices;
 import org.mastodon.mesh.alg.SimplifyMesh;
+import org.mastodon.mesh.alg.SurfaceMeasure;
+import org.mastodon.mesh.alg.SurfaceNets;
+import org.mastodon.mesh.alg.TimeSeriesMarchingCubes;
+import org.mastodon.mesh.alg.TriangleSink;
 import org.mastodon.mesh.alg.TwoManifold;
 
 import net.imagej.mesh.Mesh;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.BooleanType;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 
 /**
@@ -56,7 +65,9 @@ public class Meshes
 	}
 
 	/**
-	 * Does not respect source indices.
+	 * Converts the specified mesh to a {@link TriMesh}. The vertices keep their
+	 * indices, but the triangles that would duplicate a half-edge of a
+	 * previous triangle are skipped.
 	 *
 	 * @param source
 	 *            the mesh to convert.
@@ -64,41 +75,25 @@ public class Meshes
 	 */
 	public static final TriMesh from( final Mesh source )
 	{
-		final TriMesh mesh = new TriMesh( ( int ) source.vertices().size() );
-
-		// Add vertices.
-		final IntRefMap< Vertex > map = RefMaps.createIntRefMap( mesh.vertices(), -1 );
-		final Vertex vref = mesh.vertexRef();
-		for ( int i = 0; i < source.vertices().size(); i++ )
+		final int nVertices = ( int ) source.vertices().size();
+		final float[] positions = new float[ 3 * nVertices ];
+		for ( int i = 0; i < nVertices; i++ )
 		{
-			final Vertex v = mesh.addVertex( vref );
-			v.setPosition( source.vertices().xf( i ), 0 );
-			v.setPosition( source.vertices().yf( i ), 1 );
-			v.setPosition( source.vertices().zf( i ), 2 );
-			map.put( i, v );
+			positions[ 3 * i ] = source.vertices().xf( i );
+			positions[ 3 * i + 1 ] = source.vertices().yf( i );
+			positions[ 3 * i + 2 ] = source.vertices().zf( i );
 		}
-		mesh.releaseRef( vref );
-
-		// Add triangles and half-edges.
-		final TriangleAdder adder = mesh.triangleAdder();
-		final Triangle tref = mesh.triangleRef();
-		final Vertex vref0 = mesh.vertexRef();
-		final Vertex vref1 = mesh.vertexRef();
-		final Vertex vref2 = mesh.vertexRef();
-		for ( int i = 0; i < source.triangles().size(); i++ )
+
+		final int nTriangles = ( int ) source.triangles().size();
+		final int[] triangles = new int[ 3 * nTriangles ];
+		for ( int i = 0; i < nTriangles; i++ )
 		{
-			final Vertex v0 = map.get( ( int ) source.triangles().vertex0( i ), vref0 );
-			final Vertex v1 = map.get( ( int ) source.triangles().vertex1( i ), vref1 );
-			final Vertex v2 = map.get( ( int ) source.triangles().vertex2( i ), vref2 );
-			adder.add( v0, v1, v2, tref );
+			triangles[ 3 * i ] = ( int ) source.triangles().vertex0( i );
+			triangles[ 3 * i + 1 ] = ( int ) source.triangles().vertex1( i );
+			triangles[ 3 * i + 2 ] = ( int ) source.triangles().vertex2( i );
 		}
-		mesh.releaseRef( vref0 );
-		mesh.releaseRef( vref1 );
-		mesh.releaseRef( vref2 );
-		mesh.releaseRef( tref );
-		adder.releaseRefs();
 
-		return mesh;
+		return TriMeshBuilder.build( positions, triangles );
 	}
 
 	public static RealPoint center( final TriMesh mesh )
@@ -143,6 +138,314 @@ public class Meshes
 		return MarchingCubesRealType.calculate( source, isoLevel );
 	}
 
+	/**
+	 * Creates meshes at several iso-levels by using the marching cubes
+	 * algorithm, reading the source once.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevels
+	 *            The thresholds to distinguish between foreground and
+	 *            background values.
+	 * @return The result meshes, one per iso-level.
+	 */
+	public static < T extends RealType< T > > List< TriMesh > marchingCubes( final RandomAccessibleInterval< T > source, final double[] isoLevels )
+	{
+		return MarchingCubesRealType.calculate( source, isoLevels );
+	}
+
+	/**
+	 * Creates indexed meshes at several iso-levels by using the marching
+	 * cubes algorithm, reading the source once.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevels
+	 *            The thresholds to distinguish between foreground and
+	 *            background values.
+	 * @return The result meshes, one per iso-level.
+	 */
+	public static < T extends RealType< T > > List< TriMesh > marchingCubesIndexed( final RandomAccessibleInterval< T > source, final double[] isoLevels )
+	{
+		return MarchingCubesRealType.calculateIndexed( source, isoLevels );
+	}
+
+	/**
+	 * Runs the marching cubes algorithm and sends the triangles to a sink,
+	 * without building a mesh.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevel
+	 *            The threshold to distinguish between foreground and background
+	 *            values.
+	 * @param sink
+	 *            The sink that receives the triangles, in voxel coordinates.
+	 */
+	public static < T extends RealType< T > > void marchingCubes( final RandomAccessibleInterval< T > source, final double isoLevel, final TriangleSink sink )
+	{
+		MarchingCubesRealType.calculate( source, isoLevel, sink );
+	}
+
+	/**
+	 * Creates mesh e.g. from IterableRegion by using the marching cubes
+	 * algorithm, processing slabs of the source in parallel.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevel
+	 *            The threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            The number of threads to use.
+	 * @return The result mesh of the marching cubes algorithm.
+	 */
+	public static < T extends RealType< T > > TriMesh marchingCubes( final RandomAccessibleInterval< T > source, final double isoLevel, final int nThreads )
+	{
+		return MarchingCubesRealType.calculate( source, isoLevel, nThreads );
+	}
+
+	/**
+	 * Creates an indexed mesh from a binary image by using the marching cubes
+	 * algorithm. Vertices are shared by adjacent triangles, so the mesh does
+	 * not need to be processed with
+	 * {@link #removeDuplicateVertices(TriMesh, int)}.
+	 *
+	 * @param source
+	 *            The binary input image for the marching cubes algorithm.
+	 * @return The result mesh of the marching cubes algorithm.
+	 */
+	public static < T extends BooleanType< T > > TriMesh marchingCubesIndexed( final RandomAccessibleInterval< T > source )
+	{
+		return MarchingCubesBooleanType.calculateIndexed( source );
+	}
+
+	/**
+	 * Creates an indexed mesh from an image by using the marching cubes
+	 * algorithm. Vertices are shared by adjacent triangles, so the mesh does
+	 * not need to be processed with
+	 * {@link #removeDuplicateVertices(TriMesh, int)}.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevel
+	 *            The threshold to distinguish between foreground and background
+	 *            values.
+	 * @return The result mesh of the marching cubes algorithm.
+	 */
+	public static < T extends RealType< T > > TriMesh marchingCubesIndexed( final RandomAccessibleInterval< T > source, final double isoLevel )
+	{
+		return MarchingCubesRealType.calculateIndexed( source, isoLevel );
+	}
+
+	/**
+	 * Creates an indexed mesh by using the marching cubes algorithm,
+	 * optionally with smooth vertex normals computed from the image gradient.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevel
+	 *            The threshold to distinguish between foreground and background
+	 *            values.
+	 * @param vertexNormals
+	 *            Whether to compute the vertex normals.
+	 * @return The result mesh of the marching cubes algorithm.
+	 */
+	public static < T extends RealType< T > > TriMesh marchingCubesIndexed( final RandomAccessibleInterval< T > source, final double isoLevel, final boolean vertexNormals )
+	{
+		return MarchingCubesRealType.calculateIndexed( source, isoLevel, vertexNormals );
+	}
+
+	/**
+	 * Creates an indexed mesh from a binary image by using the marching cubes
+	 * algorithm, with the vertices in physical coordinates. The triangle
+	 * normals are computed in physical space, so the mesh does not need to be
+	 * scaled with {@link #scale(TriMesh, double[])}.
+	 *
+	 * @param source
+	 *            The binary image.
+	 * @param transform
+	 *            The transform from voxel coordinates to physical coordinates.
+	 * @return A new mesh.
+	 */
+	public static < T extends BooleanType< T > > TriMesh marchingCubesIndexed( final RandomAccessibleInterval< T > source, final AffineTransform3D transform )
+	{
+		return MarchingCubesBooleanType.calculateIndexed( source, transform );
+	}
+
+	/**
+	 * Creates an indexed mesh from an image by using the marching cubes
+	 * algorithm, with the vertices in physical coordinates. The triangle
+	 * normals are computed in physical space, so the mesh does not need to be
+	 * scaled with {@link #scale(TriMesh, double[])}.
+	 *
+	 * @param source
+	 *            The image.
+	 * @param isoLevel
+	 *            The iso-level.
+	 * @param transform
+	 *            The transform from voxel coordinates to physical coordinates.
+	 * @return A new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh marchingCubesIndexed( final RandomAccessibleInterval< T > source, final double isoLevel, final AffineTransform3D transform )
+	{
+		return MarchingCubesRealType.calculateIndexed( source, isoLevel, transform );
+	}
+
+	/**
+	 * Returns the transform from voxel coordinates to physical coordinates for
+	 * the specified voxel sizes, to be used with the calibrated marching cubes
+	 * methods.
+	 *
+	 * @param voxelSizes
+	 *            The size of a voxel along X, Y and Z.
+	 * @return A new transform.
+	 */
+	public static AffineTransform3D calibration( final double... voxelSizes )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.set(
+				voxelSizes[ 0 ], 0, 0, 0,
+				0, voxelSizes[ 1 ], 0, 0,
+				0, 0, voxelSizes[ 2 ], 0 );
+		return transform;
+	}
+
+	/**
+	 * Creates an indexed mesh from an image by using the marching cubes
+	 * algorithm, processing slabs of the source in parallel.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevel
+	 *            The threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            The number of threads to use.
+	 * @return The result mesh of the marching cubes algorithm.
+	 */
+	public static < T extends RealType< T > > TriMesh marchingCubesIndexed( final RandomAccessibleInterval< T > source, final double isoLevel, final int nThreads )
+	{
+		return MarchingCubesRealType.calculateIndexed( source, isoLevel, nThreads );
+	}
+
+	/**
+	 * Creates the indexed meshes of all the labels of a label image by using
+	 * the marching cubes algorithm, in a single pass over the image. Label 0 is
+	 * the background.
+	 *
+	 * @param source
+	 *            The label image.
+	 * @return A map from label to the mesh of the voxels with this label.
+	 */
+	public static < T extends IntegerType< T > > Map< Long, TriMesh > marchingCubesLabels( final RandomAccessibleInterval< T > source )
+	{
+		return MarchingCubesLabels.calculate( source );
+	}
+
+	/**
+	 * Creates the indexed meshes of all the timepoints of a 4D (XYZT) binary
+	 * image by using the marching cubes algorithm, meshing several timepoints
+	 * in parallel. Each mesh is passed to the consumer as soon as it is built.
+	 *
+	 * @param source
+	 *            The 4D binary image.
+	 * @param nThreads
+	 *            The number of timepoints meshed in parallel.
+	 * @param consumer
+	 *            The consumer of the meshes and their timepoint.
+	 */
+	public static < T extends BooleanType< T > > void marchingCubesTimeSeries( final RandomAccessibleInterval< T > source, final int nThreads, final ObjLongConsumer< TriMesh > consumer )
+	{
+		TimeSeriesMarchingCubes.calculate( source, nThreads, consumer );
+	}
+
+	/**
+	 * Creates the indexed meshes of all the timepoints of a 4D (XYZT) image by
+	 * using the marching cubes algorithm, meshing several timepoints in
+	 * parallel. Each mesh is passed to the consumer as soon as it is built.
+	 *
+	 * @param source
+	 *            The 4D image.
+	 * @param isoLevel
+	 *            The iso-level.
+	 * @param nThreads
+	 *            The number of timepoints meshed in parallel.
+	 * @param consumer
+	 *            The consumer of the meshes and their timepoint.
+	 */
+	public static < T extends RealType< T > > void marchingCubesTimeSeries( final RandomAccessibleInterval< T > source, final double isoLevel, final int nThreads, final ObjLongConsumer< TriMesh > consumer )
+	{
+		TimeSeriesMarchingCubes.calculate( source, isoLevel, nThreads, consumer );
+	}
+
+	/**
+	 * Creates the indexed meshes of a multi-resolution pyramid of an image by
+	 * using the marching cubes algorithm. Each level is downsampled by 2 from
+	 * the previous one, and all the meshes are in the coordinates of the
+	 * image.
+	 *
+	 * @param source
+	 *            The image.
+	 * @param isoLevel
+	 *            The iso-level.
+	 * @param nLevels
+	 *            The number of levels, including the full resolution.
+	 * @return The meshes, from the full resolution to the coarsest level.
+	 */
+	public static < T extends RealType< T > > List< TriMesh > marchingCubesPyramid( final RandomAccessibleInterval< T > source, final double isoLevel, final int nLevels )
+	{
+		return MultiResolutionMarchingCubes.calculate( source, isoLevel, nLevels );
+	}
+
+	/**
+	 * Creates an indexed mesh from an image by using the surface nets
+	 * algorithm, that places one vertex per voxel cube crossed by the surface.
+	 * The mesh typically has about half the triangles of the marching cubes
+	 * mesh, and better-shaped ones. It has holes where the surface touches
+	 * itself by a voxel edge, see {@link SurfaceNets}.
+	 *
+	 * @param source
+	 *            The image.
+	 * @param isoLevel
+	 *            The iso-level.
+	 * @return A new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh surfaceNets( final RandomAccessibleInterval< T > source, final double isoLevel )
+	{
+		return SurfaceNets.calculate( source, isoLevel );
+	}
+
+	/**
+	 * Measures the surface area and the enclosed volume of the marching cubes
+	 * surface of an image, without building a mesh.
+	 *
+	 * @param source
+	 *            The input image for the marching cubes algorithm.
+	 * @param isoLevel
+	 *            The threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            The number of threads to use.
+	 * @return The measure of the surface, in voxel units.
+	 */
+	public static < T extends RealType< T > > SurfaceMeasure measure( final RandomAccessibleInterval< T > source, final double isoLevel, final int nThreads )
+	{
+		return SurfaceMeasure.calculate( source, isoLevel, nThreads );
+	}
+
+	/**
+	 * Measures the surface area and the enclosed volume of a mesh.
+	 *
+	 * @param mesh
+	 *            The mesh to measure.
+	 * @return The measure of the mesh, in the units of the mesh.
+	 */
+	public static SurfaceMeasure measure( final TriMesh mesh )
+	{
+		return SurfaceMeasure.of( mesh );
+	}
+
 	/**
 	 * Creates a new mesh from a given mesh without any duplicate vertices.
 	 * Normals and uv coordinates will be ignored and not added to the output
@@ -0,0 +1,44 @@
+package org.mastodon.mesh;
+
+import org.mastodon.pool.ByteMappedElement;
+import org.mastodon.pool.ByteMappedElementArray;
+import org.mastodon.pool.MemPool;
+import org.mastodon.pool.MultiArrayMemPool;
+import org.mastodon.pool.SingleArrayMemPool;
+
+/**
+ * The storage of the vertex, half-edge and triangle pools of a
+ * {@link TriMesh}.
+ * <p>
+ * Both storages keep the pools on the Java heap, in <code>byte[]</code>
+ * arrays, so a mesh is still bounded by the maximal heap size. There is no
+ * off-heap storage, in direct buffers or memory-mapped files: the pools are
+ * typed on {@link ByteMappedElement}, that only maps <code>byte[]</code>
+ * arrays, and such a storage would need pools typed on another kind of mapped
+ * element. To persist a mesh and reopen it without parsing, use the TMSH
+ * format of {@link org.mastodon.mesh.io.TMSHMeshIO}.
+ */
+public enum PoolStorage
+{
+	/**
+	 * Each pool is stored in a single <code>byte[]</code> array. This is the
+	 * fastest storage, but a pool cannot exceed 2 GB. The half-edge pool, the
+	 * largest, reaches this limit at about 20 million triangles.
+	 */
+	SINGLE_ARRAY( SingleArrayMemPool.factory( ByteMappedElementArray.factory ) ),
+
+	/**
+	 * Each pool is stored in several <code>byte[]</code> arrays, so that its
+	 * size is only bounded by the heap. Growing a pool adds arrays instead of
+	 * copying the whole pool, at the cost of a slightly slower access to the
+	 * elements.
+	 */
+	MULTI_ARRAY( MultiArrayMemPool.factory( ByteMappedElementArray.factory ) );
+
+	final MemPool.Factory< ByteMappedElement > factory;
+
+	private PoolStorage( final MemPool.Factory< ByteMappedElement > factory )
+	{
+		this.factory = factory;
+	}
+}
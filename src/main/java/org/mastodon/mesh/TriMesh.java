@@ -4,11 +4,19 @@ import org.mastodon.graph.ref.GraphImp;
 import org.mastodon.pool.ByteMappedElement;
 import org.mastodon.pool.PoolCollectionWrapper;
 
+import gnu.trove.map.hash.TLongIntHashMap;
+
 public class TriMesh extends GraphImp< VertexPool, HalfEdgePool, Vertex, HalfEdge, ByteMappedElement >
 {
 
 	final TrianglePool trianglePool;
 
+	/**
+	 * Map of (source, target) vertex ids to half-edge id. <code>null</code>
+	 * if the edge index is disabled.
+	 */
+	private TLongIntHashMap edgeIndex;
+
 	public TriMesh()
 	{
 		this( 1000 );
@@ -26,11 +34,155 @@ public class TriMesh extends GraphImp< VertexPool, HalfEdgePool, Vertex, HalfEdg
 
 	public TriMesh( final int nVertices, final int nTriangles, final int nEdges )
 	{
-		super( new HalfEdgePool( nEdges, new VertexPool( nVertices ) ) );
-		trianglePool = new TrianglePool( nTriangles, vertexPool, this );
+		this( nVertices, nTriangles, nEdges, PoolStorage.SINGLE_ARRAY );
+	}
+
+	/**
+	 * Creates a new mesh with the specified pool storage. All the storages
+	 * keep the pools on the Java heap.
+	 *
+	 * @param nVertices
+	 *            the initial vertex capacity.
+	 * @param nTriangles
+	 *            the initial triangle capacity.
+	 * @param nEdges
+	 *            the initial half-edge capacity.
+	 * @param storage
+	 *            the storage of the vertex, half-edge and triangle pools.
+	 */
+	public TriMesh( final int nVertices, final int nTriangles, final int nEdges, final PoolStorage storage )
+	{
+		this( nVertices, nTriangles, nEdges, VertexPool.layout, storage );
+	}
+
+	/**
+	 * Creates a new mesh with the specified vertex layout and pool storage.
+	 * The layout sets the precision of the vertex positions and whether the
+	 * vertices store a normal, see {@link VertexPool#normalLayout}.
+	 *
+	 * @param nVertices
+	 *            the initial vertex capacity.
+	 * @param nTriangles
+	 *            the initial triangle capacity.
+	 * @param nEdges
+	 *            the initial half-edge capacity.
+	 * @param layout
+	 *            the layout of the vertices.
+	 * @param storage
+	 *            the storage of the vertex, half-edge and triangle pools.
+	 */
+	public TriMesh( final int nVertices, final int nTriangles, final int nEdges, final VertexPool.VertexLayout layout, final PoolStorage storage )
+	{
+		this( new VertexPool( nVertices, layout, storage ), nTriangles, nEdges );
+	}
+
+	private TriMesh( final VertexPool vertexPool, final int nTriangles, final int nEdges )
+	{
+		super( new HalfEdgePool( nEdges, vertexPool, vertexPool.storage ) );
+		trianglePool = new TrianglePool( nTriangles, vertexPool, this, vertexPool.storage );
 		edgePool.setLinkedFacePool( trianglePool );
 	}
 
+	/**
+	 * Creates a new mesh that stores the vertex positions in single
+	 * precision. The vertices take 12 bytes less each than with the default
+	 * double precision, and positions set with <code>double</code>s are
+	 * rounded to the nearest <code>float</code>. Apart from this, the mesh
+	 * behaves as a mesh created with the constructors.
+	 *
+	 * @param nVertices
+	 *            the initial vertex capacity.
+	 * @param nTriangles
+	 *            the initial triangle capacity.
+	 * @return a new mesh.
+	 */
+	public static TriMesh singlePrecision( final int nVertices, final int nTriangles )
+	{
+		return singlePrecision( nVertices, nTriangles, 3 * nTriangles );
+	}
+
+	/**
+	 * Creates a new mesh that stores the vertex positions in single
+	 * precision.
+	 *
+	 * @param nVertices
+	 *            the initial vertex capacity.
+	 * @param nTriangles
+	 *            the initial triangle capacity.
+	 * @param nEdges
+	 *            the initial half-edge capacity.
+	 * @return a new mesh.
+	 * @see #singlePrecision(int, int)
+	 */
+	public static TriMesh singlePrecision( final int nVertices, final int nTriangles, final int nEdges )
+	{
+		return singlePrecision( nVertices, nTriangles, nEdges, PoolStorage.SINGLE_ARRAY );
+	}
+
+	/**
+	 * Creates a new mesh that stores the vertex positions in single
+	 * precision, with the specified pool storage.
+	 *
+	 * @param nVertices
+	 *            the initial vertex capacity.
+	 * @param nTriangles
+	 *            the initial triangle capacity.
+	 * @param nEdges
+	 *            the initial half-edge capacity.
+	 * @param storage
+	 *            the storage of the vertex, half-edge and triangle pools.
+	 * @return a new mesh.
+	 * @see #singlePrecision(int, int)
+	 */
+	public static TriMesh singlePrecision( final int nVertices, final int nTriangles, final int nEdges, final PoolStorage storage )
+	{
+		return new TriMesh( nVertices, nTriangles, nEdges, VertexPool.singlePrecisionLayout, storage );
+	}
+
+	/**
+	 * Returns whether the vertex positions of this mesh are stored in single
+	 * precision.
+	 *
+	 * @return <code>true</code> if this mesh was created with
+	 *         {@link #singlePrecision(int, int, int)}.
+	 */
+	public boolean isSinglePrecision()
+	{
+		return vertexPool.isSinglePrecision();
+	}
+
+	/**
+	 * Returns whether the vertices of this mesh store a normal. Only meshes
+	 * created with a layout with normals do, such as
+	 * {@link VertexPool#normalLayout}.
+	 *
+	 * @return <code>true</code> if this mesh has vertex normals.
+	 */
+	public boolean hasVertexNormals()
+	{
+		return vertexPool.hasNormals();
+	}
+
+	/**
+	 * Returns the layout of the vertices of this mesh.
+	 *
+	 * @return the vertex layout.
+	 */
+	public VertexPool.VertexLayout getVertexLayout()
+	{
+		return vertexPool.vertexLayout;
+	}
+
+	/**
+	 * Returns the storage of the pools of this mesh.
+	 *
+	 * @return the pool storage.
+	 */
+	public PoolStorage getPoolStorage()
+	{
+		return vertexPool.storage;
+	}
+
 	public PoolCollectionWrapper< Triangle > triangles()
 	{
 		return trianglePool.asRefCollection();
@@ -41,6 +193,130 @@ public class TriMesh extends GraphImp< VertexPool, HalfEdgePool, Vertex, HalfEdg
 		return new TriangleAdder( this );
 	}
 
+	/**
+	 * Enables or disables the edge index of this mesh.
+	 * <p>
+	 * When enabled, this mesh maintains a hash map from the source and target
+	 * vertices of its half-edges to their id, updated when half-edges are
+	 * added with {@link #addEdge(Vertex, Vertex, HalfEdge)} or removed. The
+	 * {@link TriangleAdder} then checks whether a half-edge exists and looks
+	 * up its twin in constant time, instead of walking the edge list of the
+	 * source vertex. This is worth it for meshes with high-valence vertices,
+	 * at the cost of about 16 bytes per half-edge. The index is disabled by
+	 * default.
+	 *
+	 * @param enabled
+	 *            whether to enable the edge index. If <code>true</code> and
+	 *            the index is disabled, it is built from the current
+	 *            half-edges.
+	 */
+	public void setEdgeIndexEnabled( final boolean enabled )
+	{
+		if ( !enabled )
+		{
+			edgeIndex = null;
+			return;
+		}
+		if ( edgeIndex != null )
+			return;
+
+		edgeIndex = new TLongIntHashMap( Math.max( 16, edgePool.size() ), 0.5f, -1L, -1 );
+		for ( final HalfEdge edge : edges() )
+			edgeIndex.put( edgeKey( edge ), edge.getInternalPoolIndex() );
+	}
+
+	/**
+	 * Returns whether the edge index of this mesh is enabled.
+	 *
+	 * @return <code>true</code> if the edge index is enabled.
+	 * @see #setEdgeIndexEnabled(boolean)
+	 */
+	public boolean isEdgeIndexEnabled()
+	{
+		return edgeIndex != null;
+	}
+
+	@Override
+	public HalfEdge addEdge( final Vertex source, final Vertex target )
+	{
+		return addEdge( source, target, edgeRef() );
+	}
+
+	@Override
+	public HalfEdge addEdge( final Vertex source, final Vertex target, final HalfEdge ref )
+	{
+		final HalfEdge edge = super.addEdge( source, target, ref );
+		if ( edgeIndex != null )
+			edgeIndex.put( edgeKey( source.getInternalPoolIndex(), target.getInternalPoolIndex() ), edge.getInternalPoolIndex() );
+		return edge;
+	}
+
+	@Override
+	public void remove( final HalfEdge edge )
+	{
+		if ( edgeIndex != null )
+			edgeIndex.remove( edgeKey( edge ) );
+		super.remove( edge );
+	}
+
+	@Override
+	public void remove( final Vertex vertex )
+	{
+		unindexEdges( vertex );
+		super.remove( vertex );
+	}
+
+	@Override
+	public void removeAllLinkedEdges( final Vertex vertex )
+	{
+		unindexEdges( vertex );
+		super.removeAllLinkedEdges( vertex );
+	}
+
+	private void unindexEdges( final Vertex vertex )
+	{
+		if ( edgeIndex == null )
+			return;
+		for ( final HalfEdge edge : vertex.edges() )
+			edgeIndex.remove( edgeKey( edge ) );
+	}
+
+	/**
+	 * Returns the half-edge from the specified source to the specified target,
+	 * using the edge index if it is enabled.
+	 *
+	 * @param source
+	 *            the source vertex.
+	 * @param target
+	 *            the target vertex.
+	 * @param ref
+	 *            a half-edge reference.
+	 * @return the half-edge, or <code>null</code> if it does not exist.
+	 */
+	HalfEdge findEdge( final Vertex source, final Vertex target, final HalfEdge ref )
+	{
+		if ( edgeIndex == null )
+			return getEdge( source, target, ref );
+		final int id = edgeIndex.get( edgeKey( source.getInternalPoolIndex(), target.getInternalPoolIndex() ) );
+		if ( id < 0 )
+			return null;
+		return edgePool.getObject( id, ref );
+	}
+
+	/**
+	 * Returns the key of the half-edge from the specified source vertex to the
+	 * specified target vertex.
+	 */
+	static long edgeKey( final int source, final int target )
+	{
+		return ( ( long ) source << 32 ) | ( target & 0xffffffffL );
+	}
+
+	private static long edgeKey( final HalfEdge edge )
+	{
+		return edgeKey( edge.getSourceVertexInternalPoolIndex(), edge.getTargetVertexInternalPoolIndex() );
+	}
+
 	@Override
 	public String toString()
 	{
@@ -48,6 +324,44 @@ public class TriMesh extends GraphImp< VertexPool, HalfEdgePool, Vertex, HalfEdg
 				vertexPool.size(), edgePool.size(), trianglePool.size() );
 	}
 
+	/**
+	 * Removes the specified triangle and its three half-edges from this mesh.
+	 * The half-edges that were the twins of the removed ones are left without
+	 * twin. The vertices of the triangle are not removed, even if no other
+	 * triangle uses them.
+	 *
+	 * @param triangle
+	 *            the triangle to remove.
+	 */
+	public void remove( final Triangle triangle )
+	{
+		final Vertex v0 = vertexPool.getObject( triangle.v0(), vertexRef() );
+		final Vertex v1 = vertexPool.getObject( triangle.v1(), vertexRef() );
+		final Vertex v2 = vertexPool.getObject( triangle.v2(), vertexRef() );
+		final HalfEdge eref = edgeRef();
+		final HalfEdge tref = edgeRef();
+		removeHalfEdge( v0, v1, eref, tref );
+		removeHalfEdge( v1, v2, eref, tref );
+		removeHalfEdge( v2, v0, eref, tref );
+		releaseRef( v0 );
+		releaseRef( v1 );
+		releaseRef( v2 );
+		releaseRef( eref );
+		releaseRef( tref );
+		trianglePool.delete( triangle );
+	}
+
+	private void removeHalfEdge( final Vertex source, final Vertex target, final HalfEdge eref, final HalfEdge tref )
+	{
+		final HalfEdge edge = findEdge( source, target, eref );
+		if ( edge == null )
+			return;
+		final HalfEdge twin = edge.twin( tref );
+		if ( twin != null && edgePool.twin.get( twin ) == edge.getInternalPoolIndex() )
+			edgePool.twin.set( twin, -1 );
+		remove( edge );
+	}
+
 	public Triangle triangleRef()
 	{
 		return trianglePool.createRef();
@@ -0,0 +1,337 @@
+package org.mastodon.mesh;
+
+import java.util.function.IntToDoubleFunction;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.VertexPool.VertexLayout;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Builds a {@link TriMesh} in one pass from flat position and triangle index
+ * buffers.
+ * <p>
+ * The vertices are added in the order of the position buffer, so that vertex
+ * <code>i</code> of the mesh has the coordinates
+ * <code>3 * i, 3 * i + 1, 3 * i + 2</code> of the buffer, and the triangles in
+ * the order of the index buffer. The mesh is created with the exact capacity
+ * needed. The triangles are added with the same rules as with
+ * {@link TriangleAdder#add(Vertex, Vertex, Vertex, Triangle)}, but the
+ * half-edges already created are looked up in a hash map keyed by their
+ * source and target vertices, instead of being searched in the edge lists of
+ * the vertices. Checking that a triangle does not already exist and finding
+ * the twins of its half-edges takes constant time.
+ */
+public final class TriMeshBuilder
+{
+
+	private TriMeshBuilder()
+	{}
+
+	/**
+	 * Creates a mesh from the specified buffers.
+	 *
+	 * @param positions
+	 *            the vertex positions, as X, Y, Z triplets.
+	 * @param triangles
+	 *            the triangles, as triplets of vertex indices in
+	 *            counter-clockwise order.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the buffer lengths are not multiples of 3, if a triangle
+	 *             refers to a vertex that does not exist, or if a triangle has
+	 *             colinear vertices.
+	 */
+	public static TriMesh build( final double[] positions, final int[] triangles )
+	{
+		return build( positions.length, i -> positions[ i ], triangles, false );
+	}
+
+	/**
+	 * Creates a mesh from the specified buffers.
+	 *
+	 * @param positions
+	 *            the vertex positions, as X, Y, Z triplets.
+	 * @param triangles
+	 *            the triangles, as triplets of vertex indices in
+	 *            counter-clockwise order.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the buffer lengths are not multiples of 3, if a triangle
+	 *             refers to a vertex that does not exist, or if a triangle has
+	 *             colinear vertices.
+	 */
+	public static TriMesh build( final float[] positions, final int[] triangles )
+	{
+		return build( positions, triangles, false );
+	}
+
+	/**
+	 * Creates a mesh from the specified buffers, optionally storing the vertex
+	 * positions in single precision. As the positions are given as
+	 * <code>float</code>s, a single-precision mesh holds them exactly.
+	 *
+	 * @param positions
+	 *            the vertex positions, as X, Y, Z triplets.
+	 * @param triangles
+	 *            the triangles, as triplets of vertex indices in
+	 *            counter-clockwise order.
+	 * @param singlePrecision
+	 *            whether to create a mesh with
+	 *            {@link TriMesh#singlePrecision(int, int, int)}.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the buffer lengths are not multiples of 3, if a triangle
+	 *             refers to a vertex that does not exist, or if a triangle has
+	 *             colinear vertices.
+	 */
+	public static TriMesh build( final float[] positions, final int[] triangles, final boolean singlePrecision )
+	{
+		return build( positions.length, i -> positions[ i ], triangles, singlePrecision );
+	}
+
+	private static TriMesh build( final int nCoordinates, final IntToDoubleFunction positions, final int[] triangles, final boolean singlePrecision )
+	{
+		if ( nCoordinates % 3 != 0 )
+			throw new IllegalArgumentException( "The number of vertex coordinates must be a multiple of 3, got " + nCoordinates + "." );
+		if ( triangles.length % 3 != 0 )
+			throw new IllegalArgumentException( "The number of triangle indices must be a multiple of 3, got " + triangles.length + "." );
+
+		final int nVertices = nCoordinates / 3;
+		final int nTriangles = triangles.length / 3;
+		final int vCapacity = Math.max( 1, nVertices );
+		final int tCapacity = Math.max( 1, nTriangles );
+		final int eCapacity = Math.max( 1, triangles.length );
+		final TriMesh mesh = singlePrecision
+				? TriMesh.singlePrecision( vCapacity, tCapacity, eCapacity )
+				: new TriMesh( vCapacity, tCapacity, eCapacity );
+
+		// Add vertices.
+		final Vertex vref = mesh.vertexRef();
+		for ( int i = 0; i < nCoordinates; i += 3 )
+			mesh.addVertex( vref ).init( positions.applyAsDouble( i ), positions.applyAsDouble( i + 1 ), positions.applyAsDouble( i + 2 ) );
+		mesh.releaseRef( vref );
+
+		// Add triangles and half-edges.
+		final RefPool< Vertex > vertices = mesh.vertices().getRefPool();
+		final RefPool< HalfEdge > edges = mesh.edges().getRefPool();
+		final TrianglePool trianglePool = mesh.trianglePool;
+		final TLongIntHashMap edgeMap = new TLongIntHashMap( Math.max( 1, triangles.length ), 0.5f, -1L, -1 );
+		final Vertex v0 = mesh.vertexRef();
+		final Vertex v1 = mesh.vertexRef();
+		final Vertex v2 = mesh.vertexRef();
+		final HalfEdge eref1 = mesh.edgeRef();
+		final HalfEdge eref2 = mesh.edgeRef();
+		final HalfEdge eref3 = mesh.edgeRef();
+		final HalfEdge eref4 = mesh.edgeRef();
+		final Triangle tref = mesh.triangleRef();
+		for ( int t = 0; t < triangles.length; t += 3 )
+		{
+			final int a = triangles[ t ];
+			final int b = triangles[ t + 1 ];
+			final int c = triangles[ t + 2 ];
+			if ( a < 0 || a >= nVertices || b < 0 || b >= nVertices || c < 0 || c >= nVertices )
+				throw new IllegalArgumentException( "Triangle " + ( t / 3 ) + " refers to a vertex that does not exist: "
+						+ a + ", " + b + ", " + c + " with " + nVertices + " vertices." );
+
+			// Skip triangles that would duplicate a half-edge.
+			final long ab = TriMesh.edgeKey( a, b );
+			final long bc = TriMesh.edgeKey( b, c );
+			final long ca = TriMesh.edgeKey( c, a );
+			if ( edgeMap.containsKey( ab ) || edgeMap.containsKey( bc ) || edgeMap.containsKey( ca ) )
+				continue;
+
+			// Normal, computed in single precision as in the triangle adder.
+			final float ax = ( float ) positions.applyAsDouble( 3 * a );
+			final float ay = ( float ) positions.applyAsDouble( 3 * a + 1 );
+			final float az = ( float ) positions.applyAsDouble( 3 * a + 2 );
+			final float dx1 = ( float ) positions.applyAsDouble( 3 * b ) - ax;
+			final float dy1 = ( float ) positions.applyAsDouble( 3 * b + 1 ) - ay;
+			final float dz1 = ( float ) positions.applyAsDouble( 3 * b + 2 ) - az;
+			final float dx2 = ( float ) positions.applyAsDouble( 3 * c ) - ax;
+			final float dy2 = ( float ) positions.applyAsDouble( 3 * c + 1 ) - ay;
+			final float dz2 = ( float ) positions.applyAsDouble( 3 * c + 2 ) - az;
+			final float cx = dy1 * dz2 - dz1 * dy2;
+			final float cy = -dx1 * dz2 + dz1 * dx2;
+			final float cz = dx1 * dy2 - dy1 * dx2;
+			if ( cx == 0. && cy == 0. && cz == 0. )
+				throw new IllegalArgumentException( "Cannot create a face with colinear vertices." );
+			final float l = ( float ) Math.sqrt( cx * cx + cy * cy + cz * cz );
+
+			final Triangle triangle = trianglePool.create( tref );
+			trianglePool.vertex0.setQuiet( triangle, a );
+			trianglePool.vertex1.setQuiet( triangle, b );
+			trianglePool.vertex2.setQuiet( triangle, c );
+			trianglePool.normal.setQuiet( triangle, 0, cx / l );
+			trianglePool.normal.setQuiet( triangle, 1, cy / l );
+			trianglePool.normal.setQuiet( triangle, 2, cz / l );
+
+			vertices.getObject( a, v0 );
+			vertices.getObject( b, v1 );
+			vertices.getObject( c, v2 );
+			final HalfEdge eAB = mesh.addEdge( v0, v1, eref1 );
+			final HalfEdge eBC = mesh.addEdge( v1, v2, eref2 );
+			final HalfEdge eCA = mesh.addEdge( v2, v0, eref3 );
+			edgeMap.put( ab, eAB.getInternalPoolIndex() );
+			edgeMap.put( bc, eBC.getInternalPoolIndex() );
+			edgeMap.put( ca, eCA.getInternalPoolIndex() );
+
+			eAB.init( eBC, eCA, edges.getObjectIfExists( edgeMap.get( TriMesh.edgeKey( b, a ) ), eref4 ), triangle );
+			eBC.init( eCA, eAB, edges.getObjectIfExists( edgeMap.get( TriMesh.edgeKey( c, b ) ), eref4 ), triangle );
+			eCA.init( eAB, eBC, edges.getObjectIfExists( edgeMap.get( TriMesh.edgeKey( a, c ) ), eref4 ), triangle );
+		}
+		mesh.releaseRef( v0 );
+		mesh.releaseRef( v1 );
+		mesh.releaseRef( v2 );
+		mesh.releaseRef( eref1 );
+		mesh.releaseRef( eref2 );
+		mesh.releaseRef( eref3 );
+		mesh.releaseRef( eref4 );
+		mesh.releaseRef( tref );
+		return mesh;
+	}
+
+	/**
+	 * Restores a mesh from the content of its pools, as written by
+	 * {@link org.mastodon.mesh.io.TMSHMeshIO}. Unlike the
+	 * <code>build()</code> methods, the half-edges are not computed from the
+	 * triangles but created as specified, so the topology of the mesh,
+	 * including the twins, is restored as it was. The vertices, triangles and
+	 * half-edges of the new mesh have the index they have in the buffers.
+	 * <p>
+	 * The buffer lengths and all the indices are checked against the numbers
+	 * of vertices, triangles and half-edges, but the topology is not: the
+	 * half-edges must describe a valid mesh.
+	 *
+	 * @param positions
+	 *            the vertex positions, as X, Y, Z triplets.
+	 * @param vertexNormals
+	 *            the vertex normals, as X, Y, Z triplets, or
+	 *            <code>null</code> for a mesh without vertex normals.
+	 * @param triangles
+	 *            the triangles, as triplets of vertex indices.
+	 * @param triangleNormals
+	 *            the triangle normals, as X, Y, Z triplets.
+	 * @param edges
+	 *            the half-edges, as the indices of their source vertex,
+	 *            target vertex, next half-edge, previous half-edge, twin
+	 *            half-edge or -1, and triangle.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the buffer lengths do not match, or if an index is out of
+	 *             range.
+	 */
+	public static TriMesh restore( final double[] positions, final float[] vertexNormals, final int[] triangles, final float[] triangleNormals, final int[] edges )
+	{
+		return restore( positions.length, i -> positions[ i ], vertexNormals, triangles, triangleNormals, edges, false );
+	}
+
+	/**
+	 * Restores a single-precision mesh from the content of its pools.
+	 *
+	 * @param positions
+	 *            the vertex positions, as X, Y, Z triplets.
+	 * @param vertexNormals
+	 *            the vertex normals, as X, Y, Z triplets, or
+	 *            <code>null</code> for a mesh without vertex normals.
+	 * @param triangles
+	 *            the triangles, as triplets of vertex indices.
+	 * @param triangleNormals
+	 *            the triangle normals, as X, Y, Z triplets.
+	 * @param edges
+	 *            the half-edges, as the indices of their source vertex,
+	 *            target vertex, next half-edge, previous half-edge, twin
+	 *            half-edge or -1, and triangle.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the buffer lengths do not match, or if an index is out of
+	 *             range.
+	 * @see #restore(double[], float[], int[], float[], int[])
+	 */
+	public static TriMesh restore( final float[] positions, final float[] vertexNormals, final int[] triangles, final float[] triangleNormals, final int[] edges )
+	{
+		return restore( positions.length, i -> positions[ i ], vertexNormals, triangles, triangleNormals, edges, true );
+	}
+
+	private static TriMesh restore( final int nCoordinates, final IntToDoubleFunction positions, final float[] vertexNormals, final int[] triangles, final float[] triangleNormals, final int[] edges, final boolean singlePrecision )
+	{
+		if ( nCoordinates % 3 != 0 )
+			throw new IllegalArgumentException( "The number of vertex coordinates must be a multiple of 3, got " + nCoordinates + "." );
+		if ( triangles.length % 3 != 0 )
+			throw new IllegalArgumentException( "The number of triangle indices must be a multiple of 3, got " + triangles.length + "." );
+		if ( edges.length % 6 != 0 )
+			throw new IllegalArgumentException( "The number of half-edge indices must be a multiple of 6, got " + edges.length + "." );
+		if ( vertexNormals != null && vertexNormals.length != nCoordinates )
+			throw new IllegalArgumentException( "Expected " + nCoordinates + " vertex normal coordinates, got " + vertexNormals.length + "." );
+		if ( triangleNormals.length != triangles.length )
+			throw new IllegalArgumentException( "Expected " + triangles.length + " triangle normal coordinates, got " + triangleNormals.length + "." );
+
+		final int nVertices = nCoordinates / 3;
+		final int nTriangles = triangles.length / 3;
+		final int nEdges = edges.length / 6;
+		for ( int i = 0; i < triangles.length; i++ )
+			checkIndex( triangles[ i ], nVertices, "Triangle " + ( i / 3 ), "vertex" );
+		for ( int i = 0; i < edges.length; i += 6 )
+		{
+			final String edge = "Half-edge " + ( i / 6 );
+			checkIndex( edges[ i ], nVertices, edge, "source vertex" );
+			checkIndex( edges[ i + 1 ], nVertices, edge, "target vertex" );
+			checkIndex( edges[ i + 2 ], nEdges, edge, "next half-edge" );
+			checkIndex( edges[ i + 3 ], nEdges, edge, "previous half-edge" );
+			if ( edges[ i + 4 ] != -1 )
+				checkIndex( edges[ i + 4 ], nEdges, edge, "twin half-edge" );
+			checkIndex( edges[ i + 5 ], nTriangles, edge, "triangle" );
+		}
+
+		final VertexLayout layout = ( vertexNormals == null )
+				? ( singlePrecision ? VertexPool.singlePrecisionLayout : VertexPool.layout )
+				: ( singlePrecision ? VertexPool.singlePrecisionNormalLayout : VertexPool.normalLayout );
+		final TriMesh mesh = new TriMesh( Math.max( 1, nVertices ), Math.max( 1, nTriangles ), Math.max( 1, nEdges ), layout, PoolStorage.SINGLE_ARRAY );
+
+		// Vertices.
+		final Vertex vref = mesh.vertexRef();
+		for ( int i = 0; i < nCoordinates; i += 3 )
+		{
+			final Vertex v = mesh.addVertex( vref )
+					.init( positions.applyAsDouble( i ), positions.applyAsDouble( i + 1 ), positions.applyAsDouble( i + 2 ) );
+			if ( vertexNormals != null )
+				v.setNormal( vertexNormals[ i ], vertexNormals[ i + 1 ], vertexNormals[ i + 2 ] );
+		}
+
+		// Triangles.
+		final TrianglePool trianglePool = mesh.trianglePool;
+		final Triangle tref = mesh.triangleRef();
+		for ( int i = 0; i < triangles.length; i += 3 )
+		{
+			final Triangle triangle = trianglePool.create( tref );
+			trianglePool.vertex0.setQuiet( triangle, triangles[ i ] );
+			trianglePool.vertex1.setQuiet( triangle, triangles[ i + 1 ] );
+			trianglePool.vertex2.setQuiet( triangle, triangles[ i + 2 ] );
+			trianglePool.normal.setQuiet( triangle, 0, triangleNormals[ i ] );
+			trianglePool.normal.setQuiet( triangle, 1, triangleNormals[ i + 1 ] );
+			trianglePool.normal.setQuiet( triangle, 2, triangleNormals[ i + 2 ] );
+		}
+		mesh.releaseRef( tref );
+
+		// Half-edges, linked by id as they may refer to the next ones.
+		final RefPool< Vertex > vertices = mesh.vertices().getRefPool();
+		final Vertex source = mesh.vertexRef();
+		final HalfEdge eref = mesh.edgeRef();
+		for ( int i = 0; i < edges.length; i += 6 )
+		{
+			vertices.getObject( edges[ i + 1 ], vref );
+			mesh.addEdge( vertices.getObject( edges[ i ], source ), vref, eref )
+					.initIds( edges[ i + 2 ], edges[ i + 3 ], edges[ i + 4 ], edges[ i + 5 ] );
+		}
+		mesh.releaseRef( source );
+		mesh.releaseRef( vref );
+		mesh.releaseRef( eref );
+		return mesh;
+	}
+
+	private static void checkIndex( final int index, final int n, final String owner, final String what )
+	{
+		if ( index < 0 || index >= n )
+			throw new IllegalArgumentException( owner + " refers to a " + what + " that does not exist: " + index + " with " + n + "." );
+	}
+}
@@ -55,13 +55,13 @@ public class TriangleAdder
 			final Triangle ref )
 	{
 		// Sanity check.
-		final HalfEdge e1 = mesh.getEdge( v0, v1, eref1 );
+		final HalfEdge e1 = mesh.findEdge( v0, v1, eref1 );
 		if ( e1 != null )
 			return null;
-		final HalfEdge e2 = mesh.getEdge( v1, v2, eref2 );
+		final HalfEdge e2 = mesh.findEdge( v1, v2, eref2 );
 		if ( e2 != null )
 			return null;
-		final HalfEdge e3 = mesh.getEdge( v2, v0, eref3 );
+		final HalfEdge e3 = mesh.findEdge( v2, v0, eref3 );
 		if ( e3 != null )
 			return null;
 
@@ -100,13 +100,13 @@ public class TriangleAdder
 		final HalfEdge eBC = mesh.addEdge( v1, v2, eref2 );
 		final HalfEdge eCA = mesh.addEdge( v2, v0, eref3 );
 
-		final HalfEdge twinAB = mesh.getEdge( v1, v0, eref4 );
+		final HalfEdge twinAB = mesh.findEdge( v1, v0, eref4 );
 		eAB.init( eBC, eCA, twinAB, triangle );
 
-		final HalfEdge twinBC = mesh.getEdge( v2, v1, eref4 );
+		final HalfEdge twinBC = mesh.findEdge( v2, v1, eref4 );
 		eBC.init( eCA, eAB, twinBC, triangle );
 
-		final HalfEdge twinCA = mesh.getEdge( v0, v2, eref4 );
+		final HalfEdge twinCA = mesh.findEdge( v0, v2, eref4 );
 		eCA.init( eAB, eBC, twinCA, triangle );
 
 		return triangle;
@@ -138,9 +138,9 @@ public class TriangleAdder
 
 	public boolean exists( final Vertex v0, final Vertex v1, final Vertex v2 )
 	{
-		final boolean is01connected = ( null != mesh.getEdge( v0, v1, eref1 ) || ( null != mesh.getEdge( v1, v0, eref1 ) ) );
-		final boolean is12connected = ( null != mesh.getEdge( v1, v2, eref2 ) || ( null != mesh.getEdge( v2, v1, eref2 ) ) );
-		final boolean is20connected = ( null != mesh.getEdge( v2, v0, eref3 ) || ( null != mesh.getEdge( v0, v2, eref3 ) ) );
+		final boolean is01connected = ( null != mesh.findEdge( v0, v1, eref1 ) || ( null != mesh.findEdge( v1, v0, eref1 ) ) );
+		final boolean is12connected = ( null != mesh.findEdge( v1, v2, eref2 ) || ( null != mesh.findEdge( v2, v1, eref2 ) ) );
+		final boolean is20connected = ( null != mesh.findEdge( v2, v0, eref3 ) || ( null != mesh.findEdge( v0, v2, eref3 ) ) );
 		return is01connected && is12connected && is20connected;
 	}
 
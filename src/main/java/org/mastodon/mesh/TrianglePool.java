@@ -1,10 +1,8 @@
 package org.mastodon.mesh;
 
 import org.mastodon.pool.ByteMappedElement;
-import org.mastodon.pool.ByteMappedElementArray;
 import org.mastodon.pool.Pool;
 import org.mastodon.pool.PoolObjectLayout;
-import org.mastodon.pool.SingleArrayMemPool;
 import org.mastodon.pool.attributes.FloatArrayAttribute;
 import org.mastodon.pool.attributes.IntAttribute;
 
@@ -27,7 +25,12 @@ public class TrianglePool extends Pool< Triangle, ByteMappedElement >
 
 	TrianglePool( final int initialCapacity, final VertexPool vertexPool, final TriMesh mesh )
 	{
-		super( initialCapacity, layout, Triangle.class, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
+		this( initialCapacity, vertexPool, mesh, PoolStorage.SINGLE_ARRAY );
+	}
+
+	TrianglePool( final int initialCapacity, final VertexPool vertexPool, final TriMesh mesh, final PoolStorage storage )
+	{
+		super( initialCapacity, layout, Triangle.class, storage.factory );
 		this.vertexPool = vertexPool;
 		this.mesh = mesh;
 		this.vertex0 = new IntAttribute<>( layout.vertex0, this );
@@ -48,6 +51,16 @@ public class TrianglePool extends Pool< Triangle, ByteMappedElement >
 		return super.create( face );
 	}
 
+	/*
+	 * Overridden only to give access to the delete method to TriMesh, in the
+	 * same package, for TriMesh.remove( Triangle ).
+	 */
+	@Override
+	protected void delete( final Triangle face )
+	{
+		super.delete( face );
+	}
+
 	public static class FaceLayout extends PoolObjectLayout
 	{
 
@@ -14,7 +14,7 @@ public class Vertex extends AbstractVertex< Vertex, HalfEdge, VertexPool, ByteMa
 	Vertex( final VertexPool pool )
 	{
 		super( pool );
-		this.position = pool.position.createAttributeValue( this );
+		this.position = pool.createPositionValue( this );
 	}
 
 	@Override
@@ -49,7 +49,8 @@ public class Vertex extends AbstractVertex< Vertex, HalfEdge, VertexPool, ByteMa
 	}
 
 	/**
-	 * Sets the X,Y,Z position of this vertex.
+	 * Sets the X,Y,Z position of this vertex, and clears its normal if the
+	 * mesh has vertex normals.
 	 * 
 	 * @param x
 	 * @param y
@@ -60,6 +61,55 @@ public class Vertex extends AbstractVertex< Vertex, HalfEdge, VertexPool, ByteMa
 		position.setPosition( x, 0 );
 		position.setPosition( y, 1 );
 		position.setPosition( z, 2 );
+		if ( pool.normal != null )
+		{
+			pool.normal.setQuiet( this, 0, 0f );
+			pool.normal.setQuiet( this, 1, 0f );
+			pool.normal.setQuiet( this, 2, 0f );
+		}
 		return this;
 	}
+
+	/**
+	 * Copies the normal of this vertex in the specified array. The normal is
+	 * 0 if it was not set, or if the mesh has no vertex normals.
+	 *
+	 * @param normal
+	 *            the array to write the normal to.
+	 */
+	public void normal( final float[] normal )
+	{
+		if ( pool.normal == null )
+		{
+			normal[ 0 ] = 0f;
+			normal[ 1 ] = 0f;
+			normal[ 2 ] = 0f;
+			return;
+		}
+		normal[ 0 ] = pool.normal.get( this, 0 );
+		normal[ 1 ] = pool.normal.get( this, 1 );
+		normal[ 2 ] = pool.normal.get( this, 2 );
+	}
+
+	/**
+	 * Sets the normal of this vertex.
+	 *
+	 * @param nx
+	 *            the X component of the normal.
+	 * @param ny
+	 *            the Y component of the normal.
+	 * @param nz
+	 *            the Z component of the normal.
+	 * @throws IllegalStateException
+	 *             if the mesh has no vertex normals, see
+	 *             {@link TriMesh#hasVertexNormals()}.
+	 */
+	public void setNormal( final float nx, final float ny, final float nz )
+	{
+		if ( pool.normal == null )
+			throw new IllegalStateException( "The mesh has no vertex normals." );
+		pool.normal.setQuiet( this, 0, nx );
+		pool.normal.setQuiet( this, 1, ny );
+		pool.normal.setQuiet( this, 2, nz );
+	}
 }
@@ -2,21 +2,100 @@ package org.mastodon.mesh;
 
 import org.mastodon.graph.ref.AbstractVertexPool;
 import org.mastodon.pool.ByteMappedElement;
-import org.mastodon.pool.ByteMappedElementArray;
-import org.mastodon.pool.SingleArrayMemPool;
+import org.mastodon.pool.attributes.FloatArrayAttribute;
 import org.mastodon.pool.attributes.RealPointAttribute;
+import org.mastodon.pool.attributes.RealPointAttributeValue;
 
 public class VertexPool extends AbstractVertexPool< Vertex, HalfEdge, ByteMappedElement >
 {
 
 	public static final VertexLayout layout = new VertexLayout();
 
+	/**
+	 * Layout with the positions stored as <code>float</code>s: 24 bytes per
+	 * vertex instead of 36, plus the edge list of the vertex.
+	 */
+	public static final VertexLayout singlePrecisionLayout = new VertexLayout( true );
+
+	/**
+	 * Layout with a normal per vertex, stored as 3 <code>float</code>s: 12
+	 * bytes more per vertex than {@link #layout}.
+	 */
+	public static final VertexLayout normalLayout = new VertexLayout( false, true );
+
+	/**
+	 * Layout with the positions stored as <code>float</code>s and a normal per
+	 * vertex.
+	 */
+	public static final VertexLayout singlePrecisionNormalLayout = new VertexLayout( true, true );
+
+	/**
+	 * The double-precision positions, <code>null</code> with the
+	 * single-precision layout.
+	 */
 	final RealPointAttribute< Vertex > position;
 
+	/**
+	 * The single-precision positions, <code>null</code> with the
+	 * double-precision layout.
+	 */
+	final FloatArrayAttribute< Vertex > floatPosition;
+
+	/**
+	 * The vertex normals, <code>null</code> with the layouts without normals.
+	 */
+	final FloatArrayAttribute< Vertex > normal;
+
+	final VertexLayout vertexLayout;
+
+	final PoolStorage storage;
+
 	public VertexPool( final int initialCapacity )
 	{
-		super( initialCapacity, layout, Vertex.class, SingleArrayMemPool.factory( ByteMappedElementArray.factory ) );
-		this.position = new RealPointAttribute<>( layout.position, this );
+		this( initialCapacity, layout );
+	}
+
+	public VertexPool( final int initialCapacity, final VertexLayout layout )
+	{
+		this( initialCapacity, layout, PoolStorage.SINGLE_ARRAY );
+	}
+
+	public VertexPool( final int initialCapacity, final VertexLayout layout, final PoolStorage storage )
+	{
+		super( initialCapacity, layout, Vertex.class, storage.factory );
+		this.vertexLayout = layout;
+		this.storage = storage;
+		this.position = layout.position == null ? null : new RealPointAttribute<>( layout.position, this );
+		this.floatPosition = layout.floatPosition == null ? null : new FloatArrayAttribute<>( layout.floatPosition, this );
+		this.normal = layout.normal == null ? null : new FloatArrayAttribute<>( layout.normal, this );
+	}
+
+	/**
+	 * Returns whether the vertex positions are stored in single precision.
+	 *
+	 * @return <code>true</code> if the positions are stored as
+	 *         <code>float</code>s.
+	 */
+	public boolean isSinglePrecision()
+	{
+		return floatPosition != null;
+	}
+
+	/**
+	 * Returns whether the vertices store a normal.
+	 *
+	 * @return <code>true</code> if the layout of this pool has vertex normals.
+	 */
+	public boolean hasNormals()
+	{
+		return normal != null;
+	}
+
+	RealPointAttributeValue createPositionValue( final Vertex vertex )
+	{
+		return position != null
+				? position.createAttributeValue( vertex )
+				: new FloatPointAttributeValue( floatPosition, vertex );
 	}
 
 	@Override
@@ -29,9 +108,62 @@ public class VertexPool extends AbstractVertexPool< Vertex, HalfEdge, ByteMapped
 	{
 		final DoubleArrayField position;
 
+		final FloatArrayField floatPosition;
+
+		final FloatArrayField normal;
+
 		public VertexLayout()
 		{
-			position = doubleArrayField( 3 );
+			this( false, false );
+		}
+
+		/**
+		 * Creates a vertex layout.
+		 *
+		 * @param singlePrecision
+		 *            whether to store the positions as <code>float</code>s
+		 *            instead of <code>double</code>s.
+		 */
+		public VertexLayout( final boolean singlePrecision )
+		{
+			this( singlePrecision, false );
+		}
+
+		/**
+		 * Creates a vertex layout.
+		 *
+		 * @param singlePrecision
+		 *            whether to store the positions as <code>float</code>s
+		 *            instead of <code>double</code>s.
+		 * @param normals
+		 *            whether to store a normal per vertex.
+		 */
+		public VertexLayout( final boolean singlePrecision, final boolean normals )
+		{
+			position = singlePrecision ? null : doubleArrayField( 3 );
+			floatPosition = singlePrecision ? floatArrayField( 3 ) : null;
+			normal = normals ? floatArrayField( 3 ) : null;
+		}
+
+		/**
+		 * Returns whether this layout stores the positions as
+		 * <code>float</code>s.
+		 *
+		 * @return <code>true</code> for single-precision positions.
+		 */
+		public boolean isSinglePrecision()
+		{
+			return floatPosition != null;
+		}
+
+		/**
+		 * Returns whether this layout stores a normal per vertex.
+		 *
+		 * @return <code>true</code> if the vertices have normals.
+		 */
+		public boolean hasNormals()
+		{
+			return normal != null;
 		}
 	}
 }
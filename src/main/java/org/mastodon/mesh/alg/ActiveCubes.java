@@ -0,0 +1,285 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.MarchingCubesRealType.EDGE_TABLE;
+
+import org.mastodon.mesh.PoolStorage;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.VertexPool;
+
+import gnu.trove.list.array.TLongArrayList;
+import net.imglib2.Interval;
+
+/**
+ * The cubes crossed by the surface in a range of layers of cubes, collected in
+ * a single pass of a {@link CubeIndexer} or a {@link BitCubeIndexer}, and
+ * counted so that the output mesh can be sized before it is built.
+ * <p>
+ * The cube indices are computed once, while the cubes are collected, and the
+ * mesh is then built from the collected cubes, without thresholding the input
+ * again. Only the corners of the collected cubes are read afterwards, to
+ * interpolate the vertex positions. The cubes are stored in raster order,
+ * each as its position in the padded plane and its cube index packed in a
+ * <code>long</code>, so they take 8 bytes per cube crossed by the surface, a
+ * small fraction of the memory of the mesh they produce.
+ * <p>
+ * The counts are upper bounds of the size of the mesh, not exact sizes:
+ * <ul>
+ * <li>the number of triangles is the maximal number of triangles of each
+ * cube, while the triangles with a zero area are not added to the mesh.
+ * <li>for an indexed mesh, the number of vertices is the number of voxel
+ * edges crossed by the surface, each shared by the triangles that touch it.
+ * For a triangle soup, it is three vertices per triangle.
+ * </ul>
+ */
+final class ActiveCubes
+{
+
+	/**
+	 * The edges that start at the lower corner of a cube: 2 along X, 3 along Z
+	 * and 11 along Y. Each voxel edge starts at the lower corner of exactly
+	 * one cube.
+	 */
+	static final int OWNED_EDGES = 0x80c;
+
+	/**
+	 * The edges that start at the corner <code>(0,0,1)</code> of a cube and
+	 * lie in its upper face: 0 along X and 8 along Y. They are the edges of
+	 * the plane shared with the next layer of cubes.
+	 */
+	static final int TOP_EDGES = 0x101;
+
+	private final int isx;
+
+	private final int minZ;
+
+	private final int maxZ;
+
+	/**
+	 * The cubes, as <code>(my * isx + mx) << 8 | mindex</code>.
+	 */
+	private final TLongArrayList cubes;
+
+	/**
+	 * Index of the first cube of each layer in the cube list, and the size of
+	 * the list at the end.
+	 */
+	private final int[] layers;
+
+	private long nTriangles;
+
+	private long nCrossed;
+
+	private ActiveCubes( final Interval input, final int minZ, final int maxZ )
+	{
+		this.isx = ( int ) input.dimension( 0 ) + 2;
+		this.minZ = minZ;
+		this.maxZ = maxZ;
+		this.cubes = new TLongArrayList();
+		this.layers = new int[ maxZ - minZ + 1 ];
+	}
+
+	/**
+	 * Collects the cubes crossed by the surface whose lower corner is in the
+	 * Z range <code>[minZ, maxZ)</code>, over the whole padded planes of the
+	 * input.
+	 *
+	 * @param input
+	 *            the input interval.
+	 * @param minZ
+	 *            the Z position of the first layer of cubes.
+	 * @param maxZ
+	 *            the Z position after the last layer of cubes.
+	 * @param indexer
+	 *            the cube indexer, freshly started at <code>minZ</code>.
+	 * @param triangles
+	 *            the maximal number of triangles for each cube index.
+	 * @return the crossed cubes.
+	 */
+	static ActiveCubes collect( final Interval input, final int minZ, final int maxZ, final CubeIndexer indexer, final int[] triangles )
+	{
+		final ActiveCubes active = new ActiveCubes( input, minZ, maxZ );
+		final int isx = active.isx;
+		final int isy = ( int ) input.dimension( 1 ) + 2;
+		for ( int z = minZ; z < maxZ; ++z )
+		{
+			active.layers[ z - minZ ] = active.cubes.size();
+			final byte[] indices = indexer.next();
+			final int owned = ( z == maxZ - 1 ) ? OWNED_EDGES | TOP_EDGES : OWNED_EDGES;
+			for ( int my = 0; my < isy - 1; ++my )
+			{
+				int i = my * isx;
+				for ( int mx = 0; mx < isx - 1; ++mx, ++i )
+				{
+					final int mindex = indices[ i ] & 0xff;
+					if ( mindex == 0 || mindex == 0xff )
+						continue;
+					active.add( i, mindex, triangles, owned );
+				}
+			}
+		}
+		active.layers[ maxZ - minZ ] = active.cubes.size();
+		return active;
+	}
+
+	/**
+	 * Collects the cubes of a mask crossed by the surface whose lower corner
+	 * is in the Z range <code>[minZ, maxZ)</code>, over the whole padded planes
+	 * of the input, jumping from one crossed cube to the next.
+	 *
+	 * @param input
+	 *            the input interval.
+	 * @param minZ
+	 *            the Z position of the first layer of cubes.
+	 * @param maxZ
+	 *            the Z position after the last layer of cubes.
+	 * @param indexer
+	 *            the bit-packed cube indexer, freshly started at
+	 *            <code>minZ</code>.
+	 * @param triangles
+	 *            the maximal number of triangles for each cube index.
+	 * @return the crossed cubes.
+	 */
+	static ActiveCubes collect( final Interval input, final int minZ, final int maxZ, final BitCubeIndexer indexer, final int[] triangles )
+	{
+		final ActiveCubes active = new ActiveCubes( input, minZ, maxZ );
+		final int isx = active.isx;
+		final int isy = ( int ) input.dimension( 1 ) + 2;
+		final int wordsPerRow = indexer.wordsPerRow();
+		for ( int z = minZ; z < maxZ; ++z )
+		{
+			active.layers[ z - minZ ] = active.cubes.size();
+			indexer.next();
+			final int owned = ( z == maxZ - 1 ) ? OWNED_EDGES | TOP_EDGES : OWNED_EDGES;
+			for ( int my = 0; my < isy - 1; ++my )
+			{
+				for ( int w = 0; w < wordsPerRow; ++w )
+				{
+					long crossed = indexer.crossed( my, w );
+					while ( crossed != 0 )
+					{
+						final int mx = ( w << 6 ) + Long.numberOfTrailingZeros( crossed );
+						crossed &= crossed - 1;
+						active.add( my * isx + mx, indexer.cubeIndex( mx, my ), triangles, owned );
+					}
+				}
+			}
+		}
+		active.layers[ maxZ - minZ ] = active.cubes.size();
+		return active;
+	}
+
+	private void add( final int i, final int mindex, final int[] triangles, final int owned )
+	{
+		cubes.add( ( ( long ) i << 8 ) | mindex );
+		nTriangles += triangles[ mindex ];
+		nCrossed += Integer.bitCount( EDGE_TABLE[ mindex ] & owned );
+	}
+
+	/**
+	 * Returns a new mesh with the capacity needed by the triangles of the
+	 * collected cubes. The capacities are upper bounds, see above.
+	 *
+	 * @param indexed
+	 *            whether vertices are shared between triangles. If not, the
+	 *            mesh is sized for three vertices per triangle.
+	 * @param normals
+	 *            whether the vertices store a normal.
+	 * @return a new mesh.
+	 */
+	TriMesh newMesh( final boolean indexed, final boolean normals )
+	{
+		return new TriMesh( capacity( vertices( indexed ) ), capacity( nTriangles ), capacity( 3 * nTriangles ),
+				normals ? VertexPool.normalLayout : VertexPool.layout, PoolStorage.SINGLE_ARRAY );
+	}
+
+	static int capacity( final long n )
+	{
+		return ( int ) Math.max( 1, Math.min( n, Integer.MAX_VALUE ) );
+	}
+
+	/**
+	 * Returns the number of collected cubes.
+	 */
+	int size()
+	{
+		return cubes.size();
+	}
+
+	/**
+	 * Returns the sum of the triangle counts of the collected cubes.
+	 */
+	long triangles()
+	{
+		return nTriangles;
+	}
+
+	/**
+	 * Returns the upper bound of the number of vertices of the mesh of the
+	 * collected cubes.
+	 *
+	 * @param indexed
+	 *            whether vertices are shared between triangles.
+	 */
+	long vertices( final boolean indexed )
+	{
+		return indexed ? nCrossed : 3 * nTriangles;
+	}
+
+	int minZ()
+	{
+		return minZ;
+	}
+
+	int maxZ()
+	{
+		return maxZ;
+	}
+
+	/**
+	 * Returns the index of the first cube of the specified layer.
+	 */
+	int start( final int z )
+	{
+		return layers[ z - minZ ];
+	}
+
+	/**
+	 * Returns the index after the last cube of the specified layer.
+	 */
+	int end( final int z )
+	{
+		return layers[ z - minZ + 1 ];
+	}
+
+	/**
+	 * Returns the index in the padded plane of the specified cube.
+	 */
+	int planeIndex( final int cube )
+	{
+		return ( int ) ( cubes.get( cube ) >>> 8 );
+	}
+
+	/**
+	 * Returns the X position in the padded plane of the specified cube.
+	 */
+	int mx( final int cube )
+	{
+		return planeIndex( cube ) % isx;
+	}
+
+	/**
+	 * Returns the Y position in the padded plane of the specified cube.
+	 */
+	int my( final int cube )
+	{
+		return planeIndex( cube ) / isx;
+	}
+
+	/**
+	 * Returns the cube index of the specified cube.
+	 */
+	int cubeIndex( final int cube )
+	{
+		return ( int ) cubes.get( cube ) & 0xff;
+	}
+}
@@ -0,0 +1,195 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+
+import net.imglib2.Interval;
+
+/**
+ * Computes the marching cubes cube indices of a mask one layer of cubes at a
+ * time, with the corner bits packed in <code>long</code> words.
+ * <p>
+ * As with {@link CubeIndexer}, the lower and upper voxel planes of the current
+ * layer of cubes are kept in memory, padded by one voxel in X and Y, but each
+ * row of a plane is stored as a sequence of words holding 64 voxels each.
+ * Whether the 64 cubes of a word are crossed by the surface is then computed
+ * with a few shifts, ORs and ANDs of the 4 rows their corners lie on, and the
+ * crossed cubes are visited by jumping from one set bit to the next. The cube
+ * indices, with the same bits as the ones of {@link CubeIndexer}, are only
+ * computed for these cubes. On sparse masks, most of the cubes are skipped 64
+ * at a time.
+ */
+class BitCubeIndexer
+{
+
+	/**
+	 * Interface for the classes that read the corner bits of a voxel plane.
+	 */
+	interface PlaneReader
+	{
+
+		/**
+		 * Reads the next voxel plane of the input and sets the bits of the
+		 * specified padded plane corresponding to voxels inside the surface.
+		 * The plane is cleared before this call.
+		 *
+		 * @param plane
+		 *            the plane to write to. Voxel <code>(x, y)</code> of the
+		 *            input is at bit <code>(x + 1) % 64</code> of word
+		 *            <code>(y + 1) * wordsPerRow + (x + 1) / 64</code>.
+		 */
+		void read( long[] plane );
+	}
+
+	private final int wordsPerRow;
+
+	private final long inputMinZ;
+
+	private final long inputMaxZ;
+
+	private PlaneReader reader;
+
+	private long[] lower;
+
+	private long[] upper;
+
+	private long nextPlane;
+
+	/**
+	 * Creates a new cube indexer.
+	 *
+	 * @param input
+	 *            the input interval.
+	 * @param minZ
+	 *            the Z position of the first layer of cubes.
+	 * @param reader
+	 *            the reader for the voxel planes of the input. It will be
+	 *            called for the planes that are both in the input interval and
+	 *            at or after <code>minZ</code>, in increasing Z order.
+	 */
+	BitCubeIndexer( final Interval input, final int minZ, final PlaneReader reader )
+	{
+		final int isy = ( int ) input.dimension( 1 ) + 2;
+		this.wordsPerRow = wordsPerRow( input );
+		this.inputMinZ = input.min( 2 );
+		this.inputMaxZ = input.max( 2 );
+		this.reader = reader;
+		this.lower = new long[ isy * wordsPerRow ];
+		this.upper = new long[ isy * wordsPerRow ];
+		this.nextPlane = minZ;
+		load( upper );
+	}
+
+	/**
+	 * Returns the number of words in a row of the padded planes of the
+	 * specified input.
+	 */
+	static int wordsPerRow( final Interval input )
+	{
+		return ( int ) ( input.dimension( 0 ) + 2 + 63 ) >>> 6;
+	}
+
+	/**
+	 * Restarts this indexer on a new input with the same interval, reusing its
+	 * planes.
+	 *
+	 * @param minZ
+	 *            the Z position of the first layer of cubes.
+	 * @param reader
+	 *            the reader for the voxel planes of the new input.
+	 */
+	void reset( final int minZ, final PlaneReader reader )
+	{
+		this.reader = reader;
+		this.nextPlane = minZ;
+		load( upper );
+	}
+
+	/**
+	 * Moves to the next layer of cubes. The first call moves to the layer at
+	 * <code>minZ</code>.
+	 */
+	void next()
+	{
+		final long[] tmp = lower;
+		lower = upper;
+		upper = tmp;
+		load( upper );
+	}
+
+	/**
+	 * Returns the number of words in a row of cubes.
+	 */
+	int wordsPerRow()
+	{
+		return wordsPerRow;
+	}
+
+	/**
+	 * Returns the cubes of the current layer crossed by the surface, in a
+	 * word of a row of cubes. Bit <code>b</code> is set if the cube at
+	 * <code>(64 * w + b, my)</code> in the padded plane has at least one corner
+	 * inside and one corner outside.
+	 *
+	 * @param my
+	 *            the row of cubes, smaller than <code>isy - 1</code>.
+	 * @param w
+	 *            the word in the row.
+	 * @return the crossed cubes of the word.
+	 */
+	long crossed( final int my, final int w )
+	{
+		final int i0 = my * wordsPerRow + w;
+		final int i1 = i0 + wordsPerRow;
+		final boolean last = w == wordsPerRow - 1;
+
+		// Corner rows, and the same shifted to bring corner mx + 1 to bit mx.
+		final long a = lower[ i0 ];
+		final long b = lower[ i1 ];
+		final long c = upper[ i0 ];
+		final long d = upper[ i1 ];
+		final long sa = last ? a >>> 1 : ( a >>> 1 ) | ( lower[ i0 + 1 ] << 63 );
+		final long sb = last ? b >>> 1 : ( b >>> 1 ) | ( lower[ i1 + 1 ] << 63 );
+		final long sc = last ? c >>> 1 : ( c >>> 1 ) | ( upper[ i0 + 1 ] << 63 );
+		final long sd = last ? d >>> 1 : ( d >>> 1 ) | ( upper[ i1 + 1 ] << 63 );
+
+		final long any = a | sa | b | sb | c | sc | d | sd;
+		final long all = a & sa & b & sb & c & sc & d & sd;
+		return any & ~all;
+	}
+
+	/**
+	 * Returns the cube index of a cube of the current layer.
+	 *
+	 * @param mx
+	 *            the X position of the cube in the padded plane.
+	 * @param my
+	 *            the Y position of the cube in the padded plane.
+	 * @return the cube index.
+	 */
+	int cubeIndex( final int mx, final int my )
+	{
+		final int i0 = my * wordsPerRow;
+		final int i1 = i0 + wordsPerRow;
+		return bit( lower, i0, mx )
+				| ( bit( lower, i0, mx + 1 ) << 1 )
+				| ( bit( lower, i1, mx ) << 2 )
+				| ( bit( lower, i1, mx + 1 ) << 3 )
+				| ( bit( upper, i0, mx ) << 4 )
+				| ( bit( upper, i0, mx + 1 ) << 5 )
+				| ( bit( upper, i1, mx ) << 6 )
+				| ( bit( upper, i1, mx + 1 ) << 7 );
+	}
+
+	private static int bit( final long[] plane, final int row, final int mx )
+	{
+		return ( int ) ( plane[ row + ( mx >>> 6 ) ] >>> ( mx & 63 ) ) & 1;
+	}
+
+	private void load( final long[] plane )
+	{
+		Arrays.fill( plane, 0L );
+		if ( nextPlane >= inputMinZ && nextPlane <= inputMaxZ )
+			reader.read( plane );
+		nextPlane++;
+	}
+}
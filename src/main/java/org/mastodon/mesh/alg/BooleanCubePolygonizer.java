@@ -0,0 +1,276 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.MarchingCubesRealType.TRIANGLE_TABLE;
+
+import org.apache.commons.math3.util.MathArrays;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.TriangleAdder;
+import org.mastodon.mesh.Vertex;
+
+/**
+ * Adds to a mesh the triangles of single cubes of the marching cubes algorithm
+ * on masks, given their cube index. The vertices are placed on the corners of
+ * the cube that are inside the surface.
+ * <p>
+ * The vertices are created for each triangle, or shared through a vertex
+ * cache.
+ *
+ * @author Tim-Oliver Buchholz (University of Konstanz)
+ * @author Tobias Pietzsch
+ */
+class BooleanCubePolygonizer
+{
+	private static final double[] p0 = { 0, 0, 1 };
+
+	private static final double[] p1 = { 1, 0, 1 };
+
+	private static final double[] p2 = { 1, 0, 0 };
+
+	private static final double[] p3 = { 0, 0, 0 };
+
+	private static final double[] p4 = { 0, 1, 1 };
+
+	private static final double[] p5 = { 1, 1, 1 };
+
+	private static final double[] p6 = { 1, 1, 0 };
+
+	private static final double[] p7 = { 0, 1, 0 };
+
+	/**
+	 * Number of triangles of each cube index, without the triangles that have
+	 * a zero area once their vertices are placed on the corners.
+	 */
+	static final int[] TRIANGLE_COUNT = new int[ 256 ];
+	static
+	{
+		final double[][] vertlist = new double[ 12 ][];
+		for ( int mindex = 0; mindex < 256; mindex++ )
+		{
+			vertices( mindex, MarchingCubesRealType.EDGE_TABLE[ mindex ], vertlist );
+			final byte[] TRIANGLE = TRIANGLE_TABLE[ mindex ];
+			for ( int i = 0; i < TRIANGLE.length; i += 3 )
+			{
+				final double[] v2 = vertlist[ TRIANGLE[ i ] ];
+				final double[] v1 = vertlist[ TRIANGLE[ i + 1 ] ];
+				final double[] v0 = vertlist[ TRIANGLE[ i + 2 ] ];
+				if ( positiveArea( v0[ 0 ], v0[ 1 ], v0[ 2 ], v1[ 0 ], v1[ 1 ], v1[ 2 ], v2[ 0 ], v2[ 1 ], v2[ 2 ] ) )
+					TRIANGLE_COUNT[ mindex ]++;
+			}
+		}
+	}
+
+	private final TriMesh output;
+
+	private final CornerVertexCache cache;
+
+	private final Calibration calibration;
+
+	private final double[][] vertlist = new double[ 12 ][];
+
+	private final Vertex vref0;
+
+	private final Vertex vref1;
+
+	private final Vertex vref2;
+
+	private final Triangle tref;
+
+	private final TriangleAdder faceAdder;
+
+	/**
+	 * Creates a polygonizer.
+	 *
+	 * @param output
+	 *            the mesh to add triangles to.
+	 * @param cache
+	 *            the vertex cache, or <code>null</code> to create three new
+	 *            vertices per triangle.
+	 */
+	BooleanCubePolygonizer( final TriMesh output, final CornerVertexCache cache )
+	{
+		this( output, cache, Calibration.NONE );
+	}
+
+	/**
+	 * Creates a polygonizer that creates the vertices in physical coordinates.
+	 *
+	 * @param output
+	 *            the mesh to add triangles to.
+	 * @param cache
+	 *            the vertex cache, or <code>null</code> to create three new
+	 *            vertices per triangle.
+	 * @param calibration
+	 *            the transform from voxel coordinates to physical coordinates.
+	 */
+	BooleanCubePolygonizer( final TriMesh output, final CornerVertexCache cache, final Calibration calibration )
+	{
+		this.output = output;
+		this.cache = cache;
+		this.calibration = calibration;
+		this.vref0 = output.vertexRef();
+		this.vref1 = output.vertexRef();
+		this.vref2 = output.vertexRef();
+		this.tref = output.triangleRef();
+		this.faceAdder = output.triangleAdder();
+	}
+
+	/**
+	 * Adds the triangles of the specified cube.
+	 *
+	 * @param mindex
+	 *            the cube index.
+	 * @param EDGE
+	 *            the edges crossed by the surface, from the edge table.
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @param mx
+	 *            the X position of the cube in the planes of the vertex cache.
+	 * @param my
+	 *            the Y position of the cube in the planes of the vertex cache.
+	 */
+	void polygonize( final int mindex, final int EDGE, final int x, final int y, final int z, final int mx, final int my )
+	{
+		vertices( mindex, EDGE, vertlist );
+
+		/* Create the triangle */
+		final byte[] TRIANGLE = TRIANGLE_TABLE[ mindex ];
+		for ( int i = 0; i < TRIANGLE.length; i += 3 )
+		{
+			final double v2x = vertlist[ TRIANGLE[ i ] ][ 0 ];
+			final double v2y = vertlist[ TRIANGLE[ i ] ][ 1 ];
+			final double v2z = vertlist[ TRIANGLE[ i ] ][ 2 ];
+			final double v1x = vertlist[ TRIANGLE[ i + 1 ] ][ 0 ];
+			final double v1y = vertlist[ TRIANGLE[ i + 1 ] ][ 1 ];
+			final double v1z = vertlist[ TRIANGLE[ i + 1 ] ][ 2 ];
+			final double v0x = vertlist[ TRIANGLE[ i + 2 ] ][ 0 ];
+			final double v0y = vertlist[ TRIANGLE[ i + 2 ] ][ 1 ];
+			final double v0z = vertlist[ TRIANGLE[ i + 2 ] ][ 2 ];
+			if ( positiveArea( v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z ) )
+			{
+				final Vertex v0 = vertex( vertlist[ TRIANGLE[ i + 2 ] ], x, y, z, mx, my, vref0 );
+				final Vertex v1 = vertex( vertlist[ TRIANGLE[ i + 1 ] ], x, y, z, mx, my, vref1 );
+				final Vertex v2 = vertex( vertlist[ TRIANGLE[ i ] ], x, y, z, mx, my, vref2 );
+				if ( calibration.flip() )
+					faceAdder.add( v0, v2, v1, tref );
+				else
+					faceAdder.add( v0, v1, v2, tref );
+			}
+		}
+	}
+
+	/**
+	 * Sets the vertices where the surface intersects the edges of a cube, as
+	 * corners of the cube.
+	 */
+	private static void vertices( final int mindex, final int EDGE, final double[][] vertlist )
+	{
+		if ( 0 != ( EDGE & 1 ) )
+		{
+			vertlist[ 0 ] = interpolatePoint( p0, p1,
+					( mindex & 1 << 5 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 2 ) )
+		{
+			vertlist[ 1 ] = interpolatePoint( p1, p2,
+					( mindex & 1 << 1 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 4 ) )
+		{
+			vertlist[ 2 ] = interpolatePoint( p2, p3,
+					( mindex & 1 << 0 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 8 ) )
+		{
+			vertlist[ 3 ] = interpolatePoint( p3, p0,
+					( mindex & 1 << 4 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 16 ) )
+		{
+			vertlist[ 4 ] = interpolatePoint( p4, p5,
+					( mindex & 1 << 7 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 32 ) )
+		{
+			vertlist[ 5 ] = interpolatePoint( p5, p6,
+					( mindex & 1 << 3 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 64 ) )
+		{
+			vertlist[ 6 ] = interpolatePoint( p6, p7,
+					( mindex & 1 << 2 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 128 ) )
+		{
+			vertlist[ 7 ] = interpolatePoint( p7, p4,
+					( mindex & 1 << 6 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 256 ) )
+		{
+			vertlist[ 8 ] = interpolatePoint( p0, p4,
+					( mindex & 1 << 6 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 512 ) )
+		{
+			vertlist[ 9 ] = interpolatePoint( p1, p5,
+					( mindex & 1 << 7 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 1024 ) )
+		{
+			vertlist[ 10 ] = interpolatePoint( p2, p6,
+					( mindex & 1 << 3 ) != 0 );
+		}
+		if ( 0 != ( EDGE & 2048 ) )
+		{
+			vertlist[ 11 ] = interpolatePoint( p3, p7,
+					( mindex & 1 << 2 ) != 0 );
+		}
+	}
+
+	private Vertex vertex( final double[] corner, final int x, final int y, final int z, final int mx, final int my, final Vertex ref )
+	{
+		if ( cache == null )
+			return calibration.addVertex( output, x + corner[ 0 ], y + corner[ 1 ], z + corner[ 2 ], ref );
+		return cache.vertex( corner, mx, my, x, y, z, calibration, output, ref );
+	}
+
+	/**
+	 * Releases the references used by this polygonizer.
+	 */
+	void release()
+	{
+		output.releaseRef( vref0 );
+		output.releaseRef( vref1 );
+		output.releaseRef( vref2 );
+		output.releaseRef( tref );
+		faceAdder.releaseRefs();
+	}
+
+	private static boolean positiveArea( final double v0x, final double v0y, final double v0z, //
+			final double v1x, final double v1y, final double v1z, //
+			final double v2x, final double v2y, final double v2z )
+	{
+		final double p1x = v0x - v1x;
+		final double p1y = v0y - v1y;
+		final double p1z = v0z - v1z;
+		final double p2x = v2x - v0x;
+		final double p2y = v2y - v0y;
+		final double p2z = v2z - v0z;
+
+		// cross product
+		final double cpx = MathArrays.linearCombination( p1y, p2z, -p1z, p2y );
+		final double cpy = MathArrays.linearCombination( p1z, p2x, -p1x, p2z );
+		final double cpz = MathArrays.linearCombination( p1x, p2y, -p1y, p2x );
+
+		return cpx != 0 || cpy != 0 || cpz != 0;
+	}
+
+	private static double[] interpolatePoint( final double[] p0, final double[] p1, final boolean v1 )
+	{
+		return v1 ? p1 : p0;
+	}
+}
@@ -0,0 +1,105 @@
+package org.mastodon.mesh.alg;
+
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Vertex;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * The affine transform from voxel coordinates to physical coordinates, applied
+ * to the vertices as the marching cubes algorithm creates them.
+ * <p>
+ * The triangle normals are computed from the transformed vertex positions, so
+ * they are in physical space. A transform with a negative determinant mirrors
+ * the mesh, so the triangles are then added in reverse order to keep their
+ * normals pointing outward. Vertex normals computed in voxel coordinates are
+ * transformed with the inverse transpose of the linear part of the transform.
+ */
+final class Calibration
+{
+
+	/**
+	 * The identity: vertices are created in voxel coordinates.
+	 */
+	static final Calibration NONE = new Calibration( null );
+
+	/**
+	 * The row-packed 3x4 matrix of the transform, <code>null</code> for the
+	 * identity.
+	 */
+	private final double[] m;
+
+	private final boolean flip;
+
+	/**
+	 * The row-packed cofactor matrix of the linear part of the transform, with
+	 * the sign of its determinant, proportional to its inverse transpose.
+	 * <code>null</code> for the identity.
+	 */
+	private final double[] n;
+
+	Calibration( final AffineTransform3D transform )
+	{
+		if ( transform == null )
+		{
+			this.m = null;
+			this.flip = false;
+			this.n = null;
+			return;
+		}
+		this.m = transform.getRowPackedCopy();
+		final double det = m[ 0 ] * ( m[ 5 ] * m[ 10 ] - m[ 6 ] * m[ 9 ] )
+				- m[ 1 ] * ( m[ 4 ] * m[ 10 ] - m[ 6 ] * m[ 8 ] )
+				+ m[ 2 ] * ( m[ 4 ] * m[ 9 ] - m[ 5 ] * m[ 8 ] );
+		this.flip = det < 0;
+		final double s = flip ? -1 : 1;
+		this.n = new double[] {
+				s * ( m[ 5 ] * m[ 10 ] - m[ 6 ] * m[ 9 ] ), s * ( m[ 6 ] * m[ 8 ] - m[ 4 ] * m[ 10 ] ), s * ( m[ 4 ] * m[ 9 ] - m[ 5 ] * m[ 8 ] ),
+				s * ( m[ 9 ] * m[ 2 ] - m[ 10 ] * m[ 1 ] ), s * ( m[ 10 ] * m[ 0 ] - m[ 8 ] * m[ 2 ] ), s * ( m[ 8 ] * m[ 1 ] - m[ 9 ] * m[ 0 ] ),
+				s * ( m[ 1 ] * m[ 6 ] - m[ 2 ] * m[ 5 ] ), s * ( m[ 2 ] * m[ 4 ] - m[ 0 ] * m[ 6 ] ), s * ( m[ 0 ] * m[ 5 ] - m[ 1 ] * m[ 4 ] ) };
+	}
+
+	/**
+	 * Adds a vertex to the mesh, at the transformed position of the specified
+	 * voxel coordinates.
+	 */
+	Vertex addVertex( final TriMesh mesh, final double x, final double y, final double z, final Vertex ref )
+	{
+		final Vertex v = mesh.addVertex( ref );
+		if ( m == null )
+			return v.init( x, y, z );
+		return v.init(
+				m[ 0 ] * x + m[ 1 ] * y + m[ 2 ] * z + m[ 3 ],
+				m[ 4 ] * x + m[ 5 ] * y + m[ 6 ] * z + m[ 7 ],
+				m[ 8 ] * x + m[ 9 ] * y + m[ 10 ] * z + m[ 11 ] );
+	}
+
+	/**
+	 * Sets the normal of a vertex from a normal in voxel coordinates. The
+	 * normal is normalized, and left to 0 if it is 0.
+	 */
+	void setNormal( final Vertex v, final double nx, final double ny, final double nz )
+	{
+		double x = nx;
+		double y = ny;
+		double z = nz;
+		if ( n != null )
+		{
+			x = n[ 0 ] * nx + n[ 1 ] * ny + n[ 2 ] * nz;
+			y = n[ 3 ] * nx + n[ 4 ] * ny + n[ 5 ] * nz;
+			z = n[ 6 ] * nx + n[ 7 ] * ny + n[ 8 ] * nz;
+		}
+		final double norm = Math.sqrt( x * x + y * y + z * z );
+		if ( norm > 0 )
+			v.setNormal( ( float ) ( x / norm ), ( float ) ( y / norm ), ( float ) ( z / norm ) );
+	}
+
+	/**
+	 * Returns <code>true</code> if the triangles must be added in reverse
+	 * order to keep their orientation.
+	 */
+	boolean flip()
+	{
+		return flip;
+	}
+}
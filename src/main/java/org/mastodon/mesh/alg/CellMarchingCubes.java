@@ -0,0 +1,255 @@
+package org.mastodon.mesh.alg;
+
+import java.util.function.LongConsumer;
+
+import org.mastodon.mesh.TriMesh;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Marching cubes on real values for images stored in cells, such as
+ * <code>CellImg</code>s and cached images loaded lazily.
+ * <p>
+ * Instead of walking the input in raster order over the whole volume, the
+ * input is meshed one cell at a time, in the raster order of the cell grid.
+ * The cubes of a cell are the ones whose lower corner is in the cell, so
+ * meshing a cell reads it with a one-voxel halo in the next cells along X, Y
+ * and Z. The vertices on the faces between cells are shared, so the output is
+ * a single indexed mesh with twin half-edges linked across cells, identical to
+ * the one of {@link MarchingCubesRealType#calculateIndexed} up to the order of
+ * vertices and triangles.
+ * <p>
+ * Once a cell is meshed, it is never read again: the cells that read it as a
+ * halo come before it in the grid order. A listener can be notified at this
+ * point, for instance to invalidate the cell in the cache backing the image.
+ * Because the halo of a cell reaches into the next cell along X, the next row
+ * of cells along Y and the next plane of cells along Z, these are loaded
+ * before the current cell is done: the cells touched but not done yet amount
+ * to at most one XY plane of cells, plus one row, plus one cell.
+ * <p>
+ * The vertices on the faces between cells are kept in a map until the last
+ * cell using them is meshed, and then evicted. The map therefore holds at most
+ * the vertices on the faces between the cells done and the cells not done
+ * yet, that is about the vertices of one XY plane of voxels of the input,
+ * whatever its depth.
+ */
+public class CellMarchingCubes
+{
+
+	/**
+	 * Creates a mesh from a cell image, meshing it cell by cell.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final AbstractCellImg< T, ?, ?, ? > input, final double isoLevel )
+	{
+		return calculate( input, isoLevel, null );
+	}
+
+	/**
+	 * Creates a mesh from a cell image, meshing it cell by cell.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param cellDone
+	 *            called with the index of a cell in the cell grid of the image
+	 *            once the cell will not be read anymore. May be
+	 *            <code>null</code>.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final AbstractCellImg< T, ?, ?, ? > input, final double isoLevel, final LongConsumer cellDone )
+	{
+		final CellGrid grid = input.getCellGrid();
+		final int[] cellDimensions = new int[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			cellDimensions[ d ] = grid.cellDimension( d );
+		return calculate( input, isoLevel, cellDimensions, cellDone );
+	}
+
+	/**
+	 * Creates a mesh from an image, meshing it block by block.
+	 * <p>
+	 * The blocks are aligned on a grid starting at the origin, so that they
+	 * match the cells of an image stored in cells of the specified size, or of
+	 * any interval of such an image.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param cellDimensions
+	 *            the size of the blocks.
+	 * @param cellDone
+	 *            called with the index of a block, in the grid of blocks
+	 *            covering the input, once the block will not be read anymore.
+	 *            May be <code>null</code>.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int[] cellDimensions, final LongConsumer cellDone )
+	{
+		final long[] gridMin = new long[ 3 ];
+		final long[] gridDimensions = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			gridMin[ d ] = Math.floorDiv( input.min( d ), cellDimensions[ d ] );
+			gridDimensions[ d ] = Math.floorDiv( input.max( d ), cellDimensions[ d ] ) - gridMin[ d ] + 1;
+		}
+
+		final TriMesh output = new TriMesh();
+		final TLongIntHashMap seams = newSeams();
+		final SeamEviction eviction = new SeamEviction( input, cellDimensions, gridMin, gridDimensions );
+		final int[] cubeMin = new int[ 3 ];
+		final int[] cubeMax = new int[ 3 ];
+		final long[] cell = new long[ 3 ];
+		long index = 0;
+		for ( cell[ 2 ] = 0; cell[ 2 ] < gridDimensions[ 2 ]; cell[ 2 ]++ )
+		{
+			for ( cell[ 1 ] = 0; cell[ 1 ] < gridDimensions[ 1 ]; cell[ 1 ]++ )
+			{
+				for ( cell[ 0 ] = 0; cell[ 0 ] < gridDimensions[ 0 ]; cell[ 0 ]++ )
+				{
+					for ( int d = 0; d < 3; d++ )
+					{
+						/*
+						 * Cubes whose lower corner is in the cell. The first
+						 * cells along each axis also get the cubes before the
+						 * input min.
+						 */
+						final long min = ( gridMin[ d ] + cell[ d ] ) * cellDimensions[ d ];
+						final long max = min + cellDimensions[ d ] - 1;
+						cubeMin[ d ] = ( int ) ( ( cell[ d ] == 0 ) ? input.min( d ) - 1 : min );
+						cubeMax[ d ] = ( int ) Math.min( max, input.max( d ) ) + 1;
+					}
+					mesh( input, isoLevel, cubeMin, cubeMax, output, seams, eviction );
+					eviction.cellDone( index, seams );
+
+					if ( cellDone != null )
+						cellDone.accept( index );
+					index++;
+				}
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Creates the map used to share vertices between boxes.
+	 */
+	static TLongIntHashMap newSeams()
+	{
+		return new TLongIntHashMap( 1024, 0.5f, -1L, -1 );
+	}
+
+	/**
+	 * Adds to the output mesh the triangles of the cubes whose lower corner is
+	 * in the box <code>[cubeMin, cubeMax)</code>. Only the voxels of the cube
+	 * corners are read. The vertices on the faces of the box are shared with
+	 * the other boxes meshed with the same seams map, and reported to the
+	 * eviction if it is not <code>null</code>.
+	 */
+	static < T extends RealType< T > > void mesh( final RandomAccessibleInterval< T > input, final double isoLevel,
+			final int[] cubeMin, final int[] cubeMax, final TriMesh output, final TLongIntHashMap seams, final SeamEviction eviction )
+	{
+		final long[] cropMin = new long[ 3 ];
+		final long[] cropMax = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			cropMin[ d ] = Math.max( cubeMin[ d ], input.min( d ) );
+			cropMax[ d ] = Math.min( cubeMax[ d ], input.max( d ) );
+		}
+		final FinalInterval crop = new FinalInterval( cropMin, cropMax );
+		final CellVertexCache cache = new CellVertexCache( crop,
+				cubeMin[ 0 ], cubeMax[ 0 ], cubeMin[ 1 ], cubeMax[ 1 ], cubeMin[ 2 ], cubeMax[ 2 ],
+				input, seams, eviction );
+		MarchingCubesRealType.calculate( Views.interval( input, crop ), isoLevel,
+				cubeMin[ 0 ], cubeMax[ 0 ], cubeMin[ 1 ], cubeMax[ 1 ], cubeMin[ 2 ], cubeMax[ 2 ],
+				output, cache );
+	}
+
+	/**
+	 * Removes the shared vertices from the seams map once the last cell using
+	 * them is meshed.
+	 * <p>
+	 * The last cell using the vertex on a voxel edge is the cell of the last
+	 * cube, in raster order, that has this edge, that is the cube whose lower
+	 * corner is the first corner of the edge, moved back by one voxel along the
+	 * axes where it is after the last cube. The keys of the vertices are
+	 * grouped by this cell, and removed from the map when it is done.
+	 */
+	static final class SeamEviction
+	{
+
+		private final long[] max;
+
+		private final int[] cellDimensions;
+
+		private final long[] gridMin;
+
+		private final long[] gridDimensions;
+
+		private final TLongObjectHashMap< TLongArrayList > keysByCell;
+
+		SeamEviction( final RandomAccessibleInterval< ? > input, final int[] cellDimensions, final long[] gridMin, final long[] gridDimensions )
+		{
+			this.max = new long[ 3 ];
+			input.max( max );
+			this.cellDimensions = cellDimensions;
+			this.gridMin = gridMin;
+			this.gridDimensions = gridDimensions;
+			this.keysByCell = new TLongObjectHashMap<>();
+		}
+
+		/**
+		 * Records the key of a shared vertex, on the voxel edge of the
+		 * specified axis starting at the specified corner.
+		 */
+		void add( final long key, final int axis, final int cx, final int cy, final int cz )
+		{
+			final long cell = ( lastCell( 2, axis, cz ) * gridDimensions[ 1 ] + lastCell( 1, axis, cy ) ) * gridDimensions[ 0 ] + lastCell( 0, axis, cx );
+			TLongArrayList keys = keysByCell.get( cell );
+			if ( keys == null )
+			{
+				keys = new TLongArrayList();
+				keysByCell.put( cell, keys );
+			}
+			keys.add( key );
+		}
+
+		private long lastCell( final int d, final int axis, final int corner )
+		{
+			final long cube = ( d != axis && corner > max[ d ] ) ? corner - 1 : corner;
+			final long cell = Math.floorDiv( cube, cellDimensions[ d ] ) - gridMin[ d ];
+			return Math.max( 0, cell );
+		}
+
+		/**
+		 * Removes from the seams map the vertices whose last cell is the
+		 * specified one.
+		 */
+		void cellDone( final long cell, final TLongIntHashMap seams )
+		{
+			final TLongArrayList keys = keysByCell.remove( cell );
+			if ( keys == null )
+				return;
+			for ( int i = 0; i < keys.size(); i++ )
+				seams.remove( keys.get( i ) );
+		}
+	}
+}
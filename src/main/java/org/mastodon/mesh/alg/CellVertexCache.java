@@ -0,0 +1,129 @@
+package org.mastodon.mesh.alg;
+
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Vertex;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.imglib2.Interval;
+
+/**
+ * Vertex cache for the marching cubes on real values, used to mesh one box of
+ * cubes of a larger input.
+ * <p>
+ * The vertices on the voxel edges that lie on the faces of the box are shared
+ * with the adjacent boxes. Their ids are stored in a map common to all the
+ * boxes, keyed by the position of the edge in the whole input. The other
+ * vertices are stored in the planes of the cache, as for the
+ * {@link EdgeVertexCache}. The shared vertices created by the box are
+ * reported to the eviction of the seams, if any, so that they can be removed
+ * from the map once the last box using them is meshed.
+ */
+class CellVertexCache extends EdgeVertexCache
+{
+
+	private final int ox;
+
+	private final int oy;
+
+	private final int minX;
+
+	private final int maxX;
+
+	private final int minY;
+
+	private final int maxY;
+
+	private final int minZ;
+
+	private final int maxZ;
+
+	private final TLongIntHashMap seams;
+
+	private final EdgeKey keys;
+
+	private final CellMarchingCubes.SeamEviction eviction;
+
+	/**
+	 * Z position of the current layer of cubes.
+	 */
+	private int layer;
+
+	/**
+	 * Creates a new cache for a box of cubes.
+	 *
+	 * @param crop
+	 *            the interval of the input the box is meshed on. The planes of
+	 *            the cache are laid out on the padded planes of this interval.
+	 * @param minX
+	 *            the X position of the first cube of the box.
+	 * @param maxX
+	 *            the X position after the last cube of the box.
+	 * @param minY
+	 *            the Y position of the first cube of the box.
+	 * @param maxY
+	 *            the Y position after the last cube of the box.
+	 * @param minZ
+	 *            the Z position of the first cube of the box.
+	 * @param maxZ
+	 *            the Z position after the last cube of the box.
+	 * @param input
+	 *            the whole input, used to compute the keys of the shared
+	 *            edges.
+	 * @param seams
+	 *            the map from the key of the shared edges to vertex ids, common
+	 *            to all the boxes. Its no-entry value must be negative.
+	 * @param eviction
+	 *            the eviction of the seams, notified of the shared vertices
+	 *            created. May be <code>null</code>.
+	 */
+	CellVertexCache( final Interval crop,
+			final int minX, final int maxX, final int minY, final int maxY, final int minZ, final int maxZ,
+			final Interval input, final TLongIntHashMap seams, final CellMarchingCubes.SeamEviction eviction )
+	{
+		super( ( int ) crop.dimension( 0 ) + 2, ( int ) crop.dimension( 1 ) + 2 );
+		this.ox = ( int ) crop.min( 0 ) - 1;
+		this.oy = ( int ) crop.min( 1 ) - 1;
+		this.minX = minX;
+		this.maxX = maxX;
+		this.minY = minY;
+		this.maxY = maxY;
+		this.minZ = minZ;
+		this.maxZ = maxZ;
+		this.seams = seams;
+		this.keys = new EdgeKey( input );
+		this.eviction = eviction;
+		this.layer = minZ;
+	}
+
+	@Override
+	void nextLayer()
+	{
+		super.nextLayer();
+		layer++;
+	}
+
+	@Override
+	Vertex vertex( final int edge, final int mx, final int my, final double x, final double y, final double z, final Calibration calibration, final TriMesh mesh, final Vertex ref )
+	{
+		final int axis = EDGE_AXIS[ edge ];
+		final int cx = ox + mx + EDGE_DX[ edge ];
+		final int cy = oy + my + EDGE_DY[ edge ];
+		final int cz = layer + EDGE_DZ[ edge ];
+		final boolean onFace = ( axis != X && ( cx == minX || cx == maxX ) )
+				|| ( axis != Y && ( cy == minY || cy == maxY ) )
+				|| ( axis != Z && ( cz == minZ || cz == maxZ ) );
+		if ( !onFace )
+			return super.vertex( edge, mx, my, x, y, z, calibration, mesh, ref );
+
+		final long key = keys.key( edge, ox + mx, oy + my, layer );
+		final Vertex cached = cached( seams.get( key ), mesh, ref );
+		if ( cached != null )
+			return cached;
+
+		final Vertex v = calibration.addVertex( mesh, x, y, z, ref );
+		seams.put( key, v.getInternalPoolIndex() );
+		if ( eviction != null )
+			eviction.add( key, axis, cx, cy, cz );
+		return v;
+	}
+}
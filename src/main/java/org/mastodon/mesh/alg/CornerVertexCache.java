@@ -0,0 +1,63 @@
+package org.mastodon.mesh.alg;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Vertex;
+
+/**
+ * Vertex cache for the marching cubes on boolean values, where the vertices
+ * are placed on the voxel corners that are inside the surface. There is at
+ * most one vertex per voxel corner.
+ */
+class CornerVertexCache extends SlabVertexCache
+{
+
+	CornerVertexCache( final int isx, final int isy )
+	{
+		super( isx, isy, 1 );
+	}
+
+	/**
+	 * Returns the vertex on the specified corner of the specified cube,
+	 * creating it if it does not exist yet.
+	 *
+	 * @param corner
+	 *            the offset of the corner from the lower corner of the cube.
+	 * @param mx
+	 *            the X position of the cube in the mask.
+	 * @param my
+	 *            the Y position of the cube in the mask.
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @param calibration
+	 *            the transform applied to the position of the vertex, if it
+	 *            has to be created.
+	 * @param mesh
+	 *            the mesh to add the vertex to.
+	 * @param ref
+	 *            a vertex reference.
+	 * @return the vertex.
+	 */
+	Vertex vertex( final double[] corner, final int mx, final int my, final int x, final int y, final int z, final Calibration calibration, final TriMesh mesh, final Vertex ref )
+	{
+		final int dx = ( int ) corner[ 0 ];
+		final int dy = ( int ) corner[ 1 ];
+		final int dz = ( int ) corner[ 2 ];
+		final int[] ids = ( dz == 0 ) ? lower[ 0 ] : upper[ 0 ];
+		final int i = ( my + dy ) * isx + mx + dx;
+		final int id = ids[ i ];
+		if ( id >= 0 )
+		{
+			final RefPool< Vertex > pool = mesh.vertices().getRefPool();
+			return pool.getObject( id, ref );
+		}
+
+		final Vertex v = calibration.addVertex( mesh, x + dx, y + dy, z + dz, ref );
+		ids[ i ] = v.getInternalPoolIndex();
+		return v;
+	}
+}
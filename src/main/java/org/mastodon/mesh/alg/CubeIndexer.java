@@ -0,0 +1,145 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+
+import net.imglib2.Interval;
+
+/**
+ * Computes the marching cubes cube indices one layer of cubes at a time.
+ * <p>
+ * The corner bits of the input (whether a voxel is inside the surface) are
+ * read one voxel plane at a time, in a plane padded by one voxel in X and Y,
+ * and reduced to the 4 corner bits that each cube has in this plane, with
+ * neighbour ORs along X and Y. These codes are kept for the lower and the upper
+ * voxel planes of the current layer of cubes, and the cube indices are the
+ * codes of the lower plane ORed with the ones of the upper plane shifted by 4.
+ * When moving to the next layer, the upper codes become the lower ones and the
+ * next voxel plane is read. The input is therefore read in a single pass and
+ * the memory used is proportional to the size of an XY plane, whatever the
+ * depth of the input. The passes are done by {@link PlaneKernels}.
+ * <p>
+ * The cube index of the cube at position <code>(mx, my)</code> in the padded
+ * plane has the following bits set if the corresponding corner is inside:
+ * <ol start="0">
+ * <li><code>(mx, my, z)</code>
+ * <li><code>(mx + 1, my, z)</code>
+ * <li><code>(mx, my + 1, z)</code>
+ * <li><code>(mx + 1, my + 1, z)</code>
+ * <li><code>(mx, my, z + 1)</code>
+ * <li><code>(mx + 1, my, z + 1)</code>
+ * <li><code>(mx, my + 1, z + 1)</code>
+ * <li><code>(mx + 1, my + 1, z + 1)</code>
+ * </ol>
+ */
+class CubeIndexer
+{
+
+	/**
+	 * Interface for the classes that read the corner bits of a voxel plane.
+	 */
+	interface PlaneReader
+	{
+
+		/**
+		 * Reads the next voxel plane of the input and sets to 1 the elements
+		 * of the specified padded plane corresponding to voxels inside the
+		 * surface. The plane is cleared before this call.
+		 *
+		 * @param plane
+		 *            the plane to write to. Voxel <code>(x, y)</code> of the
+		 *            input is at index <code>(y + 1) * isx + x + 1</code>.
+		 */
+		void read( byte[] plane );
+	}
+
+	private final int isx;
+
+	private final long inputMinZ;
+
+	private final long inputMaxZ;
+
+	private PlaneReader reader;
+
+	private final byte[] plane;
+
+	/**
+	 * The corner bits of the cubes in the lower and upper planes, see
+	 * {@link PlaneKernels#cornerCodes(byte[], int, byte[])}.
+	 */
+	private byte[] lowerCodes;
+
+	private byte[] upperCodes;
+
+	private final byte[] indices;
+
+	private long nextPlane;
+
+	/**
+	 * Creates a new cube indexer.
+	 *
+	 * @param input
+	 *            the input interval.
+	 * @param minZ
+	 *            the Z position of the first layer of cubes.
+	 * @param reader
+	 *            the reader for the voxel planes of the input. It will be
+	 *            called for the planes that are both in the input interval and
+	 *            at or after <code>minZ</code>, in increasing Z order.
+	 */
+	CubeIndexer( final Interval input, final int minZ, final PlaneReader reader )
+	{
+		this.isx = ( int ) input.dimension( 0 ) + 2;
+		final int isy = ( int ) input.dimension( 1 ) + 2;
+		this.inputMinZ = input.min( 2 );
+		this.inputMaxZ = input.max( 2 );
+		this.reader = reader;
+		this.plane = new byte[ isx * isy ];
+		this.lowerCodes = new byte[ isx * isy ];
+		this.upperCodes = new byte[ isx * isy ];
+		this.indices = new byte[ isx * isy ];
+		this.nextPlane = minZ;
+		load();
+	}
+
+	/**
+	 * Restarts this indexer on a new input with the same interval, reusing its
+	 * planes.
+	 *
+	 * @param minZ
+	 *            the Z position of the first layer of cubes.
+	 * @param reader
+	 *            the reader for the voxel planes of the new input.
+	 */
+	void reset( final int minZ, final PlaneReader reader )
+	{
+		this.reader = reader;
+		this.nextPlane = minZ;
+		load();
+	}
+
+	/**
+	 * Moves to the next layer of cubes and returns their cube indices. The
+	 * first call returns the indices of the layer at <code>minZ</code>.
+	 *
+	 * @return the cube indices of the layer. The array is reused between calls.
+	 */
+	byte[] next()
+	{
+		final byte[] tmp = lowerCodes;
+		lowerCodes = upperCodes;
+		upperCodes = tmp;
+		load();
+
+		PlaneKernels.cubeIndices( lowerCodes, upperCodes, indices );
+		return indices;
+	}
+
+	private void load()
+	{
+		Arrays.fill( plane, ( byte ) 0 );
+		if ( nextPlane >= inputMinZ && nextPlane <= inputMaxZ )
+			reader.read( plane );
+		nextPlane++;
+		PlaneKernels.cornerCodes( plane, isx, upperCodes );
+	}
+}
@@ -0,0 +1,288 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.MarchingCubesRealType.TRIANGLE_TABLE;
+
+import org.apache.commons.math3.util.MathArrays;
+
+import net.imglib2.Interval;
+
+/**
+ * Adds to a mesh the triangles of single cubes of the marching cubes algorithm
+ * on real values, given their cube index and the values at their corners.
+ * <p>
+ * The corner values are in the order used by the marching cubes tables:
+ * <code>(0,0,1)</code>, <code>(1,0,1)</code>, <code>(1,0,0)</code>,
+ * <code>(0,0,0)</code>, <code>(0,1,1)</code>, <code>(1,1,1)</code>,
+ * <code>(1,1,0)</code>, <code>(0,1,0)</code>, relative to the lower corner of
+ * the cube.
+ * <p>
+ * The triangles are sent to a {@link CubeTriangleSink}, in voxel coordinates,
+ * with the cube edges of their vertices. A {@link TriMeshSink} adds them to a
+ * mesh, and shares their vertices through a vertex cache if it has one.
+ *
+ * @author Tim-Oliver Buchholz (University of Konstanz)
+ * @author Tobias Pietzsch
+ */
+class CubePolygonizer
+{
+	private static final double[] p0 = { 0, 0, 1 };
+
+	private static final double[] p1 = { 1, 0, 1 };
+
+	private static final double[] p2 = { 1, 0, 0 };
+
+	private static final double[] p3 = { 0, 0, 0 };
+
+	private static final double[] p4 = { 0, 1, 1 };
+
+	private static final double[] p5 = { 1, 1, 1 };
+
+	private static final double[] p6 = { 1, 1, 0 };
+
+	private static final double[] p7 = { 0, 1, 0 };
+
+	/**
+	 * Offsets of the corners from the lower corner of the cube, in the order
+	 * of the corner values.
+	 */
+	static final int[][] CORNERS = new int[][] {
+			{ 0, 0, 1 }, { 1, 0, 1 }, { 1, 0, 0 }, { 0, 0, 0 },
+			{ 0, 1, 1 }, { 1, 1, 1 }, { 1, 1, 0 }, { 0, 1, 0 } };
+
+	/**
+	 * The corners at the ends of each edge, in the order of the corner values.
+	 */
+	static final int[] EDGE_START = new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 0, 1, 2, 3 };
+
+	static final int[] EDGE_END = new int[] { 1, 2, 3, 0, 5, 6, 7, 4, 4, 5, 6, 7 };
+
+	/**
+	 * Bit of each corner in the cube index, in the order of the corner values.
+	 */
+	private static final int[] CORNER_BITS = new int[] { 4, 5, 1, 0, 6, 7, 3, 2 };
+
+	/**
+	 * Maximal number of triangles of each cube index. Triangles with a zero
+	 * area are not added, so a cube can have less.
+	 */
+	static final int[] TRIANGLE_COUNT = new int[ 256 ];
+	static
+	{
+		for ( int mindex = 0; mindex < 256; mindex++ )
+			TRIANGLE_COUNT[ mindex ] = TRIANGLE_TABLE[ mindex ].length / 3;
+	}
+
+	private final double isoLevel;
+
+	private final CubeTriangleSink sink;
+
+	private final double[][] vertlist = new double[ 12 ][ 3 ];
+
+	/**
+	 * Creates a polygonizer.
+	 *
+	 * @param isoLevel
+	 *            the iso-level.
+	 * @param sink
+	 *            the sink to send the triangles to.
+	 */
+	CubePolygonizer( final double isoLevel, final CubeTriangleSink sink )
+	{
+		this.isoLevel = isoLevel;
+		this.sink = sink;
+	}
+
+	/**
+	 * Sends the triangles of the specified cube to the sink.
+	 *
+	 * @param mindex
+	 *            the cube index.
+	 * @param EDGE
+	 *            the edges crossed by the surface, from the edge table.
+	 * @param values
+	 *            the values at the 8 corners of the cube.
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @param mx
+	 *            the X position of the cube in the planes of the vertex cache.
+	 * @param my
+	 *            the Y position of the cube in the planes of the vertex cache.
+	 */
+	void polygonize( final int mindex, final int EDGE, final double[] values, final int x, final int y, final int z, final int mx, final int my )
+	{
+		/*
+		 * Find the vertices where the surface intersects the
+		 * cube
+		 */
+		if ( 0 != ( EDGE & 1 ) )
+		{
+			interpolatePoint( vertlist[ 0 ], p0, p1, values[ 0 ],
+					values[ 1 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 2 ) )
+		{
+			interpolatePoint( vertlist[ 1 ], p1, p2, values[ 1 ],
+					values[ 2 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 4 ) )
+		{
+			interpolatePoint( vertlist[ 2 ], p2, p3, values[ 2 ],
+					values[ 3 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 8 ) )
+		{
+			interpolatePoint( vertlist[ 3 ], p3, p0, values[ 3 ],
+					values[ 0 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 16 ) )
+		{
+			interpolatePoint( vertlist[ 4 ], p4, p5, values[ 4 ],
+					values[ 5 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 32 ) )
+		{
+			interpolatePoint( vertlist[ 5 ], p5, p6, values[ 5 ],
+					values[ 6 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 64 ) )
+		{
+			interpolatePoint( vertlist[ 6 ], p6, p7, values[ 6 ],
+					values[ 7 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 128 ) )
+		{
+			interpolatePoint( vertlist[ 7 ], p7, p4, values[ 7 ],
+					values[ 4 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 256 ) )
+		{
+			interpolatePoint( vertlist[ 8 ], p0, p4, values[ 0 ],
+					values[ 4 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 512 ) )
+		{
+			interpolatePoint( vertlist[ 9 ], p1, p5, values[ 1 ],
+					values[ 5 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 1024 ) )
+		{
+			interpolatePoint( vertlist[ 10 ], p2, p6, values[ 2 ],
+					values[ 6 ], isoLevel );
+		}
+		if ( 0 != ( EDGE & 2048 ) )
+		{
+			interpolatePoint( vertlist[ 11 ], p3, p7, values[ 3 ],
+					values[ 7 ], isoLevel );
+		}
+
+		/* Create the triangle */
+		final byte[] TRIANGLE = TRIANGLE_TABLE[ mindex ];
+		for ( int i = 0; i < TRIANGLE.length; i += 3 )
+		{
+			final double v2x = vertlist[ TRIANGLE[ i ] ][ 0 ];
+			final double v2y = vertlist[ TRIANGLE[ i ] ][ 1 ];
+			final double v2z = vertlist[ TRIANGLE[ i ] ][ 2 ];
+			final double v1x = vertlist[ TRIANGLE[ i + 1 ] ][ 0 ];
+			final double v1y = vertlist[ TRIANGLE[ i + 1 ] ][ 1 ];
+			final double v1z = vertlist[ TRIANGLE[ i + 1 ] ][ 2 ];
+			final double v0x = vertlist[ TRIANGLE[ i + 2 ] ][ 0 ];
+			final double v0y = vertlist[ TRIANGLE[ i + 2 ] ][ 1 ];
+			final double v0z = vertlist[ TRIANGLE[ i + 2 ] ][ 2 ];
+			if ( !positiveArea( v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z ) )
+				continue;
+
+			sink.triangle( TRIANGLE[ i + 2 ], TRIANGLE[ i + 1 ], TRIANGLE[ i ], x, y, z, mx, my,
+					x + v0x, y + v0y, z + v0z, x + v1x, y + v1y, z + v1z, x + v2x, y + v2y, z + v2z );
+		}
+	}
+
+	/**
+	 * Computes the cube index of a cube from the values at its corners. A
+	 * corner is inside the surface if its value is larger than or equal to
+	 * the iso-level and if it is inside the input.
+	 *
+	 * @param values
+	 *            the values at the 8 corners of the cube.
+	 * @param isoLevel
+	 *            the iso-level.
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @param input
+	 *            the interval of the input.
+	 * @return the cube index.
+	 */
+	static int cubeIndex( final double[] values, final double isoLevel, final int x, final int y, final int z, final Interval input )
+	{
+		int mindex = 0;
+		for ( int k = 0; k < 8; k++ )
+		{
+			final int[] c = CORNERS[ k ];
+			if ( values[ k ] >= isoLevel
+					&& x + c[ 0 ] >= input.min( 0 ) && x + c[ 0 ] <= input.max( 0 )
+					&& y + c[ 1 ] >= input.min( 1 ) && y + c[ 1 ] <= input.max( 1 )
+					&& z + c[ 2 ] >= input.min( 2 ) && z + c[ 2 ] <= input.max( 2 ) )
+				mindex |= 1 << CORNER_BITS[ k ];
+		}
+		return mindex;
+	}
+
+	private static boolean positiveArea( final double v0x, final double v0y, final double v0z, //
+			final double v1x, final double v1y, final double v1z, //
+			final double v2x, final double v2y, final double v2z )
+	{
+		final double p1x = v0x - v1x;
+		final double p1y = v0y - v1y;
+		final double p1z = v0z - v1z;
+		final double p2x = v2x - v0x;
+		final double p2y = v2y - v0y;
+		final double p2z = v2z - v0z;
+
+		// cross product
+		final double cpx = MathArrays.linearCombination( p1y, p2z, -p1z, p2y );
+		final double cpy = MathArrays.linearCombination( p1z, p2x, -p1x, p2z );
+		final double cpz = MathArrays.linearCombination( p1x, p2y, -p1y, p2x );
+
+		return cpx != 0 || cpy != 0 || cpz != 0;
+	}
+
+	private static void interpolatePoint( final double[] output, final double[] p0, final double[] p1, final double v0, final double v1, final double isolevel )
+	{
+		if ( Math.abs( isolevel - v0 ) < 0.00001 )
+		{
+			for ( int i = 0; i < 3; i++ )
+			{
+				output[ i ] = p0[ i ];
+			}
+		}
+		else if ( Math.abs( isolevel - v1 ) < 0.00001 )
+		{
+			for ( int i = 0; i < 3; i++ )
+			{
+				output[ i ] = p1[ i ];
+			}
+		}
+		else if ( Math.abs( v0 - v1 ) < 0.00001 )
+		{
+			for ( int i = 0; i < 3; i++ )
+			{
+				output[ i ] = p0[ i ];
+			}
+		}
+		else
+		{
+			final double mu = ( isolevel - v0 ) / ( v1 - v0 );
+
+			output[ 0 ] = p0[ 0 ] + mu * ( p1[ 0 ] - p0[ 0 ] );
+			output[ 1 ] = p0[ 1 ] + mu * ( p1[ 1 ] - p0[ 1 ] );
+			output[ 2 ] = p0[ 2 ] + mu * ( p1[ 2 ] - p0[ 2 ] );
+		}
+	}
+}
@@ -0,0 +1,512 @@
+package org.mastodon.mesh.alg;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+
+/**
+ * Reads the pixel values needed by the marching cubes algorithm: the corner
+ * bits of the voxel planes, and the values at the 8 corners of the cubes
+ * crossed by the surface. Voxels outside the input interval have a value of 0
+ * and are considered outside the surface.
+ * <p>
+ * Images that are 3D {@link ArrayImg}s (or crops of them) of
+ * {@link UnsignedByteType}, {@link UnsignedShortType} or {@link FloatType} are
+ * read directly from their primitive storage array, with computed strides,
+ * and their voxel planes are thresholded row by row with the loops of
+ * {@link PlaneKernels}. Other images are read through a {@link RandomAccess}.
+ * <p>
+ * Instances are not thread-safe.
+ */
+abstract class CubeSampler
+{
+
+	/**
+	 * Returns a new sampler for the specified input, specialized for its
+	 * storage if possible.
+	 * <p>
+	 * The specialized samplers are only used for 3D {@link ArrayImg}s of
+	 * {@link UnsignedByteType}, {@link UnsignedShortType} or {@link FloatType},
+	 * and for {@link IntervalView}s whose direct source is such an image and
+	 * contains them. Any other input, including nested views and views that
+	 * translate or extend the image, is read by the generic sampler.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @return a new sampler.
+	 */
+	static < T extends RealType< T > > CubeSampler create( final RandomAccessibleInterval< T > input )
+	{
+		if ( input.numDimensions() == 3 )
+		{
+			// Unwrap crops of an array image.
+			RandomAccessible< T > source = input;
+			if ( input instanceof IntervalView )
+				source = ( ( IntervalView< T > ) input ).getSource();
+
+			if ( source instanceof ArrayImg && Intervals.contains( ( ArrayImg< ?, ? > ) source, input ) )
+			{
+				final ArrayImg< ?, ? > img = ( ArrayImg< ?, ? > ) source;
+				final Object type = img.firstElement();
+				final Object access = img.update( null );
+				if ( access instanceof ArrayDataAccess )
+				{
+					final Object data = ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray();
+					if ( type instanceof UnsignedByteType && data instanceof byte[] )
+						return new UnsignedByteSampler( input, img, ( byte[] ) data );
+					if ( type instanceof UnsignedShortType && data instanceof short[] )
+						return new UnsignedShortSampler( input, img, ( short[] ) data );
+					if ( type instanceof FloatType && data instanceof float[] )
+						return new FloatSampler( input, img, ( float[] ) data );
+				}
+			}
+		}
+		return new GenericSampler<>( input );
+	}
+
+	/**
+	 * Returns a reader for the voxel planes of the input in the Z range
+	 * <code>[minZ, maxZ]</code>, setting the corner bits of voxels with a
+	 * value above the iso-level.
+	 *
+	 * @return a new plane reader, or <code>null</code> if the Z range does
+	 *         not intersect the input.
+	 */
+	abstract CubeIndexer.PlaneReader planeReader( double isoLevel, int minZ, int maxZ );
+
+	/**
+	 * Reads the values at the corners of the cube whose lower corner is at the
+	 * specified position, in the order used by the marching cubes tables.
+	 *
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @param values
+	 *            the array to write the 8 values to.
+	 */
+	abstract void sample( int x, int y, int z, double[] values );
+
+	/**
+	 * Returns the value at the specified position, 0 if it is outside the
+	 * input. Positions up to 2 voxels outside the input can be read.
+	 */
+	abstract double get( int x, int y, int z );
+
+	/**
+	 * Computes the gradient of the values at the specified position, with
+	 * central differences.
+	 *
+	 * @param gradient
+	 *            the array to write the gradient to.
+	 */
+	void gradient( final int x, final int y, final int z, final double[] gradient )
+	{
+		gradient[ 0 ] = 0.5 * ( get( x + 1, y, z ) - get( x - 1, y, z ) );
+		gradient[ 1 ] = 0.5 * ( get( x, y + 1, z ) - get( x, y - 1, z ) );
+		gradient[ 2 ] = 0.5 * ( get( x, y, z + 1 ) - get( x, y, z - 1 ) );
+	}
+
+	/**
+	 * Sampler that reads any image through a random access.
+	 */
+	private static final class GenericSampler< T extends RealType< T > > extends CubeSampler
+	{
+
+		private final RandomAccessibleInterval< T > input;
+
+		private final RandomAccess< T > ra;
+
+		private final int[] pos = new int[ 3 ];
+
+		private GenericSampler( final RandomAccessibleInterval< T > input )
+		{
+			this.input = input;
+			this.ra = Views.extendZero( input ).randomAccess( Intervals.expand( input, 2 ) );
+		}
+
+		@Override
+		CubeIndexer.PlaneReader planeReader( final double isoLevel, final int minZ, final int maxZ )
+		{
+			final int msx = ( int ) input.dimension( 0 );
+			final int msy = ( int ) input.dimension( 1 );
+			final int isx = msx + 2;
+
+			// Input planes that fall in the Z range.
+			final long z0 = Math.max( minZ, input.min( 2 ) );
+			final long z1 = Math.min( maxZ, input.max( 2 ) );
+			if ( z0 > z1 )
+				return null;
+
+			final long[] min = new long[] { input.min( 0 ), input.min( 1 ), z0 };
+			final long[] max = new long[] { input.max( 0 ), input.max( 1 ), z1 };
+			final Cursor< T > c = Views.flatIterable( Views.interval( input, min, max ) ).cursor();
+			return plane -> {
+				int j = isx + 1;
+				for ( int y = 0; y < msy; ++y )
+				{
+					for ( int x = 0; x < msx; ++x )
+					{
+						if ( c.next().getRealDouble() >= isoLevel )
+							plane[ j ] = 1;
+						++j;
+					}
+					j += 2;
+				}
+			};
+		}
+
+		@Override
+		void sample( final int x, final int y, final int z, final double[] values )
+		{
+			pos[ 0 ] = x;
+			pos[ 1 ] = y;
+			pos[ 2 ] = z;
+			ra.setPosition( pos );
+			values[ 3 ] = ra.get().getRealDouble();
+			ra.fwd( 0 );
+			values[ 2 ] = ra.get().getRealDouble();
+			ra.fwd( 1 );
+			values[ 6 ] = ra.get().getRealDouble();
+			ra.bck( 0 );
+			values[ 7 ] = ra.get().getRealDouble();
+			ra.bck( 1 );
+			ra.fwd( 2 );
+			values[ 0 ] = ra.get().getRealDouble();
+			ra.fwd( 0 );
+			values[ 1 ] = ra.get().getRealDouble();
+			ra.fwd( 1 );
+			values[ 5 ] = ra.get().getRealDouble();
+			ra.bck( 0 );
+			values[ 4 ] = ra.get().getRealDouble();
+		}
+
+		@Override
+		double get( final int x, final int y, final int z )
+		{
+			pos[ 0 ] = x;
+			pos[ 1 ] = y;
+			pos[ 2 ] = z;
+			ra.setPosition( pos );
+			return ra.get().getRealDouble();
+		}
+	}
+
+	/**
+	 * Base class for the samplers that read the storage array of a 3D
+	 * {@link ArrayImg}. Positions are the same in the input and in the array
+	 * image.
+	 */
+	private static abstract class ArraySampler extends CubeSampler
+	{
+
+		protected final int minX;
+
+		protected final int minY;
+
+		protected final int minZ;
+
+		protected final int maxX;
+
+		protected final int maxY;
+
+		protected final int maxZ;
+
+		/**
+		 * Width of the padded planes of the cube indexer.
+		 */
+		protected final int isx;
+
+		/**
+		 * Index stride along Y in the storage array.
+		 */
+		protected final int sy;
+
+		/**
+		 * Index stride along Z in the storage array.
+		 */
+		protected final int sz;
+
+		private ArraySampler( final Interval input, final ArrayImg< ?, ? > img )
+		{
+			this.minX = ( int ) input.min( 0 );
+			this.minY = ( int ) input.min( 1 );
+			this.minZ = ( int ) input.min( 2 );
+			this.maxX = ( int ) input.max( 0 );
+			this.maxY = ( int ) input.max( 1 );
+			this.maxZ = ( int ) input.max( 2 );
+			this.isx = ( int ) input.dimension( 0 ) + 2;
+			this.sy = ( int ) img.dimension( 0 );
+			this.sz = sy * ( int ) img.dimension( 1 );
+		}
+
+		/**
+		 * Returns <code>true</code> if all the corners of the cube whose lower
+		 * corner is at the specified position are in the input.
+		 */
+		protected final boolean isInside( final int x, final int y, final int z )
+		{
+			return x >= minX && x < maxX && y >= minY && y < maxY && z >= minZ && z < maxZ;
+		}
+
+		/**
+		 * Returns <code>true</code> if the specified position is in the input.
+		 */
+		protected final boolean contains( final int x, final int y, final int z )
+		{
+			return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+		}
+
+		protected final int index( final int x, final int y, final int z )
+		{
+			return x + y * sy + z * sz;
+		}
+
+		/**
+		 * Returns the Z position of the first plane to read for the specified
+		 * Z range, or <code>-1</code> if the range does not intersect the
+		 * input.
+		 */
+		protected final int firstPlane( final int from, final int to )
+		{
+			final int z0 = Math.max( from, minZ );
+			final int z1 = Math.min( to, maxZ );
+			return ( z0 > z1 ) ? -1 : z0;
+		}
+	}
+
+	private static final class UnsignedByteSampler extends ArraySampler
+	{
+
+		private final byte[] data;
+
+		private UnsignedByteSampler( final Interval input, final ArrayImg< ?, ? > img, final byte[] data )
+		{
+			super( input, img );
+			this.data = data;
+		}
+
+		@Override
+		CubeIndexer.PlaneReader planeReader( final double isoLevel, final int from, final int to )
+		{
+			final int first = firstPlane( from, to );
+			if ( first < 0 )
+				return null;
+
+			final int threshold = PlaneKernels.threshold( isoLevel, 0xff );
+			final int n = maxX - minX + 1;
+			return new CubeIndexer.PlaneReader()
+			{
+				private int z = first;
+
+				@Override
+				public void read( final byte[] plane )
+				{
+					int j = isx + 1;
+					for ( int y = minY; y <= maxY; ++y )
+					{
+						PlaneKernels.threshold( data, index( minX, y, z ), n, threshold, plane, j );
+						j += isx;
+					}
+					z++;
+				}
+			};
+		}
+
+		@Override
+		void sample( final int x, final int y, final int z, final double[] values )
+		{
+			if ( isInside( x, y, z ) )
+			{
+				final int i = index( x, y, z );
+				final int j = i + sz;
+				values[ 3 ] = data[ i ] & 0xff;
+				values[ 2 ] = data[ i + 1 ] & 0xff;
+				values[ 6 ] = data[ i + 1 + sy ] & 0xff;
+				values[ 7 ] = data[ i + sy ] & 0xff;
+				values[ 0 ] = data[ j ] & 0xff;
+				values[ 1 ] = data[ j + 1 ] & 0xff;
+				values[ 5 ] = data[ j + 1 + sy ] & 0xff;
+				values[ 4 ] = data[ j + sy ] & 0xff;
+			}
+			else
+			{
+				values[ 3 ] = get( x, y, z );
+				values[ 2 ] = get( x + 1, y, z );
+				values[ 6 ] = get( x + 1, y + 1, z );
+				values[ 7 ] = get( x, y + 1, z );
+				values[ 0 ] = get( x, y, z + 1 );
+				values[ 1 ] = get( x + 1, y, z + 1 );
+				values[ 5 ] = get( x + 1, y + 1, z + 1 );
+				values[ 4 ] = get( x, y + 1, z + 1 );
+			}
+		}
+
+		@Override
+		double get( final int x, final int y, final int z )
+		{
+			return contains( x, y, z ) ? data[ index( x, y, z ) ] & 0xff : 0.;
+		}
+	}
+
+	private static final class UnsignedShortSampler extends ArraySampler
+	{
+
+		private final short[] data;
+
+		private UnsignedShortSampler( final Interval input, final ArrayImg< ?, ? > img, final short[] data )
+		{
+			super( input, img );
+			this.data = data;
+		}
+
+		@Override
+		CubeIndexer.PlaneReader planeReader( final double isoLevel, final int from, final int to )
+		{
+			final int first = firstPlane( from, to );
+			if ( first < 0 )
+				return null;
+
+			final int threshold = PlaneKernels.threshold( isoLevel, 0xffff );
+			final int n = maxX - minX + 1;
+			return new CubeIndexer.PlaneReader()
+			{
+				private int z = first;
+
+				@Override
+				public void read( final byte[] plane )
+				{
+					int j = isx + 1;
+					for ( int y = minY; y <= maxY; ++y )
+					{
+						PlaneKernels.threshold( data, index( minX, y, z ), n, threshold, plane, j );
+						j += isx;
+					}
+					z++;
+				}
+			};
+		}
+
+		@Override
+		void sample( final int x, final int y, final int z, final double[] values )
+		{
+			if ( isInside( x, y, z ) )
+			{
+				final int i = index( x, y, z );
+				final int j = i + sz;
+				values[ 3 ] = data[ i ] & 0xffff;
+				values[ 2 ] = data[ i + 1 ] & 0xffff;
+				values[ 6 ] = data[ i + 1 + sy ] & 0xffff;
+				values[ 7 ] = data[ i + sy ] & 0xffff;
+				values[ 0 ] = data[ j ] & 0xffff;
+				values[ 1 ] = data[ j + 1 ] & 0xffff;
+				values[ 5 ] = data[ j + 1 + sy ] & 0xffff;
+				values[ 4 ] = data[ j + sy ] & 0xffff;
+			}
+			else
+			{
+				values[ 3 ] = get( x, y, z );
+				values[ 2 ] = get( x + 1, y, z );
+				values[ 6 ] = get( x + 1, y + 1, z );
+				values[ 7 ] = get( x, y + 1, z );
+				values[ 0 ] = get( x, y, z + 1 );
+				values[ 1 ] = get( x + 1, y, z + 1 );
+				values[ 5 ] = get( x + 1, y + 1, z + 1 );
+				values[ 4 ] = get( x, y + 1, z + 1 );
+			}
+		}
+
+		@Override
+		double get( final int x, final int y, final int z )
+		{
+			return contains( x, y, z ) ? data[ index( x, y, z ) ] & 0xffff : 0.;
+		}
+	}
+
+	private static final class FloatSampler extends ArraySampler
+	{
+
+		private final float[] data;
+
+		private FloatSampler( final Interval input, final ArrayImg< ?, ? > img, final float[] data )
+		{
+			super( input, img );
+			this.data = data;
+		}
+
+		@Override
+		CubeIndexer.PlaneReader planeReader( final double isoLevel, final int from, final int to )
+		{
+			final int first = firstPlane( from, to );
+			if ( first < 0 )
+				return null;
+
+			final float threshold = PlaneKernels.threshold( isoLevel );
+			final int n = maxX - minX + 1;
+			return new CubeIndexer.PlaneReader()
+			{
+				private int z = first;
+
+				@Override
+				public void read( final byte[] plane )
+				{
+					int j = isx + 1;
+					for ( int y = minY; y <= maxY; ++y )
+					{
+						PlaneKernels.threshold( data, index( minX, y, z ), n, threshold, plane, j );
+						j += isx;
+					}
+					z++;
+				}
+			};
+		}
+
+		@Override
+		void sample( final int x, final int y, final int z, final double[] values )
+		{
+			if ( isInside( x, y, z ) )
+			{
+				final int i = index( x, y, z );
+				final int j = i + sz;
+				values[ 3 ] = data[ i ];
+				values[ 2 ] = data[ i + 1 ];
+				values[ 6 ] = data[ i + 1 + sy ];
+				values[ 7 ] = data[ i + sy ];
+				values[ 0 ] = data[ j ];
+				values[ 1 ] = data[ j + 1 ];
+				values[ 5 ] = data[ j + 1 + sy ];
+				values[ 4 ] = data[ j + sy ];
+			}
+			else
+			{
+				values[ 3 ] = get( x, y, z );
+				values[ 2 ] = get( x + 1, y, z );
+				values[ 6 ] = get( x + 1, y + 1, z );
+				values[ 7 ] = get( x, y + 1, z );
+				values[ 0 ] = get( x, y, z + 1 );
+				values[ 1 ] = get( x + 1, y, z + 1 );
+				values[ 5 ] = get( x + 1, y + 1, z + 1 );
+				values[ 4 ] = get( x, y + 1, z + 1 );
+			}
+		}
+
+		@Override
+		double get( final int x, final int y, final int z )
+		{
+			return contains( x, y, z ) ? data[ index( x, y, z ) ] : 0.;
+		}
+	}
+}
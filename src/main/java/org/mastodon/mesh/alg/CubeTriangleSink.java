@@ -0,0 +1,56 @@
+package org.mastodon.mesh.alg;
+
+/**
+ * A {@link TriangleSink} that also receives, for each triangle created by the
+ * marching cubes algorithm, the cube it belongs to and the cube edges its
+ * vertices are on, so that it can share the vertices between cubes.
+ */
+@FunctionalInterface
+interface CubeTriangleSink extends TriangleSink
+{
+
+	/**
+	 * Receives a triangle of a cube. By default, only the positions of its
+	 * vertices are used.
+	 *
+	 * @param e0
+	 *            the cube edge of the first vertex.
+	 * @param e1
+	 *            the cube edge of the second vertex.
+	 * @param e2
+	 *            the cube edge of the third vertex.
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @param mx
+	 *            the X position of the cube in the planes of the vertex cache.
+	 * @param my
+	 *            the Y position of the cube in the planes of the vertex cache.
+	 * @param x0
+	 *            the X position of the first vertex.
+	 * @param y0
+	 *            the Y position of the first vertex.
+	 * @param z0
+	 *            the Z position of the first vertex.
+	 * @param x1
+	 *            the X position of the second vertex.
+	 * @param y1
+	 *            the Y position of the second vertex.
+	 * @param z1
+	 *            the Z position of the second vertex.
+	 * @param x2
+	 *            the X position of the third vertex.
+	 * @param y2
+	 *            the Y position of the third vertex.
+	 * @param z2
+	 *            the Z position of the third vertex.
+	 */
+	default void triangle( final int e0, final int e1, final int e2, final int x, final int y, final int z, final int mx, final int my,
+			final double x0, final double y0, final double z0, final double x1, final double y1, final double z1, final double x2, final double y2, final double z2 )
+	{
+		triangle( x0, y0, z0, x1, y1, z1, x2, y2, z2 );
+	}
+}
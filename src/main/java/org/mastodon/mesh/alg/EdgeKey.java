@@ -0,0 +1,78 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.EdgeVertexCache.EDGE_AXIS;
+import static org.mastodon.mesh.alg.EdgeVertexCache.EDGE_DX;
+import static org.mastodon.mesh.alg.EdgeVertexCache.EDGE_DY;
+import static org.mastodon.mesh.alg.EdgeVertexCache.EDGE_DZ;
+
+import net.imglib2.Interval;
+
+/**
+ * Computes a unique key for each voxel edge or corner of the marching cubes of
+ * an input, so that vertices can be shared through a map when the cubes are
+ * not processed in raster order.
+ * <p>
+ * The corners of the cubes span from one voxel before the min of the input to
+ * one voxel after its max. The key of a corner is computed from its position
+ * in this range, the key of an edge from the position of its first corner and
+ * from its axis.
+ */
+class EdgeKey
+{
+
+	private final long gx;
+
+	private final long gy;
+
+	private final long gz;
+
+	private final long gsx;
+
+	private final long gsy;
+
+	EdgeKey( final Interval input )
+	{
+		this.gx = input.min( 0 ) - 1;
+		this.gy = input.min( 1 ) - 1;
+		this.gz = input.min( 2 ) - 1;
+		this.gsx = input.dimension( 0 ) + 2;
+		this.gsy = input.dimension( 1 ) + 2;
+	}
+
+	/**
+	 * Returns the key of the specified edge of the specified cube.
+	 *
+	 * @param edge
+	 *            the edge index in the cube, as in the marching cubes tables.
+	 * @param x
+	 *            the X position of the lower corner of the cube.
+	 * @param y
+	 *            the Y position of the lower corner of the cube.
+	 * @param z
+	 *            the Z position of the lower corner of the cube.
+	 * @return the key.
+	 */
+	long key( final int edge, final int x, final int y, final int z )
+	{
+		final long cx = x + EDGE_DX[ edge ] - gx;
+		final long cy = y + EDGE_DY[ edge ] - gy;
+		final long cz = z + EDGE_DZ[ edge ] - gz;
+		return ( ( cz * gsy + cy ) * gsx + cx ) * 3 + EDGE_AXIS[ edge ];
+	}
+
+	/**
+	 * Returns the key of the specified corner.
+	 *
+	 * @param x
+	 *            the X position of the corner.
+	 * @param y
+	 *            the Y position of the corner.
+	 * @param z
+	 *            the Z position of the corner.
+	 * @return the key.
+	 */
+	long cornerKey( final long x, final long y, final long z )
+	{
+		return ( ( z - gz ) * gsy + ( y - gy ) ) * gsx + ( x - gx );
+	}
+}
@@ -0,0 +1,137 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Vertex;
+
+/**
+ * Vertex cache for the marching cubes on real values, where there is at most
+ * one vertex per voxel edge crossed by the surface.
+ * <p>
+ * The edges along X and Y are stored in the voxel planes, the edges along Z in
+ * the layer between the lower and the upper planes.
+ */
+class EdgeVertexCache extends SlabVertexCache
+{
+
+	static final int X = 0;
+
+	static final int Y = 1;
+
+	static final int Z = 2;
+
+	/*
+	 * For each of the 12 edges of a cube, in the numbering of the marching
+	 * cubes tables: the axis of the edge, and the offset of its first corner
+	 * from the lower corner of the cube.
+	 */
+
+	static final int[] EDGE_AXIS = new int[] { X, Z, X, Z, X, Z, X, Z, Y, Y, Y, Y };
+
+	static final int[] EDGE_DX = new int[] { 0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0 };
+
+	static final int[] EDGE_DY = new int[] { 0, 0, 0, 0, 1, 1, 1, 1, 0, 0, 0, 0 };
+
+	static final int[] EDGE_DZ = new int[] { 1, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0, 0 };
+
+	/**
+	 * Vertex ids on the Z edges of the current layer.
+	 */
+	private final int[] zEdges;
+
+	private boolean created;
+
+	EdgeVertexCache( final int isx, final int isy )
+	{
+		super( isx, isy, 2 );
+		this.zEdges = new int[ planeSize ];
+		Arrays.fill( zEdges, -1 );
+	}
+
+	@Override
+	void nextLayer()
+	{
+		super.nextLayer();
+		Arrays.fill( zEdges, -1 );
+	}
+
+	@Override
+	void reset()
+	{
+		super.reset();
+		Arrays.fill( zEdges, -1 );
+	}
+
+	/**
+	 * Returns the vertex on the specified edge of the specified cube, creating
+	 * it at the specified position if it does not exist yet. Whether it was
+	 * created is then given by {@link #created()}.
+	 *
+	 * @param edge
+	 *            the edge index in the cube, as in the marching cubes tables.
+	 * @param mx
+	 *            the X position of the cube in the mask.
+	 * @param my
+	 *            the Y position of the cube in the mask.
+	 * @param x
+	 *            the X position of the vertex, used if it has to be created.
+	 * @param y
+	 *            the Y position of the vertex, used if it has to be created.
+	 * @param z
+	 *            the Z position of the vertex, used if it has to be created.
+	 * @param calibration
+	 *            the transform applied to the position of the vertex, if it
+	 *            has to be created.
+	 * @param mesh
+	 *            the mesh to add the vertex to.
+	 * @param ref
+	 *            a vertex reference.
+	 * @return the vertex.
+	 */
+	Vertex vertex( final int edge, final int mx, final int my, final double x, final double y, final double z, final Calibration calibration, final TriMesh mesh, final Vertex ref )
+	{
+		final int axis = EDGE_AXIS[ edge ];
+		final int[] ids;
+		if ( axis == Z )
+			ids = zEdges;
+		else
+			ids = ( EDGE_DZ[ edge ] == 0 ) ? lower[ axis ] : upper[ axis ];
+
+		final int i = ( my + EDGE_DY[ edge ] ) * isx + mx + EDGE_DX[ edge ];
+		final Vertex cached = cached( ids[ i ], mesh, ref );
+		if ( cached != null )
+			return cached;
+
+		final Vertex v = calibration.addVertex( mesh, x, y, z, ref );
+		ids[ i ] = v.getInternalPoolIndex();
+		return v;
+	}
+
+	/**
+	 * Returns the vertex with the specified id, or <code>null</code> if the id
+	 * is negative, that is if the vertex is not in the cache and has to be
+	 * created. Records whether it has to be, for {@link #created()}.
+	 */
+	final Vertex cached( final int id, final TriMesh mesh, final Vertex ref )
+	{
+		created = id < 0;
+		if ( created )
+			return null;
+		final RefPool< Vertex > pool = mesh.vertices().getRefPool();
+		return pool.getObject( id, ref );
+	}
+
+	/**
+	 * Returns whether the last vertex returned by
+	 * {@link #vertex(int, int, int, double, double, double, Calibration, TriMesh, Vertex)}
+	 * was created by the call, rather than found in the cache.
+	 *
+	 * @return <code>true</code> if the last vertex is new.
+	 */
+	boolean created()
+	{
+		return created;
+	}
+}
@@ -0,0 +1,65 @@
+package org.mastodon.mesh.alg;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Vertex;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.imglib2.Interval;
+
+/**
+ * Mesh sink that shares all the vertices through a map keyed by the position
+ * of their edge in the input. Cubes can then be processed in any order, at the
+ * price of a map lookup per vertex.
+ */
+class HashVertexSink extends TriMeshSink
+{
+
+	private final EdgeKey keys;
+
+	private final TLongIntHashMap vertices;
+
+	private final RefPool< Vertex > pool;
+
+	private boolean created;
+
+	/**
+	 * Creates a sink.
+	 *
+	 * @param output
+	 *            the mesh to add triangles to.
+	 * @param input
+	 *            the interval of the input.
+	 * @param vertices
+	 *            the map from edge keys to vertex ids. Its no-entry value must
+	 *            be negative.
+	 */
+	HashVertexSink( final TriMesh output, final Interval input, final TLongIntHashMap vertices )
+	{
+		super( output, null, Calibration.NONE, null );
+		this.keys = new EdgeKey( input );
+		this.vertices = vertices;
+		this.pool = output.vertices().getRefPool();
+	}
+
+	@Override
+	Vertex vertex( final int edge, final int x, final int y, final int z, final int mx, final int my,
+			final double px, final double py, final double pz, final Vertex ref )
+	{
+		final long key = keys.key( edge, x, y, z );
+		final int id = vertices.get( key );
+		created = id < 0;
+		if ( !created )
+			return pool.getObject( id, ref );
+
+		final Vertex v = calibration().addVertex( mesh(), px, py, pz, ref );
+		vertices.put( key, v.getInternalPoolIndex() );
+		return v;
+	}
+
+	@Override
+	boolean created()
+	{
+		return created;
+	}
+}
@@ -0,0 +1,180 @@
+package org.mastodon.mesh.alg;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.BooleanType;
+import net.imglib2.view.Views;
+
+/**
+ * Updates a mesh created by the marching cubes algorithm on a mask, after the
+ * mask has been edited in a small interval, without remeshing the whole mask.
+ * <p>
+ * The mesh must be an indexed mesh, as created by
+ * {@link MarchingCubesBooleanType#calculateIndexed(RandomAccessibleInterval)},
+ * on the same mask interval. The cubes that have a corner in the edited
+ * interval are the only ones whose triangles can change. The triangles lying
+ * in the box spanned by these cubes are removed, then the cubes of this box
+ * plus a margin of one cube are meshed again from the updated mask. The
+ * triangles of the margin cubes that were not removed already exist and are
+ * not added twice. Vertices are shared with the existing mesh through their
+ * voxel corner, so the new triangles are linked to the existing ones by twin
+ * half-edges. The vertices that are not used by any triangle anymore are
+ * removed.
+ * <p>
+ * Finding the triangles and vertices in the box requires a pass over the
+ * vertices and triangles of the mesh, but the mask is only read around the
+ * edited interval.
+ */
+public class IncrementalMarchingCubes
+{
+
+	/**
+	 * Updates the mesh of a mask after an edit.
+	 *
+	 * @param mesh
+	 *            the indexed mesh of the mask before the edit, updated in
+	 *            place.
+	 * @param input
+	 *            the mask, after the edit.
+	 * @param edited
+	 *            the interval of the voxels that were edited.
+	 */
+	public static < T extends BooleanType< T > > void update( final TriMesh mesh, final RandomAccessibleInterval< T > input, final Interval edited )
+	{
+		/*
+		 * Cubes with a corner in the edited interval, and the same cubes plus
+		 * a margin of one cube, in the range of cubes of the input.
+		 */
+		final int[] changedMin = new int[ 3 ];
+		final int[] changedMax = new int[ 3 ];
+		final int[] cubeMin = new int[ 3 ];
+		final int[] cubeMax = new int[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			final long first = input.min( d ) - 1;
+			final long last = input.max( d );
+			changedMin[ d ] = ( int ) Math.max( edited.min( d ) - 1, first );
+			changedMax[ d ] = ( int ) Math.min( edited.max( d ), last );
+			if ( changedMin[ d ] > changedMax[ d ] )
+				return;
+			cubeMin[ d ] = ( int ) Math.max( changedMin[ d ] - 1, first );
+			// Exclusive.
+			cubeMax[ d ] = ( int ) Math.min( changedMax[ d ] + 1, last ) + 1;
+		}
+
+		// Remove the triangles in the box of the changed cubes.
+		final RefPool< Vertex > vertices = mesh.vertices().getRefPool();
+		final Vertex vref0 = mesh.vertexRef();
+		final Vertex vref1 = mesh.vertexRef();
+		final Vertex vref2 = mesh.vertexRef();
+		final TIntArrayList toRemove = new TIntArrayList();
+		for ( final Triangle t : mesh.triangles() )
+		{
+			final Vertex v0 = vertices.getObject( t.v0(), vref0 );
+			final Vertex v1 = vertices.getObject( t.v1(), vref1 );
+			final Vertex v2 = vertices.getObject( t.v2(), vref2 );
+			if ( inBox( v0, changedMin, changedMax, 1 )
+					&& inBox( v1, changedMin, changedMax, 1 )
+					&& inBox( v2, changedMin, changedMax, 1 ) )
+				toRemove.add( t.getInternalPoolIndex() );
+		}
+		final RefPool< Triangle > triangles = mesh.triangles().getRefPool();
+		final Triangle tref = mesh.triangleRef();
+		for ( int i = 0; i < toRemove.size(); i++ )
+			mesh.remove( triangles.getObject( toRemove.get( i ), tref ) );
+		mesh.releaseRef( tref );
+
+		// Existing vertices on the corners of the cubes to remesh.
+		final EdgeKey keys = new EdgeKey( input );
+		final TLongIntHashMap corners = CellMarchingCubes.newSeams();
+		final int[] cornerMax = new int[] { cubeMax[ 0 ] - 1, cubeMax[ 1 ] - 1, cubeMax[ 2 ] - 1 };
+		for ( final Vertex v : mesh.vertices() )
+		{
+			if ( inBox( v, cubeMin, cornerMax, 1 ) )
+				corners.put( keys.cornerKey( Math.round( v.x() ), Math.round( v.y() ), Math.round( v.z() ) ), v.getInternalPoolIndex() );
+		}
+
+		// Remesh.
+		final long[] cropMin = new long[ 3 ];
+		final long[] cropMax = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			cropMin[ d ] = Math.max( cubeMin[ d ], input.min( d ) );
+			cropMax[ d ] = Math.min( cubeMax[ d ], input.max( d ) );
+		}
+		final FinalInterval crop = new FinalInterval( cropMin, cropMax );
+		final CornerVertexCache cache = new MapCornerVertexCache( crop, keys, corners );
+		MarchingCubesBooleanType.calculate( Views.interval( input, crop ),
+				cubeMin[ 0 ], cubeMax[ 0 ], cubeMin[ 1 ], cubeMax[ 1 ], cubeMin[ 2 ], cubeMax[ 2 ],
+				mesh, cache );
+
+		// Remove the vertices left without triangles.
+		for ( final int id : corners.values() )
+		{
+			final Vertex v = vertices.getObject( id, vref0 );
+			if ( v.edges().isEmpty() )
+				mesh.remove( v );
+		}
+		mesh.releaseRef( vref0 );
+		mesh.releaseRef( vref1 );
+		mesh.releaseRef( vref2 );
+	}
+
+	/**
+	 * Returns <code>true</code> if the vertex is in the box of corners of the
+	 * cubes <code>[min, max]</code>, expanded on the upper side by the
+	 * specified amount.
+	 */
+	private static boolean inBox( final Vertex v, final int[] min, final int[] max, final int upper )
+	{
+		return v.x() >= min[ 0 ] && v.x() <= max[ 0 ] + upper
+				&& v.y() >= min[ 1 ] && v.y() <= max[ 1 ] + upper
+				&& v.z() >= min[ 2 ] && v.z() <= max[ 2 ] + upper;
+	}
+
+	/**
+	 * Corner vertex cache that finds and stores all the vertices in a map
+	 * keyed by corner position, shared with the existing mesh.
+	 */
+	private static class MapCornerVertexCache extends CornerVertexCache
+	{
+
+		private final EdgeKey keys;
+
+		private final TLongIntHashMap corners;
+
+		private MapCornerVertexCache( final Interval crop, final EdgeKey keys, final TLongIntHashMap corners )
+		{
+			super( ( int ) crop.dimension( 0 ) + 2, ( int ) crop.dimension( 1 ) + 2 );
+			this.keys = keys;
+			this.corners = corners;
+		}
+
+		@Override
+		Vertex vertex( final double[] corner, final int mx, final int my, final int x, final int y, final int z, final Calibration calibration, final TriMesh mesh, final Vertex ref )
+		{
+			final long cx = x + ( long ) corner[ 0 ];
+			final long cy = y + ( long ) corner[ 1 ];
+			final long cz = z + ( long ) corner[ 2 ];
+			final long key = keys.cornerKey( cx, cy, cz );
+			final int id = corners.get( key );
+			if ( id >= 0 )
+			{
+				final RefPool< Vertex > pool = mesh.vertices().getRefPool();
+				return pool.getObject( id, ref );
+			}
+
+			final Vertex v = calibration.addVertex( mesh, cx, cy, cz, ref );
+			corners.put( key, v.getInternalPoolIndex() );
+			return v;
+		}
+	}
+}
@@ -1,14 +1,18 @@
 package org.mastodon.mesh.alg;
 
-import org.apache.commons.math3.util.MathArrays;
 import org.mastodon.mesh.TriMesh;
-import org.mastodon.mesh.Triangle;
-import org.mastodon.mesh.TriangleAdder;
-import org.mastodon.mesh.Vertex;
 
 import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 /**
@@ -22,239 +26,335 @@ import net.imglib2.view.Views;
 public class MarchingCubesBooleanType
 {
 
-	private static final double[] p0 = { 0, 0, 1 };
-
-	private static final double[] p1 = { 1, 0, 1 };
-
-	private static final double[] p2 = { 1, 0, 0 };
-
-	private static final double[] p3 = { 0, 0, 0 };
-
-	private static final double[] p4 = { 0, 1, 1 };
-
-	private static final double[] p5 = { 1, 1, 1 };
-
-	private static final double[] p6 = { 1, 1, 0 };
-
-	private static final double[] p7 = { 0, 1, 0 };
-
-	private static < T extends BooleanType< T > > byte[] mask( final RandomAccessibleInterval< T > input )
+	/**
+	 * Returns a reader for the voxel planes of the input in the Z range
+	 * <code>[minZ, maxZ]</code>, setting the corner bits of voxels that are
+	 * <code>true</code>. Voxels outside the input interval are considered
+	 * outside the surface.
+	 * <p>
+	 * If the input is a 3D {@link ArrayImg} of {@link BitType} (or a crop of
+	 * it), the rows of voxels are copied from its storage words with shifts.
+	 * Otherwise the input is read voxel by voxel.
+	 */
+	static < T extends BooleanType< T > > BitCubeIndexer.PlaneReader planeReader( final RandomAccessibleInterval< T > input, final int minZ, final int maxZ )
 	{
 		final int msx = ( int ) input.dimension( 0 );
 		final int msy = ( int ) input.dimension( 1 );
-		final int msz = ( int ) input.dimension( 2 );
+		final int wordsPerRow = BitCubeIndexer.wordsPerRow( input );
 
-		final int isx = msx + 2;
-		final int isy = msy + 2;
-		final int isz = msz + 2;
+		// Input planes that fall in the Z range.
+		final long z0 = Math.max( minZ, input.min( 2 ) );
+		final long z1 = Math.min( maxZ, input.max( 2 ) );
+		if ( z0 > z1 )
+			return null;
 
-		final int is = isx * isy * isz;
-		final byte[] indices = new byte[ is ];
-		final Cursor< T > c = Views.flatIterable( input ).cursor();
-		int j = isx * isy + isx + 1;
-		for ( int z = 0; z < msz; ++z )
+		final ArrayImg< ?, ? > img = bitImg( input );
+		if ( img != null )
 		{
+			final long[] data = ( long[] ) ( ( ArrayDataAccess< ? > ) img.update( null ) ).getCurrentStorageArray();
+			final long sx = img.dimension( 0 );
+			final long sxy = sx * img.dimension( 1 );
+			return new BitCubeIndexer.PlaneReader()
+			{
+				private long start = input.min( 0 ) + sx * input.min( 1 ) + sxy * z0;
+
+				@Override
+				public void read( final long[] plane )
+				{
+					for ( int y = 0; y < msy; ++y )
+						copyRow( data, start + y * sx, plane, ( y + 1 ) * wordsPerRow, msx );
+					start += sxy;
+				}
+			};
+		}
+
+		final long[] min = new long[] { input.min( 0 ), input.min( 1 ), z0 };
+		final long[] max = new long[] { input.max( 0 ), input.max( 1 ), z1 };
+		final Cursor< T > c = Views.flatIterable( Views.interval( input, min, max ) ).cursor();
+		return plane -> {
 			for ( int y = 0; y < msy; ++y )
 			{
+				final int row = ( y + 1 ) * wordsPerRow;
+				long word = 0;
+				int j = 1;
 				for ( int x = 0; x < msx; ++x )
 				{
 					if ( c.next().get() )
-						indices[ j ] = 1;
-					++j;
+						word |= 1L << ( j & 63 );
+					if ( ( ++j & 63 ) == 0 )
+					{
+						plane[ row + ( j >>> 6 ) - 1 ] = word;
+						word = 0;
+					}
 				}
-				j += 2;
+				if ( ( j & 63 ) != 0 )
+					plane[ row + ( j >>> 6 ) ] = word;
 			}
-			j += 2 * isx;
+		};
+	}
+
+	/**
+	 * Returns the {@link ArrayImg} of {@link BitType} with long storage that
+	 * the input is a crop of, or <code>null</code>.
+	 */
+	private static ArrayImg< ?, ? > bitImg( final RandomAccessibleInterval< ? > input )
+	{
+		if ( input.numDimensions() != 3 )
+			return null;
+
+		RandomAccessible< ? > source = input;
+		if ( input instanceof IntervalView )
+			source = ( ( IntervalView< ? > ) input ).getSource();
+		if ( !( source instanceof ArrayImg ) || !Intervals.contains( ( ArrayImg< ?, ? > ) source, input ) )
+			return null;
+
+		final ArrayImg< ?, ? > img = ( ArrayImg< ?, ? > ) source;
+		if ( !( img.firstElement() instanceof BitType ) )
+			return null;
+		final Object access = img.update( null );
+		if ( access instanceof ArrayDataAccess && ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray() instanceof long[] )
+			return img;
+		return null;
+	}
+
+	/**
+	 * Copies a row of bits to a row of a padded plane, from its bit 1.
+	 *
+	 * @param source
+	 *            the words to copy from.
+	 * @param start
+	 *            the index of the first bit to copy.
+	 * @param plane
+	 *            the padded plane.
+	 * @param row
+	 *            the index of the first word of the row in the plane.
+	 * @param n
+	 *            the number of bits to copy.
+	 */
+	private static void copyRow( final long[] source, final long start, final long[] plane, final int row, final int n )
+	{
+		int done = 0;
+		while ( done < n )
+		{
+			final long from = start + done;
+			final int to = done + 1;
+			final int k = Math.min( n - done, Math.min( 64 - ( int ) ( from & 63 ), 64 - ( to & 63 ) ) );
+			long bits = source[ ( int ) ( from >>> 6 ) ] >>> ( from & 63 );
+			if ( k < 64 )
+				bits &= ( 1L << k ) - 1;
+			plane[ row + ( to >>> 6 ) ] |= bits << ( to & 63 );
+			done += k;
 		}
+	}
 
-		for ( int i = 0; i < is - 1; ++i )
-			indices[ i ] = ubyte( indices[ i ] | ( indices[ i + 1 ] << 1 ) );
+	public static < T extends BooleanType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input )
+	{
+		return calculate( input, null, false );
+	}
 
-		for ( int i = 0; i < is - isx; ++i )
-			indices[ i ] = ubyte( indices[ i ] | ( indices[ i + isx ] << 2 ) );
+	/**
+	 * Multithreaded version of {@link #calculate(RandomAccessibleInterval)}.
+	 * The input is split in slabs along Z as described in
+	 * {@link MarchingCubesRealType#calculate(RandomAccessibleInterval, double, int)}.
+	 *
+	 * @param input
+	 *            the input mask.
+	 * @param nThreads
+	 *            the number of threads to use.
+	 * @return a new mesh.
+	 */
+	public static < T extends BooleanType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final int nThreads )
+	{
+		return SlabMarchingCubes.calculate( input, nThreads,
+				( minZ, maxZ ) -> mesh( input, minZ, maxZ, false, Calibration.NONE ) );
+	}
 
-		for ( int i = 0; i < is - ( isx * isy ); ++i )
-			indices[ i ] = ubyte( indices[ i ] | ( indices[ i + isx * isy ] << 4 ) );
+	/**
+	 * Creates an indexed mesh from the specified mask, using the marching cubes
+	 * algorithm.
+	 * <p>
+	 * Contrary to {@link #calculate(RandomAccessibleInterval)}, which creates
+	 * three new vertices for each triangle, there is exactly one vertex per
+	 * voxel corner on the surface, shared by all the triangles that touch it,
+	 * as described in
+	 * {@link MarchingCubesRealType#calculateIndexed(RandomAccessibleInterval, double)}.
+	 *
+	 * @param input
+	 *            the input mask.
+	 * @return a new mesh.
+	 */
+	public static < T extends BooleanType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input )
+	{
+		return calculate( input, null, true );
+	}
 
-		return indices;
+	/**
+	 * Multithreaded version of
+	 * {@link #calculateIndexed(RandomAccessibleInterval)}, see
+	 * {@link MarchingCubesRealType#calculateIndexed(RandomAccessibleInterval, double, int)}.
+	 *
+	 * @param input
+	 *            the input mask.
+	 * @param nThreads
+	 *            the number of threads to use.
+	 * @return a new mesh.
+	 */
+	public static < T extends BooleanType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final int nThreads )
+	{
+		return SlabMarchingCubes.calculate( input, nThreads,
+				( minZ, maxZ ) -> mesh( input, minZ, maxZ, true, Calibration.NONE ) );
 	}
 
-	private static byte ubyte( final int unsignedByte )
+	/**
+	 * Creates a mesh from the specified mask, with the vertices in physical
+	 * coordinates, as
+	 * {@link MarchingCubesRealType#calculate(RandomAccessibleInterval, double, AffineTransform3D)}
+	 * does for images.
+	 *
+	 * @param input
+	 *            the input mask.
+	 * @param transform
+	 *            the transform from voxel coordinates to physical coordinates.
+	 * @return a new mesh.
+	 */
+	public static < T extends BooleanType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final AffineTransform3D transform )
 	{
-		return ( byte ) ( unsignedByte & 0xff );
+		return calculate( input, transform, false );
 	}
 
-	public static < T extends BooleanType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input )
+	/**
+	 * Creates an indexed mesh from the specified mask, with the vertices in
+	 * physical coordinates.
+	 *
+	 * @param input
+	 *            the input mask.
+	 * @param transform
+	 *            the transform from voxel coordinates to physical coordinates.
+	 * @return a new mesh.
+	 * @see #calculate(RandomAccessibleInterval, AffineTransform3D)
+	 */
+	public static < T extends BooleanType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final AffineTransform3D transform )
 	{
-		final double[][] vertlist = new double[ 12 ][];
+		return calculate( input, transform, true );
+	}
 
-		final int msx = ( int ) input.dimension( 0 );
-		final int msy = ( int ) input.dimension( 1 );
-		final int isx = msx + 2;
-		final int isy = msy + 2;
-		final byte[] mask = mask( input );
-
-		final TriMesh output = new TriMesh();
-		final Vertex vref0 = output.vertexRef();
-		final Vertex vref1 = output.vertexRef();
-		final Vertex vref2 = output.vertexRef();
-		final Triangle tref = output.triangleRef();
-		final TriangleAdder faceAdder = output.triangleAdder();
-
-		final int minX = ( int ) input.min( 0 ) - 1;
-		final int minY = ( int ) input.min( 1 ) - 1;
+	private static < T extends BooleanType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final AffineTransform3D transform, final boolean indexed )
+	{
 		final int minZ = ( int ) input.min( 2 ) - 1;
-		final int maxX = ( int ) input.max( 0 ) + 1;
-		final int maxY = ( int ) input.max( 1 ) + 1;
 		final int maxZ = ( int ) input.max( 2 ) + 1;
+		return mesh( input, minZ, maxZ, indexed, new Calibration( transform ) ).mesh;
+	}
+
+	private static CornerVertexCache newCache( final RandomAccessibleInterval< ? > input )
+	{
+		return new CornerVertexCache( ( int ) input.dimension( 0 ) + 2, ( int ) input.dimension( 1 ) + 2 );
+	}
+
+	/**
+	 * Creates the mesh of the cubes whose lower corner is in the Z range
+	 * <code>[minZ, maxZ)</code>, reading the mask once.
+	 * <p>
+	 * The cubes crossed by the surface are collected in a single pass of the
+	 * bit-packed cube indexer, that also counts their triangles and vertices,
+	 * so that the mesh is created with the capacity it needs. The triangles
+	 * are then built from the collected cubes.
+	 */
+	private static < T extends BooleanType< T > > SlabMarchingCubes.Slab mesh( final RandomAccessibleInterval< T > input,
+			final int minZ, final int maxZ, final boolean indexed, final Calibration calibration )
+	{
+		final BitCubeIndexer indexer = new BitCubeIndexer( input, minZ, planeReader( input, minZ, maxZ ) );
+		final ActiveCubes cubes = ActiveCubes.collect( input, minZ, maxZ, indexer, BooleanCubePolygonizer.TRIANGLE_COUNT );
+		final CornerVertexCache cache = indexed ? newCache( input ) : null;
+		final TriMesh output = mesh( input, cubes, cache, calibration );
+		return new SlabMarchingCubes.Slab( output, cache );
+	}
+
+	/**
+	 * Creates the mesh of the specified collected cubes, in a new mesh sized
+	 * for them. The vertex cache, if not <code>null</code>, is laid out on the
+	 * padded XY planes of the input, and freshly reset.
+	 */
+	static TriMesh mesh( final Interval input, final ActiveCubes cubes, final CornerVertexCache cache, final Calibration calibration )
+	{
+		final TriMesh output = cubes.newMesh( cache != null, false );
+		final BooleanCubePolygonizer polygonizer = new BooleanCubePolygonizer( output, cache, calibration );
+
+		// Origin of the padded planes.
+		final int ox = ( int ) input.min( 0 ) - 1;
+		final int oy = ( int ) input.min( 1 ) - 1;
+
+		for ( int z = cubes.minZ(); z < cubes.maxZ(); ++z )
+		{
+			if ( cache != null && z > cubes.minZ() )
+				cache.nextLayer();
+
+			final int end = cubes.end( z );
+			for ( int i = cubes.start( z ); i < end; ++i )
+			{
+				final int mx = cubes.mx( i );
+				final int my = cubes.my( i );
+				final int mindex = cubes.cubeIndex( i );
+				polygonizer.polygonize( mindex, MarchingCubesRealType.EDGE_TABLE[ mindex ], ox + mx, oy + my, z, mx, my );
+			}
+		}
+		polygonizer.release();
+		return output;
+	}
+
+	/**
+	 * Adds to the output mesh the triangles of the cubes whose lower corner is
+	 * in the box <code>[minX, maxX) x [minY, maxY) x [minZ, maxZ)</code>. The
+	 * box must be included in the cubes of the input, that span from one voxel
+	 * before its min to its max. The vertex cache, if not <code>null</code>,
+	 * is laid out on the padded XY planes of the input.
+	 */
+	static < T extends BooleanType< T > > SlabVertexCache calculate( final RandomAccessibleInterval< T > input,
+			final int minX, final int maxX, final int minY, final int maxY, final int minZ, final int maxZ,
+			final TriMesh output, final CornerVertexCache cache )
+	{
+		final BitCubeIndexer indexer = new BitCubeIndexer( input, minZ, planeReader( input, minZ, maxZ ) );
+		final BooleanCubePolygonizer polygonizer = new BooleanCubePolygonizer( output, cache, Calibration.NONE );
+
+		// Origin of the padded planes.
+		final int ox = ( int ) input.min( 0 ) - 1;
+		final int oy = ( int ) input.min( 1 ) - 1;
+
+		// Words of the rows of cubes that cover the box.
+		final int mx0 = minX - ox;
+		final int mx1 = maxX - ox - 1;
+		final int w0 = mx0 >>> 6;
+		final int w1 = mx1 >>> 6;
 
 		for ( int z = minZ; z < maxZ; ++z )
 		{
+			if ( cache != null && z > minZ )
+				cache.nextLayer();
+			indexer.next();
+
 			for ( int y = minY; y < maxY; ++y )
 			{
-				for ( int x = minX; x < maxX; ++x )
+				final int my = ( y - oy );
+				for ( int w = w0; w <= w1; ++w )
 				{
-					final int mx = ( x - minX );
-					final int my = ( y - minY );
-					final int mz = ( z - minZ );
-					final int mindex = mask[ mz * ( isx * isy ) + my * isx + mx ] & 0xff;
-
-					final int EDGE = MarchingCubesRealType.EDGE_TABLE[ mindex ];
-					if ( EDGE != 0 )
+					long crossed = indexer.crossed( my, w );
+					if ( w == w0 )
+						crossed &= -1L << ( mx0 & 63 );
+					if ( w == w1 )
+						crossed &= -1L >>> ( 63 - ( mx1 & 63 ) );
+
+					// Jump from one crossed cube to the next.
+					while ( crossed != 0 )
 					{
-						/*
-						 * Find the vertices where the surface intersects the
-						 * cube
-						 */
-						if ( 0 != ( EDGE & 1 ) )
-						{
-							vertlist[ 0 ] = interpolatePoint( p0, p1,
-									( mindex & 1 << 5 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 2 ) )
-						{
-							vertlist[ 1 ] = interpolatePoint( p1, p2,
-									( mindex & 1 << 1 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 4 ) )
-						{
-							vertlist[ 2 ] = interpolatePoint( p2, p3,
-									( mindex & 1 << 0 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 8 ) )
-						{
-							vertlist[ 3 ] = interpolatePoint( p3, p0,
-									( mindex & 1 << 4 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 16 ) )
-						{
-							vertlist[ 4 ] = interpolatePoint( p4, p5,
-									( mindex & 1 << 7 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 32 ) )
-						{
-							vertlist[ 5 ] = interpolatePoint( p5, p6,
-									( mindex & 1 << 3 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 64 ) )
-						{
-							vertlist[ 6 ] = interpolatePoint( p6, p7,
-									( mindex & 1 << 2 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 128 ) )
-						{
-							vertlist[ 7 ] = interpolatePoint( p7, p4,
-									( mindex & 1 << 6 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 256 ) )
-						{
-							vertlist[ 8 ] = interpolatePoint( p0, p4,
-									( mindex & 1 << 6 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 512 ) )
-						{
-							vertlist[ 9 ] = interpolatePoint( p1, p5,
-									( mindex & 1 << 7 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 1024 ) )
-						{
-							vertlist[ 10 ] = interpolatePoint( p2, p6,
-									( mindex & 1 << 3 ) != 0 );
-						}
-						if ( 0 != ( EDGE & 2048 ) )
-						{
-							vertlist[ 11 ] = interpolatePoint( p3, p7,
-									( mindex & 1 << 2 ) != 0 );
-						}
-
-						/* Create the triangle */
-						final byte[] TRIANGLE = MarchingCubesRealType.TRIANGLE_TABLE[ mindex ];
-						for ( int i = 0; i < TRIANGLE.length; i += 3 )
-						{
-							final double v2x = vertlist[ TRIANGLE[ i ] ][ 0 ];
-							final double v2y = vertlist[ TRIANGLE[ i ] ][ 1 ];
-							final double v2z = vertlist[ TRIANGLE[ i ] ][ 2 ];
-							final double v1x = vertlist[ TRIANGLE[ i + 1 ] ][ 0 ];
-							final double v1y = vertlist[ TRIANGLE[ i + 1 ] ][ 1 ];
-							final double v1z = vertlist[ TRIANGLE[ i + 1 ] ][ 2 ];
-							final double v0x = vertlist[ TRIANGLE[ i + 2 ] ][ 0 ];
-							final double v0y = vertlist[ TRIANGLE[ i + 2 ] ][ 1 ];
-							final double v0z = vertlist[ TRIANGLE[ i + 2 ] ][ 2 ];
-							if ( positiveArea( v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z ) )
-							{
-								final Vertex v0 = output.addVertex( vref0 );
-								v0.setPosition( x + v0x, 0 );
-								v0.setPosition( y + v0y, 1 );
-								v0.setPosition( z + v0z, 2 );
-
-								final Vertex v1 = output.addVertex( vref1 );
-								v1.setPosition( x + v1x, 0 );
-								v1.setPosition( y + v1y, 1 );
-								v1.setPosition( z + v1z, 2 );
-
-								final Vertex v2 = output.addVertex( vref2 );
-								v2.setPosition( x + v2x, 0 );
-								v2.setPosition( y + v2y, 1 );
-								v2.setPosition( z + v2z, 2 );
-
-								faceAdder.add( v0, v1, v2, tref );
-							}
-						}
+						final int mx = ( w << 6 ) + Long.numberOfTrailingZeros( crossed );
+						crossed &= crossed - 1;
+						final int mindex = indexer.cubeIndex( mx, my );
+						polygonizer.polygonize( mindex, MarchingCubesRealType.EDGE_TABLE[ mindex ], ox + mx, y, z, mx, my );
 					}
 				}
 			}
 		}
 
-		output.releaseRef( vref0 );
-		output.releaseRef( vref1 );
-		output.releaseRef( vref2 );
-		output.releaseRef( tref );
-		faceAdder.releaseRefs();
-
-		return output;
-	}
-
-	private static boolean positiveArea( final double v0x, final double v0y, final double v0z, //
-			final double v1x, final double v1y, final double v1z, //
-			final double v2x, final double v2y, final double v2z )
-	{
-		final double p1x = v0x - v1x;
-		final double p1y = v0y - v1y;
-		final double p1z = v0z - v1z;
-		final double p2x = v2x - v0x;
-		final double p2y = v2y - v0y;
-		final double p2z = v2z - v0z;
-
-		// cross product
-		final double cpx = MathArrays.linearCombination( p1y, p2z, -p1z, p2y );
-		final double cpy = MathArrays.linearCombination( p1z, p2x, -p1x, p2z );
-		final double cpz = MathArrays.linearCombination( p1x, p2y, -p1y, p2x );
-
-		return cpx != 0 || cpy != 0 || cpz != 0;
-	}
-
-	private static double[] interpolatePoint( final double[] p0, final double[] p1, final boolean v1 )
-	{
-		return v1 ? p1 : p0;
+		polygonizer.release();
+		return cache;
 	}
 }
@@ -0,0 +1,218 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.MarchingCubesRealType.EDGE_TABLE;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mastodon.mesh.TriMesh;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+
+/**
+ * Marching cubes on label images, that creates the meshes of all the labels in
+ * a single pass over the image.
+ * <p>
+ * The mesh of a label is the one the marching cubes algorithm creates on the
+ * mask of the voxels with this label, as with
+ * {@link MarchingCubesBooleanType#calculateIndexed(RandomAccessibleInterval)}.
+ * The labels of two voxel planes are kept in memory. The cubes whose 8
+ * corners have the same label are skipped right away. For the other cubes, a
+ * cube index is computed for each label present at the corners. These cubes
+ * are collected with their label, taking 12 bytes per cube and label, and
+ * their triangles and vertices are counted per label, so that the mesh of
+ * each label is created with the capacity it needs. The triangles are then
+ * added to the mesh of each label from the collected cubes.
+ * <p>
+ * The vertices are placed on the corners that are inside the surface, so a
+ * corner can only be a vertex of the mesh of its own label. A single vertex
+ * cache spanning two voxel planes is therefore shared by all the labels.
+ */
+public class MarchingCubesLabels
+{
+
+	/**
+	 * Creates the indexed meshes of all the labels of the specified label
+	 * image, with 0 as background.
+	 *
+	 * @param input
+	 *            the label image.
+	 * @return a new map from label to mesh, in increasing label order.
+	 */
+	public static < T extends IntegerType< T > > Map< Long, TriMesh > calculate( final RandomAccessibleInterval< T > input )
+	{
+		return calculate( input, 0 );
+	}
+
+	/**
+	 * Creates the indexed meshes of all the labels of the specified label
+	 * image.
+	 *
+	 * @param input
+	 *            the label image.
+	 * @param background
+	 *            the label of the background, that is not meshed.
+	 * @return a new map from label to mesh, in increasing label order.
+	 */
+	public static < T extends IntegerType< T > > Map< Long, TriMesh > calculate( final RandomAccessibleInterval< T > input, final long background )
+	{
+		final int sx = ( int ) input.dimension( 0 );
+		final int sy = ( int ) input.dimension( 1 );
+		final int isx = sx + 2;
+		final int isy = sy + 2;
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+		final int ox = ( int ) input.min( 0 ) - 1;
+		final int oy = ( int ) input.min( 1 ) - 1;
+
+		// Padded label planes, with the background outside the input.
+		long[] lower = new long[ isx * isy ];
+		long[] upper = new long[ isx * isy ];
+		Arrays.fill( upper, background );
+
+		final Cursor< T > cursor = Views.flatIterable( input ).cursor();
+		final long[] corners = new long[ 8 ];
+
+		/*
+		 * The crossed cubes of all the labels, in raster order, as their
+		 * position in the padded plane and their cube index, and the slot of
+		 * their label. The slots are numbered in the order the labels are
+		 * met, and count the triangles and vertices of each label.
+		 */
+		final TLongArrayList cubes = new TLongArrayList();
+		final TIntArrayList cubeSlots = new TIntArrayList();
+		final int[] layers = new int[ maxZ - minZ + 1 ];
+		final TLongIntHashMap slots = new TLongIntHashMap( 16, 0.5f, background, -1 );
+		final TLongArrayList slotLabels = new TLongArrayList();
+		final TLongArrayList nTriangles = new TLongArrayList();
+		final TLongArrayList nCrossed = new TLongArrayList();
+
+		for ( int z = minZ; z < maxZ; ++z )
+		{
+			layers[ z - minZ ] = cubes.size();
+			final long[] tmp = lower;
+			lower = upper;
+			upper = tmp;
+			Arrays.fill( upper, background );
+			if ( z + 1 <= input.max( 2 ) )
+			{
+				int j = isx + 1;
+				for ( int y = 0; y < sy; ++y )
+				{
+					for ( int x = 0; x < sx; ++x )
+						upper[ j++ ] = cursor.next().getIntegerLong();
+					j += 2;
+				}
+			}
+
+			final int owned = ( z == maxZ - 1 ) ? ActiveCubes.OWNED_EDGES | ActiveCubes.TOP_EDGES : ActiveCubes.OWNED_EDGES;
+			for ( int my = 0; my < isy - 1; ++my )
+			{
+				for ( int mx = 0; mx < isx - 1; ++mx )
+				{
+					final int i = my * isx + mx;
+					corners[ 0 ] = lower[ i ];
+					corners[ 1 ] = lower[ i + 1 ];
+					corners[ 2 ] = lower[ i + isx ];
+					corners[ 3 ] = lower[ i + isx + 1 ];
+					corners[ 4 ] = upper[ i ];
+					corners[ 5 ] = upper[ i + 1 ];
+					corners[ 6 ] = upper[ i + isx ];
+					corners[ 7 ] = upper[ i + isx + 1 ];
+					if ( uniform( corners ) )
+						continue;
+
+					for ( int k = 0; k < 8; k++ )
+					{
+						final long label = corners[ k ];
+						if ( label == background || seen( corners, k ) )
+							continue;
+
+						int mindex = 0;
+						for ( int c = k; c < 8; c++ )
+							if ( corners[ c ] == label )
+								mindex |= 1 << c;
+
+						int slot = slots.get( label );
+						if ( slot < 0 )
+						{
+							slot = slotLabels.size();
+							slots.put( label, slot );
+							slotLabels.add( label );
+							nTriangles.add( 0 );
+							nCrossed.add( 0 );
+						}
+						cubes.add( ( ( long ) i << 8 ) | mindex );
+						cubeSlots.add( slot );
+						nTriangles.set( slot, nTriangles.get( slot ) + BooleanCubePolygonizer.TRIANGLE_COUNT[ mindex ] );
+						nCrossed.set( slot, nCrossed.get( slot ) + Integer.bitCount( EDGE_TABLE[ mindex ] & owned ) );
+					}
+				}
+			}
+		}
+		layers[ maxZ - minZ ] = cubes.size();
+
+		// Meshes sized for their cubes, built from the collected cubes.
+		final int nLabels = slotLabels.size();
+		final TriMesh[] meshes = new TriMesh[ nLabels ];
+		final BooleanCubePolygonizer[] polygonizers = new BooleanCubePolygonizer[ nLabels ];
+		final CornerVertexCache cache = new CornerVertexCache( isx, isy );
+		for ( int slot = 0; slot < nLabels; slot++ )
+		{
+			final long n = nTriangles.get( slot );
+			meshes[ slot ] = new TriMesh( ActiveCubes.capacity( nCrossed.get( slot ) ), ActiveCubes.capacity( n ), ActiveCubes.capacity( 3 * n ) );
+			polygonizers[ slot ] = new BooleanCubePolygonizer( meshes[ slot ], cache );
+		}
+		for ( int z = minZ; z < maxZ; ++z )
+		{
+			if ( z > minZ )
+				cache.nextLayer();
+			for ( int c = layers[ z - minZ ]; c < layers[ z - minZ + 1 ]; ++c )
+			{
+				final long cube = cubes.get( c );
+				final int i = ( int ) ( cube >>> 8 );
+				final int mx = i % isx;
+				final int my = i / isx;
+				final int mindex = ( int ) cube & 0xff;
+				polygonizers[ cubeSlots.get( c ) ].polygonize( mindex, EDGE_TABLE[ mindex ], mx + ox, my + oy, z, mx, my );
+			}
+		}
+		for ( final BooleanCubePolygonizer polygonizer : polygonizers )
+			polygonizer.release();
+
+		final long[] labels = slotLabels.toArray();
+		Arrays.sort( labels );
+		final Map< Long, TriMesh > output = new LinkedHashMap<>( 2 * labels.length );
+		for ( final long label : labels )
+			output.put( label, meshes[ slots.get( label ) ] );
+		return output;
+	}
+
+	private static boolean uniform( final long[] corners )
+	{
+		final long label = corners[ 0 ];
+		for ( int k = 1; k < 8; k++ )
+			if ( corners[ k ] != label )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if the label of the corner <code>k</code> is
+	 * also the label of a previous corner.
+	 */
+	private static boolean seen( final long[] corners, final int k )
+	{
+		for ( int c = 0; c < k; c++ )
+			if ( corners[ c ] == corners[ k ] )
+				return true;
+		return false;
+	}
+}
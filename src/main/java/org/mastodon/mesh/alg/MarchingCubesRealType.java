@@ -1,17 +1,13 @@
 package org.mastodon.mesh.alg;
 
-import org.apache.commons.math3.util.MathArrays;
+import java.util.List;
+
 import org.mastodon.mesh.TriMesh;
-import org.mastodon.mesh.Triangle;
-import org.mastodon.mesh.TriangleAdder;
-import org.mastodon.mesh.Vertex;
 
-import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
+import gnu.trove.map.hash.TLongIntHashMap;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.Views;
 
 /**
  * This is a marching cubes implementation. It is inspired by Paul Bourke's
@@ -23,292 +19,462 @@ import net.imglib2.view.Views;
  */
 public class MarchingCubesRealType
 {
-	private static final double[] p0 = { 0, 0, 1 };
-
-	private static final double[] p1 = { 1, 0, 1 };
+	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel )
+	{
+		return calculate( input, isoLevel, null, false, false );
+	}
 
-	private static final double[] p2 = { 1, 0, 0 };
+	/**
+	 * Runs the marching cubes algorithm on the specified image and sends the
+	 * triangles to a sink, without building a mesh.
+	 * <p>
+	 * The triangles are the ones of
+	 * {@link #calculate(RandomAccessibleInterval, double)}, in the same order,
+	 * in voxel coordinates. Nothing is allocated per triangle, so this is
+	 * suited to consumers that only count the triangles, measure them, or
+	 * stream them to a renderer or a file.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param sink
+	 *            the sink to send the triangles to.
+	 */
+	public static < T extends RealType< T > > void calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final TriangleSink sink )
+	{
+		calculate( input, isoLevel, ( int ) input.min( 2 ) - 1, ( int ) input.max( 2 ) + 1, sink );
+	}
 
-	private static final double[] p3 = { 0, 0, 0 };
+	/**
+	 * Sends to a sink the triangles of the cubes whose lower corner is in the
+	 * Z range <code>[minZ, maxZ)</code>.
+	 */
+	static < T extends RealType< T > > void calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int minZ, final int maxZ, final TriangleSink sink )
+	{
+		final int minX = ( int ) input.min( 0 ) - 1;
+		final int minY = ( int ) input.min( 1 ) - 1;
+		final int maxX = ( int ) input.max( 0 ) + 1;
+		final int maxY = ( int ) input.max( 1 ) + 1;
+		final CubeSampler sampler = CubeSampler.create( input );
+		final CubeIndexer indexer = new CubeIndexer( input, minZ, sampler.planeReader( isoLevel, minZ, maxZ ) );
+		polygonize( input, sampler, indexer, minX, maxX, minY, maxY, minZ, maxZ, null, new CubePolygonizer( isoLevel, sink::triangle ) );
+	}
 
-	private static final double[] p4 = { 0, 1, 1 };
+	/**
+	 * Multithreaded version of {@link #calculate(RandomAccessibleInterval, double)}.
+	 * <p>
+	 * The input is split in slabs along Z, that are processed in parallel in a
+	 * fork-join pool. The mesh of each slab is built separately, then the slab
+	 * meshes are appended in Z order to the output. The output has the same
+	 * vertices and triangles, in the same order, as the single-threaded
+	 * version.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            the number of threads to use.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int nThreads )
+	{
+		return SlabMarchingCubes.calculate( input, nThreads,
+				( minZ, maxZ ) -> mesh( input, isoLevel, minZ, maxZ, false, Calibration.NONE, false ) );
+	}
 
-	private static final double[] p5 = { 1, 1, 1 };
+	/**
+	 * Creates an indexed mesh from the specified image, using the marching
+	 * cubes algorithm.
+	 * <p>
+	 * Contrary to {@link #calculate(RandomAccessibleInterval, double)}, which
+	 * creates three new vertices for each triangle, there is exactly one vertex
+	 * per voxel edge crossed by the surface, shared by all the triangles that
+	 * touch it. The vertex ids are cached in arrays that span two voxel planes,
+	 * so the output does not need to be processed for duplicate vertices, and
+	 * the twin half-edges are linked as the triangles are added.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel )
+	{
+		return calculate( input, isoLevel, null, true, false );
+	}
 
-	private static final double[] p6 = { 1, 1, 0 };
+	/**
+	 * Multithreaded version of
+	 * {@link #calculateIndexed(RandomAccessibleInterval, double)}.
+	 * <p>
+	 * The vertices created on the voxel planes shared by two adjacent slabs are
+	 * welded when merging the slab meshes, so the output is a single indexed
+	 * mesh with twin half-edges linked across slab boundaries.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            the number of threads to use.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel, final int nThreads )
+	{
+		return SlabMarchingCubes.calculate( input, nThreads,
+				( minZ, maxZ ) -> mesh( input, isoLevel, minZ, maxZ, true, Calibration.NONE, false ) );
+	}
 
-	private static final double[] p7 = { 0, 1, 0 };
+	/**
+	 * Creates the meshes of the specified image at several iso-levels, reading
+	 * the image once.
+	 * <p>
+	 * The voxel planes are read once and kept in memory while the cubes are
+	 * processed for every iso-level, so the cost of reading the image is paid
+	 * once instead of once per level. Each mesh is the same as the one created
+	 * by {@link #calculate(RandomAccessibleInterval, double)} at its level.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevels
+	 *            the thresholds to distinguish between foreground and
+	 *            background values.
+	 * @return a new list of meshes, one per iso-level, in the order of the
+	 *         iso-levels.
+	 */
+	public static < T extends RealType< T > > List< TriMesh > calculate( final RandomAccessibleInterval< T > input, final double[] isoLevels )
+	{
+		return MultiIsoMarchingCubes.calculate( input, isoLevels, false );
+	}
 
-	private static < T extends RealType< T > > byte[] mask( final RandomAccessibleInterval< T > input, final double isoLevel )
+	/**
+	 * Creates the indexed meshes of the specified image at several
+	 * iso-levels, reading the image once. Each mesh is the same as the one
+	 * created by {@link #calculateIndexed(RandomAccessibleInterval, double)} at
+	 * its level.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevels
+	 *            the thresholds to distinguish between foreground and
+	 *            background values.
+	 * @return a new list of meshes, one per iso-level, in the order of the
+	 *         iso-levels.
+	 * @see #calculate(RandomAccessibleInterval, double[])
+	 */
+	public static < T extends RealType< T > > List< TriMesh > calculateIndexed( final RandomAccessibleInterval< T > input, final double[] isoLevels )
 	{
-		final int msx = ( int ) input.dimension( 0 );
-		final int msy = ( int ) input.dimension( 1 );
-		final int msz = ( int ) input.dimension( 2 );
-
-		final int isx = msx + 2;
-		final int isy = msy + 2;
-		final int isz = msz + 2;
-
-		final int is = isx * isy * isz;
-		final byte[] indices = new byte[ is ];
-		final Cursor< T > c = Views.flatIterable( input ).cursor();
-		int j = isx * isy + isx + 1;
-		for ( int z = 0; z < msz; ++z )
-		{
-			for ( int y = 0; y < msy; ++y )
-			{
-				for ( int x = 0; x < msx; ++x )
-				{
-					if ( c.next().getRealDouble() >= isoLevel )
-						indices[ j ] = 1;
-					++j;
-				}
-				j += 2;
-			}
-			j += 2 * isx;
-		}
+		return MultiIsoMarchingCubes.calculate( input, isoLevels, true );
+	}
 
-		for ( int i = 0; i < is - 1; ++i )
-			indices[ i ] = ubyte( indices[ i ] | ( indices[ i + 1 ] << 1 ) );
+	/**
+	 * Creates a mesh from the specified image, with the vertices in physical
+	 * coordinates.
+	 * <p>
+	 * The vertices are transformed as they are created, so the triangle
+	 * normals are computed in physical space, and the mesh does not need to be
+	 * scaled afterwards. The transform must be invertible. If it mirrors the
+	 * image, the triangles are reversed so that their normals still point
+	 * outward.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param transform
+	 *            the transform from voxel coordinates to physical coordinates.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final AffineTransform3D transform )
+	{
+		return calculate( input, isoLevel, transform, false, false );
+	}
 
-		for ( int i = 0; i < is - isx; ++i )
-			indices[ i ] = ubyte( indices[ i ] | ( indices[ i + isx ] << 2 ) );
+	/**
+	 * Creates an indexed mesh from the specified image, with the vertices in
+	 * physical coordinates.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param transform
+	 *            the transform from voxel coordinates to physical coordinates.
+	 * @return a new mesh.
+	 * @see #calculate(RandomAccessibleInterval, double, AffineTransform3D)
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel, final AffineTransform3D transform )
+	{
+		return calculate( input, isoLevel, transform, true, false );
+	}
 
-		for ( int i = 0; i < is - ( isx * isy ); ++i )
-			indices[ i ] = ubyte( indices[ i ] | ( indices[ i + isx * isy ] << 4 ) );
+	/**
+	 * Creates an indexed mesh from the specified image, optionally with smooth
+	 * vertex normals.
+	 * <p>
+	 * The vertex normals are computed as the vertices are created, from the
+	 * gradient of the image estimated with central differences at the ends of
+	 * the voxel edge of each vertex, and interpolated at the vertex. They are
+	 * normalized and point outward. They are stored in the vertices, see
+	 * {@link org.mastodon.mesh.Vertex#normal(float[])}, and left to 0 where
+	 * the gradient is 0. The mesh is then created with the vertex layout with
+	 * normals, {@link org.mastodon.mesh.VertexPool#normalLayout}; without
+	 * them, the vertices do not store a normal.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param vertexNormals
+	 *            whether to compute the vertex normals.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel, final boolean vertexNormals )
+	{
+		return calculate( input, isoLevel, null, true, vertexNormals );
+	}
 
-		return indices;
+	/**
+	 * Creates an indexed mesh from the specified image, with the vertices in
+	 * physical coordinates, and optionally with smooth vertex normals, also in
+	 * physical coordinates.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param transform
+	 *            the transform from voxel coordinates to physical coordinates.
+	 * @param vertexNormals
+	 *            whether to compute the vertex normals.
+	 * @return a new mesh.
+	 * @see #calculateIndexed(RandomAccessibleInterval, double, boolean)
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel, final AffineTransform3D transform, final boolean vertexNormals )
+	{
+		return calculate( input, isoLevel, transform, true, vertexNormals );
 	}
 
-	private static byte ubyte( final int unsignedByte )
+	private static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final AffineTransform3D transform, final boolean indexed, final boolean vertexNormals )
 	{
-		return ( byte ) ( unsignedByte & 0xff );
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+		return mesh( input, isoLevel, minZ, maxZ, indexed, new Calibration( transform ), vertexNormals ).mesh;
 	}
 
-	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel )
+	/**
+	 * Creates an indexed mesh from the specified image, visiting only the
+	 * blocks of cubes crossed by the iso-surface.
+	 * <p>
+	 * The blocks are found with a min/max pyramid of the image, that can be
+	 * reused for several iso-levels. The blocks whose range of values does not
+	 * straddle the iso-level are skipped without reading the image, so the
+	 * running time scales with the size of the surface rather than with the
+	 * size of the image. The output is the same indexed mesh as with
+	 * {@link #calculateIndexed(RandomAccessibleInterval, double)}, up to the
+	 * order of vertices and triangles.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param pyramid
+	 *            the min/max pyramid of the input.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the pyramid was not built on the input interval.
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel, final MinMaxPyramid pyramid )
 	{
-		final byte[] mask = mask( input, isoLevel );
+		pyramid.check( input );
+		final TriMesh output = new TriMesh();
+		final TLongIntHashMap seams = CellMarchingCubes.newSeams();
+		pyramid.visit( isoLevel, ( cubeMin, cubeMax ) -> CellMarchingCubes.mesh( input, isoLevel, cubeMin, cubeMax, output, seams, null ) );
+		return output;
+	}
 
-		final double[][] vertlist = new double[ 12 ][ 3 ];
+	/**
+	 * Creates an indexed mesh from the specified image, visiting only the
+	 * cubes crossed by the iso-surface.
+	 * <p>
+	 * The cubes are found with a span-space index of the image, that can be
+	 * reused for several iso-levels. Only the corners of these cubes are read,
+	 * so the running time is proportional to the number of triangles of the
+	 * output. The vertices are shared through a map keyed by voxel edge. The
+	 * output is the same indexed mesh as with
+	 * {@link #calculateIndexed(RandomAccessibleInterval, double)}, up to the
+	 * order of vertices and triangles.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param index
+	 *            the span-space index of the input.
+	 * @return a new mesh.
+	 * @throws IllegalArgumentException
+	 *             if the index was not built on the input interval.
+	 */
+	public static < T extends RealType< T > > TriMesh calculateIndexed( final RandomAccessibleInterval< T > input, final double isoLevel, final SpanSpaceIndex index )
+	{
+		index.check( input );
+		final long[] cubes = index.activeCubes( isoLevel );
+		final TriMesh output = new TriMesh( Math.max( 1, cubes.length ), Math.max( 1, 2 * cubes.length ) );
+		final CubeSampler sampler = CubeSampler.create( input );
+		final HashVertexSink sink = new HashVertexSink( output, input, CellMarchingCubes.newSeams() );
+		final CubePolygonizer polygonizer = new CubePolygonizer( isoLevel, sink );
 		final double[] vertex_values = new double[ 8 ];
-		final int msx = ( int ) input.dimension( 0 );
-		final int msy = ( int ) input.dimension( 1 );
-		final int isx = msx + 2;
-		final int isy = msy + 2;
+		final int[] position = new int[ 3 ];
+		for ( final long cube : cubes )
+		{
+			index.position( cube, position );
+			final int x = position[ 0 ];
+			final int y = position[ 1 ];
+			final int z = position[ 2 ];
+			sampler.sample( x, y, z, vertex_values );
+			final int mindex = CubePolygonizer.cubeIndex( vertex_values, isoLevel, x, y, z, input );
+			final int EDGE = EDGE_TABLE[ mindex ];
+			if ( EDGE != 0 )
+				polygonizer.polygonize( mindex, EDGE, vertex_values, x, y, z, 0, 0 );
+		}
+		sink.release();
+		return output;
+	}
 
-		final TriMesh output = new TriMesh();
-		final Vertex vref0 = output.vertexRef();
-		final Vertex vref1 = output.vertexRef();
-		final Vertex vref2 = output.vertexRef();
-		final Triangle tref = output.triangleRef();
-		final TriangleAdder faceAdder = output.triangleAdder();
+	/**
+	 * Creates the mesh of the cubes whose lower corner is in the Z range
+	 * <code>[minZ, maxZ)</code>, reading and thresholding the input once.
+	 * <p>
+	 * The cubes crossed by the surface are collected in a single pass of the
+	 * cube indexer, that also counts their triangles and vertices, so that the
+	 * mesh is created with the capacity it needs. The triangles are then built
+	 * from the collected cubes, sampling only their corners.
+	 */
+	private static < T extends RealType< T > > SlabMarchingCubes.Slab mesh( final RandomAccessibleInterval< T > input, final double isoLevel,
+			final int minZ, final int maxZ, final boolean indexed, final Calibration calibration, final boolean vertexNormals )
+	{
+		final CubeSampler sampler = CubeSampler.create( input );
+		final CubeIndexer indexer = new CubeIndexer( input, minZ, sampler.planeReader( isoLevel, minZ, maxZ ) );
+		final ActiveCubes cubes = ActiveCubes.collect( input, minZ, maxZ, indexer, CubePolygonizer.TRIANGLE_COUNT );
+		final EdgeVertexCache cache = indexed ? newCache( input ) : null;
+		final TriMesh output = mesh( input, isoLevel, sampler, cubes, cache, calibration, vertexNormals );
+		return new SlabMarchingCubes.Slab( output, cache );
+	}
 
-		final RandomAccess< T > ra = Views.extendZero( input ).randomAccess( Intervals.expand( input, 1 ) );
-		final int[] pos = new int[ 3 ];
+	/**
+	 * Creates the mesh of the specified collected cubes, in a new mesh sized
+	 * for them. The vertex cache, if not <code>null</code>, is laid out on the
+	 * padded XY planes of the input, and freshly reset.
+	 */
+	static < T extends RealType< T > > TriMesh mesh( final RandomAccessibleInterval< T > input, final double isoLevel,
+			final CubeSampler sampler, final ActiveCubes cubes, final EdgeVertexCache cache,
+			final Calibration calibration, final boolean vertexNormals )
+	{
+		final TriMesh output = cubes.newMesh( cache != null, vertexNormals );
+		final TriMeshSink sink = new TriMeshSink( output, cache, calibration, vertexNormals ? sampler : null );
+		final CubePolygonizer polygonizer = new CubePolygonizer( isoLevel, sink );
+		final double[] vertex_values = new double[ 8 ];
 
-		final int minX = ( int ) input.min( 0 ) - 1;
-		final int minY = ( int ) input.min( 1 ) - 1;
-		final int minZ = ( int ) input.min( 2 ) - 1;
-		final int maxX = ( int ) input.max( 0 ) + 1;
-		final int maxY = ( int ) input.max( 1 ) + 1;
-		final int maxZ = ( int ) input.max( 2 ) + 1;
+		// Origin of the padded planes.
+		final int ox = ( int ) input.min( 0 ) - 1;
+		final int oy = ( int ) input.min( 1 ) - 1;
 
-		for ( int z = minZ; z < maxZ; ++z )
+		for ( int z = cubes.minZ(); z < cubes.maxZ(); ++z )
 		{
-			for ( int y = minY; y < maxY; ++y )
-			{
-				for ( int x = minX; x < maxX; ++x )
-				{
-					final int mx = ( x - minX );
-					final int my = ( y - minY );
-					final int mz = ( z - minZ );
-					final int mindex = mask[ mz * ( isx * isy ) + my * isx + mx ] & 0xff;
+			if ( cache != null && z > cubes.minZ() )
+				cache.nextLayer();
 
-					final int EDGE = EDGE_TABLE[ mindex ];
-					if ( EDGE != 0 )
-					{
-						pos[ 0 ] = x;
-						pos[ 1 ] = y;
-						pos[ 2 ] = z;
-						ra.setPosition( pos );
-						vertex_values[ 3 ] = ra.get().getRealDouble();
-						ra.fwd( 0 );
-						vertex_values[ 2 ] = ra.get().getRealDouble();
-						ra.fwd( 1 );
-						vertex_values[ 6 ] = ra.get().getRealDouble();
-						ra.bck( 0 );
-						vertex_values[ 7 ] = ra.get().getRealDouble();
-						ra.bck( 1 );
-						ra.fwd( 2 );
-						vertex_values[ 0 ] = ra.get().getRealDouble();
-						ra.fwd( 0 );
-						vertex_values[ 1 ] = ra.get().getRealDouble();
-						ra.fwd( 1 );
-						vertex_values[ 5 ] = ra.get().getRealDouble();
-						ra.bck( 0 );
-						vertex_values[ 4 ] = ra.get().getRealDouble();
-
-						/*
-						 * Find the vertices where the surface intersects the
-						 * cube
-						 */
-						if ( 0 != ( EDGE & 1 ) )
-						{
-							interpolatePoint( vertlist[ 0 ], p0, p1, vertex_values[ 0 ],
-									vertex_values[ 1 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 2 ) )
-						{
-							interpolatePoint( vertlist[ 1 ], p1, p2, vertex_values[ 1 ],
-									vertex_values[ 2 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 4 ) )
-						{
-							interpolatePoint( vertlist[ 2 ], p2, p3, vertex_values[ 2 ],
-									vertex_values[ 3 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 8 ) )
-						{
-							interpolatePoint( vertlist[ 3 ], p3, p0, vertex_values[ 3 ],
-									vertex_values[ 0 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 16 ) )
-						{
-							interpolatePoint( vertlist[ 4 ], p4, p5, vertex_values[ 4 ],
-									vertex_values[ 5 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 32 ) )
-						{
-							interpolatePoint( vertlist[ 5 ], p5, p6, vertex_values[ 5 ],
-									vertex_values[ 6 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 64 ) )
-						{
-							interpolatePoint( vertlist[ 6 ], p6, p7, vertex_values[ 6 ],
-									vertex_values[ 7 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 128 ) )
-						{
-							interpolatePoint( vertlist[ 7 ], p7, p4, vertex_values[ 7 ],
-									vertex_values[ 4 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 256 ) )
-						{
-							interpolatePoint( vertlist[ 8 ], p0, p4, vertex_values[ 0 ],
-									vertex_values[ 4 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 512 ) )
-						{
-							interpolatePoint( vertlist[ 9 ], p1, p5, vertex_values[ 1 ],
-									vertex_values[ 5 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 1024 ) )
-						{
-							interpolatePoint( vertlist[ 10 ], p2, p6, vertex_values[ 2 ],
-									vertex_values[ 6 ], isoLevel );
-						}
-						if ( 0 != ( EDGE & 2048 ) )
-						{
-							interpolatePoint( vertlist[ 11 ], p3, p7, vertex_values[ 3 ],
-									vertex_values[ 7 ], isoLevel );
-						}
-
-						/* Create the triangle */
-						final byte[] TRIANGLE = TRIANGLE_TABLE[ mindex ];
-						for ( int i = 0; i < TRIANGLE.length; i += 3 )
-						{
-							final double v2x = vertlist[ TRIANGLE[ i ] ][ 0 ];
-							final double v2y = vertlist[ TRIANGLE[ i ] ][ 1 ];
-							final double v2z = vertlist[ TRIANGLE[ i ] ][ 2 ];
-							final double v1x = vertlist[ TRIANGLE[ i + 1 ] ][ 0 ];
-							final double v1y = vertlist[ TRIANGLE[ i + 1 ] ][ 1 ];
-							final double v1z = vertlist[ TRIANGLE[ i + 1 ] ][ 2 ];
-							final double v0x = vertlist[ TRIANGLE[ i + 2 ] ][ 0 ];
-							final double v0y = vertlist[ TRIANGLE[ i + 2 ] ][ 1 ];
-							final double v0z = vertlist[ TRIANGLE[ i + 2 ] ][ 2 ];
-							if ( positiveArea( v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z ) )
-							{
-								final Vertex v0 = output.addVertex( vref0 );
-								v0.setPosition( x + v0x, 0 );
-								v0.setPosition( y + v0y, 1 );
-								v0.setPosition( z + v0z, 2 );
-
-								final Vertex v1 = output.addVertex( vref1 );
-								v1.setPosition( x + v1x, 0 );
-								v1.setPosition( y + v1y, 1 );
-								v1.setPosition( z + v1z, 2 );
-
-								final Vertex v2 = output.addVertex( vref2 );
-								v2.setPosition( x + v2x, 0 );
-								v2.setPosition( y + v2y, 1 );
-								v2.setPosition( z + v2z, 2 );
-
-								faceAdder.add( v0, v1, v2, tref );
-							}
-						}
-					}
-				}
+			final int end = cubes.end( z );
+			for ( int i = cubes.start( z ); i < end; ++i )
+			{
+				final int mx = cubes.mx( i );
+				final int my = cubes.my( i );
+				final int mindex = cubes.cubeIndex( i );
+				final int x = ox + mx;
+				final int y = oy + my;
+				sampler.sample( x, y, z, vertex_values );
+				polygonizer.polygonize( mindex, EDGE_TABLE[ mindex ], vertex_values, x, y, z, mx, my );
 			}
 		}
-
-		output.releaseRef( vref0 );
-		output.releaseRef( vref1 );
-		output.releaseRef( vref2 );
-		output.releaseRef( tref );
-		faceAdder.releaseRefs();
-
+		sink.release();
 		return output;
 	}
 
-	private static boolean positiveArea( final double v0x, final double v0y, final double v0z, //
-			final double v1x, final double v1y, final double v1z, //
-			final double v2x, final double v2y, final double v2z )
+	private static EdgeVertexCache newCache( final RandomAccessibleInterval< ? > input )
 	{
-		final double p1x = v0x - v1x;
-		final double p1y = v0y - v1y;
-		final double p1z = v0z - v1z;
-		final double p2x = v2x - v0x;
-		final double p2y = v2y - v0y;
-		final double p2z = v2z - v0z;
-
-		// cross product
-		final double cpx = MathArrays.linearCombination( p1y, p2z, -p1z, p2y );
-		final double cpy = MathArrays.linearCombination( p1z, p2x, -p1x, p2z );
-		final double cpz = MathArrays.linearCombination( p1x, p2y, -p1y, p2x );
-
-		return cpx != 0 || cpy != 0 || cpz != 0;
+		return new EdgeVertexCache( ( int ) input.dimension( 0 ) + 2, ( int ) input.dimension( 1 ) + 2 );
 	}
 
-	private static void interpolatePoint( final double[] output, final double[] p0, final double[] p1, final double v0, final double v1, final double isolevel )
+	/**
+	 * Adds to the output mesh the triangles of the cubes whose lower corner is
+	 * in the box <code>[minX, maxX) x [minY, maxY) x [minZ, maxZ)</code>. The
+	 * box must be included in the cubes of the input, that span from one voxel
+	 * before its min to its max. The vertex cache, if not <code>null</code>,
+	 * is laid out on the padded XY planes of the input.
+	 */
+	static < T extends RealType< T > > SlabVertexCache calculate( final RandomAccessibleInterval< T > input, final double isoLevel,
+			final int minX, final int maxX, final int minY, final int maxY, final int minZ, final int maxZ,
+			final TriMesh output, final EdgeVertexCache cache )
 	{
-		if ( Math.abs( isolevel - v0 ) < 0.00001 )
-		{
-			for ( int i = 0; i < 3; i++ )
-			{
-				output[ i ] = p0[ i ];
-			}
-		}
-		else if ( Math.abs( isolevel - v1 ) < 0.00001 )
-		{
-			for ( int i = 0; i < 3; i++ )
-			{
-				output[ i ] = p1[ i ];
-			}
-		}
-		else if ( Math.abs( v0 - v1 ) < 0.00001 )
+		final CubeSampler sampler = CubeSampler.create( input );
+		final CubeIndexer indexer = new CubeIndexer( input, minZ, sampler.planeReader( isoLevel, minZ, maxZ ) );
+		final TriMeshSink sink = new TriMeshSink( output, cache, Calibration.NONE, null );
+		polygonize( input, sampler, indexer, minX, maxX, minY, maxY, minZ, maxZ, cache, new CubePolygonizer( isoLevel, sink ) );
+		sink.release();
+		return cache;
+	}
+
+	/**
+	 * Polygonizes the cubes whose lower corner is in the box, with the
+	 * specified polygonizer.
+	 */
+	private static < T extends RealType< T > > void polygonize( final RandomAccessibleInterval< T > input,
+			final CubeSampler sampler, final CubeIndexer indexer,
+			final int minX, final int maxX, final int minY, final int maxY, final int minZ, final int maxZ,
+			final EdgeVertexCache cache, final CubePolygonizer polygonizer )
+	{
+		final double[] vertex_values = new double[ 8 ];
+		final int isx = ( int ) input.dimension( 0 ) + 2;
+
+		// Origin of the padded planes.
+		final int ox = ( int ) input.min( 0 ) - 1;
+		final int oy = ( int ) input.min( 1 ) - 1;
+
+		for ( int z = minZ; z < maxZ; ++z )
 		{
-			for ( int i = 0; i < 3; i++ )
+			if ( cache != null && z > minZ )
+				cache.nextLayer();
+			final byte[] indices = indexer.next();
+
+			for ( int y = minY; y < maxY; ++y )
 			{
-				output[ i ] = p0[ i ];
-			}
-		}
-		else
-		{
-			final double mu = ( isolevel - v0 ) / ( v1 - v0 );
+				for ( int x = minX; x < maxX; ++x )
+				{
+					final int mx = ( x - ox );
+					final int my = ( y - oy );
+					final int mindex = indices[ my * isx + mx ] & 0xff;
 
-			output[ 0 ] = p0[ 0 ] + mu * ( p1[ 0 ] - p0[ 0 ] );
-			output[ 1 ] = p0[ 1 ] + mu * ( p1[ 1 ] - p0[ 1 ] );
-			output[ 2 ] = p0[ 2 ] + mu * ( p1[ 2 ] - p0[ 2 ] );
+					final int EDGE = EDGE_TABLE[ mindex ];
+					if ( EDGE != 0 )
+					{
+						sampler.sample( x, y, z, vertex_values );
+						polygonizer.polygonize( mindex, EDGE, vertex_values, x, y, z, mx, my );
+					}
+				}
+			}
 		}
 	}
 
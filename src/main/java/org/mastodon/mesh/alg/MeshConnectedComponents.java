@@ -2,19 +2,19 @@ package org.mastodon.mesh.alg;
 
 import java.util.Iterator;
 
-import org.mastodon.collection.IntRefMap;
 import org.mastodon.collection.RefCollections;
 import org.mastodon.collection.RefDeque;
-import org.mastodon.collection.RefMaps;
 import org.mastodon.collection.RefSet;
 import org.mastodon.graph.algorithm.util.Graphs;
 import org.mastodon.mesh.HalfEdge;
-import org.mastodon.mesh.Meshes;
 import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
 import org.mastodon.mesh.Triangle;
-import org.mastodon.mesh.TriangleAdder;
 import org.mastodon.mesh.Vertex;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
 public class MeshConnectedComponents
 {
 
@@ -196,56 +196,49 @@ public class MeshConnectedComponents
 
 		private TriMesh makeCC( final RefSet< Triangle > cc )
 		{
-			final TriMesh out = new TriMesh( cc.size() );
+			// Map of Vid in IN mesh to Vid in OUT mesh.
+			final TIntIntHashMap vMap = new TIntIntHashMap( cc.size(), 0.5f, -1, -1 );
+			final TDoubleArrayList positions = new TDoubleArrayList( 3 * cc.size() );
+			final int[] triangles = new int[ 3 * cc.size() ];
 
 			final Vertex ivref = mesh.vertexRef();
-			final Vertex ovref0 = out.vertexRef();
-			final Vertex ovref1 = out.vertexRef();
-			final Vertex ovref2 = out.vertexRef();
-			final Triangle otref = out.triangleRef();
-			final TriangleAdder triangleAdder = out.triangleAdder();
-
 			try
 			{
-				// Map of Vid in IN mesh to Vid in OUT mesh.
-				final IntRefMap< Vertex > vMap = RefMaps.createIntRefMap( out.vertices(), -1 );
-
-				// Copy vertices.
-				final RefSet< Vertex > inVertices = Meshes.verticesOf( cc, mesh );
-				for ( final Vertex vIn : inVertices )
-				{
-					final Vertex vOut = out.addVertex( ovref0 );
-					vOut.init( vIn.x(), vIn.y(), vIn.z() );
-					vMap.put( vIn.getInternalPoolIndex(), vOut );
-				}
-
-				// Copy faces.
+				// Copy vertices and faces.
+				int i = 0;
 				for ( final Triangle inT : cc )
 				{
-					final int id0 = inT.getVertex0( ivref ).getInternalPoolIndex();
-					final Vertex ov0 = vMap.get( id0, ovref0 );
-
-					final int id1 = inT.getVertex1( ivref ).getInternalPoolIndex();
-					final Vertex ov1 = vMap.get( id1, ovref1 );
-
-					final int id2 = inT.getVertex2( ivref ).getInternalPoolIndex();
-					final Vertex ov2 = vMap.get( id2, ovref2 );
-
-					triangleAdder.add( ov0, ov1, ov2, otref );
+					triangles[ i++ ] = vertexId( inT.getVertex0( ivref ), vMap, positions );
+					triangles[ i++ ] = vertexId( inT.getVertex1( ivref ), vMap, positions );
+					triangles[ i++ ] = vertexId( inT.getVertex2( ivref ), vMap, positions );
 				}
-				return out;
+				return TriMeshBuilder.build( positions.toArray(), triangles );
 			}
 			finally
 			{
-				out.releaseRef( ovref0 );
-				out.releaseRef( ovref1 );
-				out.releaseRef( ovref2 );
-				out.releaseRef( otref );
-				triangleAdder.releaseRefs();
 				mesh.releaseRef( ivref );
 			}
 		}
 
+		/**
+		 * Returns the id in the OUT mesh of the specified vertex of the IN
+		 * mesh, adding its position to the OUT positions the first time it is
+		 * met.
+		 */
+		private int vertexId( final Vertex vIn, final TIntIntHashMap vMap, final TDoubleArrayList positions )
+		{
+			final int id = vMap.get( vIn.getInternalPoolIndex() );
+			if ( id >= 0 )
+				return id;
+
+			final int newId = positions.size() / 3;
+			positions.add( vIn.x() );
+			positions.add( vIn.y() );
+			positions.add( vIn.z() );
+			vMap.put( vIn.getInternalPoolIndex(), newId );
+			return newId;
+		}
+
 	}
 
 }
@@ -0,0 +1,294 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * A pyramid of the minimal and maximal values of an image over blocks of
+ * marching cubes, used to skip the regions the iso-surface does not cross.
+ * <p>
+ * The cubes of the marching cubes algorithm, that span from one voxel before
+ * the min of the image to its max, are split in blocks of
+ * <code>blockSize</code> cubes along each axis. For each block, the pyramid
+ * stores the range of the values at the corners of its cubes. The blocks
+ * that contain cubes with corners outside the image get a minimal value of
+ * <code>-&infin;</code>, since these corners are always outside the surface.
+ * Each level of the pyramid then groups 2 x 2 x 2 blocks of the previous
+ * level, until a single block remains.
+ * <p>
+ * A block contains cubes crossed by the iso-surface only if its range
+ * straddles the iso-level. The pyramid does not depend on the iso-level, so
+ * it can be built once and reused for several extractions of the same image.
+ * It has to be rebuilt if the image changes.
+ */
+public class MinMaxPyramid
+{
+
+	/**
+	 * The default size of the blocks of the first level.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 8;
+
+	/**
+	 * Interface for the classes that process the blocks of the first level
+	 * crossed by the iso-surface.
+	 */
+	interface BlockVisitor
+	{
+
+		/**
+		 * Processes the block of the cubes whose lower corner is in the box
+		 * <code>[cubeMin, cubeMax)</code>.
+		 */
+		void block( int[] cubeMin, int[] cubeMax );
+	}
+
+	private final Interval interval;
+
+	private final int blockSize;
+
+	/**
+	 * Number of blocks along each axis, for each level.
+	 */
+	private final int[][] dimensions;
+
+	private final double[][] mins;
+
+	private final double[][] maxs;
+
+	/**
+	 * Builds the min/max pyramid of the specified image, with the default
+	 * block size.
+	 *
+	 * @param input
+	 *            the image.
+	 * @return a new pyramid.
+	 */
+	public static < T extends RealType< T > > MinMaxPyramid create( final RandomAccessibleInterval< T > input )
+	{
+		return create( input, DEFAULT_BLOCK_SIZE );
+	}
+
+	/**
+	 * Builds the min/max pyramid of the specified image.
+	 *
+	 * @param input
+	 *            the image.
+	 * @param blockSize
+	 *            the number of cubes along each axis of a block of the first
+	 *            level.
+	 * @return a new pyramid.
+	 */
+	public static < T extends RealType< T > > MinMaxPyramid create( final RandomAccessibleInterval< T > input, final int blockSize )
+	{
+		if ( blockSize < 1 )
+			throw new IllegalArgumentException( "Block size must be at least 1, got " + blockSize + "." );
+		final MinMaxPyramid pyramid = new MinMaxPyramid( input, blockSize );
+		pyramid.fill( input );
+		return pyramid;
+	}
+
+	private MinMaxPyramid( final Interval input, final int blockSize )
+	{
+		this.interval = new FinalInterval( input );
+		this.blockSize = blockSize;
+
+		int nLevels = 1;
+		final int[] dims = new int[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			// There is one more cube than voxels along each axis.
+			dims[ d ] = ( int ) ( input.dimension( d ) / blockSize ) + 1;
+			nLevels = Math.max( nLevels, 33 - Integer.numberOfLeadingZeros( dims[ d ] - 1 ) );
+		}
+		this.dimensions = new int[ nLevels ][];
+		this.mins = new double[ nLevels ][];
+		this.maxs = new double[ nLevels ][];
+		for ( int level = 0; level < nLevels; level++ )
+		{
+			dimensions[ level ] = dims.clone();
+			final int size = dims[ 0 ] * dims[ 1 ] * dims[ 2 ];
+			mins[ level ] = new double[ size ];
+			maxs[ level ] = new double[ size ];
+			for ( int d = 0; d < 3; d++ )
+				dims[ d ] = ( dims[ d ] + 1 ) / 2;
+		}
+	}
+
+	/**
+	 * Returns the interval of the image this pyramid was built on.
+	 *
+	 * @return the interval.
+	 */
+	public Interval interval()
+	{
+		return interval;
+	}
+
+	/**
+	 * Returns the number of cubes along each axis of a block of the first
+	 * level.
+	 *
+	 * @return the block size.
+	 */
+	public int blockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * Returns the number of levels of the pyramid.
+	 *
+	 * @return the number of levels.
+	 */
+	public int numLevels()
+	{
+		return dimensions.length;
+	}
+
+	/**
+	 * Returns the number of blocks of the first level crossed by the
+	 * iso-surface at the specified level.
+	 *
+	 * @param isoLevel
+	 *            the iso-level.
+	 * @return the number of blocks.
+	 */
+	public long countActiveBlocks( final double isoLevel )
+	{
+		final long[] count = new long[ 1 ];
+		visit( isoLevel, ( cubeMin, cubeMax ) -> count[ 0 ]++ );
+		return count[ 0 ];
+	}
+
+	/**
+	 * Calls the specified visitor for each block of the first level crossed
+	 * by the iso-surface at the specified level. The blocks are found by
+	 * descending the pyramid from its top, skipping the groups of blocks
+	 * whose range does not straddle the iso-level.
+	 */
+	void visit( final double isoLevel, final BlockVisitor visitor )
+	{
+		final int top = dimensions.length - 1;
+		visit( isoLevel, top, 0, 0, 0, visitor, new int[ 3 ], new int[ 3 ] );
+	}
+
+	private void visit( final double isoLevel, final int level, final int bx, final int by, final int bz,
+			final BlockVisitor visitor, final int[] cubeMin, final int[] cubeMax )
+	{
+		final int[] dims = dimensions[ level ];
+		final int i = ( bz * dims[ 1 ] + by ) * dims[ 0 ] + bx;
+		if ( maxs[ level ][ i ] < isoLevel || mins[ level ][ i ] >= isoLevel )
+			return;
+
+		if ( level == 0 )
+		{
+			final int[] b = new int[] { bx, by, bz };
+			for ( int d = 0; d < 3; d++ )
+			{
+				// Cube positions relative to the first cube.
+				final long first = ( long ) b[ d ] * blockSize;
+				final long last = Math.min( first + blockSize, interval.dimension( d ) + 1 );
+				cubeMin[ d ] = ( int ) ( interval.min( d ) - 1 + first );
+				cubeMax[ d ] = ( int ) ( interval.min( d ) - 1 + last );
+			}
+			visitor.block( cubeMin, cubeMax );
+			return;
+		}
+
+		final int[] children = dimensions[ level - 1 ];
+		for ( int z = 2 * bz; z < Math.min( 2 * bz + 2, children[ 2 ] ); z++ )
+			for ( int y = 2 * by; y < Math.min( 2 * by + 2, children[ 1 ] ); y++ )
+				for ( int x = 2 * bx; x < Math.min( 2 * bx + 2, children[ 0 ] ); x++ )
+					visit( isoLevel, level - 1, x, y, z, visitor, cubeMin, cubeMax );
+	}
+
+	private < T extends RealType< T > > void fill( final RandomAccessibleInterval< T > input )
+	{
+		final int[] dims = dimensions[ 0 ];
+		final double[] lo = mins[ 0 ];
+		final double[] hi = maxs[ 0 ];
+		Arrays.fill( lo, Double.POSITIVE_INFINITY );
+		Arrays.fill( hi, Double.NEGATIVE_INFINITY );
+
+		/*
+		 * The voxel at position r from the min is a corner of the cubes at
+		 * positions r and r + 1 from the first cube.
+		 */
+		final int sx = ( int ) input.dimension( 0 );
+		final int sy = ( int ) input.dimension( 1 );
+		final int sz = ( int ) input.dimension( 2 );
+		final Cursor< T > cursor = Views.flatIterable( input ).cursor();
+		for ( int z = 0; z < sz; z++ )
+		{
+			final int bz0 = z / blockSize;
+			final int bz1 = ( z + 1 ) / blockSize;
+			for ( int y = 0; y < sy; y++ )
+			{
+				final int by0 = y / blockSize;
+				final int by1 = ( y + 1 ) / blockSize;
+				for ( int x = 0; x < sx; x++ )
+				{
+					final int bx0 = x / blockSize;
+					final int bx1 = ( x + 1 ) / blockSize;
+					final double v = cursor.next().getRealDouble();
+					for ( int bz = bz0; bz <= bz1; bz++ )
+						for ( int by = by0; by <= by1; by++ )
+							for ( int bx = bx0; bx <= bx1; bx++ )
+							{
+								final int i = ( bz * dims[ 1 ] + by ) * dims[ 0 ] + bx;
+								if ( v < lo[ i ] )
+									lo[ i ] = v;
+								if ( v > hi[ i ] )
+									hi[ i ] = v;
+							}
+				}
+			}
+		}
+
+		// Blocks with cubes on the border have corners outside the image.
+		for ( int bz = 0; bz < dims[ 2 ]; bz++ )
+			for ( int by = 0; by < dims[ 1 ]; by++ )
+				for ( int bx = 0; bx < dims[ 0 ]; bx++ )
+					if ( bx == 0 || by == 0 || bz == 0 || bx == dims[ 0 ] - 1 || by == dims[ 1 ] - 1 || bz == dims[ 2 ] - 1 )
+						lo[ ( bz * dims[ 1 ] + by ) * dims[ 0 ] + bx ] = Double.NEGATIVE_INFINITY;
+
+		for ( int level = 1; level < dimensions.length; level++ )
+			reduce( level );
+	}
+
+	private void reduce( final int level )
+	{
+		final int[] dims = dimensions[ level ];
+		final int[] children = dimensions[ level - 1 ];
+		final double[] lo = mins[ level ];
+		final double[] hi = maxs[ level ];
+		Arrays.fill( lo, Double.POSITIVE_INFINITY );
+		Arrays.fill( hi, Double.NEGATIVE_INFINITY );
+		for ( int z = 0; z < children[ 2 ]; z++ )
+			for ( int y = 0; y < children[ 1 ]; y++ )
+				for ( int x = 0; x < children[ 0 ]; x++ )
+				{
+					final int c = ( z * children[ 1 ] + y ) * children[ 0 ] + x;
+					final int i = ( ( z / 2 ) * dims[ 1 ] + y / 2 ) * dims[ 0 ] + x / 2;
+					lo[ i ] = Math.min( lo[ i ], mins[ level - 1 ][ c ] );
+					hi[ i ] = Math.max( hi[ i ], maxs[ level - 1 ][ c ] );
+				}
+	}
+
+	/**
+	 * Checks that this pyramid was built on the specified interval.
+	 */
+	void check( final Interval input )
+	{
+		if ( !Intervals.equals( interval, input ) )
+			throw new IllegalArgumentException( "The min/max pyramid was not built on the input interval." );
+	}
+}
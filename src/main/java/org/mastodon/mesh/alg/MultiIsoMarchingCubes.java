@@ -0,0 +1,156 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.MarchingCubesRealType.EDGE_TABLE;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Marching cubes at several iso-levels in a single pass over the input.
+ * <p>
+ * The voxel values are read once, one plane at a time, in two padded planes of
+ * doubles for the lower and upper voxel planes of the current layer of cubes.
+ * Each iso-level has its own {@link CubeIndexer}, that thresholds the upper
+ * plane in memory, its own polygonizer and vertex cache, and its own output
+ * mesh. The corner values of the cubes crossed by the surface at a level are
+ * read from the two planes. The meshes are the same as the ones created level
+ * by level, but the input is read once instead of once per level.
+ */
+class MultiIsoMarchingCubes
+{
+
+	/**
+	 * Creates the meshes of the specified image at the specified iso-levels.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevels
+	 *            the iso-levels.
+	 * @param indexed
+	 *            whether to create indexed meshes.
+	 * @return a new list of meshes, one per iso-level, in the order of the
+	 *         iso-levels.
+	 */
+	static < T extends RealType< T > > List< TriMesh > calculate( final RandomAccessibleInterval< T > input, final double[] isoLevels, final boolean indexed )
+	{
+		final int nLevels = isoLevels.length;
+		final int msx = ( int ) input.dimension( 0 );
+		final int msy = ( int ) input.dimension( 1 );
+		final int isx = msx + 2;
+		final int isy = msy + 2;
+		final int minX = ( int ) input.min( 0 ) - 1;
+		final int minY = ( int ) input.min( 1 ) - 1;
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxX = ( int ) input.max( 0 ) + 1;
+		final int maxY = ( int ) input.max( 1 ) + 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+
+		// Values of the lower and upper voxel planes, 0 in the padding.
+		double[] lower = new double[ isx * isy ];
+		double[] upper = new double[ isx * isy ];
+		final double[][] planes = new double[][] { upper };
+
+		final TriMesh[] meshes = new TriMesh[ nLevels ];
+		final CubeIndexer[] indexers = new CubeIndexer[ nLevels ];
+		final EdgeVertexCache[] caches = new EdgeVertexCache[ nLevels ];
+		final TriMeshSink[] sinks = new TriMeshSink[ nLevels ];
+		final CubePolygonizer[] polygonizers = new CubePolygonizer[ nLevels ];
+		for ( int l = 0; l < nLevels; l++ )
+		{
+			final double isoLevel = isoLevels[ l ];
+			meshes[ l ] = new TriMesh();
+			indexers[ l ] = new CubeIndexer( input, minZ, plane -> threshold( planes[ 0 ], isoLevel, isx, msx, msy, plane ) );
+			caches[ l ] = indexed ? new EdgeVertexCache( isx, isy ) : null;
+			sinks[ l ] = new TriMeshSink( meshes[ l ], caches[ l ], Calibration.NONE, null );
+			polygonizers[ l ] = new CubePolygonizer( isoLevel, sinks[ l ] );
+		}
+
+		final Cursor< T > c = Views.flatIterable( input ).cursor();
+		final double[] values = new double[ 8 ];
+		for ( int z = minZ; z < maxZ; ++z )
+		{
+			final double[] tmp = lower;
+			lower = upper;
+			upper = tmp;
+			planes[ 0 ] = upper;
+			if ( z + 1 <= input.max( 2 ) )
+				read( c, isx, msx, msy, upper );
+			else
+				Arrays.fill( upper, 0. );
+
+			for ( int l = 0; l < nLevels; l++ )
+			{
+				if ( caches[ l ] != null && z > minZ )
+					caches[ l ].nextLayer();
+				final byte[] indices = indexers[ l ].next();
+				for ( int y = minY; y < maxY; ++y )
+				{
+					final int my = y - minY;
+					for ( int x = minX; x < maxX; ++x )
+					{
+						final int mx = x - minX;
+						final int i = my * isx + mx;
+						final int mindex = indices[ i ] & 0xff;
+						final int EDGE = EDGE_TABLE[ mindex ];
+						if ( EDGE == 0 )
+							continue;
+
+						// Corner values in the order of the tables.
+						values[ 0 ] = upper[ i ];
+						values[ 1 ] = upper[ i + 1 ];
+						values[ 2 ] = lower[ i + 1 ];
+						values[ 3 ] = lower[ i ];
+						values[ 4 ] = upper[ i + isx ];
+						values[ 5 ] = upper[ i + isx + 1 ];
+						values[ 6 ] = lower[ i + isx + 1 ];
+						values[ 7 ] = lower[ i + isx ];
+						polygonizers[ l ].polygonize( mindex, EDGE, values, x, y, z, mx, my );
+					}
+				}
+			}
+		}
+
+		for ( final TriMeshSink sink : sinks )
+			sink.release();
+		return Arrays.asList( meshes );
+	}
+
+	/**
+	 * Reads the next voxel plane of the input in a padded plane of values.
+	 */
+	private static < T extends RealType< T > > void read( final Cursor< T > c, final int isx, final int msx, final int msy, final double[] plane )
+	{
+		int j = isx + 1;
+		for ( int y = 0; y < msy; ++y )
+		{
+			for ( int x = 0; x < msx; ++x )
+				plane[ j++ ] = c.next().getRealDouble();
+			j += 2;
+		}
+	}
+
+	/**
+	 * Sets the corner bits of the voxels of a padded plane of values that are
+	 * above the iso-level.
+	 */
+	private static void threshold( final double[] values, final double isoLevel, final int isx, final int msx, final int msy, final byte[] plane )
+	{
+		int j = isx + 1;
+		for ( int y = 0; y < msy; ++y )
+		{
+			for ( int x = 0; x < msx; ++x )
+			{
+				plane[ j ] = ( byte ) ( values[ j ] >= isoLevel ? 1 : 0 );
+				++j;
+			}
+			j += 2;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.mastodon.mesh.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Marching cubes on a multi-resolution pyramid of an image, that creates one
+ * mesh per resolution level.
+ * <p>
+ * Level 0 is the input at full resolution. Each following level is
+ * downsampled by 2 along each axis from the previous one, by averaging blocks
+ * of 2x2x2 voxels. A level has 8 times less voxels than the previous one, so
+ * its mesh is built in a fraction of the time of the full resolution mesh,
+ * and has about 4 times less triangles. All the meshes are built in the
+ * coordinates of the input, so they overlap.
+ * <p>
+ * The meshes are built from the coarsest level to the finest one, so that a
+ * viewer can display a coarse surface right away and refine it as the finer
+ * levels come in.
+ */
+public class MultiResolutionMarchingCubes
+{
+
+	/**
+	 * Creates the indexed meshes of the levels of a pyramid of the specified
+	 * image.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nLevels
+	 *            the number of levels, including the full resolution.
+	 * @return a new list of meshes, from the finest level to the coarsest.
+	 * @throws IllegalArgumentException
+	 *             if the number of levels is smaller than 1.
+	 */
+	public static < T extends RealType< T > > List< TriMesh > calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int nLevels )
+	{
+		checkLevels( nLevels );
+		final TriMesh[] meshes = new TriMesh[ nLevels ];
+		calculate( input, isoLevel, nLevels, ( mesh, level ) -> meshes[ level ] = mesh );
+		return Arrays.asList( meshes );
+	}
+
+	/**
+	 * Creates the indexed meshes of the levels of a pyramid of the specified
+	 * image, and passes them to a consumer, from the coarsest level to the
+	 * finest one.
+	 * <p>
+	 * The downsampled levels are stored as float images, which take about
+	 * 1/7th of the number of voxels of the input.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nLevels
+	 *            the number of levels, including the full resolution.
+	 * @param consumer
+	 *            the consumer of the meshes and of their level.
+	 * @throws IllegalArgumentException
+	 *             if the number of levels is smaller than 1.
+	 */
+	public static < T extends RealType< T > > void calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int nLevels, final ObjIntConsumer< TriMesh > consumer )
+	{
+		checkLevels( nLevels );
+		final List< RandomAccessibleInterval< FloatType > > levels = new ArrayList<>( nLevels - 1 );
+		final List< AffineTransform3D > transforms = new ArrayList<>( nLevels - 1 );
+		RandomAccessibleInterval< FloatType > previous = null;
+		for ( int level = 1; level < nLevels; level++ )
+		{
+			previous = ( previous == null ) ? downsample( input ) : downsample( previous );
+			levels.add( previous );
+
+			// Level voxels are at the center of the input blocks they average.
+			final double s = 1 << level;
+			final AffineTransform3D transform = new AffineTransform3D();
+			transform.set(
+					s, 0, 0, input.min( 0 ) + ( s - 1 ) / 2,
+					0, s, 0, input.min( 1 ) + ( s - 1 ) / 2,
+					0, 0, s, input.min( 2 ) + ( s - 1 ) / 2 );
+			transforms.add( transform );
+		}
+
+		for ( int level = nLevels - 1; level > 0; level-- )
+			consumer.accept( MarchingCubesRealType.calculateIndexed( levels.get( level - 1 ), isoLevel, transforms.get( level - 1 ) ), level );
+		consumer.accept( MarchingCubesRealType.calculateIndexed( input, isoLevel ), 0 );
+	}
+
+	/**
+	 * Creates the indexed meshes of the levels of a multi-resolution source,
+	 * and passes them to a consumer, from the coarsest level to the finest
+	 * one.
+	 *
+	 * @param levels
+	 *            the levels of the source, from the finest to the coarsest.
+	 * @param transforms
+	 *            for each level, the transform from the voxel coordinates of
+	 *            the level to the coordinates of the meshes.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param consumer
+	 *            the consumer of the meshes and of their level.
+	 * @throws IllegalArgumentException
+	 *             if there are not as many transforms as levels.
+	 */
+	public static < T extends RealType< T > > void calculate( final List< ? extends RandomAccessibleInterval< T > > levels, final List< AffineTransform3D > transforms, final double isoLevel, final ObjIntConsumer< TriMesh > consumer )
+	{
+		if ( levels.size() != transforms.size() )
+			throw new IllegalArgumentException( "Expected one transform per level, got " + transforms.size() + " transforms for " + levels.size() + " levels." );
+
+		for ( int level = levels.size() - 1; level >= 0; level-- )
+			consumer.accept( MarchingCubesRealType.calculateIndexed( levels.get( level ), isoLevel, transforms.get( level ) ), level );
+	}
+
+	private static void checkLevels( final int nLevels )
+	{
+		if ( nLevels < 1 )
+			throw new IllegalArgumentException( "The number of levels must be at least 1, got " + nLevels + "." );
+	}
+
+	/**
+	 * Returns a new float image, half the size of the input along each axis,
+	 * rounded up, in which each voxel is the average of a block of 2x2x2
+	 * voxels of the input. The blocks on the upper border of an input with an
+	 * odd size are smaller.
+	 */
+	private static < T extends RealType< T > > RandomAccessibleInterval< FloatType > downsample( final RandomAccessibleInterval< T > input )
+	{
+		final int sx = ( int ) input.dimension( 0 );
+		final int sy = ( int ) input.dimension( 1 );
+		final int sz = ( int ) input.dimension( 2 );
+		final int osx = ( sx + 1 ) / 2;
+		final int osy = ( sy + 1 ) / 2;
+		final int osz = ( sz + 1 ) / 2;
+		final float[] data = new float[ osx * osy * osz ];
+
+		final Cursor< T > cursor = Views.flatIterable( input ).cursor();
+		for ( int z = 0; z < sz; z++ )
+		{
+			for ( int y = 0; y < sy; y++ )
+			{
+				final int row = ( ( z / 2 ) * osy + y / 2 ) * osx;
+				for ( int x = 0; x < sx; x++ )
+					data[ row + x / 2 ] += cursor.next().getRealFloat();
+			}
+		}
+
+		int i = 0;
+		for ( int z = 0; z < osz; z++ )
+		{
+			final int cz = Math.min( 2, sz - 2 * z );
+			for ( int y = 0; y < osy; y++ )
+			{
+				final int cy = Math.min( 2, sy - 2 * y );
+				for ( int x = 0; x < osx; x++ )
+				{
+					final int cx = Math.min( 2, sx - 2 * x );
+					data[ i++ ] /= cx * cy * cz;
+				}
+			}
+		}
+		return ArrayImgs.floats( data, osx, osy, osz );
+	}
+}
@@ -0,0 +1,150 @@
+package org.mastodon.mesh.alg;
+
+/**
+ * Data-parallel loops of the marching cubes algorithm on voxel planes: the
+ * thresholding of a row of voxels, and the neighbour ORs that build the cube
+ * indices.
+ * <p>
+ * The loops are written without branches, on primitive arrays with a single
+ * induction variable, so that the JIT compiler can turn them into SIMD
+ * instructions. The thresholds are converted once to the type of the voxels,
+ * so that the comparisons are made in that type and give the same results as
+ * comparing the voxel values to the iso-level in double precision.
+ */
+final class PlaneKernels
+{
+
+	private PlaneKernels()
+	{}
+
+	/**
+	 * Returns the smallest integer voxel value that is above or equal to the
+	 * specified iso-level, clamped to <code>[0, maxValue + 1]</code>.
+	 *
+	 * @param isoLevel
+	 *            the iso-level.
+	 * @param maxValue
+	 *            the largest voxel value.
+	 * @return the integer threshold. No voxel is inside if it is
+	 *         <code>maxValue + 1</code>.
+	 */
+	static int threshold( final double isoLevel, final int maxValue )
+	{
+		if ( Double.isNaN( isoLevel ) || isoLevel > maxValue )
+			return maxValue + 1;
+		if ( isoLevel <= 0 )
+			return 0;
+		return ( int ) Math.ceil( isoLevel );
+	}
+
+	/**
+	 * Returns the smallest float that is above or equal to the specified
+	 * iso-level. A float voxel value is above or equal to the iso-level if and
+	 * only if it is above or equal to this threshold.
+	 *
+	 * @param isoLevel
+	 *            the iso-level.
+	 * @return the float threshold.
+	 */
+	static float threshold( final double isoLevel )
+	{
+		final float t = ( float ) isoLevel;
+		return ( t < isoLevel ) ? Math.nextUp( t ) : t;
+	}
+
+	/**
+	 * Sets the corner bits of a row of unsigned byte voxels.
+	 *
+	 * @param data
+	 *            the voxel values.
+	 * @param from
+	 *            the index of the first voxel of the row.
+	 * @param n
+	 *            the number of voxels in the row.
+	 * @param threshold
+	 *            the integer threshold, as returned by
+	 *            {@link #threshold(double, int)}.
+	 * @param plane
+	 *            the plane to write to.
+	 * @param to
+	 *            the index of the first voxel of the row in the plane.
+	 */
+	static void threshold( final byte[] data, final int from, final int n, final int threshold, final byte[] plane, final int to )
+	{
+		// (t - 1 - v) is negative iff v >= t.
+		final int t = threshold - 1;
+		for ( int k = 0; k < n; k++ )
+			plane[ to + k ] = ( byte ) ( ( t - ( data[ from + k ] & 0xff ) ) >>> 31 );
+	}
+
+	/**
+	 * Sets the corner bits of a row of unsigned short voxels.
+	 *
+	 * @see #threshold(byte[], int, int, int, byte[], int)
+	 */
+	static void threshold( final short[] data, final int from, final int n, final int threshold, final byte[] plane, final int to )
+	{
+		final int t = threshold - 1;
+		for ( int k = 0; k < n; k++ )
+			plane[ to + k ] = ( byte ) ( ( t - ( data[ from + k ] & 0xffff ) ) >>> 31 );
+	}
+
+	/**
+	 * Sets the corner bits of a row of float voxels.
+	 *
+	 * @param threshold
+	 *            the float threshold, as returned by
+	 *            {@link #threshold(double)}.
+	 * @see #threshold(byte[], int, int, int, byte[], int)
+	 */
+	static void threshold( final float[] data, final int from, final int n, final float threshold, final byte[] plane, final int to )
+	{
+		for ( int k = 0; k < n; k++ )
+			plane[ to + k ] = ( byte ) ( data[ from + k ] >= threshold ? 1 : 0 );
+	}
+
+	/**
+	 * Computes the lower 4 bits of the cube indices of a voxel plane: the
+	 * corner bits of the 4 corners of each cube that lie in the plane. This is
+	 * done with two neighbour-OR passes, along X and then along Y. The bits of
+	 * the cubes of the last row and column of the padded plane are 0, as the
+	 * border of the plane is.
+	 *
+	 * @param plane
+	 *            the padded voxel plane, with 1 for voxels inside.
+	 * @param isx
+	 *            the width of the padded plane.
+	 * @param codes
+	 *            the array to write the bits to, the same size as the plane.
+	 */
+	static void cornerCodes( final byte[] plane, final int isx, final byte[] codes )
+	{
+		final int n = plane.length;
+		for ( int i = 0; i < n - 1; i++ )
+			codes[ i ] = ( byte ) ( plane[ i ] | ( plane[ i + 1 ] << 1 ) );
+		codes[ n - 1 ] = plane[ n - 1 ];
+
+		// In place: codes[ i + isx ] is not updated yet when reading it.
+		for ( int i = 0; i < n - isx; i++ )
+			codes[ i ] = ( byte ) ( codes[ i ] | ( codes[ i + isx ] << 2 ) );
+	}
+
+	/**
+	 * Combines the corner codes of the lower and upper voxel planes of a layer
+	 * of cubes into the cube indices of the layer, with a neighbour-OR pass
+	 * along Z.
+	 *
+	 * @param lower
+	 *            the corner codes of the lower plane.
+	 * @param upper
+	 *            the corner codes of the upper plane.
+	 * @param indices
+	 *            the array to write the cube indices to.
+	 */
+	static void cubeIndices( final byte[] lower, final byte[] upper, final byte[] indices )
+	{
+		final int n = indices.length;
+		for ( int i = 0; i < n; i++ )
+			indices[ i ] = ( byte ) ( lower[ i ] | ( upper[ i ] << 4 ) );
+	}
+}
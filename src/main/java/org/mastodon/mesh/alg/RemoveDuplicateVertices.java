@@ -1,13 +1,12 @@
 package org.mastodon.mesh.alg;
 
-import org.mastodon.RefPool;
-import org.mastodon.collection.ObjectRefMap;
-import org.mastodon.collection.RefMaps;
 import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
 import org.mastodon.mesh.Triangle;
-import org.mastodon.mesh.TriangleAdder;
 import org.mastodon.mesh.Vertex;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import net.imglib2.RealLocalizable;
 
 /**
@@ -21,15 +20,13 @@ public class RemoveDuplicateVertices
 
 	public static TriMesh calculate( final TriMesh in, final int precision )
 	{
-		final TriMesh out = new TriMesh();
-
-		final int[][] triangles = new int[ in.triangles().size() ][ 3 ];
-		final ObjectRefMap< String, Vertex > vertices = RefMaps.createObjectRefMap( out.vertices() );
+		final int[] triangles = new int[ 3 * in.triangles().size() ];
+		final TDoubleArrayList positions = new TDoubleArrayList( 3 * in.vertices().size() );
+		final TObjectIntHashMap< String > vertices = new TObjectIntHashMap<>( in.vertices().size(), 0.5f, -1 );
 
 		final Vertex ivref0 = in.vertexRef();
 		final Vertex ivref1 = in.vertexRef();
 		final Vertex ivref2 = in.vertexRef();
-		final Vertex ovref = out.vertexRef();
 
 		int trianglesCount = 0;
 		for ( final Triangle triangle : in.triangles() )
@@ -38,67 +35,36 @@ public class RemoveDuplicateVertices
 			final Vertex p1 = triangle.getVertex1( ivref1 );
 			final Vertex p2 = triangle.getVertex2( ivref2 );
 
-			triangles[ trianglesCount ][ 0 ] = getVertex( vertices, p0, precision, out, ovref );
-			triangles[ trianglesCount ][ 1 ] = getVertex( vertices, p1, precision, out, ovref );
-			triangles[ trianglesCount ][ 2 ] = getVertex( vertices, p2, precision, out, ovref );
-			trianglesCount++;
+			triangles[ trianglesCount++ ] = getVertex( vertices, p0, precision, positions );
+			triangles[ trianglesCount++ ] = getVertex( vertices, p1, precision, positions );
+			triangles[ trianglesCount++ ] = getVertex( vertices, p2, precision, positions );
 		}
 
-		out.releaseRef( ovref );
 		in.releaseRef( ivref0 );
 		in.releaseRef( ivref1 );
 		in.releaseRef( ivref2 );
 
-		final TriangleAdder triangleAdder = out.triangleAdder();
-		final Triangle tref = out.triangleRef();
-		final Vertex ovref0 = out.vertexRef();
-		final Vertex ovref1 = out.vertexRef();
-		final Vertex ovref2 = out.vertexRef();
-		final RefPool< Vertex > pool = out.vertices().getRefPool();
-		for ( final int[] triangle : triangles )
-		{
-			final Vertex v0 = pool.getObjectIfExists( triangle[ 0 ], ovref0 );
-			final Vertex v1 = pool.getObjectIfExists( triangle[ 1 ], ovref1 );
-			final Vertex v2 = pool.getObjectIfExists( triangle[ 2 ], ovref2 );
-			triangleAdder.add( v0, v1, v2, tref );
-		}
-		out.releaseRef( ovref0 );
-		out.releaseRef( ovref1 );
-		out.releaseRef( ovref2 );
-		out.releaseRef( tref );
-		triangleAdder.releaseRefs();
-
-		return out;
+		return TriMeshBuilder.build( positions.toArray(), triangles );
 	}
 
 	private static int getVertex(
-			final ObjectRefMap< String, Vertex > vertices,
+			final TObjectIntHashMap< String > vertices,
 			final RealLocalizable p,
 			final int precision,
-			final TriMesh out,
-			final Vertex vref )
+			final TDoubleArrayList positions )
 	{
 		final String hash = getHash( p, precision );
-		final Vertex vertex = vertices.get( hash );
-		if ( vertex != null )
-			return vertex.getInternalPoolIndex();
+		final int vertex = vertices.get( hash );
+		if ( vertex >= 0 )
+			return vertex;
 
-		final Vertex newVertex = createVertex( p, precision, out, vref );
-		vertices.put( hash, newVertex );
-		return newVertex.getInternalPoolIndex();
-	}
-
-	private static Vertex createVertex( final RealLocalizable pos, final int precision, final TriMesh out, final Vertex ref )
-	{
+		final int newVertex = positions.size() / 3;
 		final double factor = Math.pow( 10, precision );
-		final double x = Math.round( pos.getDoublePosition( 0 ) * factor ) / factor;
-		final double y = Math.round( pos.getDoublePosition( 1 ) * factor ) / factor;
-		final double z = Math.round( pos.getDoublePosition( 2 ) * factor ) / factor;
-		final Vertex v = out.addVertex( ref );
-		v.setPosition( x, 0 );
-		v.setPosition( y, 1 );
-		v.setPosition( z, 2 );
-		return v;
+		positions.add( Math.round( p.getDoublePosition( 0 ) * factor ) / factor );
+		positions.add( Math.round( p.getDoublePosition( 1 ) * factor ) / factor );
+		positions.add( Math.round( p.getDoublePosition( 2 ) * factor ) / factor );
+		vertices.put( hash, newVertex );
+		return newVertex;
 	}
 
 	private static String getHash( final RealLocalizable p, final int precision )
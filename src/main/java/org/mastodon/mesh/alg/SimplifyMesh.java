@@ -221,12 +221,19 @@ public class SimplifyMesh
 		refs.clear();
 
 		final Point[] meshVerts = new Point[ inMesh.vertices().size() ];
+		// Rank of each vertex, as the pool indices may have gaps.
+		int maxId = -1;
+		for ( final org.mastodon.mesh.Vertex v : inMesh.vertices() )
+			maxId = Math.max( maxId, v.getInternalPoolIndex() );
+		final int[] ranks = new int[ maxId + 1 ];
 		final Iterator< org.mastodon.mesh.Vertex > iterator = inMesh.vertices().iterator();
 		for ( int i = 0; i < inMesh.vertices().size(); i++ )
 		{
+			final org.mastodon.mesh.Vertex v = iterator.next();
 			final Point simpleVertex = new Point();
-			simpleVertex.setPosition( iterator.next() );
+			simpleVertex.setPosition( v );
 			meshVerts[ i ] = simpleVertex;
+			ranks[ v.getInternalPoolIndex() ] = i;
 		}
 
 		for ( final Point meshVert : meshVerts )
@@ -243,9 +250,9 @@ public class SimplifyMesh
 		{
 			final org.mastodon.mesh.Triangle tria = iteratorTriangles.next();
 			final Triangle t = new Triangle(
-					tria.v0(),
-					tria.v1(),
-					tria.v2() );
+					ranks[ tria.v0() ],
+					ranks[ tria.v1() ],
+					ranks[ tria.v2() ] );
 
 			triangles.add( t );
 
@@ -0,0 +1,249 @@
+package org.mastodon.mesh.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.PoolStorage;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.TriangleAdder;
+import org.mastodon.mesh.Vertex;
+import org.mastodon.mesh.VertexPool;
+import org.mastodon.mesh.VertexPool.VertexLayout;
+
+import net.imglib2.Interval;
+
+/**
+ * Runs a marching cubes algorithm in parallel over slabs along Z, and merges
+ * the slab meshes in a single mesh.
+ * <p>
+ * Each slab is meshed by one worker of a fork-join pool, in a mesh of its own,
+ * created by the {@link SlabMesher} for the cubes of the slab. The slab meshes
+ * are then appended to the output in Z order, so that the output vertices and
+ * triangles come in the same order that with a single-threaded run.
+ * <p>
+ * When the slabs are meshed with a {@link SlabVertexCache}, adjacent slabs
+ * both create the vertices of the voxel plane they share. These vertices are
+ * welded when merging, so that the twin half-edges are linked across slab
+ * boundaries.
+ */
+class SlabMarchingCubes
+{
+
+	/**
+	 * Number of slabs per thread. More slabs than threads balances the load
+	 * when the surface is not evenly distributed along Z.
+	 */
+	private static final int SLABS_PER_THREAD = 4;
+
+	/**
+	 * Interface for the marching cubes implementations that can mesh a range
+	 * of cubes along Z.
+	 */
+	interface SlabMesher
+	{
+
+		/**
+		 * Creates a new mesh with the triangles of the cubes whose lower
+		 * corner is in the Z range <code>[minZ, maxZ)</code>.
+		 *
+		 * @return the mesh of the range, and the vertex cache used to build
+		 *         it.
+		 */
+		Slab mesh( int minZ, int maxZ );
+	}
+
+	/**
+	 * The mesh of a range of cubes along Z, and the vertex cache used to
+	 * build it, or <code>null</code> if vertices are not shared between
+	 * cubes.
+	 */
+	static final class Slab
+	{
+
+		final TriMesh mesh;
+
+		final SlabVertexCache cache;
+
+		Slab( final TriMesh mesh, final SlabVertexCache cache )
+		{
+			this.mesh = mesh;
+			this.cache = cache;
+		}
+	}
+
+	static TriMesh calculate( final Interval input, final int nThreads, final SlabMesher mesher )
+	{
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+		final int nCubesZ = maxZ - minZ;
+		final int nSlabs = numSlabs( nCubesZ, nThreads );
+		if ( nThreads <= 1 || nSlabs <= 1 )
+			return mesher.mesh( minZ, maxZ ).mesh;
+
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try
+		{
+			final List< ForkJoinTask< Slab > > tasks = new ArrayList<>( nSlabs );
+			for ( int i = 0; i < nSlabs; i++ )
+			{
+				final int z0 = minZ + ( int ) ( ( long ) i * nCubesZ / nSlabs );
+				final int z1 = minZ + ( int ) ( ( long ) ( i + 1 ) * nCubesZ / nSlabs );
+				tasks.add( pool.submit( () -> mesher.mesh( z0, z1 ) ) );
+			}
+
+			final List< TriMesh > slabs = new ArrayList<>( nSlabs );
+			final List< SlabVertexCache > caches = new ArrayList<>( nSlabs );
+			for ( final ForkJoinTask< Slab > task : tasks )
+			{
+				final Slab slab = task.join();
+				slabs.add( slab.mesh );
+				caches.add( slab.cache );
+			}
+			return merge( slabs, caches );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the number of slabs to split the specified number of layers of
+	 * cubes in, for the specified number of threads.
+	 */
+	static int numSlabs( final int nCubesZ, final int nThreads )
+	{
+		return Math.min( nCubesZ, Math.max( 1, nThreads ) * SLABS_PER_THREAD );
+	}
+
+	/**
+	 * Appends the specified meshes, in order, into a new mesh.
+	 *
+	 * @param meshes
+	 *            the meshes to merge.
+	 * @param caches
+	 *            the vertex caches used to build each mesh. If not
+	 *            <code>null</code>, the vertices of the first plane of a mesh
+	 *            are welded with the ones of the last plane of the previous
+	 *            mesh.
+	 * @return a new mesh, with the vertex layout of the first mesh.
+	 */
+	static TriMesh merge( final List< TriMesh > meshes, final List< SlabVertexCache > caches )
+	{
+		int nVertices = 0;
+		int nTriangles = 0;
+		int nEdges = 0;
+		for ( final TriMesh mesh : meshes )
+		{
+			nVertices += mesh.vertices().size();
+			nTriangles += mesh.triangles().size();
+			nEdges += mesh.edges().size();
+		}
+		final VertexLayout layout = meshes.isEmpty() ? VertexPool.layout : meshes.get( 0 ).getVertexLayout();
+		final TriMesh output = new TriMesh( Math.max( 1, nVertices ), Math.max( 1, nTriangles ), Math.max( 1, nEdges ), layout, PoolStorage.SINGLE_ARRAY );
+		int[][] seam = null;
+		for ( int i = 0; i < meshes.size(); i++ )
+		{
+			final SlabVertexCache cache = caches.get( i );
+			final int[][] bottom = ( cache == null ) ? null : cache.bottom();
+			final int[] map = append( meshes.get( i ), output, bottom, seam );
+
+			// Top plane of this slab, in output vertex ids.
+			if ( cache == null )
+			{
+				seam = null;
+				continue;
+			}
+			final int[][] top = cache.top();
+			seam = new int[ top.length ][];
+			for ( int c = 0; c < top.length; c++ )
+			{
+				seam[ c ] = new int[ top[ c ].length ];
+				for ( int j = 0; j < top[ c ].length; j++ )
+					seam[ c ][ j ] = ( top[ c ][ j ] < 0 ) ? -1 : map[ top[ c ][ j ] ];
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Copies the vertices and triangles of the source mesh at the end of the
+	 * target mesh. The half-edges of the target are rebuilt when adding the
+	 * triangles, so vertices shared by triangles of the source are shared in
+	 * the target as well.
+	 * <p>
+	 * The vertex ids of the source do not need to be contiguous, the map is
+	 * sized by the largest one.
+	 *
+	 * @param source
+	 *            the mesh to append.
+	 * @param target
+	 *            the mesh to append to.
+	 * @param bottom
+	 *            the ids of the source vertices in its first plane, may be
+	 *            <code>null</code>.
+	 * @param seam
+	 *            the ids of the target vertices in the same plane, laid out as
+	 *            the bottom array, may be <code>null</code>. A source vertex
+	 *            present in both is not copied but mapped to the target one.
+	 * @return the map from source vertex ids to target vertex ids.
+	 */
+	private static int[] append( final TriMesh source, final TriMesh target, final int[][] bottom, final int[][] seam )
+	{
+		int maxId = -1;
+		for ( final Vertex v : source.vertices() )
+			maxId = Math.max( maxId, v.getInternalPoolIndex() );
+		final int[] map = new int[ maxId + 1 ];
+		Arrays.fill( map, -1 );
+		if ( bottom != null && seam != null )
+		{
+			for ( int c = 0; c < bottom.length; c++ )
+				for ( int j = 0; j < bottom[ c ].length; j++ )
+					if ( bottom[ c ][ j ] >= 0 && seam[ c ][ j ] >= 0 )
+						map[ bottom[ c ][ j ] ] = seam[ c ][ j ];
+		}
+
+		final boolean normals = source.hasVertexNormals() && target.hasVertexNormals();
+		final float[] normal = new float[ 3 ];
+		final Vertex vref = target.vertexRef();
+		for ( final Vertex v : source.vertices() )
+		{
+			final int id = v.getInternalPoolIndex();
+			if ( map[ id ] >= 0 )
+				continue;
+			final Vertex copy = target.addVertex( vref ).init( v.x(), v.y(), v.z() );
+			if ( normals )
+			{
+				v.normal( normal );
+				copy.setNormal( normal[ 0 ], normal[ 1 ], normal[ 2 ] );
+			}
+			map[ id ] = copy.getInternalPoolIndex();
+		}
+		target.releaseRef( vref );
+
+		final RefPool< Vertex > pool = target.vertices().getRefPool();
+		final TriangleAdder adder = target.triangleAdder();
+		final Triangle tref = target.triangleRef();
+		final Vertex vref0 = target.vertexRef();
+		final Vertex vref1 = target.vertexRef();
+		final Vertex vref2 = target.vertexRef();
+		for ( final Triangle t : source.triangles() )
+		{
+			final Vertex v0 = pool.getObject( map[ t.v0() ], vref0 );
+			final Vertex v1 = pool.getObject( map[ t.v1() ], vref1 );
+			final Vertex v2 = pool.getObject( map[ t.v2() ], vref2 );
+			adder.add( v0, v1, v2, tref );
+		}
+		target.releaseRef( vref0 );
+		target.releaseRef( vref1 );
+		target.releaseRef( vref2 );
+		target.releaseRef( tref );
+		adder.releaseRefs();
+		return map;
+	}
+}
@@ -0,0 +1,139 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+
+/**
+ * Base class for the caches that store the ids of the vertices already created
+ * by the marching cubes algorithm, so that adjacent cubes share vertices
+ * instead of creating duplicates.
+ * <p>
+ * Vertex ids are stored in primitive arrays indexed by the position in a XY
+ * plane of the mask (padded by one voxel in X and Y), for the lower and the
+ * upper voxel planes of the layer of cubes currently processed. When moving to
+ * the next layer, the upper plane becomes the lower one. The memory used is
+ * therefore proportional to the size of an XY plane, whatever the depth of the
+ * input.
+ * <p>
+ * The cache also keeps the vertex ids of the first plane of the Z range it was
+ * used for, so that meshes built on adjacent Z slabs can be stitched together.
+ */
+abstract class SlabVertexCache
+{
+
+	/**
+	 * The width of a plane of the mask.
+	 */
+	protected final int isx;
+
+	/**
+	 * Number of elements in a plane of the mask.
+	 */
+	protected final int planeSize;
+
+	/**
+	 * Vertex ids in the lower plane of the current layer. One array per
+	 * category of vertices stored in the plane.
+	 */
+	protected int[][] lower;
+
+	/**
+	 * Vertex ids in the upper plane of the current layer.
+	 */
+	protected int[][] upper;
+
+	/**
+	 * Vertex ids in the first plane of the Z range. <code>null</code> until
+	 * we move past the first layer.
+	 */
+	private int[][] bottom;
+
+	/**
+	 * A plane kept from a previous use of the cache, to store the next first
+	 * plane without allocating a new one. May be <code>null</code>.
+	 */
+	private int[][] spare;
+
+	protected SlabVertexCache( final int isx, final int isy, final int nCategories )
+	{
+		this.isx = isx;
+		this.planeSize = isx * isy;
+		this.lower = newPlane( nCategories );
+		this.upper = newPlane( nCategories );
+	}
+
+	/**
+	 * Moves to the next layer of cubes along Z.
+	 */
+	void nextLayer()
+	{
+		final int[][] tmp = lower;
+		lower = upper;
+		if ( bottom == null )
+		{
+			// Keep the first plane for stitching.
+			bottom = tmp;
+			if ( spare == null )
+			{
+				upper = newPlane( tmp.length );
+			}
+			else
+			{
+				upper = spare;
+				spare = null;
+				clear( upper );
+			}
+		}
+		else
+		{
+			upper = tmp;
+			clear( upper );
+		}
+	}
+
+	/**
+	 * Clears this cache, so that it can be used to mesh another input with the
+	 * same XY dimensions without allocating new planes.
+	 */
+	void reset()
+	{
+		if ( bottom != null )
+		{
+			spare = bottom;
+			bottom = null;
+		}
+		clear( lower );
+		clear( upper );
+	}
+
+	/**
+	 * Returns the ids of the vertices created in the first voxel plane of the
+	 * Z range.
+	 */
+	int[][] bottom()
+	{
+		return bottom == null ? lower : bottom;
+	}
+
+	/**
+	 * Returns the ids of the vertices created in the last voxel plane of the Z
+	 * range.
+	 */
+	int[][] top()
+	{
+		return upper;
+	}
+
+	private static void clear( final int[][] plane )
+	{
+		for ( final int[] ids : plane )
+			Arrays.fill( ids, -1 );
+	}
+
+	private int[][] newPlane( final int nCategories )
+	{
+		final int[][] plane = new int[ nCategories ][ planeSize ];
+		for ( final int[] ids : plane )
+			Arrays.fill( ids, -1 );
+		return plane;
+	}
+}
@@ -0,0 +1,451 @@
+package org.mastodon.mesh.alg;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * An index of the marching cubes of an image over the range of their corner
+ * values, that returns the cubes crossed by the iso-surface for any iso-level.
+ * <p>
+ * Each cube is described by the interval <code>(min, max]</code> of the values
+ * at its corners. Corners outside the image are always outside the surface,
+ * so the cubes that have some get a min of <code>-&infin;</code>. A cube is
+ * crossed by the iso-surface exactly when the iso-level is in its interval.
+ * Cubes whose corners all have the same value can never be crossed and are
+ * not stored.
+ * <p>
+ * The intervals are stored in a centered interval tree. Each node stores the
+ * intervals that contain its center, sorted by their min and by their max;
+ * the intervals entirely below the center go in the left subtree, the ones
+ * entirely above in the right subtree. A query descends a single path of the
+ * tree and only reads the intervals it reports, so its cost is proportional
+ * to the depth of the tree plus the number of active cubes. The index is built
+ * once per image and can be queried for any number of iso-levels. It has to be
+ * rebuilt if the image changes.
+ * <p>
+ * The index stores every cube that is not constant, in arrays indexed by
+ * <code>int</code> and grown by doubling while the image is read, so it is
+ * limited to {@link #MAX_CUBES} such cubes. It takes 32 bytes per cube once
+ * built, and about three times as much while it is built. A noisy image of
+ * 2048 &times; 2048 &times; 300 voxels, where almost all of the 1.26 billion
+ * cubes are stored, is beyond the limit, and would need about 40 GB anyway.
+ * For such images, use a {@link MinMaxPyramid} instead, whose size does not
+ * depend on the content of the image, and that skips the blocks not crossed
+ * by the surface.
+ */
+public class SpanSpaceIndex
+{
+
+	/**
+	 * The maximal number of cubes an index can store, so that the arrays
+	 * collecting them can still double in size.
+	 */
+	public static final int MAX_CUBES = 1 << 30;
+
+	private final Interval interval;
+
+	/*
+	 * Tree nodes.
+	 */
+
+	private final double[] centers;
+
+	private final int[] lefts;
+
+	private final int[] rights;
+
+	private final int[] starts;
+
+	private final int[] ends;
+
+	/*
+	 * Intervals of the nodes. The intervals of a node are in the range
+	 * [start, end) of these arrays, sorted by min in the first two and by max
+	 * in the last two.
+	 */
+
+	private final double[] minKeys;
+
+	private final long[] minCubes;
+
+	private final double[] maxKeys;
+
+	private final long[] maxCubes;
+
+	/**
+	 * Builds the span-space index of the specified image.
+	 *
+	 * @param input
+	 *            the image.
+	 * @return a new index.
+	 * @throws IllegalArgumentException
+	 *             if the image has more than {@link #MAX_CUBES} cubes that are
+	 *             not constant.
+	 */
+	public static < T extends RealType< T > > SpanSpaceIndex create( final RandomAccessibleInterval< T > input )
+	{
+		return create( input, MAX_CUBES );
+	}
+
+	/**
+	 * Same as above, with the maximal number of cubes to store.
+	 */
+	static < T extends RealType< T > > SpanSpaceIndex create( final RandomAccessibleInterval< T > input, final int maxCubes )
+	{
+		final TLongArrayList cubes = new TLongArrayList();
+		final TDoubleArrayList mins = new TDoubleArrayList();
+		final TDoubleArrayList maxs = new TDoubleArrayList();
+		ranges( input, cubes, mins, maxs, maxCubes );
+		return new SpanSpaceIndex( input, cubes.toArray(), mins.toArray(), maxs.toArray() );
+	}
+
+	private SpanSpaceIndex( final Interval input, final long[] cubes, final double[] mins, final double[] maxs )
+	{
+		this.interval = new FinalInterval( input );
+		final int n = cubes.length;
+		this.minKeys = new double[ n ];
+		this.minCubes = new long[ n ];
+		this.maxKeys = new double[ n ];
+		this.maxCubes = new long[ n ];
+
+		final TreeBuilder builder = new TreeBuilder( cubes, mins, maxs );
+		final int[] items = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+			items[ i ] = i;
+		builder.build( items, 0, n );
+		this.centers = builder.centers.toArray();
+		this.lefts = builder.lefts.toArray();
+		this.rights = builder.rights.toArray();
+		this.starts = builder.starts.toArray();
+		this.ends = builder.ends.toArray();
+	}
+
+	/**
+	 * Returns the interval of the image this index was built on.
+	 *
+	 * @return the interval.
+	 */
+	public Interval interval()
+	{
+		return interval;
+	}
+
+	/**
+	 * Returns the number of cubes stored in this index, that is the number of
+	 * cubes that are crossed by the iso-surface for some iso-level.
+	 *
+	 * @return the number of cubes.
+	 */
+	public int size()
+	{
+		return minKeys.length;
+	}
+
+	/**
+	 * Returns the cubes crossed by the iso-surface at the specified level, in
+	 * raster order. A cube is identified by the flat index of its lower corner
+	 * in the grid of cubes, that spans from one voxel before the image min to
+	 * its max.
+	 *
+	 * @param isoLevel
+	 *            the iso-level.
+	 * @return a new array of cube indices.
+	 */
+	public long[] activeCubes( final double isoLevel )
+	{
+		final TLongArrayList cubes = new TLongArrayList();
+		visit( isoLevel, cubes::add );
+		final long[] array = cubes.toArray();
+		Arrays.sort( array );
+		return array;
+	}
+
+	/**
+	 * Calls the specified consumer for each cube crossed by the iso-surface at
+	 * the specified level, in no particular order.
+	 */
+	void visit( final double isoLevel, final LongConsumer consumer )
+	{
+		int node = centers.length == 0 ? -1 : 0;
+		while ( node >= 0 )
+		{
+			if ( isoLevel <= centers[ node ] )
+			{
+				// All the intervals of the node have max >= iso.
+				for ( int k = starts[ node ]; k < ends[ node ] && minKeys[ k ] < isoLevel; k++ )
+					consumer.accept( minCubes[ k ] );
+				node = lefts[ node ];
+			}
+			else
+			{
+				// All the intervals of the node have min < iso.
+				for ( int k = ends[ node ] - 1; k >= starts[ node ] && maxKeys[ k ] >= isoLevel; k-- )
+					consumer.accept( maxCubes[ k ] );
+				node = rights[ node ];
+			}
+		}
+	}
+
+	/**
+	 * Converts a cube index to the position of the lower corner of the cube.
+	 */
+	void position( final long cube, final int[] position )
+	{
+		long i = cube;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final long n = interval.dimension( d ) + 1;
+			position[ d ] = ( int ) ( i % n + interval.min( d ) - 1 );
+			i /= n;
+		}
+	}
+
+	/**
+	 * Checks that this index was built on the specified interval.
+	 */
+	void check( final Interval input )
+	{
+		if ( !Intervals.equals( interval, input ) )
+			throw new IllegalArgumentException( "The span-space index was not built on the input interval." );
+	}
+
+	/**
+	 * Reads the input plane by plane and collects the range of the corner
+	 * values of the cubes that are not constant. Fails as soon as there are
+	 * more than the specified number of such cubes.
+	 */
+	private static < T extends RealType< T > > void ranges( final RandomAccessibleInterval< T > input,
+			final TLongArrayList cubes, final TDoubleArrayList mins, final TDoubleArrayList maxs, final int maxCubes )
+	{
+		final int sx = ( int ) input.dimension( 0 );
+		final int sy = ( int ) input.dimension( 1 );
+		final int sz = ( int ) input.dimension( 2 );
+		// Padded planes, with NaN for voxels outside the input.
+		final int isx = sx + 2;
+		final int isy = sy + 2;
+		double[] lower = new double[ isx * isy ];
+		double[] upper = new double[ isx * isy ];
+		Arrays.fill( upper, Double.NaN );
+
+		final Cursor< T > cursor = Views.flatIterable( input ).cursor();
+		final double[] corners = new double[ 8 ];
+		long cube = 0;
+		for ( int z = -1; z < sz; z++ )
+		{
+			final double[] tmp = lower;
+			lower = upper;
+			upper = tmp;
+			Arrays.fill( upper, Double.NaN );
+			if ( z + 1 < sz )
+				for ( int y = 0; y < sy; y++ )
+					for ( int x = 0; x < sx; x++ )
+						upper[ ( y + 1 ) * isx + x + 1 ] = cursor.next().getRealDouble();
+
+			for ( int my = 0; my < isy - 1; my++ )
+			{
+				for ( int mx = 0; mx < isx - 1; mx++ )
+				{
+					final int i = my * isx + mx;
+					corners[ 0 ] = lower[ i ];
+					corners[ 1 ] = lower[ i + 1 ];
+					corners[ 2 ] = lower[ i + isx ];
+					corners[ 3 ] = lower[ i + isx + 1 ];
+					corners[ 4 ] = upper[ i ];
+					corners[ 5 ] = upper[ i + 1 ];
+					corners[ 6 ] = upper[ i + isx ];
+					corners[ 7 ] = upper[ i + isx + 1 ];
+
+					double min = Double.POSITIVE_INFINITY;
+					double max = Double.NEGATIVE_INFINITY;
+					boolean outside = false;
+					for ( final double v : corners )
+					{
+						if ( Double.isNaN( v ) )
+						{
+							outside = true;
+							continue;
+						}
+						min = Math.min( min, v );
+						max = Math.max( max, v );
+					}
+					if ( outside )
+						min = Double.NEGATIVE_INFINITY;
+					if ( min < max )
+					{
+						if ( cubes.size() >= maxCubes )
+							throw new IllegalArgumentException( "The image has more than " + maxCubes
+									+ " cubes that are not constant, which is more than a span-space index can store. "
+									+ "Use a MinMaxPyramid for images of this size." );
+						cubes.add( cube );
+						mins.add( min );
+						maxs.add( max );
+					}
+					cube++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the centered interval tree and fills the sorted arrays of the
+	 * index.
+	 */
+	private class TreeBuilder
+	{
+
+		private final long[] cubes;
+
+		private final double[] mins;
+
+		private final double[] maxs;
+
+		private final double[] scratch;
+
+		private final TDoubleArrayList centers = new TDoubleArrayList();
+
+		private final TIntArrayList lefts = new TIntArrayList();
+
+		private final TIntArrayList rights = new TIntArrayList();
+
+		private final TIntArrayList starts = new TIntArrayList();
+
+		private final TIntArrayList ends = new TIntArrayList();
+
+		private int filled = 0;
+
+		private TreeBuilder( final long[] cubes, final double[] mins, final double[] maxs )
+		{
+			this.cubes = cubes;
+			this.mins = mins;
+			this.maxs = maxs;
+			this.scratch = new double[ cubes.length ];
+		}
+
+		/**
+		 * Builds the subtree of the specified intervals, and returns its root
+		 * node, or -1 if there are no intervals.
+		 */
+		private int build( final int[] items, final int from, final int to )
+		{
+			if ( from >= to )
+				return -1;
+
+			/*
+			 * The center is the median of the interval max values. The
+			 * interval with this max contains the center, so every node has
+			 * at least one interval, and the subtrees have at most half of
+			 * the intervals.
+			 */
+			for ( int i = from; i < to; i++ )
+				scratch[ i - from ] = maxs[ items[ i ] ];
+			Arrays.sort( scratch, 0, to - from );
+			final double center = scratch[ ( to - from ) / 2 ];
+
+			// Partition in [from, lt) below, [lt, gt) containing, [gt, to) above.
+			int lt = from;
+			int gt = to;
+			int i = from;
+			while ( i < gt )
+			{
+				final int item = items[ i ];
+				if ( maxs[ item ] < center )
+					swap( items, lt++, i++ );
+				else if ( mins[ item ] >= center )
+					swap( items, i, --gt );
+				else
+					i++;
+			}
+
+			final int node = centers.size();
+			centers.add( center );
+			lefts.add( -1 );
+			rights.add( -1 );
+			starts.add( filled );
+			for ( int k = lt; k < gt; k++ )
+			{
+				minKeys[ filled ] = mins[ items[ k ] ];
+				minCubes[ filled ] = cubes[ items[ k ] ];
+				maxKeys[ filled ] = maxs[ items[ k ] ];
+				maxCubes[ filled ] = cubes[ items[ k ] ];
+				filled++;
+			}
+			ends.add( filled );
+			sort( minKeys, minCubes, starts.get( node ), filled - 1 );
+			sort( maxKeys, maxCubes, starts.get( node ), filled - 1 );
+
+			final int left = build( items, from, lt );
+			lefts.set( node, left );
+			final int right = build( items, gt, to );
+			rights.set( node, right );
+			return node;
+		}
+	}
+
+	private static void swap( final int[] items, final int i, final int j )
+	{
+		final int tmp = items[ i ];
+		items[ i ] = items[ j ];
+		items[ j ] = tmp;
+	}
+
+	/**
+	 * Sorts the range <code>[lo, hi]</code> of the keys in ascending order,
+	 * applying the same permutation to the values.
+	 */
+	private static void sort( final double[] keys, final long[] values, final int lo, final int hi )
+	{
+		if ( hi - lo < 16 )
+		{
+			for ( int i = lo + 1; i <= hi; i++ )
+			{
+				final double key = keys[ i ];
+				final long value = values[ i ];
+				int j = i - 1;
+				while ( j >= lo && keys[ j ] > key )
+				{
+					keys[ j + 1 ] = keys[ j ];
+					values[ j + 1 ] = values[ j ];
+					j--;
+				}
+				keys[ j + 1 ] = key;
+				values[ j + 1 ] = value;
+			}
+			return;
+		}
+
+		final double pivot = keys[ ( lo + hi ) >>> 1 ];
+		int i = lo;
+		int j = hi;
+		while ( i <= j )
+		{
+			while ( keys[ i ] < pivot )
+				i++;
+			while ( keys[ j ] > pivot )
+				j--;
+			if ( i <= j )
+			{
+				final double k = keys[ i ];
+				keys[ i ] = keys[ j ];
+				keys[ j ] = k;
+				final long v = values[ i ];
+				values[ i ] = values[ j ];
+				values[ j ] = v;
+				i++;
+				j--;
+			}
+		}
+		sort( keys, values, lo, j );
+		sort( keys, values, i, hi );
+	}
+}
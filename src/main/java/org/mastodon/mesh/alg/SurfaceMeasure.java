@@ -0,0 +1,182 @@
+package org.mastodon.mesh.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Surface area and enclosed volume of an iso-surface, accumulated triangle by
+ * triangle.
+ * <p>
+ * An instance is a {@link TriangleSink}, so the measures of the marching cubes
+ * surface of an image can be computed directly from the cube configurations,
+ * with the triangles of the marching cubes tables and the same interpolation,
+ * without building a mesh. The volume is the signed volume enclosed by the
+ * triangles, computed with the divergence theorem: it is positive for a
+ * closed surface whose normals point outward, as the marching cubes ones do.
+ * <p>
+ * The same accumulation is applied to the triangles of a mesh by
+ * {@link #of(TriMesh)}. The single-threaded measure of an image gives exactly
+ * the same values as measuring the mesh built by
+ * {@link MarchingCubesRealType#calculate(RandomAccessibleInterval, double)},
+ * as the triangles and their order are the same. The multi-threaded measure
+ * sums the measures of slabs along Z, so it can differ from it by rounding
+ * errors.
+ */
+public class SurfaceMeasure implements TriangleSink
+{
+
+	private double area;
+
+	private double volume;
+
+	/**
+	 * Measures the marching cubes surface of the specified image, without
+	 * building a mesh.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @return a new measure, in voxel units.
+	 */
+	public static < T extends RealType< T > > SurfaceMeasure calculate( final RandomAccessibleInterval< T > input, final double isoLevel )
+	{
+		final SurfaceMeasure measure = new SurfaceMeasure();
+		MarchingCubesRealType.calculate( input, isoLevel, measure );
+		return measure;
+	}
+
+	/**
+	 * Multithreaded version of
+	 * {@link #calculate(RandomAccessibleInterval, double)}. The input is split
+	 * in slabs along Z, measured in parallel, and their measures are summed in
+	 * Z order.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            the number of threads to use.
+	 * @return a new measure, in voxel units.
+	 */
+	public static < T extends RealType< T > > SurfaceMeasure calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int nThreads )
+	{
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+		final int nCubesZ = maxZ - minZ;
+		final int nSlabs = SlabMarchingCubes.numSlabs( nCubesZ, nThreads );
+		if ( nThreads <= 1 || nSlabs <= 1 )
+			return calculate( input, isoLevel );
+
+		final ForkJoinPool pool = new ForkJoinPool( nThreads );
+		try
+		{
+			final List< ForkJoinTask< SurfaceMeasure > > tasks = new ArrayList<>( nSlabs );
+			for ( int i = 0; i < nSlabs; i++ )
+			{
+				final int z0 = minZ + ( int ) ( ( long ) i * nCubesZ / nSlabs );
+				final int z1 = minZ + ( int ) ( ( long ) ( i + 1 ) * nCubesZ / nSlabs );
+				tasks.add( pool.submit( () -> {
+					final SurfaceMeasure slab = new SurfaceMeasure();
+					MarchingCubesRealType.calculate( input, isoLevel, z0, z1, slab );
+					return slab;
+				} ) );
+			}
+
+			final SurfaceMeasure measure = new SurfaceMeasure();
+			for ( final ForkJoinTask< SurfaceMeasure > task : tasks )
+			{
+				final SurfaceMeasure slab = task.join();
+				measure.area += slab.area;
+				measure.volume += slab.volume;
+			}
+			return measure;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Measures the triangles of the specified mesh.
+	 *
+	 * @param mesh
+	 *            the mesh.
+	 * @return a new measure, in the units of the mesh.
+	 */
+	public static SurfaceMeasure of( final TriMesh mesh )
+	{
+		final SurfaceMeasure measure = new SurfaceMeasure();
+		final Vertex v0 = mesh.vertexRef();
+		final Vertex v1 = mesh.vertexRef();
+		final Vertex v2 = mesh.vertexRef();
+		for ( final Triangle t : mesh.triangles() )
+		{
+			t.getVertex0( v0 );
+			t.getVertex1( v1 );
+			t.getVertex2( v2 );
+			measure.triangle( v0.x(), v0.y(), v0.z(), v1.x(), v1.y(), v1.z(), v2.x(), v2.y(), v2.z() );
+		}
+		mesh.releaseRef( v0 );
+		mesh.releaseRef( v1 );
+		mesh.releaseRef( v2 );
+		return measure;
+	}
+
+	@Override
+	public void triangle( final double x0, final double y0, final double z0, final double x1, final double y1, final double z1, final double x2, final double y2, final double z2 )
+	{
+		final double ax = x1 - x0;
+		final double ay = y1 - y0;
+		final double az = z1 - z0;
+		final double bx = x2 - x0;
+		final double by = y2 - y0;
+		final double bz = z2 - z0;
+		final double cx = ay * bz - az * by;
+		final double cy = az * bx - ax * bz;
+		final double cz = ax * by - ay * bx;
+		area += 0.5 * Math.sqrt( cx * cx + cy * cy + cz * cz );
+
+		// Signed volume of the tetrahedron made with the origin.
+		volume += ( x0 * ( y1 * z2 - z1 * y2 ) + y0 * ( z1 * x2 - x1 * z2 ) + z0 * ( x1 * y2 - y1 * x2 ) ) / 6.;
+	}
+
+	/**
+	 * Returns the surface area.
+	 *
+	 * @return the surface area.
+	 */
+	public double area()
+	{
+		return area;
+	}
+
+	/**
+	 * Returns the signed volume enclosed by the surface.
+	 *
+	 * @return the volume.
+	 */
+	public double volume()
+	{
+		return volume;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "SurfaceMeasure area = %g, volume = %g", area, volume );
+	}
+}
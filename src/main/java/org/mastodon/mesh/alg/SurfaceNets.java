@@ -0,0 +1,311 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.CubePolygonizer.CORNERS;
+import static org.mastodon.mesh.alg.CubePolygonizer.EDGE_END;
+import static org.mastodon.mesh.alg.CubePolygonizer.EDGE_START;
+import static org.mastodon.mesh.alg.MarchingCubesRealType.EDGE_TABLE;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import org.mastodon.RefPool;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.TriangleAdder;
+import org.mastodon.mesh.Vertex;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Naive surface nets, an alternative to the marching cubes algorithm that
+ * creates fewer and better-shaped triangles.
+ * <p>
+ * The cubes are the same as for the marching cubes algorithm, but instead of
+ * placing vertices on the voxel edges crossed by the surface, surface nets
+ * place one vertex in each cube crossed by the surface, at the average of the
+ * points where the surface crosses the edges of the cube. Each crossed voxel
+ * edge is shared by 4 cubes, whose vertices make a quad, split along its
+ * shortest diagonal into 2 triangles. The output typically has about half the
+ * triangles of the marching cubes mesh, and fewer slivers.
+ * <p>
+ * The input is read one layer of cubes at a time, and the vertex ids of the
+ * current and previous layers are kept in arrays, so the output is an indexed
+ * mesh with twin half-edges linked as the triangles are added. The triangles
+ * are oriented as in the marching cubes meshes, with their normal pointing to
+ * the outside of the surface.
+ * <p>
+ * With a single vertex per cube, the surface is not always a manifold. Where
+ * a face shared by two cubes is ambiguous, with its 4 voxel edges crossed by
+ * the surface, as in a saddle or where two objects touch by a voxel edge, the
+ * edge between the vertices of the two cubes belongs to 4 quads. A mesh edge
+ * can only have two triangles, so the triangles that would reuse it in the
+ * same direction are dropped, and the mesh has holes there. The number of
+ * dropped triangles is reported by
+ * {@link #calculate(RandomAccessibleInterval, double, LongConsumer)}.
+ * Triangles with a zero area are not added either.
+ */
+public class SurfaceNets
+{
+
+	/**
+	 * The edges that start at the lower corner of a cube: 2 along X, 3 along Z
+	 * and 11 along Y.
+	 */
+	private static final int OWNED_EDGES = 0x80c;
+
+	/**
+	 * The number of triangles created for each cube index: two per crossed
+	 * edge that starts at the lower corner of the cube.
+	 */
+	private static final int[] TRIANGLE_COUNT = new int[ 256 ];
+	static
+	{
+		for ( int mindex = 0; mindex < 256; mindex++ )
+			TRIANGLE_COUNT[ mindex ] = 2 * Integer.bitCount( EDGE_TABLE[ mindex ] & OWNED_EDGES );
+	}
+
+	/**
+	 * Creates a mesh from the specified image, using the surface nets
+	 * algorithm.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel )
+	{
+		return calculate( input, isoLevel, null );
+	}
+
+	/**
+	 * Creates a mesh from the specified image, using the surface nets
+	 * algorithm, and reports the number of triangles dropped in the ambiguous
+	 * configurations, that leave holes in the mesh.
+	 *
+	 * @param input
+	 *            the input image.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param droppedTriangles
+	 *            called once the mesh is built, with the number of triangles
+	 *            that could not be added because one of their edges was
+	 *            already used in the same direction. May be <code>null</code>.
+	 * @return a new mesh.
+	 */
+	public static < T extends RealType< T > > TriMesh calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final LongConsumer droppedTriangles )
+	{
+		final int isx = ( int ) input.dimension( 0 ) + 2;
+		final int isy = ( int ) input.dimension( 1 ) + 2;
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+
+		// Origin of the padded planes.
+		final int ox = ( int ) input.min( 0 ) - 1;
+		final int oy = ( int ) input.min( 1 ) - 1;
+
+		/*
+		 * Collect the cubes crossed by the surface in a single pass, and size
+		 * the mesh for them: one vertex per cube and two triangles per voxel
+		 * edge crossed by the surface.
+		 */
+		final CubeSampler sampler = CubeSampler.create( input );
+		final ActiveCubes cubes = ActiveCubes.collect( input, minZ, maxZ, new CubeIndexer( input, minZ, sampler.planeReader( isoLevel, minZ, maxZ ) ), TRIANGLE_COUNT );
+		final TriMesh output = new TriMesh( ActiveCubes.capacity( cubes.size() ), ActiveCubes.capacity( cubes.triangles() ), ActiveCubes.capacity( 3 * cubes.triangles() ) );
+		final QuadAdder quads = new QuadAdder( output );
+		final double[] values = new double[ 8 ];
+		final double[] position = new double[ 3 ];
+		final Vertex vref = output.vertexRef();
+
+		// Vertex ids of the cubes of the previous and current layers.
+		int[] previous = new int[ isx * isy ];
+		int[] current = new int[ isx * isy ];
+		Arrays.fill( current, -1 );
+
+		for ( int z = minZ; z < maxZ; ++z )
+		{
+			final int[] tmp = previous;
+			previous = current;
+			current = tmp;
+			Arrays.fill( current, -1 );
+			final int start = cubes.start( z );
+			final int end = cubes.end( z );
+
+			// One vertex per cube crossed by the surface.
+			for ( int c = start; c < end; ++c )
+			{
+				final int i = cubes.planeIndex( c );
+				final int mindex = cubes.cubeIndex( c );
+				final int x = ox + cubes.mx( c );
+				final int y = oy + cubes.my( c );
+				sampler.sample( x, y, z, values );
+				vertexPosition( mindex, values, isoLevel, position );
+				final Vertex v = output.addVertex( vref ).init( x + position[ 0 ], y + position[ 1 ], z + position[ 2 ] );
+				current[ i ] = v.getInternalPoolIndex();
+			}
+
+			/*
+			 * One quad per voxel edge crossed by the surface, made of the
+			 * vertices of the 4 cubes that share the edge. The edges are the
+			 * ones that start at the lower corner of the cubes, so that the 4
+			 * cubes are in the current and previous layers.
+			 */
+			for ( int c = start; c < end; ++c )
+			{
+				final int i = cubes.planeIndex( c );
+				final int mindex = cubes.cubeIndex( c );
+				final int inside = mindex & 1;
+				if ( inside != ( ( mindex >> 1 ) & 1 ) )
+					quads.add( previous[ i - isx ], previous[ i ], current[ i ], current[ i - isx ], inside != 0 );
+				if ( inside != ( ( mindex >> 2 ) & 1 ) )
+					quads.add( previous[ i - 1 ], current[ i - 1 ], current[ i ], previous[ i ], inside != 0 );
+				if ( inside != ( ( mindex >> 4 ) & 1 ) )
+					quads.add( current[ i - isx - 1 ], current[ i - isx ], current[ i ], current[ i - 1 ], inside != 0 );
+			}
+		}
+
+		output.releaseRef( vref );
+		quads.release();
+		if ( droppedTriangles != null )
+			droppedTriangles.accept( quads.dropped );
+		return output;
+	}
+
+	/**
+	 * Computes the position of the vertex of a cube, relative to its lower
+	 * corner, as the average of the points where the surface crosses its
+	 * edges.
+	 */
+	private static void vertexPosition( final int mindex, final double[] values, final double isoLevel, final double[] position )
+	{
+		final int EDGE = EDGE_TABLE[ mindex ];
+		double px = 0;
+		double py = 0;
+		double pz = 0;
+		int n = 0;
+		for ( int e = 0; e < 12; e++ )
+		{
+			if ( ( EDGE & ( 1 << e ) ) == 0 )
+				continue;
+
+			final int a = EDGE_START[ e ];
+			final int b = EDGE_END[ e ];
+			final double va = values[ a ];
+			final double vb = values[ b ];
+			double t = ( va == vb ) ? 0.5 : ( isoLevel - va ) / ( vb - va );
+			/*
+			 * Corners outside the input are outside whatever their value, so
+			 * the interpolated point can fall off the edge. Use its middle.
+			 */
+			if ( !( t >= 0 && t <= 1 ) )
+				t = 0.5;
+
+			final int[] ca = CORNERS[ a ];
+			final int[] cb = CORNERS[ b ];
+			px += ca[ 0 ] + t * ( cb[ 0 ] - ca[ 0 ] );
+			py += ca[ 1 ] + t * ( cb[ 1 ] - ca[ 1 ] );
+			pz += ca[ 2 ] + t * ( cb[ 2 ] - ca[ 2 ] );
+			n++;
+		}
+		position[ 0 ] = px / n;
+		position[ 1 ] = py / n;
+		position[ 2 ] = pz / n;
+	}
+
+	/**
+	 * Adds quads to a mesh as two triangles.
+	 */
+	private static final class QuadAdder
+	{
+
+		private final TriMesh mesh;
+
+		private final RefPool< Vertex > pool;
+
+		private final TriangleAdder adder;
+
+		private final Vertex[] refs;
+
+		private final Triangle tref;
+
+		/**
+		 * The number of triangles that could not be added.
+		 */
+		private long dropped;
+
+		private QuadAdder( final TriMesh mesh )
+		{
+			this.mesh = mesh;
+			this.pool = mesh.vertices().getRefPool();
+			this.adder = mesh.triangleAdder();
+			this.refs = new Vertex[] { mesh.vertexRef(), mesh.vertexRef(), mesh.vertexRef(), mesh.vertexRef() };
+			this.tref = mesh.triangleRef();
+		}
+
+		/**
+		 * Adds the quad of the specified vertices, given in counter-clockwise
+		 * order around the crossed edge seen from its end. If the start of the
+		 * edge is inside the surface, the quad faces the end of the edge,
+		 * otherwise it is reversed. The quad is split along its shortest
+		 * diagonal.
+		 */
+		private void add( final int a, final int b, final int c, final int d, final boolean inside )
+		{
+			final Vertex va = pool.getObject( inside ? a : d, refs[ 0 ] );
+			final Vertex vb = pool.getObject( inside ? b : c, refs[ 1 ] );
+			final Vertex vc = pool.getObject( inside ? c : b, refs[ 2 ] );
+			final Vertex vd = pool.getObject( inside ? d : a, refs[ 3 ] );
+			if ( squaredDistance( va, vc ) <= squaredDistance( vb, vd ) )
+			{
+				triangle( va, vb, vc );
+				triangle( va, vc, vd );
+			}
+			else
+			{
+				triangle( vb, vc, vd );
+				triangle( vb, vd, va );
+			}
+		}
+
+		/**
+		 * Adds a triangle, unless it is degenerate. The test is done in single
+		 * precision, as the normal is computed by the triangle adder. Counts
+		 * the triangle as dropped if one of its edges already exists in the
+		 * same direction.
+		 */
+		private void triangle( final Vertex v0, final Vertex v1, final Vertex v2 )
+		{
+			final float p1x = v1.getFloatPosition( 0 ) - v0.getFloatPosition( 0 );
+			final float p1y = v1.getFloatPosition( 1 ) - v0.getFloatPosition( 1 );
+			final float p1z = v1.getFloatPosition( 2 ) - v0.getFloatPosition( 2 );
+			final float p2x = v2.getFloatPosition( 0 ) - v0.getFloatPosition( 0 );
+			final float p2y = v2.getFloatPosition( 1 ) - v0.getFloatPosition( 1 );
+			final float p2z = v2.getFloatPosition( 2 ) - v0.getFloatPosition( 2 );
+			final float cpx = p1y * p2z - p1z * p2y;
+			final float cpy = p1z * p2x - p1x * p2z;
+			final float cpz = p1x * p2y - p1y * p2x;
+			if ( ( cpx != 0 || cpy != 0 || cpz != 0 ) && adder.add( v0, v1, v2, tref ) == null )
+				dropped++;
+		}
+
+		private static double squaredDistance( final Vertex v0, final Vertex v1 )
+		{
+			final double dx = v1.x() - v0.x();
+			final double dy = v1.y() - v0.y();
+			final double dz = v1.z() - v0.z();
+			return dx * dx + dy * dy + dz * dz;
+		}
+
+		private void release()
+		{
+			for ( final Vertex ref : refs )
+				mesh.releaseRef( ref );
+			mesh.releaseRef( tref );
+			adder.releaseRefs();
+		}
+	}
+}
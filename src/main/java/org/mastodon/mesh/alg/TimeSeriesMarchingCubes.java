@@ -0,0 +1,208 @@
+package org.mastodon.mesh.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Marching cubes on the timepoints of a 4D (XYZT) image.
+ * <p>
+ * The timepoints are meshed in parallel by a fixed number of workers. Each
+ * worker keeps the buffers it needs to mesh a 3D frame, the voxel planes of
+ * the cube indices and the vertex cache, and reuses them for all the frames it
+ * processes. Each mesh is handed to a consumer as soon as it is built, and is
+ * not referenced anymore by the workers. The memory used is therefore bounded
+ * by the number of workers, whatever the number of timepoints, as long as the
+ * consumer does not keep the meshes.
+ * <p>
+ * The meshes are indexed meshes, the same as with
+ * {@link MarchingCubesRealType#calculateIndexed(RandomAccessibleInterval, double)}
+ * and {@link MarchingCubesBooleanType#calculateIndexed(RandomAccessibleInterval)}
+ * on each frame.
+ */
+public class TimeSeriesMarchingCubes
+{
+
+	/**
+	 * Creates the indexed meshes of all the timepoints of the specified image.
+	 * <p>
+	 * The consumer receives each mesh with its timepoint. It is never called
+	 * concurrently, but the timepoints may come in any order.
+	 *
+	 * @param input
+	 *            the 4D input image. The last dimension is time.
+	 * @param isoLevel
+	 *            the threshold to distinguish between foreground and background
+	 *            values.
+	 * @param nThreads
+	 *            the number of timepoints meshed in parallel.
+	 * @param consumer
+	 *            the consumer of the meshes.
+	 * @throws IllegalArgumentException
+	 *             if the input is not 4D.
+	 */
+	public static < T extends RealType< T > > void calculate( final RandomAccessibleInterval< T > input, final double isoLevel, final int nThreads, final ObjLongConsumer< TriMesh > consumer )
+	{
+		calculate( input, nThreads, () -> new RealFrameMesher<>( isoLevel ), consumer );
+	}
+
+	/**
+	 * Creates the indexed meshes of all the timepoints of the specified mask.
+	 * <p>
+	 * The consumer receives each mesh with its timepoint. It is never called
+	 * concurrently, but the timepoints may come in any order.
+	 *
+	 * @param input
+	 *            the 4D input mask. The last dimension is time.
+	 * @param nThreads
+	 *            the number of timepoints meshed in parallel.
+	 * @param consumer
+	 *            the consumer of the meshes.
+	 * @throws IllegalArgumentException
+	 *             if the input is not 4D.
+	 */
+	public static < T extends BooleanType< T > > void calculate( final RandomAccessibleInterval< T > input, final int nThreads, final ObjLongConsumer< TriMesh > consumer )
+	{
+		calculate( input, nThreads, () -> new BooleanFrameMesher<>(), consumer );
+	}
+
+	/**
+	 * Interface for the workers that mesh 3D frames, reusing their buffers
+	 * between frames.
+	 */
+	private interface FrameMesher< T >
+	{
+		TriMesh mesh( RandomAccessibleInterval< T > frame );
+	}
+
+	/**
+	 * Meshes the timepoints of the input with <code>nThreads</code> workers,
+	 * each with its own frame mesher. The workers take the next timepoint to
+	 * mesh from a shared counter, so each timepoint is meshed and handed to
+	 * the consumer exactly once.
+	 */
+	private static < T > void calculate( final RandomAccessibleInterval< T > input, final int nThreads, final Supplier< FrameMesher< T > > meshers, final ObjLongConsumer< TriMesh > consumer )
+	{
+		if ( input.numDimensions() != 4 )
+			throw new IllegalArgumentException( "Expected a 4D (XYZT) input, got " + input.numDimensions() + "D." );
+
+		final long minT = input.min( 3 );
+		final long maxT = input.max( 3 );
+		final AtomicLong next = new AtomicLong( minT );
+		final Object lock = new Object();
+		final Runnable worker = () -> {
+			final FrameMesher< T > mesher = meshers.get();
+			long t;
+			while ( ( t = next.getAndIncrement() ) <= maxT )
+			{
+				final TriMesh mesh = mesher.mesh( Views.hyperSlice( input, 3, t ) );
+				synchronized ( lock )
+				{
+					consumer.accept( mesh, t );
+				}
+			}
+		};
+
+		final int nWorkers = ( int ) Math.min( Math.max( 1, nThreads ), maxT - minT + 1 );
+		if ( nWorkers <= 1 )
+		{
+			worker.run();
+			return;
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool( nWorkers );
+		try
+		{
+			final List< ForkJoinTask< ? > > tasks = new ArrayList<>( nWorkers );
+			for ( int i = 0; i < nWorkers; i++ )
+				tasks.add( pool.submit( worker ) );
+			for ( final ForkJoinTask< ? > task : tasks )
+				task.join();
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Meshes frames at an iso-level, with the cube indexer and the edge vertex
+	 * cache created for the first frame.
+	 */
+	private static final class RealFrameMesher< T extends RealType< T > > implements FrameMesher< T >
+	{
+
+		private final double isoLevel;
+
+		private CubeIndexer indexer;
+
+		private EdgeVertexCache cache;
+
+		private RealFrameMesher( final double isoLevel )
+		{
+			this.isoLevel = isoLevel;
+		}
+
+		@Override
+		public TriMesh mesh( final RandomAccessibleInterval< T > frame )
+		{
+			final int minZ = ( int ) frame.min( 2 ) - 1;
+			final int maxZ = ( int ) frame.max( 2 ) + 1;
+			final CubeSampler sampler = CubeSampler.create( frame );
+			if ( indexer == null )
+			{
+				indexer = new CubeIndexer( frame, minZ, sampler.planeReader( isoLevel, minZ, maxZ ) );
+				cache = new EdgeVertexCache( ( int ) frame.dimension( 0 ) + 2, ( int ) frame.dimension( 1 ) + 2 );
+			}
+			else
+			{
+				indexer.reset( minZ, sampler.planeReader( isoLevel, minZ, maxZ ) );
+				cache.reset();
+			}
+			final ActiveCubes cubes = ActiveCubes.collect( frame, minZ, maxZ, indexer, CubePolygonizer.TRIANGLE_COUNT );
+			return MarchingCubesRealType.mesh( frame, isoLevel, sampler, cubes, cache, Calibration.NONE, false );
+		}
+	}
+
+	/**
+	 * Meshes boolean frames, with the bit cube indexer and the corner vertex
+	 * cache created for the first frame.
+	 */
+	private static final class BooleanFrameMesher< T extends BooleanType< T > > implements FrameMesher< T >
+	{
+
+		private BitCubeIndexer indexer;
+
+		private CornerVertexCache cache;
+
+		@Override
+		public TriMesh mesh( final RandomAccessibleInterval< T > frame )
+		{
+			final int minZ = ( int ) frame.min( 2 ) - 1;
+			final int maxZ = ( int ) frame.max( 2 ) + 1;
+			if ( indexer == null )
+			{
+				indexer = new BitCubeIndexer( frame, minZ, MarchingCubesBooleanType.planeReader( frame, minZ, maxZ ) );
+				cache = new CornerVertexCache( ( int ) frame.dimension( 0 ) + 2, ( int ) frame.dimension( 1 ) + 2 );
+			}
+			else
+			{
+				indexer.reset( minZ, MarchingCubesBooleanType.planeReader( frame, minZ, maxZ ) );
+				cache.reset();
+			}
+			final ActiveCubes cubes = ActiveCubes.collect( frame, minZ, maxZ, indexer, BooleanCubePolygonizer.TRIANGLE_COUNT );
+			return MarchingCubesBooleanType.mesh( frame, cubes, cache, Calibration.NONE );
+		}
+	}
+}
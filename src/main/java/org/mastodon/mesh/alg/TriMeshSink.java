@@ -0,0 +1,216 @@
+package org.mastodon.mesh.alg;
+
+import static org.mastodon.mesh.alg.CubePolygonizer.CORNERS;
+import static org.mastodon.mesh.alg.CubePolygonizer.EDGE_END;
+import static org.mastodon.mesh.alg.CubePolygonizer.EDGE_START;
+
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.TriangleAdder;
+import org.mastodon.mesh.Vertex;
+
+/**
+ * A {@link TriangleSink} that adds the triangles it receives to a mesh, with
+ * three new vertices per triangle.
+ * <p>
+ * Within the marching cubes algorithms, the sink can also be given a vertex
+ * cache, so that the vertices of the triangles of adjacent cubes are shared,
+ * and the sampler of the input, to set the normals of the vertices it creates
+ * from the gradient of the image: the gradients at the two ends of the edge of
+ * a vertex are computed with central differences, and interpolated at the
+ * vertex. The normal is the opposite of the gradient, so it points outward.
+ * The vertices found in the cache keep the normal set when they were created,
+ * and the mesh must have vertex normals, see
+ * {@link org.mastodon.mesh.TriMesh#hasVertexNormals()}.
+ * <p>
+ * Instances hold references of the mesh, that must be released with
+ * {@link #release()} once all the triangles have been added.
+ */
+public class TriMeshSink implements CubeTriangleSink
+{
+
+	private final TriMesh mesh;
+
+	private final Calibration calibration;
+
+	private final EdgeVertexCache cache;
+
+	private final CubeSampler normals;
+
+	private final Vertex vref0;
+
+	private final Vertex vref1;
+
+	private final Vertex vref2;
+
+	private final Triangle tref;
+
+	private final TriangleAdder faceAdder;
+
+	private final double[] ga = new double[ 3 ];
+
+	private final double[] gb = new double[ 3 ];
+
+	private boolean created;
+
+	/**
+	 * Creates a sink that adds triangles to the specified mesh.
+	 *
+	 * @param mesh
+	 *            the mesh to add triangles to.
+	 */
+	public TriMeshSink( final TriMesh mesh )
+	{
+		this( mesh, null, Calibration.NONE, null );
+	}
+
+	/**
+	 * Creates a sink that adds the triangles of the marching cubes to the
+	 * specified mesh.
+	 *
+	 * @param mesh
+	 *            the mesh to add triangles to.
+	 * @param cache
+	 *            the vertex cache, or <code>null</code> to create three new
+	 *            vertices per triangle.
+	 * @param calibration
+	 *            the transform from voxel coordinates to physical coordinates.
+	 * @param normals
+	 *            the sampler of the input to compute the vertex normals with,
+	 *            or <code>null</code> not to compute them.
+	 */
+	TriMeshSink( final TriMesh mesh, final EdgeVertexCache cache, final Calibration calibration, final CubeSampler normals )
+	{
+		this.mesh = mesh;
+		this.cache = cache;
+		this.calibration = calibration;
+		this.normals = normals;
+		this.vref0 = mesh.vertexRef();
+		this.vref1 = mesh.vertexRef();
+		this.vref2 = mesh.vertexRef();
+		this.tref = mesh.triangleRef();
+		this.faceAdder = mesh.triangleAdder();
+	}
+
+	@Override
+	public void triangle( final double x0, final double y0, final double z0, final double x1, final double y1, final double z1, final double x2, final double y2, final double z2 )
+	{
+		final Vertex v0 = calibration.addVertex( mesh, x0, y0, z0, vref0 );
+		final Vertex v1 = calibration.addVertex( mesh, x1, y1, z1, vref1 );
+		final Vertex v2 = calibration.addVertex( mesh, x2, y2, z2, vref2 );
+		add( v0, v1, v2 );
+	}
+
+	@Override
+	public void triangle( final int e0, final int e1, final int e2, final int x, final int y, final int z, final int mx, final int my,
+			final double x0, final double y0, final double z0, final double x1, final double y1, final double z1, final double x2, final double y2, final double z2 )
+	{
+		final Vertex v0 = vertex( e0, x, y, z, mx, my, x0, y0, z0, vref0 );
+		if ( normals != null && created() )
+			normal( v0, e0, x, y, z, x0, y0, z0 );
+		final Vertex v1 = vertex( e1, x, y, z, mx, my, x1, y1, z1, vref1 );
+		if ( normals != null && created() )
+			normal( v1, e1, x, y, z, x1, y1, z1 );
+		final Vertex v2 = vertex( e2, x, y, z, mx, my, x2, y2, z2, vref2 );
+		if ( normals != null && created() )
+			normal( v2, e2, x, y, z, x2, y2, z2 );
+		add( v0, v1, v2 );
+	}
+
+	/**
+	 * Returns the vertex on the specified edge of the specified cube, creating
+	 * it at the specified position, in voxel coordinates, if needed. Whether
+	 * it was created is then given by {@link #created()}.
+	 */
+	Vertex vertex( final int edge, final int x, final int y, final int z, final int mx, final int my,
+			final double px, final double py, final double pz, final Vertex ref )
+	{
+		if ( cache == null )
+		{
+			created = true;
+			return calibration.addVertex( mesh, px, py, pz, ref );
+		}
+		final Vertex v = cache.vertex( edge, mx, my, px, py, pz, calibration, mesh, ref );
+		created = cache.created();
+		return v;
+	}
+
+	/**
+	 * Returns whether the last vertex returned by
+	 * {@link #vertex(int, int, int, int, int, int, double, double, double, Vertex)}
+	 * was created by the call, rather than found in the cache.
+	 *
+	 * @return <code>true</code> if the last vertex is new.
+	 */
+	boolean created()
+	{
+		return created;
+	}
+
+	/**
+	 * Returns the mesh the triangles are added to.
+	 *
+	 * @return the mesh.
+	 */
+	TriMesh mesh()
+	{
+		return mesh;
+	}
+
+	/**
+	 * Returns the transform applied to the vertex positions.
+	 *
+	 * @return the calibration.
+	 */
+	Calibration calibration()
+	{
+		return calibration;
+	}
+
+	/**
+	 * Sets the normal of a vertex created for the current triangle, from the
+	 * gradients at the ends of its edge.
+	 */
+	private void normal( final Vertex v, final int edge, final int x, final int y, final int z,
+			final double px, final double py, final double pz )
+	{
+		final int[] ca = CORNERS[ EDGE_START[ edge ] ];
+		final int[] cb = CORNERS[ EDGE_END[ edge ] ];
+
+		// Position of the vertex along the edge.
+		final double t;
+		if ( ca[ 0 ] != cb[ 0 ] )
+			t = ( px - x - ca[ 0 ] ) / ( cb[ 0 ] - ca[ 0 ] );
+		else if ( ca[ 1 ] != cb[ 1 ] )
+			t = ( py - y - ca[ 1 ] ) / ( cb[ 1 ] - ca[ 1 ] );
+		else
+			t = ( pz - z - ca[ 2 ] ) / ( cb[ 2 ] - ca[ 2 ] );
+
+		normals.gradient( x + ca[ 0 ], y + ca[ 1 ], z + ca[ 2 ], ga );
+		normals.gradient( x + cb[ 0 ], y + cb[ 1 ], z + cb[ 2 ], gb );
+		calibration.setNormal( v,
+				-( ga[ 0 ] + t * ( gb[ 0 ] - ga[ 0 ] ) ),
+				-( ga[ 1 ] + t * ( gb[ 1 ] - ga[ 1 ] ) ),
+				-( ga[ 2 ] + t * ( gb[ 2 ] - ga[ 2 ] ) ) );
+	}
+
+	private void add( final Vertex v0, final Vertex v1, final Vertex v2 )
+	{
+		if ( calibration.flip() )
+			faceAdder.add( v0, v2, v1, tref );
+		else
+			faceAdder.add( v0, v1, v2, tref );
+	}
+
+	/**
+	 * Releases the references used by this sink.
+	 */
+	public void release()
+	{
+		mesh.releaseRef( vref0 );
+		mesh.releaseRef( vref1 );
+		mesh.releaseRef( vref2 );
+		mesh.releaseRef( tref );
+		faceAdder.releaseRefs();
+	}
+}
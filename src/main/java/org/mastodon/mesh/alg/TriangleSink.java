@@ -0,0 +1,40 @@
+package org.mastodon.mesh.alg;
+
+/**
+ * Interface for the consumers of the triangles created by the marching cubes
+ * algorithm, that receive the coordinates of their vertices without a mesh
+ * being built.
+ * <p>
+ * The vertices of a triangle are given in counter-clockwise order seen from
+ * outside the surface, so that <code>(v1 - v0) x (v2 - v0)</code> points
+ * outward. Triangles with a zero area are not sent. The same position is sent
+ * once for each triangle that touches it.
+ */
+@FunctionalInterface
+public interface TriangleSink
+{
+
+	/**
+	 * Receives a triangle.
+	 *
+	 * @param x0
+	 *            the X coordinate of the first vertex.
+	 * @param y0
+	 *            the Y coordinate of the first vertex.
+	 * @param z0
+	 *            the Z coordinate of the first vertex.
+	 * @param x1
+	 *            the X coordinate of the second vertex.
+	 * @param y1
+	 *            the Y coordinate of the second vertex.
+	 * @param z1
+	 *            the Z coordinate of the second vertex.
+	 * @param x2
+	 *            the X coordinate of the third vertex.
+	 * @param y2
+	 *            the Y coordinate of the third vertex.
+	 * @param z2
+	 *            the Z coordinate of the third vertex.
+	 */
+	void triangle( double x0, double y0, double z0, double x1, double y1, double z1, double x2, double y2, double z2 );
+}
@@ -9,13 +9,11 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.mastodon.collection.IntRefMap;
+import org.mastodon.RefPool;
 import org.mastodon.collection.RefIntMap;
 import org.mastodon.collection.RefMaps;
 import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
 import org.mastodon.mesh.Triangle;
 import org.mastodon.mesh.TriangleAdder;
 import org.mastodon.mesh.Vertex;
@@ -29,6 +27,9 @@ import org.smurn.jply.util.NormalizingPlyReader;
 import org.smurn.jply.util.TesselationMode;
 import org.smurn.jply.util.TextureMode;
 
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
 /**
  * A plugin for reading and writing
  * <a href= "https://en.wikipedia.org/wiki/PLY_(file_format)">PLY files</a>.
@@ -73,12 +74,7 @@ public class PLYMeshIO
 				NormalMode.ADD_NORMALS_CCW, TextureMode.PASS_THROUGH );
 		try
 		{
-			final int nVertices = plyReader.getElementCount( "vertex" );
-			final int nTriangles = plyReader.getElementCount( "face" );
-			final TriMesh mesh = new TriMesh( nVertices, nTriangles );
-
-			read( plyReader, mesh );
-			return mesh;
+			return read( plyReader );
 		}
 		finally
 		{
@@ -86,9 +82,9 @@ public class PLYMeshIO
 		}
 	}
 
-	private static final List< int[] > readTriangles( final ElementReader reader ) throws IOException
+	private static final int[] readTriangles( final ElementReader reader ) throws IOException
 	{
-		final List< int[] > triangles = new ArrayList<>( reader.getCount() );
+		final TIntArrayList triangles = new TIntArrayList( 3 * reader.getCount() );
 		Element triangle = reader.readElement();
 		while ( triangle != null )
 		{
@@ -96,7 +92,25 @@ public class PLYMeshIO
 			triangles.add( indices );
 			triangle = reader.readElement();
 		}
-		return triangles;
+		return triangles.toArray();
+	}
+
+	/**
+	 * Creates a new mesh with the data read from the PLY reader. It it the
+	 * caller responsibility to close the reader after calling this method.
+	 * <p>
+	 * The vertices and faces are read in flat buffers, from which the mesh is
+	 * built in one pass by the {@link TriMeshBuilder}.
+	 *
+	 * @param plyReader
+	 *            the reader.
+	 * @return a new mesh.
+	 * @throws IOException
+	 */
+	private static final TriMesh read( final PlyReader plyReader ) throws IOException
+	{
+		final Buffers buffers = readBuffers( plyReader );
+		return TriMeshBuilder.build( buffers.positions, buffers.triangles );
 	}
 
 	/**
@@ -112,41 +126,35 @@ public class PLYMeshIO
 	 */
 	private static final void read( final PlyReader plyReader, final TriMesh mesh ) throws IOException
 	{
-		// Data holders.
-		IntRefMap< Vertex > vertexRowMap = null;
-		List< int[] > triangles = null;
+		final Buffers buffers = readBuffers( plyReader );
+		final float[] positions = buffers.positions;
+		final int[] triangles = buffers.triangles;
 
-		// Iterate through the stream and add vertices.
-		ElementReader reader;
-		while ( ( reader = plyReader.nextElementReader() ) != null )
+		// Add vertices to the mesh.
+		final int[] vertexIds = new int[ positions.length / 3 ];
+		final Vertex vref = mesh.vertexRef();
+		for ( int i = 0; i < vertexIds.length; i++ )
 		{
-			final String elementName = reader.getElementType().getName();
-
-			if ( elementName.equals( "vertex" ) )
-				vertexRowMap = readVertices( reader, mesh );
-			else if ( elementName.equals( "face" ) )
-				triangles = readTriangles( reader );
-
-			reader.close();
+			final Vertex v = mesh.addVertex( vref );
+			v.setPosition( positions[ 3 * i ], 0 );
+			v.setPosition( positions[ 3 * i + 1 ], 1 );
+			v.setPosition( positions[ 3 * i + 2 ], 2 );
+			vertexIds[ i ] = v.getInternalPoolIndex();
 		}
-
-		// Test.
-		if ( vertexRowMap == null )
-			throw new IOException( "Could not find the 'vertex' element in file." );
-		if ( triangles == null )
-			throw new IOException( "Could not find the 'face' element in file." );
+		mesh.releaseRef( vref );
 
 		// Add triangles to the mesh.
+		final RefPool< Vertex > pool = mesh.vertices().getRefPool();
 		final TriangleAdder adder = mesh.triangleAdder();
 		final Triangle tref = mesh.triangleRef();
 		final Vertex vref0 = mesh.vertexRef();
 		final Vertex vref1 = mesh.vertexRef();
 		final Vertex vref2 = mesh.vertexRef();
-		for ( final int[] triangle : triangles )
+		for ( int t = 0; t < triangles.length; t += 3 )
 		{
-			final Vertex v0 = vertexRowMap.get( triangle[ 0 ], vref0 );
-			final Vertex v1 = vertexRowMap.get( triangle[ 1 ], vref1 );
-			final Vertex v2 = vertexRowMap.get( triangle[ 2 ], vref2 );
+			final Vertex v0 = pool.getObject( vertexIds[ triangles[ t ] ], vref0 );
+			final Vertex v1 = pool.getObject( vertexIds[ triangles[ t + 1 ] ], vref1 );
+			final Vertex v2 = pool.getObject( vertexIds[ triangles[ t + 2 ] ], vref2 );
 			adder.add( v0, v1, v2, tref );
 		}
 		mesh.releaseRef( vref0 );
@@ -156,13 +164,56 @@ public class PLYMeshIO
 		adder.releaseRefs();
 	}
 
-	private static final IntRefMap< Vertex > readVertices( final ElementReader reader, final TriMesh mesh ) throws IOException
+	/**
+	 * The vertex positions and triangle indices read from a PLY file.
+	 */
+	private static final class Buffers
 	{
-		final IntRefMap< Vertex > rowToVertMap = RefMaps.createIntRefMap( mesh.vertices(), -1 );
 
-		int vertCount = 0;
+		private final float[] positions;
+
+		private final int[] triangles;
+
+		private Buffers( final float[] positions, final int[] triangles )
+		{
+			this.positions = positions;
+			this.triangles = triangles;
+		}
+	}
+
+	private static final Buffers readBuffers( final PlyReader plyReader ) throws IOException
+	{
+		// Data holders.
+		float[] positions = null;
+		int[] triangles = null;
+
+		// Iterate through the stream and read vertices and faces.
+		ElementReader reader;
+		while ( ( reader = plyReader.nextElementReader() ) != null )
+		{
+			final String elementName = reader.getElementType().getName();
+
+			if ( elementName.equals( "vertex" ) )
+				positions = readVertices( reader );
+			else if ( elementName.equals( "face" ) )
+				triangles = readTriangles( reader );
+
+			reader.close();
+		}
+
+		// Test.
+		if ( positions == null )
+			throw new IOException( "Could not find the 'vertex' element in file." );
+		if ( triangles == null )
+			throw new IOException( "Could not find the 'face' element in file." );
+
+		return new Buffers( positions, triangles );
+	}
+
+	private static final float[] readVertices( final ElementReader reader ) throws IOException
+	{
+		final TFloatArrayList positions = new TFloatArrayList( 3 * reader.getCount() );
 		Element vertex = reader.readElement();
-		final Vertex vref = mesh.vertexRef();
 		while ( vertex != null )
 		{
 			final float x = ( float ) vertex.getDouble( "x" );
@@ -174,16 +225,12 @@ public class PLYMeshIO
 			// TODO we ignore vertex normal for now.
 //			final float u = 0, v = 0; // TODO: texture coordinate
 
-			final Vertex v = mesh.addVertex( vref );
-			v.setPosition( x, 0 );
-			v.setPosition( y, 1 );
-			v.setPosition( z, 2 );
-
-			rowToVertMap.put( vertCount++, v );
+			positions.add( x );
+			positions.add( y );
+			positions.add( z );
 			vertex = reader.readElement();
 		}
-		mesh.releaseRef( vref );
-		return rowToVertMap;
+		return positions.toArray();
 	}
 
 	public static final byte[] writeBinary( final TriMesh mesh )
@@ -220,15 +267,17 @@ public class PLYMeshIO
 
 		// Write vertices
 		final RefIntMap< Vertex > refToVertId = RefMaps.createRefIntMap( mesh.vertices(), -1, mesh.vertices().size() );
+		final float[] normal = new float[ 3 ];
 		int vertId = 0;
 		for ( final Vertex v : mesh.vertices() )
 		{
+			v.normal( normal );
 			buffer.putFloat( v.getFloatPosition( 0 ) );
 			buffer.putFloat( v.getFloatPosition( 1 ) );
 			buffer.putFloat( v.getFloatPosition( 2 ) );
-			buffer.putFloat( 0f );
-			buffer.putFloat( 0f );
-			buffer.putFloat( 0f );
+			buffer.putFloat( normal[ 0 ] );
+			buffer.putFloat( normal[ 1 ] );
+			buffer.putFloat( normal[ 2 ] );
 			buffer.putFloat( 0f );
 			buffer.putFloat( 0f );
 			refToVertId.put( v, vertId );
@@ -293,20 +342,22 @@ public class PLYMeshIO
 
 		// Write vertices
 		final RefIntMap< Vertex > refToVertId = RefMaps.createRefIntMap( mesh.vertices(), -1, mesh.vertices().size() );
+		final float[] normal = new float[ 3 ];
 		int vertId = 0;
 		for ( final Vertex v : mesh.vertices() )
 		{
+			v.normal( normal );
 			writer.write( Float.toString( v.getFloatPosition( 0 ) ) );
 			writer.write( ' ' );
 			writer.write( Float.toString( v.getFloatPosition( 1 ) ) );
 			writer.write( ' ' );
 			writer.write( Float.toString( v.getFloatPosition( 2 ) ) );
 			writer.write( ' ' );
-			writer.write( Float.toString( 0f ) );
+			writer.write( Float.toString( normal[ 0 ] ) );
 			writer.write( ' ' );
-			writer.write( Float.toString( 0f ) );
+			writer.write( Float.toString( normal[ 1 ] ) );
 			writer.write( ' ' );
-			writer.write( Float.toString( 0f ) );
+			writer.write( Float.toString( normal[ 2 ] ) );
 			writer.write( ' ' );
 			writer.write( Float.toString( 0f ) );
 			writer.write( ' ' );
@@ -367,13 +418,10 @@ public class PLYMeshIO
 
 	public static TriMesh open( final String source ) throws IOException
 	{
-		final File file = new File( source );
-		final int[] nels = getNVerticesFaces( source );
-		final int nVertices = nels[ 0 ];
-		final int nTriangles = nels[ 1 ];
-		final TriMesh mesh = new TriMesh( nVertices, nTriangles );
-		read( file, mesh );
-		return mesh;
+		try (final FileInputStream is = new FileInputStream( source ))
+		{
+			return open( is );
+		}
 	}
 
 	public static void save( final TriMesh data, final String destination ) throws IOException
@@ -0,0 +1,346 @@
+package org.mastodon.mesh.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.mastodon.mesh.HalfEdge;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+import org.mastodon.pool.PoolCollectionWrapper;
+import org.mastodon.pool.PoolObject;
+
+/**
+ * Reads and writes meshes in the native TMSH binary format.
+ * <p>
+ * The format mirrors the content of the pools of a {@link TriMesh}, so that a
+ * mesh is restored with its exact topology, half-edges and twins included,
+ * without parsing or recomputing anything. All values are little-endian:
+ * <ol>
+ * <li>a 24 bytes header: the <code>TMSH</code> magic, the format version, the
+ * flags (bit 0 set for single-precision positions, bit 1 set for vertex
+ * normals), and the number of
+ * vertices, triangles and half-edges, as <code>int</code>s.
+ * <li>the vertex positions as X, Y, Z triplets, in <code>double</code> or
+ * <code>float</code>.
+ * <li>the vertex normals as X, Y, Z <code>float</code> triplets, only if the
+ * mesh has vertex normals.
+ * <li>the triangle vertex indices as <code>int</code> triplets.
+ * <li>the triangle normals as X, Y, Z <code>float</code> triplets.
+ * <li>the half-edges as 6 <code>int</code>s: source vertex, target vertex,
+ * next half-edge, previous half-edge, twin half-edge or -1, and triangle.
+ * </ol>
+ * Each section is read in one bulk transfer per chunk of the file, straight
+ * into the arrays the pools are filled from.
+ * <p>
+ * The vertices, triangles and half-edges are written in the order of their
+ * pools, and renumbered if the mesh has gaps left by removed objects.
+ */
+public class TMSHMeshIO
+{
+
+	/**
+	 * The current version of the format.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 'T' | 'M' << 8 | 'S' << 16 | 'H' << 24;
+
+	private static final int HEADER_BYTES = 6 * 4;
+
+	private static final int SINGLE_PRECISION = 1;
+
+	private static final int VERTEX_NORMALS = 2;
+
+	/**
+	 * Size of the buffer the sections are transferred through.
+	 */
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	public static void save( final TriMesh mesh, final String destination ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( Paths.get( destination ),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+		{
+			write( mesh, channel );
+		}
+	}
+
+	public static TriMesh open( final String source ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( Paths.get( source ), StandardOpenOption.READ ))
+		{
+			return read( channel );
+		}
+	}
+
+	/**
+	 * Writes the specified mesh to a channel, in the TMSH format.
+	 *
+	 * @param mesh
+	 *            the mesh to write.
+	 * @param channel
+	 *            the channel to write to.
+	 * @throws IOException
+	 */
+	public static void write( final TriMesh mesh, final WritableByteChannel channel ) throws IOException
+	{
+		// Dense indices, in case objects were removed from the pools.
+		final int[] vertexIds = denseIds( mesh.vertices() );
+		final int[] triangleIds = denseIds( mesh.triangles() );
+		final int[] edgeIds = denseIds( mesh.edges() );
+		final int nVertices = mesh.vertices().size();
+		final int nTriangles = mesh.triangles().size();
+		final int nEdges = mesh.edges().size();
+		final boolean singlePrecision = mesh.isSinglePrecision();
+		final boolean normals = mesh.hasVertexNormals();
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( CHUNK_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.putInt( MAGIC );
+		buffer.putInt( VERSION );
+		buffer.putInt( ( singlePrecision ? SINGLE_PRECISION : 0 ) | ( normals ? VERTEX_NORMALS : 0 ) );
+		buffer.putInt( nVertices );
+		buffer.putInt( nTriangles );
+		buffer.putInt( nEdges );
+
+		final int positionBytes = singlePrecision ? 3 * 4 : 3 * 8;
+		for ( final Vertex v : mesh.vertices() )
+		{
+			ensure( buffer, positionBytes, channel );
+			if ( singlePrecision )
+			{
+				buffer.putFloat( v.getFloatPosition( 0 ) );
+				buffer.putFloat( v.getFloatPosition( 1 ) );
+				buffer.putFloat( v.getFloatPosition( 2 ) );
+			}
+			else
+			{
+				buffer.putDouble( v.x() );
+				buffer.putDouble( v.y() );
+				buffer.putDouble( v.z() );
+			}
+		}
+
+		final float[] normal = new float[ 3 ];
+		if ( normals )
+		{
+			for ( final Vertex v : mesh.vertices() )
+			{
+				ensure( buffer, 3 * 4, channel );
+				v.normal( normal );
+				buffer.putFloat( normal[ 0 ] );
+				buffer.putFloat( normal[ 1 ] );
+				buffer.putFloat( normal[ 2 ] );
+			}
+		}
+
+		for ( final Triangle t : mesh.triangles() )
+		{
+			ensure( buffer, 3 * 4, channel );
+			buffer.putInt( vertexIds[ t.v0() ] );
+			buffer.putInt( vertexIds[ t.v1() ] );
+			buffer.putInt( vertexIds[ t.v2() ] );
+		}
+
+		for ( final Triangle t : mesh.triangles() )
+		{
+			ensure( buffer, 3 * 4, channel );
+			t.normal( normal );
+			buffer.putFloat( normal[ 0 ] );
+			buffer.putFloat( normal[ 1 ] );
+			buffer.putFloat( normal[ 2 ] );
+		}
+
+		final HalfEdge eref = mesh.edgeRef();
+		final Triangle tref = mesh.triangleRef();
+		for ( final HalfEdge e : mesh.edges() )
+		{
+			ensure( buffer, 6 * 4, channel );
+			buffer.putInt( vertexIds[ e.getSourceVertexInternalPoolIndex() ] );
+			buffer.putInt( vertexIds[ e.getTargetVertexInternalPoolIndex() ] );
+			buffer.putInt( denseId( e.next( eref ), edgeIds ) );
+			buffer.putInt( denseId( e.previous( eref ), edgeIds ) );
+			buffer.putInt( denseId( e.twin( eref ), edgeIds ) );
+			buffer.putInt( denseId( e.triangle( tref ), triangleIds ) );
+		}
+		mesh.releaseRef( eref );
+		mesh.releaseRef( tref );
+
+		flush( buffer, channel );
+	}
+
+	/**
+	 * Reads a mesh from a channel, in the TMSH format.
+	 *
+	 * @param channel
+	 *            the channel to read from.
+	 * @return a new mesh.
+	 * @throws IOException
+	 *             if the channel cannot be read, does not hold a TMSH mesh of
+	 *             a supported version, or holds an invalid mesh: a header
+	 *             announcing more data than an array can hold or than the
+	 *             channel holds, if it is seekable, or indices out of
+	 *             range.
+	 */
+	public static TriMesh read( final ReadableByteChannel channel ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( CHUNK_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.limit( HEADER_BYTES );
+		fill( buffer, channel );
+		if ( buffer.getInt() != MAGIC )
+			throw new IOException( "Not a TMSH mesh." );
+		final int version = buffer.getInt();
+		if ( version < 1 || version > VERSION )
+			throw new IOException( "Unsupported TMSH version: " + version + ". This reader supports up to version " + VERSION + "." );
+		final int flags = buffer.getInt();
+		final boolean singlePrecision = ( flags & SINGLE_PRECISION ) != 0;
+		final boolean normals = ( flags & VERTEX_NORMALS ) != 0;
+		final int nVertices = buffer.getInt();
+		final int nTriangles = buffer.getInt();
+		final int nEdges = buffer.getInt();
+		if ( nVertices < 0 || nTriangles < 0 || nEdges < 0 )
+			throw new IOException( "Invalid TMSH header: " + nVertices + " vertices, " + nTriangles + " triangles, " + nEdges + " half-edges." );
+
+		// Section sizes in long, so that a corrupt header does not overflow.
+		final long nCoordinates = 3L * nVertices;
+		final long nTriangleIndices = 3L * nTriangles;
+		final long nEdgeIndices = 6L * nEdges;
+		if ( nCoordinates > Integer.MAX_VALUE || nTriangleIndices > Integer.MAX_VALUE || nEdgeIndices > Integer.MAX_VALUE )
+			throw new IOException( "TMSH mesh too large: " + nVertices + " vertices, " + nTriangles + " triangles, " + nEdges + " half-edges." );
+		final long bytes = nCoordinates * ( singlePrecision ? 4 : 8 )
+				+ ( normals ? nCoordinates * 4 : 0 )
+				+ nTriangleIndices * 4 * 2
+				+ nEdgeIndices * 4;
+		if ( channel instanceof SeekableByteChannel )
+		{
+			final SeekableByteChannel seekable = ( SeekableByteChannel ) channel;
+			final long remaining = seekable.size() - seekable.position();
+			if ( bytes > remaining )
+				throw new IOException( "Truncated TMSH mesh: the header announces " + bytes + " bytes of data, but only " + remaining + " remain." );
+		}
+
+		final double[] doublePositions = singlePrecision ? null : readDoubles( ( int ) nCoordinates, buffer, channel );
+		final float[] floatPositions = singlePrecision ? readFloats( ( int ) nCoordinates, buffer, channel ) : null;
+		final float[] vertexNormals = normals ? readFloats( ( int ) nCoordinates, buffer, channel ) : null;
+		final int[] triangles = readInts( ( int ) nTriangleIndices, buffer, channel );
+		final float[] triangleNormals = readFloats( ( int ) nTriangleIndices, buffer, channel );
+		final int[] edges = readInts( ( int ) nEdgeIndices, buffer, channel );
+
+		try
+		{
+			return singlePrecision
+					? TriMeshBuilder.restore( floatPositions, vertexNormals, triangles, triangleNormals, edges )
+					: TriMeshBuilder.restore( doublePositions, vertexNormals, triangles, triangleNormals, edges );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			throw new IOException( "Invalid TMSH mesh: " + e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Maps the pool indices of the objects of a collection to their rank in
+	 * the collection.
+	 */
+	private static < O extends PoolObject< O, ?, ? > > int[] denseIds( final PoolCollectionWrapper< O > objects )
+	{
+		int maxId = -1;
+		for ( final O o : objects )
+			maxId = Math.max( maxId, o.getInternalPoolIndex() );
+		final int[] ids = new int[ maxId + 1 ];
+		int rank = 0;
+		for ( final O o : objects )
+			ids[ o.getInternalPoolIndex() ] = rank++;
+		return ids;
+	}
+
+	private static int denseId( final PoolObject< ?, ?, ? > o, final int[] ids )
+	{
+		return o == null ? -1 : ids[ o.getInternalPoolIndex() ];
+	}
+
+	private static double[] readDoubles( final int n, final ByteBuffer buffer, final ReadableByteChannel channel ) throws IOException
+	{
+		final double[] values = new double[ n ];
+		int read = 0;
+		while ( read < n )
+		{
+			final int count = Math.min( n - read, CHUNK_BYTES / 8 );
+			buffer.clear();
+			buffer.limit( count * 8 );
+			fill( buffer, channel );
+			buffer.asDoubleBuffer().get( values, read, count );
+			read += count;
+		}
+		return values;
+	}
+
+	private static float[] readFloats( final int n, final ByteBuffer buffer, final ReadableByteChannel channel ) throws IOException
+	{
+		final float[] values = new float[ n ];
+		int read = 0;
+		while ( read < n )
+		{
+			final int count = Math.min( n - read, CHUNK_BYTES / 4 );
+			buffer.clear();
+			buffer.limit( count * 4 );
+			fill( buffer, channel );
+			buffer.asFloatBuffer().get( values, read, count );
+			read += count;
+		}
+		return values;
+	}
+
+	private static int[] readInts( final int n, final ByteBuffer buffer, final ReadableByteChannel channel ) throws IOException
+	{
+		final int[] values = new int[ n ];
+		int read = 0;
+		while ( read < n )
+		{
+			final int count = Math.min( n - read, CHUNK_BYTES / 4 );
+			buffer.clear();
+			buffer.limit( count * 4 );
+			fill( buffer, channel );
+			buffer.asIntBuffer().get( values, read, count );
+			read += count;
+		}
+		return values;
+	}
+
+	/**
+	 * Reads from the channel until the buffer is full, and flips it.
+	 */
+	private static void fill( final ByteBuffer buffer, final ReadableByteChannel channel ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer ) < 0 )
+				throw new IOException( "Unexpected end of TMSH mesh." );
+		buffer.flip();
+	}
+
+	/**
+	 * Writes the buffer to the channel if it cannot hold the specified number
+	 * of bytes.
+	 */
+	private static void ensure( final ByteBuffer buffer, final int bytes, final WritableByteChannel channel ) throws IOException
+	{
+		if ( buffer.remaining() < bytes )
+			flush( buffer, channel );
+	}
+
+	private static void flush( final ByteBuffer buffer, final WritableByteChannel channel ) throws IOException
+	{
+		buffer.flip();
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+		buffer.clear();
+	}
+}
@@ -0,0 +1,132 @@
+package org.mastodon.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertSameTopology;
+import static org.mastodon.mesh.TriMeshRemoveTest.TETRAHEDRON_POSITIONS;
+import static org.mastodon.mesh.TriMeshRemoveTest.TETRAHEDRON_TRIANGLES;
+
+import org.junit.Test;
+
+public class EdgeIndexTest
+{
+
+	/**
+	 * A small closed mesh, with enough vertices that most vertex pairs have
+	 * no half-edge between them.
+	 */
+	private static TriMesh sphere()
+	{
+		return Meshes.marchingCubesIndexed( TestImages.sphere( 9, 8, 7, 2.7 ), 0. );
+	}
+
+	/**
+	 * Asserts that the edge index of a mesh finds the same half-edge as
+	 * walking the edge list of the source vertex, for every pair of vertices,
+	 * including the pairs without half-edge.
+	 */
+	private static void assertIndexConsistent( final TriMesh mesh )
+	{
+		assertTrue( mesh.isEdgeIndexEnabled() );
+		final HalfEdge eref1 = mesh.edgeRef();
+		final HalfEdge eref2 = mesh.edgeRef();
+		for ( final Vertex source : mesh.vertices() )
+		{
+			for ( final Vertex target : mesh.vertices() )
+			{
+				final HalfEdge expected = mesh.getEdge( source, target, eref1 );
+				final HalfEdge actual = mesh.findEdge( source, target, eref2 );
+				if ( expected == null )
+					assertNull( actual );
+				else
+					assertEquals( expected.getInternalPoolIndex(), actual.getInternalPoolIndex() );
+			}
+		}
+		mesh.releaseRef( eref1 );
+		mesh.releaseRef( eref2 );
+	}
+
+	@Test
+	public void testAddEdge()
+	{
+		final TriMesh mesh = new TriMesh();
+		mesh.setEdgeIndexEnabled( true );
+		final Vertex[] vertices = new Vertex[ 4 ];
+		for ( int i = 0; i < 4; i++ )
+			vertices[ i ] = mesh.addVertex().init( TETRAHEDRON_POSITIONS[ 3 * i ], TETRAHEDRON_POSITIONS[ 3 * i + 1 ], TETRAHEDRON_POSITIONS[ 3 * i + 2 ] );
+		final TriangleAdder adder = mesh.triangleAdder();
+		for ( int t = 0; t < TETRAHEDRON_TRIANGLES.length; t += 3 )
+			adder.add( vertices[ TETRAHEDRON_TRIANGLES[ t ] ], vertices[ TETRAHEDRON_TRIANGLES[ t + 1 ] ], vertices[ TETRAHEDRON_TRIANGLES[ t + 2 ] ], mesh.triangleRef() );
+		adder.releaseRefs();
+		assertIndexConsistent( mesh );
+
+		// A half-edge added on its own, to a new vertex.
+		final Vertex extra = mesh.addVertex().init( 2, 2, 2 );
+		mesh.addEdge( vertices[ 0 ], extra );
+		assertIndexConsistent( mesh );
+	}
+
+	@Test
+	public void testSameMeshWithIndex()
+	{
+		final TriMesh source = sphere();
+		final TriMesh mesh = new TriMesh();
+		mesh.setEdgeIndexEnabled( true );
+		final Vertex[] vertices = new Vertex[ source.vertices().size() ];
+		for ( final Vertex v : source.vertices() )
+			vertices[ v.getInternalPoolIndex() ] = mesh.addVertex().init( v.x(), v.y(), v.z() );
+		final TriangleAdder adder = mesh.triangleAdder();
+		final Triangle ref = mesh.triangleRef();
+		for ( final Triangle t : source.triangles() )
+			adder.add( vertices[ t.v0() ], vertices[ t.v1() ], vertices[ t.v2() ], ref );
+		mesh.releaseRef( ref );
+		adder.releaseRefs();
+
+		assertSameTopology( source, mesh );
+		assertIndexConsistent( mesh );
+	}
+
+	@Test
+	public void testRemoveTriangle()
+	{
+		final TriMesh mesh = sphere();
+		mesh.setEdgeIndexEnabled( true );
+		final Triangle ref = mesh.triangleRef();
+		mesh.remove( mesh.triangles().getRefPool().getObject( 0, ref ) );
+		mesh.remove( mesh.triangles().getRefPool().getObject( 5, ref ) );
+		mesh.releaseRef( ref );
+		assertIndexConsistent( mesh );
+	}
+
+	@Test
+	public void testRemoveVertex()
+	{
+		final TriMesh mesh = sphere();
+		mesh.setEdgeIndexEnabled( true );
+		final Vertex ref = mesh.vertexRef();
+		mesh.remove( mesh.vertices().getRefPool().getObject( 0, ref ) );
+		mesh.remove( mesh.vertices().getRefPool().getObject( 7, ref ) );
+		mesh.releaseRef( ref );
+		assertIndexConsistent( mesh );
+	}
+
+	@Test
+	public void testEnableAfterEdges()
+	{
+		final TriMesh mesh = sphere();
+		assertFalse( mesh.isEdgeIndexEnabled() );
+		mesh.setEdgeIndexEnabled( true );
+		assertIndexConsistent( mesh );
+
+		// Edits while disabled are picked up when the index is enabled again.
+		mesh.setEdgeIndexEnabled( false );
+		assertFalse( mesh.isEdgeIndexEnabled() );
+		final Triangle ref = mesh.triangleRef();
+		mesh.remove( mesh.triangles().getRefPool().getObject( 3, ref ) );
+		mesh.releaseRef( ref );
+		mesh.setEdgeIndexEnabled( true );
+		assertIndexConsistent( mesh );
+	}
+}
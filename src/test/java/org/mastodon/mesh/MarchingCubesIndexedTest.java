@@ -0,0 +1,66 @@
+package org.mastodon.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.RealTypeConverters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class MarchingCubesIndexedTest
+{
+
+	private final ArrayImg< FloatType, FloatArray > sphere = TestImages.sphere( 21, 19, 17, 6.3 );
+
+	@Test
+	public void testSameTrianglesAsSoup()
+	{
+		final TriMesh soup = Meshes.marchingCubes( sphere, 0. );
+		final TriMesh indexed = Meshes.marchingCubesIndexed( sphere, 0. );
+		assertSameTriangles( soup, indexed, 4 );
+	}
+
+	@Test
+	public void testSharedVertices()
+	{
+		final TriMesh indexed = Meshes.marchingCubesIndexed( sphere, 0. );
+		assertClosed( indexed );
+		// A sphere: V - E + F = 2, with E = 3F / 2.
+		assertEquals( 2 + indexed.triangles().size() / 2, indexed.vertices().size() );
+	}
+
+	@Test
+	public void testSameAsRemoveDuplicateVertices()
+	{
+		final TriMesh welded = Meshes.removeDuplicateVertices( Meshes.marchingCubes( sphere, 0. ), 4 );
+		final TriMesh indexed = Meshes.marchingCubesIndexed( sphere, 0. );
+		assertEquals( welded.vertices().size(), indexed.vertices().size() );
+		assertSameTriangles( welded, indexed, 4 );
+	}
+
+	@Test
+	public void testMask()
+	{
+		final RandomAccessibleInterval< BitType > mask = RealTypeConverters.convert( sphere, new BitType() );
+		final TriMesh soup = Meshes.marchingCubes( mask );
+		final TriMesh indexed = Meshes.marchingCubesIndexed( mask );
+		assertSameTriangles( soup, indexed, 4 );
+		assertClosed( indexed );
+	}
+
+	@Test
+	public void testParallel()
+	{
+		final TriMesh indexed = Meshes.marchingCubesIndexed( sphere, 0. );
+		final TriMesh parallel = Meshes.marchingCubesIndexed( sphere, 0., 3 );
+		assertEquals( indexed.vertices().size(), parallel.vertices().size() );
+		assertSameTriangles( indexed, parallel, 4 );
+		assertClosed( parallel );
+	}
+}
@@ -0,0 +1,202 @@
+package org.mastodon.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mastodon.pool.PoolObject;
+
+/**
+ * Assertions on the geometry and topology of meshes, shared by the tests.
+ */
+public class MeshAssert
+{
+
+	/**
+	 * Returns the triangles of a mesh as sorted strings of their vertex
+	 * positions, rounded to the specified number of decimals. The vertices of
+	 * each triangle are rotated so that the smallest comes first, which keeps
+	 * the orientation of the triangle. Two meshes with the same triangles have
+	 * the same list, whatever the order and the sharing of their vertices.
+	 */
+	public static List< String > triangles( final TriMesh mesh, final int decimals )
+	{
+		final List< String > list = new ArrayList<>( mesh.triangles().size() );
+		final Vertex ref = mesh.vertexRef();
+		final String[] p = new String[ 3 ];
+		for ( final Triangle t : mesh.triangles() )
+		{
+			p[ 0 ] = position( t.getVertex0( ref ), decimals );
+			p[ 1 ] = position( t.getVertex1( ref ), decimals );
+			p[ 2 ] = position( t.getVertex2( ref ), decimals );
+			int first = 0;
+			for ( int i = 1; i < 3; i++ )
+				if ( p[ i ].compareTo( p[ first ] ) < 0 )
+					first = i;
+			list.add( p[ first ] + " " + p[ ( first + 1 ) % 3 ] + " " + p[ ( first + 2 ) % 3 ] );
+		}
+		mesh.releaseRef( ref );
+		Collections.sort( list );
+		return list;
+	}
+
+	private static String position( final Vertex v, final int decimals )
+	{
+		final String format = "%." + decimals + "f";
+		return String.format( format + "," + format + "," + format, round( v.x(), decimals ), round( v.y(), decimals ), round( v.z(), decimals ) );
+	}
+
+	/**
+	 * Rounds a value, without negative zero, so that values that differ by
+	 * less than the precision are printed the same.
+	 */
+	private static double round( final double value, final int decimals )
+	{
+		final double scale = Math.pow( 10, decimals );
+		final double rounded = Math.round( value * scale ) / scale;
+		return rounded == 0 ? 0 : rounded;
+	}
+
+	/**
+	 * Asserts that two meshes have the same triangles, with the same
+	 * orientation, up to the order of vertices and triangles.
+	 */
+	public static void assertSameTriangles( final TriMesh expected, final TriMesh actual, final int decimals )
+	{
+		assertEquals( "Number of triangles", expected.triangles().size(), actual.triangles().size() );
+		assertEquals( triangles( expected, decimals ), triangles( actual, decimals ) );
+	}
+
+	/**
+	 * Asserts that the half-edges of a mesh are consistent: each half-edge
+	 * goes to the source of the next one, turns around its triangle in three
+	 * steps, and its twin, if any, goes the other way and has it as twin.
+	 *
+	 * @return the number of half-edges without twin.
+	 */
+	public static int assertHalfEdges( final TriMesh mesh )
+	{
+		final HalfEdge nref = mesh.edgeRef();
+		final HalfEdge pref = mesh.edgeRef();
+		final HalfEdge tref = mesh.edgeRef();
+		final HalfEdge ttref = mesh.edgeRef();
+		final Triangle fref = mesh.triangleRef();
+		final Triangle nfref = mesh.triangleRef();
+		int borders = 0;
+		for ( final HalfEdge e : mesh.edges() )
+		{
+			final HalfEdge next = e.next( nref );
+			assertNotNull( "Next of " + e, next );
+			assertEquals( "Next of " + e, e.getTargetVertexInternalPoolIndex(), next.getSourceVertexInternalPoolIndex() );
+			assertEquals( "Previous of next of " + e, e.getInternalPoolIndex(), next.previous( pref ).getInternalPoolIndex() );
+			assertEquals( "Third next of " + e, e.getInternalPoolIndex(), next.next( pref ).next( pref ).getInternalPoolIndex() );
+			final Triangle face = e.triangle( fref );
+			assertNotNull( "Triangle of " + e, face );
+			assertEquals( "Triangle of next of " + e, face.getInternalPoolIndex(), next.triangle( nfref ).getInternalPoolIndex() );
+
+			final HalfEdge twin = e.twin( tref );
+			if ( twin == null )
+			{
+				borders++;
+				continue;
+			}
+			assertEquals( "Twin of " + e, e.getSourceVertexInternalPoolIndex(), twin.getTargetVertexInternalPoolIndex() );
+			assertEquals( "Twin of " + e, e.getTargetVertexInternalPoolIndex(), twin.getSourceVertexInternalPoolIndex() );
+			assertEquals( "Twin of twin of " + e, e.getInternalPoolIndex(), twin.twin( ttref ).getInternalPoolIndex() );
+		}
+		mesh.releaseRef( nref );
+		mesh.releaseRef( pref );
+		mesh.releaseRef( tref );
+		mesh.releaseRef( ttref );
+		mesh.releaseRef( fref );
+		mesh.releaseRef( nfref );
+		return borders;
+	}
+
+	/**
+	 * Asserts that the half-edges of a mesh are consistent and all have a
+	 * twin, that is that the mesh is closed and indexed.
+	 */
+	public static void assertClosed( final TriMesh mesh )
+	{
+		assertTrue( "The mesh has triangles", mesh.triangles().size() > 0 );
+		assertEquals( "Number of half-edges", 3 * mesh.triangles().size(), mesh.edges().size() );
+		assertEquals( "Half-edges without twin", 0, assertHalfEdges( mesh ) );
+	}
+
+	/**
+	 * Asserts that two meshes have the same topology: the same vertex
+	 * positions in the same order, the same triangles, and the same
+	 * half-edges, with the same next, previous and twin half-edges, all
+	 * compared by rank in their pools.
+	 */
+	public static void assertSameTopology( final TriMesh expected, final TriMesh actual )
+	{
+		assertEquals( "Number of vertices", expected.vertices().size(), actual.vertices().size() );
+		assertEquals( "Number of triangles", expected.triangles().size(), actual.triangles().size() );
+		assertEquals( "Number of half-edges", expected.edges().size(), actual.edges().size() );
+		assertEquals( vertexList( expected ), vertexList( actual ) );
+		assertEquals( triangleList( expected ), triangleList( actual ) );
+		assertEquals( edgeList( expected ), edgeList( actual ) );
+	}
+
+	private static List< String > vertexList( final TriMesh mesh )
+	{
+		final List< String > list = new ArrayList<>();
+		for ( final Vertex v : mesh.vertices() )
+			list.add( position( v, 5 ) );
+		return list;
+	}
+
+	private static List< String > triangleList( final TriMesh mesh )
+	{
+		final int[] vertexRanks = ranks( mesh.vertices() );
+		final List< String > list = new ArrayList<>();
+		for ( final Triangle t : mesh.triangles() )
+			list.add( vertexRanks[ t.v0() ] + " " + vertexRanks[ t.v1() ] + " " + vertexRanks[ t.v2() ] );
+		return list;
+	}
+
+	private static List< String > edgeList( final TriMesh mesh )
+	{
+		final int[] vertexRanks = ranks( mesh.vertices() );
+		final int[] edgeRanks = ranks( mesh.edges() );
+		final int[] triangleRanks = ranks( mesh.triangles() );
+		final HalfEdge ref = mesh.edgeRef();
+		final Triangle fref = mesh.triangleRef();
+		final List< String > list = new ArrayList<>();
+		for ( final HalfEdge e : mesh.edges() )
+		{
+			final HalfEdge twin = e.twin( ref );
+			final int twinRank = twin == null ? -1 : edgeRanks[ twin.getInternalPoolIndex() ];
+			list.add( vertexRanks[ e.getSourceVertexInternalPoolIndex() ] + " " + vertexRanks[ e.getTargetVertexInternalPoolIndex() ]
+					+ " " + edgeRanks[ e.next( ref ).getInternalPoolIndex() ]
+					+ " " + edgeRanks[ e.previous( ref ).getInternalPoolIndex() ]
+					+ " " + twinRank
+					+ " " + triangleRanks[ e.triangle( fref ).getInternalPoolIndex() ] );
+		}
+		mesh.releaseRef( ref );
+		mesh.releaseRef( fref );
+		return list;
+	}
+
+	/**
+	 * Maps the pool indices of the objects of a collection to their rank in
+	 * the iteration order.
+	 */
+	private static int[] ranks( final Iterable< ? extends PoolObject< ?, ?, ? > > objects )
+	{
+		int max = -1;
+		for ( final PoolObject< ?, ?, ? > o : objects )
+			max = Math.max( max, o.getInternalPoolIndex() );
+		final int[] ranks = new int[ max + 1 ];
+		int rank = 0;
+		for ( final PoolObject< ?, ?, ? > o : objects )
+			ranks[ o.getInternalPoolIndex() ] = rank++;
+		return ranks;
+	}
+}
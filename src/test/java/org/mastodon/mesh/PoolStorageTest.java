@@ -0,0 +1,95 @@
+package org.mastodon.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+import static org.mastodon.mesh.MeshAssert.assertSameTopology;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+
+public class PoolStorageTest
+{
+
+	private static TriMesh sphere()
+	{
+		return Meshes.marchingCubesIndexed( TestImages.sphere( 17, 15, 14, 5.2 ), 0. );
+	}
+
+	/**
+	 * Copies a mesh into a new mesh with the specified storage. The initial
+	 * capacities are small, so that the pools grow while the mesh is built.
+	 */
+	private static TriMesh copy( final TriMesh source, final PoolStorage storage )
+	{
+		final TriMesh mesh = new TriMesh( 4, 4, 12, storage );
+		final Vertex[] vertices = new Vertex[ source.vertices().size() ];
+		for ( final Vertex v : source.vertices() )
+			vertices[ v.getInternalPoolIndex() ] = mesh.addVertex().init( v.x(), v.y(), v.z() );
+		final TriangleAdder adder = mesh.triangleAdder();
+		final Triangle ref = mesh.triangleRef();
+		for ( final Triangle t : source.triangles() )
+			adder.add( vertices[ t.v0() ], vertices[ t.v1() ], vertices[ t.v2() ], ref );
+		mesh.releaseRef( ref );
+		adder.releaseRefs();
+		return mesh;
+	}
+
+	/**
+	 * Removes some triangles and a vertex, moves a vertex, then adds an
+	 * isolated triangle, so that the pools have gaps and reuse them.
+	 */
+	private static void edit( final TriMesh mesh )
+	{
+		final Triangle tref = mesh.triangleRef();
+		for ( final int id : new int[] { 0, 4, 9, 17 } )
+			mesh.remove( mesh.triangles().getRefPool().getObject( id, tref ) );
+
+		final Vertex ref = mesh.vertexRef();
+		mesh.remove( mesh.vertices().getRefPool().getObject( 11, ref ) );
+		mesh.vertices().getRefPool().getObject( 20, ref ).init( 1.25, -2.5, 3.75 );
+		mesh.releaseRef( ref );
+
+		final Vertex v0 = mesh.addVertex().init( -1., -2., -3. );
+		final Vertex v1 = mesh.addVertex().init( -1., -1., -3. );
+		final Vertex v2 = mesh.addVertex().init( -2., -1., -3.5 );
+		final TriangleAdder adder = mesh.triangleAdder();
+		adder.add( v0, v1, v2, tref );
+		adder.releaseRefs();
+
+		mesh.releaseRef( v0 );
+		mesh.releaseRef( v1 );
+		mesh.releaseRef( v2 );
+		mesh.releaseRef( tref );
+	}
+
+	@Test
+	public void testMultiArray()
+	{
+		final TriMesh source = sphere();
+		final TriMesh single = copy( source, PoolStorage.SINGLE_ARRAY );
+		final TriMesh multi = copy( source, PoolStorage.MULTI_ARRAY );
+		assertEquals( PoolStorage.SINGLE_ARRAY, single.getPoolStorage() );
+		assertEquals( PoolStorage.MULTI_ARRAY, multi.getPoolStorage() );
+
+		// Built.
+		assertSameTopology( source, multi );
+		assertSameTriangles( source, multi, 10 );
+
+		// Edited the same way as a mesh stored in a single array.
+		edit( single );
+		edit( multi );
+		assertEquals( single.vertices().size(), multi.vertices().size() );
+		assertEquals( single.triangles().size(), multi.triangles().size() );
+		assertSameTopology( single, multi );
+		assertSameTriangles( single, multi, 10 );
+		assertEquals( assertHalfEdges( single ), assertHalfEdges( multi ) );
+
+		// Read back.
+		final Vertex ref = multi.vertexRef();
+		final Vertex moved = multi.vertices().getRefPool().getObject( 20, ref );
+		assertEquals( 1.25, moved.x(), 0. );
+		assertEquals( -2.5, moved.y(), 0. );
+		assertEquals( 3.75, moved.z(), 0. );
+		multi.releaseRef( ref );
+	}
+}
@@ -0,0 +1,58 @@
+package org.mastodon.mesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Small synthetic images for the mesh tests.
+ */
+public class TestImages
+{
+
+	/**
+	 * Returns an image of the specified size whose value at each voxel is the
+	 * distance to the center of the image subtracted from the specified
+	 * radius. The iso-surface at 0 is a sphere.
+	 */
+	public static ArrayImg< FloatType, FloatArray > sphere( final int width, final int height, final int depth, final double radius )
+	{
+		return blobs( width, height, depth, new double[][] { { ( width - 1 ) / 2., ( height - 1 ) / 2., ( depth - 1 ) / 2., radius } } );
+	}
+
+	/**
+	 * Returns an image of the specified size whose value at each voxel is the
+	 * largest of the values of the specified balls, each given as X, Y, Z and
+	 * radius. The value of a ball is its radius minus the distance to its
+	 * center.
+	 */
+	public static ArrayImg< FloatType, FloatArray > blobs( final int width, final int height, final int depth, final double[][] balls )
+	{
+		final float[] data = new float[ width * height * depth ];
+		int i = 0;
+		for ( int z = 0; z < depth; z++ )
+			for ( int y = 0; y < height; y++ )
+				for ( int x = 0; x < width; x++ )
+				{
+					double value = Double.NEGATIVE_INFINITY;
+					for ( final double[] ball : balls )
+					{
+						final double dx = x - ball[ 0 ];
+						final double dy = y - ball[ 1 ];
+						final double dz = z - ball[ 2 ];
+						value = Math.max( value, ball[ 3 ] - Math.sqrt( dx * dx + dy * dy + dz * dz ) );
+					}
+					data[ i++ ] = ( float ) value;
+				}
+		return ArrayImgs.floats( data, width, height, depth );
+	}
+
+	/**
+	 * Returns an image of the specified size with the specified values.
+	 */
+	public static ArrayImg< FloatType, FloatArray > of( final int width, final int height, final int depth, final float... values )
+	{
+		return ArrayImgs.floats( values, width, height, depth );
+	}
+}
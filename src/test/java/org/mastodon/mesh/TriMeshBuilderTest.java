@@ -0,0 +1,113 @@
+package org.mastodon.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTopology;
+import static org.mastodon.mesh.TriMeshRemoveTest.TETRAHEDRON_POSITIONS;
+import static org.mastodon.mesh.TriMeshRemoveTest.TETRAHEDRON_TRIANGLES;
+
+import org.junit.Test;
+
+public class TriMeshBuilderTest
+{
+
+	@Test
+	public void testSameAsTriangleAdder()
+	{
+		final TriMesh source = Meshes.marchingCubesIndexed( TestImages.sphere( 21, 19, 17, 6.3 ), 0. );
+		final double[] positions = positions( source );
+		final int[] triangles = triangles( source );
+
+		final TriMesh built = TriMeshBuilder.build( positions, triangles );
+		assertSameTopology( add( positions, triangles, new TriMesh() ), built );
+		assertClosed( built );
+	}
+
+	@Test
+	public void testSinglePrecisionSameAsTriangleAdder()
+	{
+		final TriMesh source = Meshes.marchingCubesIndexed( TestImages.sphere( 21, 19, 17, 6.3 ), 0. );
+		final double[] positions = positions( source );
+		final float[] floatPositions = new float[ positions.length ];
+		for ( int i = 0; i < positions.length; i++ )
+			floatPositions[ i ] = ( float ) positions[ i ];
+		final int[] triangles = triangles( source );
+
+		final TriMesh built = TriMeshBuilder.build( floatPositions, triangles, true );
+		assertEquals( true, built.isSinglePrecision() );
+		assertSameTopology( add( positions, triangles, TriMesh.singlePrecision( 100, 100 ) ), built );
+	}
+
+	@Test
+	public void testSkippedTrianglesSameAsTriangleAdder()
+	{
+		// The tetrahedron, with a duplicate triangle and a triangle that
+		// would reuse a half-edge in the same direction.
+		final int[] triangles = new int[ TETRAHEDRON_TRIANGLES.length + 6 ];
+		System.arraycopy( TETRAHEDRON_TRIANGLES, 0, triangles, 0, TETRAHEDRON_TRIANGLES.length );
+		System.arraycopy( new int[] { 0, 2, 1, 0, 1, 2 }, 0, triangles, TETRAHEDRON_TRIANGLES.length, 6 );
+
+		final TriMesh built = TriMeshBuilder.build( TETRAHEDRON_POSITIONS, triangles );
+		assertEquals( 4, built.triangles().size() );
+		assertSameTopology( add( TETRAHEDRON_POSITIONS, triangles, new TriMesh() ), built );
+		assertClosed( built );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testMissingVertex()
+	{
+		TriMeshBuilder.build( TETRAHEDRON_POSITIONS, new int[] { 0, 1, 4 } );
+	}
+
+	/**
+	 * Adds the vertices and the triangles to the specified mesh, one by one,
+	 * with a {@link TriangleAdder}.
+	 */
+	private static TriMesh add( final double[] positions, final int[] triangles, final TriMesh mesh )
+	{
+		final Vertex[] vertices = new Vertex[ positions.length / 3 ];
+		for ( int i = 0; i < vertices.length; i++ )
+			vertices[ i ] = mesh.addVertex().init( positions[ 3 * i ], positions[ 3 * i + 1 ], positions[ 3 * i + 2 ] );
+		final TriangleAdder adder = mesh.triangleAdder();
+		final Triangle ref = mesh.triangleRef();
+		for ( int t = 0; t < triangles.length; t += 3 )
+			adder.add( vertices[ triangles[ t ] ], vertices[ triangles[ t + 1 ] ], vertices[ triangles[ t + 2 ] ], ref );
+		mesh.releaseRef( ref );
+		adder.releaseRefs();
+		return mesh;
+	}
+
+	/**
+	 * Returns the vertex positions of a mesh without gaps, as X, Y, Z
+	 * triplets.
+	 */
+	private static double[] positions( final TriMesh mesh )
+	{
+		final double[] positions = new double[ 3 * mesh.vertices().size() ];
+		for ( final Vertex v : mesh.vertices() )
+		{
+			final int i = 3 * v.getInternalPoolIndex();
+			positions[ i ] = v.x();
+			positions[ i + 1 ] = v.y();
+			positions[ i + 2 ] = v.z();
+		}
+		return positions;
+	}
+
+	/**
+	 * Returns the triangles of a mesh without gaps, as triplets of vertex
+	 * ids.
+	 */
+	private static int[] triangles( final TriMesh mesh )
+	{
+		final int[] triangles = new int[ 3 * mesh.triangles().size() ];
+		int i = 0;
+		for ( final Triangle t : mesh.triangles() )
+		{
+			triangles[ i++ ] = t.v0();
+			triangles[ i++ ] = t.v1();
+			triangles[ i++ ] = t.v2();
+		}
+		return triangles;
+	}
+}
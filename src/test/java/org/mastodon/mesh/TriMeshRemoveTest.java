@@ -0,0 +1,109 @@
+package org.mastodon.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+
+public class TriMeshRemoveTest
+{
+
+	static final double[] TETRAHEDRON_POSITIONS = new double[] {
+			0, 0, 0,
+			1, 0, 0,
+			0, 1, 0,
+			0, 0, 1 };
+
+	static final int[] TETRAHEDRON_TRIANGLES = new int[] {
+			0, 2, 1,
+			0, 1, 3,
+			0, 3, 2,
+			1, 2, 3 };
+
+	@Test
+	public void testRemoveTriangle()
+	{
+		final TriMesh mesh = TriMeshBuilder.build( TETRAHEDRON_POSITIONS, TETRAHEDRON_TRIANGLES );
+		assertClosed( mesh );
+
+		mesh.remove( first( mesh ) );
+		assertEquals( 4, mesh.vertices().size() );
+		assertEquals( 3, mesh.triangles().size() );
+		assertEquals( 9, mesh.edges().size() );
+		// The twins of the removed half-edges are now on the border.
+		assertEquals( 3, assertHalfEdges( mesh ) );
+	}
+
+	@Test
+	public void testRemoveThenAppend()
+	{
+		final TriMesh mesh = TriMeshBuilder.build( TETRAHEDRON_POSITIONS, TETRAHEDRON_TRIANGLES );
+		final Triangle removed = first( mesh );
+		final int v0 = removed.v0();
+		final int v1 = removed.v1();
+		final int v2 = removed.v2();
+		mesh.remove( removed );
+
+		// Add the triangle back, in the slots left by the removed objects.
+		final Vertex vref0 = mesh.vertexRef();
+		final Vertex vref1 = mesh.vertexRef();
+		final Vertex vref2 = mesh.vertexRef();
+		final TriangleAdder adder = mesh.triangleAdder();
+		final Triangle added = adder.add(
+				mesh.vertices().getRefPool().getObject( v0, vref0 ),
+				mesh.vertices().getRefPool().getObject( v1, vref1 ),
+				mesh.vertices().getRefPool().getObject( v2, vref2 ),
+				mesh.triangleRef() );
+		assertNotNull( added );
+		adder.releaseRefs();
+
+		assertClosed( mesh );
+		assertSameTriangles( TriMeshBuilder.build( TETRAHEDRON_POSITIONS, TETRAHEDRON_TRIANGLES ), mesh, 5 );
+	}
+
+	@Test
+	public void testAppendExisting()
+	{
+		final TriMesh mesh = TriMeshBuilder.build( TETRAHEDRON_POSITIONS, TETRAHEDRON_TRIANGLES );
+		final Triangle t = first( mesh );
+		final TriangleAdder adder = mesh.triangleAdder();
+		final Vertex vref0 = mesh.vertexRef();
+		final Vertex vref1 = mesh.vertexRef();
+		final Vertex vref2 = mesh.vertexRef();
+		assertNull( adder.add( t.getVertex0( vref0 ), t.getVertex1( vref1 ), t.getVertex2( vref2 ), mesh.triangleRef() ) );
+		adder.releaseRefs();
+		assertEquals( 4, mesh.triangles().size() );
+	}
+
+	@Test
+	public void testVertexIdsWithGaps()
+	{
+		// A mesh whose first vertex was removed, so that the vertex ids go
+		// beyond the number of vertices.
+		final TriMesh mesh = new TriMesh();
+		final Vertex extra = mesh.addVertex().init( 5, 5, 5 );
+		final Vertex[] vertices = new Vertex[ 4 ];
+		for ( int i = 0; i < 4; i++ )
+			vertices[ i ] = mesh.addVertex().init( TETRAHEDRON_POSITIONS[ 3 * i ], TETRAHEDRON_POSITIONS[ 3 * i + 1 ], TETRAHEDRON_POSITIONS[ 3 * i + 2 ] );
+		final TriangleAdder adder = mesh.triangleAdder();
+		for ( int t = 0; t < TETRAHEDRON_TRIANGLES.length; t += 3 )
+			adder.add( vertices[ TETRAHEDRON_TRIANGLES[ t ] ], vertices[ TETRAHEDRON_TRIANGLES[ t + 1 ] ], vertices[ TETRAHEDRON_TRIANGLES[ t + 2 ] ], mesh.triangleRef() );
+		adder.releaseRefs();
+		mesh.remove( extra );
+		assertEquals( 4, mesh.vertices().size() );
+		assertClosed( mesh );
+
+		final TriMesh expected = TriMeshBuilder.build( TETRAHEDRON_POSITIONS, TETRAHEDRON_TRIANGLES );
+		assertSameTriangles( expected, Meshes.removeDuplicateVertices( mesh, 5 ), 5 );
+		assertSameTriangles( expected, Meshes.simplify( mesh, 1., 7 ), 5 );
+	}
+
+	private static Triangle first( final TriMesh mesh )
+	{
+		return mesh.triangles().iterator().next();
+	}
+}
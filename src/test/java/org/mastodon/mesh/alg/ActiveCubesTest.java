@@ -0,0 +1,75 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class ActiveCubesTest
+{
+
+	private final ArrayImg< FloatType, FloatArray > blobs = TestImages.blobs( 19, 17, 16, new double[][] {
+			{ 6, 7, 7, 4.6 },
+			{ 12, 9, 8, 4.1 } } );
+
+	private ActiveCubes collect( final double isoLevel )
+	{
+		final int minZ = ( int ) blobs.min( 2 ) - 1;
+		final int maxZ = ( int ) blobs.max( 2 ) + 1;
+		final CubeIndexer indexer = new CubeIndexer( blobs, minZ, CubeSampler.create( blobs ).planeReader( isoLevel, minZ, maxZ ) );
+		return ActiveCubes.collect( blobs, minZ, maxZ, indexer, CubePolygonizer.TRIANGLE_COUNT );
+	}
+
+	@Test
+	public void testSameCubesAsIndexer()
+	{
+		final ActiveCubes cubes = collect( 0. );
+		final int minZ = cubes.minZ();
+		final int maxZ = cubes.maxZ();
+		final int isx = ( int ) blobs.dimension( 0 ) + 2;
+		final int isy = ( int ) blobs.dimension( 1 ) + 2;
+		final CubeIndexer indexer = new CubeIndexer( blobs, minZ, CubeSampler.create( blobs ).planeReader( 0., minZ, maxZ ) );
+		int c = 0;
+		for ( int z = minZ; z < maxZ; z++ )
+		{
+			assertEquals( c, cubes.start( z ) );
+			final byte[] indices = indexer.next();
+			for ( int my = 0; my < isy - 1; my++ )
+				for ( int mx = 0; mx < isx - 1; mx++ )
+				{
+					final int mindex = indices[ my * isx + mx ] & 0xff;
+					if ( mindex == 0 || mindex == 0xff )
+						continue;
+					assertEquals( mx, cubes.mx( c ) );
+					assertEquals( my, cubes.my( c ) );
+					assertEquals( mindex, cubes.cubeIndex( c ) );
+					c++;
+				}
+			assertEquals( c, cubes.end( z ) );
+		}
+		assertEquals( c, cubes.size() );
+	}
+
+	@Test
+	public void testCountsAreUpperBounds()
+	{
+		for ( final double isoLevel : new double[] { -2.5, 0., 1.3, 3.9 } )
+		{
+			final ActiveCubes cubes = collect( isoLevel );
+			final TriMesh indexed = MarchingCubesRealType.calculateIndexed( blobs, isoLevel );
+			assertTrue( indexed.vertices().size() <= cubes.vertices( true ) );
+			assertTrue( indexed.triangles().size() <= cubes.triangles() );
+
+			final TriMesh soup = MarchingCubesRealType.calculate( blobs, isoLevel );
+			assertTrue( soup.vertices().size() <= cubes.vertices( false ) );
+			assertTrue( soup.triangles().size() <= cubes.triangles() );
+			assertEquals( indexed.triangles().size(), soup.triangles().size() );
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertSameTopology;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class BitCubeIndexerTest
+{
+
+	/**
+	 * A mask wider than 64 voxels, so that the rows of cubes span several
+	 * words, with a blob across the word boundary.
+	 */
+	private final ArrayImg< BitType, LongArray > mask = mask( TestImages.blobs( 70, 20, 18, new double[][] {
+			{ 9, 8, 8, 5.6 },
+			{ 62, 11, 9, 6.1 },
+			{ 35, 10, 9, 3.2 } } ) );
+
+	private static ArrayImg< BitType, LongArray > mask( final ArrayImg< FloatType, FloatArray > image )
+	{
+		final ArrayImg< BitType, LongArray > mask = ArrayImgs.bits( image.dimension( 0 ), image.dimension( 1 ), image.dimension( 2 ) );
+		final Cursor< BitType > c = mask.cursor();
+		final Cursor< FloatType > f = image.cursor();
+		while ( c.hasNext() )
+			c.next().set( f.next().get() >= 0 );
+		return mask;
+	}
+
+	/**
+	 * Returns a view of the input that is not an {@link ArrayImg}, so that
+	 * the mask is read voxel by voxel.
+	 */
+	private static RandomAccessibleInterval< BitType > generic( final RandomAccessibleInterval< BitType > input )
+	{
+		return Views.interval( Views.extendZero( input ), input );
+	}
+
+	private static < T extends BooleanType< T > > ActiveCubes bitCubes( final RandomAccessibleInterval< T > input )
+	{
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+		final BitCubeIndexer indexer = new BitCubeIndexer( input, minZ, MarchingCubesBooleanType.planeReader( input, minZ, maxZ ) );
+		return ActiveCubes.collect( input, minZ, maxZ, indexer, BooleanCubePolygonizer.TRIANGLE_COUNT );
+	}
+
+	private static ActiveCubes byteCubes( final RandomAccessibleInterval< BitType > input )
+	{
+		final int minZ = ( int ) input.min( 2 ) - 1;
+		final int maxZ = ( int ) input.max( 2 ) + 1;
+		final CubeIndexer indexer = new CubeIndexer( input, minZ, CubeSampler.create( input ).planeReader( 0.5, minZ, maxZ ) );
+		return ActiveCubes.collect( input, minZ, maxZ, indexer, BooleanCubePolygonizer.TRIANGLE_COUNT );
+	}
+
+	private static void assertSameCubes( final ActiveCubes expected, final ActiveCubes actual )
+	{
+		assertEquals( expected.size(), actual.size() );
+		for ( int z = expected.minZ(); z < expected.maxZ(); z++ )
+		{
+			assertEquals( expected.start( z ), actual.start( z ) );
+			assertEquals( expected.end( z ), actual.end( z ) );
+		}
+		for ( int i = 0; i < expected.size(); i++ )
+		{
+			assertEquals( expected.planeIndex( i ), actual.planeIndex( i ) );
+			assertEquals( expected.cubeIndex( i ), actual.cubeIndex( i ) );
+		}
+		assertEquals( expected.triangles(), actual.triangles() );
+		assertEquals( expected.vertices( true ), actual.vertices( true ) );
+	}
+
+	@Test
+	public void testSameCubesAsByteIndexer()
+	{
+		final ActiveCubes expected = byteCubes( mask );
+		assertTrue( expected.size() > 0 );
+		// Copied from the storage words, and read voxel by voxel.
+		assertSameCubes( expected, bitCubes( mask ) );
+		assertSameCubes( expected, bitCubes( generic( mask ) ) );
+	}
+
+	@Test
+	public void testCrop()
+	{
+		// A crop that starts in the middle of a word, and cuts the blobs.
+		final RandomAccessibleInterval< BitType > crop = Views.interval( mask, new long[] { 3, 2, 1 }, new long[] { 66, 17, 14 } );
+		final ActiveCubes expected = byteCubes( crop );
+		assertTrue( expected.size() > 0 );
+		assertSameCubes( expected, bitCubes( crop ) );
+		assertSameCubes( expected, bitCubes( generic( crop ) ) );
+	}
+
+	@Test
+	public void testSameMeshes()
+	{
+		assertSameTopology( MarchingCubesBooleanType.calculateIndexed( generic( mask ) ), MarchingCubesBooleanType.calculateIndexed( mask ) );
+		assertSameTopology( MarchingCubesBooleanType.calculate( generic( mask ) ), MarchingCubesBooleanType.calculate( mask ) );
+	}
+}
@@ -0,0 +1,112 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.RealTypeConverters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class CalibrationTest
+{
+
+	private static final double RADIUS = 6.3;
+
+	private final ArrayImg< FloatType, FloatArray > sphere = TestImages.sphere( 21, 19, 17, RADIUS );
+
+	private static AffineTransform3D transform( final double sz )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.set(
+				0.5, 0, 0, -3,
+				0, 1.5, 0, 2,
+				0, 0, sz, 7 );
+		return transform;
+	}
+
+	@Test
+	public void testPositions()
+	{
+		for ( final double sz : new double[] { 2., -2. } )
+		{
+			final AffineTransform3D transform = transform( sz );
+			final TriMesh voxels = MarchingCubesRealType.calculateIndexed( sphere, 0. );
+			final TriMesh physical = MarchingCubesRealType.calculateIndexed( sphere, 0., transform );
+			assertEquals( voxels.vertices().size(), physical.vertices().size() );
+			assertEquals( voxels.triangles().size(), physical.triangles().size() );
+			assertEquals( positions( voxels, transform ), positions( physical, null ) );
+		}
+	}
+
+	@Test
+	public void testOutwardTriangles()
+	{
+		final RandomAccessibleInterval< BitType > mask = RealTypeConverters.convert( sphere, new BitType() );
+		for ( final double sz : new double[] { 2., -2. } )
+		{
+			final AffineTransform3D transform = transform( sz );
+			assertOutward( MarchingCubesRealType.calculate( sphere, 0., transform ), transform );
+			assertOutward( MarchingCubesRealType.calculateIndexed( sphere, 0., transform ), transform );
+			assertOutward( MarchingCubesBooleanType.calculate( mask, transform ), transform );
+			assertOutward( MarchingCubesBooleanType.calculateIndexed( mask, transform ), transform );
+		}
+	}
+
+	/**
+	 * Returns the sorted vertex positions of a mesh, transformed by the
+	 * specified transform if not <code>null</code>.
+	 */
+	private static List< String > positions( final TriMesh mesh, final AffineTransform3D transform )
+	{
+		final List< String > list = new ArrayList<>();
+		final double[] p = new double[ 3 ];
+		for ( final Vertex v : mesh.vertices() )
+		{
+			v.localize( p );
+			if ( transform != null )
+				transform.apply( p, p );
+			list.add( String.format( "%.5f,%.5f,%.5f", p[ 0 ] + 0., p[ 1 ] + 0., p[ 2 ] + 0. ) );
+		}
+		Collections.sort( list );
+		return list;
+	}
+
+	/**
+	 * Asserts that the triangles face outward, that is that the volume they
+	 * enclose is positive, and close to the volume of the transformed sphere.
+	 */
+	private static void assertOutward( final TriMesh mesh, final AffineTransform3D transform )
+	{
+		final Vertex ref0 = mesh.vertexRef();
+		final Vertex ref1 = mesh.vertexRef();
+		final Vertex ref2 = mesh.vertexRef();
+		double volume = 0;
+		for ( final Triangle t : mesh.triangles() )
+		{
+			final Vertex a = t.getVertex0( ref0 );
+			final Vertex b = t.getVertex1( ref1 );
+			final Vertex c = t.getVertex2( ref2 );
+			volume += ( a.x() * ( b.y() * c.z() - b.z() * c.y() )
+					- a.y() * ( b.x() * c.z() - b.z() * c.x() )
+					+ a.z() * ( b.x() * c.y() - b.y() * c.x() ) ) / 6;
+		}
+		mesh.releaseRef( ref0 );
+		mesh.releaseRef( ref1 );
+		mesh.releaseRef( ref2 );
+		final double expected = 4. / 3. * Math.PI * Math.pow( RADIUS, 3 ) * Math.abs( 0.5 * 1.5 * transform.get( 2, 2 ) );
+		assertEquals( expected, volume, 0.1 * expected );
+	}
+}
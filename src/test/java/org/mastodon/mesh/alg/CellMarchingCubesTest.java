@@ -0,0 +1,87 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class CellMarchingCubesTest
+{
+
+	private final ArrayImg< FloatType, FloatArray > blobs = TestImages.blobs( 23, 20, 18, new double[][] {
+			{ 7, 8, 8, 5.2 },
+			{ 15, 11, 9, 4.7 } } );
+
+	@Test
+	public void testSameAsIndexed()
+	{
+		final TriMesh expected = MarchingCubesRealType.calculateIndexed( blobs, 0. );
+		for ( final int[] cellDimensions : new int[][] { { 4, 5, 3 }, { 7, 7, 7 }, { 1, 2, 3 }, { 23, 20, 18 } } )
+		{
+			final TriMesh mesh = CellMarchingCubes.calculate( blobs, 0., cellDimensions, null );
+			// A vertex evicted too early would be created twice.
+			assertEquals( expected.vertices().size(), mesh.vertices().size() );
+			assertSameTriangles( expected, mesh, 4 );
+			assertClosed( mesh );
+		}
+	}
+
+	@Test
+	public void testCellsDoneInOrder()
+	{
+		final List< Long > done = new ArrayList<>();
+		CellMarchingCubes.calculate( blobs, 0., new int[] { 8, 8, 8 }, done::add );
+		// 3 x 3 x 3 cells.
+		assertEquals( 27, done.size() );
+		for ( int i = 0; i < done.size(); i++ )
+			assertEquals( i, done.get( i ).longValue() );
+	}
+
+	@Test
+	public void testSeamsEvicted()
+	{
+		final int[] cellDimensions = new int[] { 4, 5, 3 };
+		final long[] gridMin = new long[ 3 ];
+		final long[] gridDimensions = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			gridDimensions[ d ] = ( blobs.dimension( d ) + cellDimensions[ d ] - 1 ) / cellDimensions[ d ];
+		final CellMarchingCubes.SeamEviction eviction = new CellMarchingCubes.SeamEviction( blobs, cellDimensions, gridMin, gridDimensions );
+		final TriMesh output = new TriMesh();
+		final TLongIntHashMap seams = CellMarchingCubes.newSeams();
+		final int[] cubeMin = new int[ 3 ];
+		final int[] cubeMax = new int[ 3 ];
+		long index = 0;
+		int maxSeams = 0;
+		for ( int cz = 0; cz < gridDimensions[ 2 ]; cz++ )
+			for ( int cy = 0; cy < gridDimensions[ 1 ]; cy++ )
+				for ( int cx = 0; cx < gridDimensions[ 0 ]; cx++ )
+				{
+					final int[] cell = new int[] { cx, cy, cz };
+					for ( int d = 0; d < 3; d++ )
+					{
+						final int min = cell[ d ] * cellDimensions[ d ];
+						cubeMin[ d ] = cell[ d ] == 0 ? -1 : min;
+						cubeMax[ d ] = ( int ) Math.min( min + cellDimensions[ d ] - 1, blobs.max( d ) ) + 1;
+					}
+					CellMarchingCubes.mesh( blobs, 0., cubeMin, cubeMax, output, seams, eviction );
+					eviction.cellDone( index++, seams );
+					maxSeams = Math.max( maxSeams, seams.size() );
+				}
+		assertEquals( "Seams left after the last cell", 0, seams.size() );
+		final int planeEdges = 3 * ( int ) ( ( blobs.dimension( 0 ) + 2 ) * ( blobs.dimension( 1 ) + 2 ) );
+		assertTrue( "Seams bounded by one XY plane of edges", maxSeams < planeEdges );
+		assertClosed( output );
+	}
+}
@@ -0,0 +1,165 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class CubeSamplerTest
+{
+
+	/**
+	 * Two blobs, one of them cut by the image border, whose centers saturate
+	 * the integer types.
+	 */
+	private final ArrayImg< FloatType, FloatArray > blobs = TestImages.blobs( 14, 12, 11, new double[][] {
+			{ 5, 6, 5, 4.3 },
+			{ 11, 2, 1, 3.6 } } );
+
+	private ArrayImg< UnsignedByteType, ByteArray > bytes()
+	{
+		final ArrayImg< UnsignedByteType, ByteArray > img = ArrayImgs.unsignedBytes( 14, 12, 11 );
+		final Cursor< UnsignedByteType > c = img.cursor();
+		final Cursor< FloatType > f = blobs.cursor();
+		while ( c.hasNext() )
+			c.next().set( ( int ) Math.max( 0, Math.min( 255, Math.round( 128 + 60 * f.next().get() ) ) ) );
+		return img;
+	}
+
+	private ArrayImg< UnsignedShortType, ShortArray > shorts()
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( 14, 12, 11 );
+		final Cursor< UnsignedShortType > c = img.cursor();
+		final Cursor< FloatType > f = blobs.cursor();
+		while ( c.hasNext() )
+			c.next().set( ( int ) Math.max( 0, Math.min( 65535, Math.round( 32768 + 15000 * f.next().get() ) ) ) );
+		return img;
+	}
+
+	/**
+	 * Returns a view of the input that is not a crop of an {@link ArrayImg},
+	 * so that it is read by the generic sampler.
+	 */
+	private static < T extends RealType< T > > RandomAccessibleInterval< T > generic( final RandomAccessibleInterval< T > input )
+	{
+		return Views.interval( Views.extendZero( input ), input );
+	}
+
+	private static < T extends RealType< T > > RandomAccessibleInterval< T > crop( final RandomAccessibleInterval< T > input )
+	{
+		return Views.interval( input, new long[] { 2, 1, 3 }, new long[] { 12, 9, 10 } );
+	}
+
+	/**
+	 * Asserts that the specialized sampler of an array image reads the same
+	 * planes, cube corners and values as the generic sampler, and that the
+	 * meshes built with both are the same.
+	 */
+	private static < T extends RealType< T > > void assertSameAsGeneric( final RandomAccessibleInterval< T > input, final double... isoLevels )
+	{
+		final CubeSampler fast = CubeSampler.create( input );
+		final CubeSampler generic = CubeSampler.create( generic( input ) );
+		assertNotEquals( generic.getClass(), fast.getClass() );
+
+		final int minX = ( int ) input.min( 0 );
+		final int minY = ( int ) input.min( 1 );
+		final int minZ = ( int ) input.min( 2 );
+		final int maxX = ( int ) input.max( 0 );
+		final int maxY = ( int ) input.max( 1 );
+		final int maxZ = ( int ) input.max( 2 );
+
+		// Values, up to 2 voxels outside the input.
+		for ( int z = minZ - 2; z <= maxZ + 2; z++ )
+			for ( int y = minY - 2; y <= maxY + 2; y++ )
+				for ( int x = minX - 2; x <= maxX + 2; x++ )
+					assertEquals( generic.get( x, y, z ), fast.get( x, y, z ), 0. );
+
+		// Corners of all the cubes, including the ones on the border.
+		final double[] expected = new double[ 8 ];
+		final double[] actual = new double[ 8 ];
+		for ( int z = minZ - 1; z <= maxZ; z++ )
+			for ( int y = minY - 1; y <= maxY; y++ )
+				for ( int x = minX - 1; x <= maxX; x++ )
+				{
+					generic.sample( x, y, z, expected );
+					fast.sample( x, y, z, actual );
+					assertArrayEquals( expected, actual, 0. );
+				}
+
+		final int planeSize = ( int ) ( ( input.dimension( 0 ) + 2 ) * ( input.dimension( 1 ) + 2 ) );
+		for ( final double isoLevel : isoLevels )
+		{
+			// All the planes, and a range that starts and ends outside.
+			assertSamePlanes( generic, fast, isoLevel, minZ, maxZ, planeSize, maxZ - minZ + 1 );
+			assertSamePlanes( generic, fast, isoLevel, minZ - 1, maxZ + 1, planeSize, maxZ - minZ + 1 );
+			assertSamePlanes( generic, fast, isoLevel, minZ + 2, minZ + 4, planeSize, 3 );
+			assertNull( fast.planeReader( isoLevel, maxZ + 1, maxZ + 3 ) );
+
+			assertSameTriangles(
+					MarchingCubesRealType.calculateIndexed( generic( input ), isoLevel ),
+					MarchingCubesRealType.calculateIndexed( input, isoLevel ), 4 );
+			assertSameTriangles(
+					MarchingCubesRealType.calculate( generic( input ), isoLevel ),
+					MarchingCubesRealType.calculate( input, isoLevel ), 4 );
+		}
+	}
+
+	private static void assertSamePlanes( final CubeSampler generic, final CubeSampler fast, final double isoLevel, final int from, final int to, final int planeSize, final int nPlanes )
+	{
+		final CubeIndexer.PlaneReader expected = generic.planeReader( isoLevel, from, to );
+		final CubeIndexer.PlaneReader actual = fast.planeReader( isoLevel, from, to );
+		for ( int i = 0; i < nPlanes; i++ )
+		{
+			final byte[] e = new byte[ planeSize ];
+			final byte[] a = new byte[ planeSize ];
+			expected.read( e );
+			actual.read( a );
+			assertArrayEquals( e, a );
+		}
+	}
+
+	@Test
+	public void testUnsignedByte()
+	{
+		final ArrayImg< UnsignedByteType, ByteArray > img = bytes();
+		// At the maximal value, and above it.
+		final double[] isoLevels = new double[] { 128., 127.5, 200.3, 0., -3., 255., 255.5, 256. };
+		assertSameAsGeneric( img, isoLevels );
+		assertSameAsGeneric( crop( img ), isoLevels );
+	}
+
+	@Test
+	public void testUnsignedShort()
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = shorts();
+		final double[] isoLevels = new double[] { 32768., 32767.5, 50000.3, 0., -3., 65535., 65535.5, 65536. };
+		assertSameAsGeneric( img, isoLevels );
+		assertSameAsGeneric( crop( img ), isoLevels );
+	}
+
+	@Test
+	public void testFloat()
+	{
+		// At a value of the image, between two floats, and above the max.
+		final double[] isoLevels = new double[] { 0., 1., ( float ) 4.3, 0.1, -2., 10. };
+		assertSameAsGeneric( blobs, isoLevels );
+		assertSameAsGeneric( crop( blobs ), isoLevels );
+	}
+}
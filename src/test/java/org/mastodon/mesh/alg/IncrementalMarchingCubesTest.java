@@ -0,0 +1,99 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.RealTypeConverters;
+import net.imglib2.type.logic.BitType;
+
+public class IncrementalMarchingCubesTest
+{
+
+	private static final double[] BALL = new double[] { 8, 8, 8, 5.3 };
+
+	private static final double[] EDIT = new double[] { 13, 9, 8, 3.2 };
+
+	private static RandomAccessibleInterval< BitType > mask( final double[]... balls )
+	{
+		return RealTypeConverters.convert( TestImages.blobs( 20, 18, 17, balls ), new BitType() );
+	}
+
+	private static FinalInterval box( final double[] ball )
+	{
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			min[ d ] = ( long ) Math.floor( ball[ d ] - ball[ 3 ] ) - 1;
+			max[ d ] = ( long ) Math.ceil( ball[ d ] + ball[ 3 ] ) + 1;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	@Test
+	public void testAddThenRemove()
+	{
+		final RandomAccessibleInterval< BitType > before = mask( BALL );
+		final RandomAccessibleInterval< BitType > after = mask( BALL, EDIT );
+		final TriMesh mesh = MarchingCubesBooleanType.calculateIndexed( before );
+
+		// Grow the object: triangles are removed, then appended.
+		IncrementalMarchingCubes.update( mesh, after, box( EDIT ) );
+		final TriMesh expectedAfter = MarchingCubesBooleanType.calculateIndexed( after );
+		assertEquals( expectedAfter.vertices().size(), mesh.vertices().size() );
+		assertSameTriangles( expectedAfter, mesh, 4 );
+		assertClosed( mesh );
+
+		// And back, on the mesh with gaps left by the first update.
+		IncrementalMarchingCubes.update( mesh, before, box( EDIT ) );
+		final TriMesh expectedBefore = MarchingCubesBooleanType.calculateIndexed( before );
+		assertEquals( expectedBefore.vertices().size(), mesh.vertices().size() );
+		assertSameTriangles( expectedBefore, mesh, 4 );
+		assertClosed( mesh );
+	}
+
+	@Test
+	public void testEditOutsideSurface()
+	{
+		final RandomAccessibleInterval< BitType > input = mask( BALL );
+		final TriMesh mesh = MarchingCubesBooleanType.calculateIndexed( input );
+		final int nTriangles = mesh.triangles().size();
+		IncrementalMarchingCubes.update( mesh, input, new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 1, 1, 1 } ) );
+		assertEquals( nTriangles, mesh.triangles().size() );
+		assertClosed( mesh );
+	}
+
+	@Test
+	public void testMergeWithGaps()
+	{
+		// Slab meshes whose vertex ids have gaps, as after an update.
+		final TriMesh slab = new TriMesh();
+		slab.addVertex().init( 5, 5, 5 );
+		final TriMesh tetrahedron = TriMeshBuilder.build( new double[] {
+				0, 0, 0,
+				1, 0, 0,
+				0, 1, 0,
+				0, 0, 1 }, new int[] {
+						0, 2, 1,
+						0, 1, 3,
+						0, 3, 2,
+						1, 2, 3 } );
+		final TriMesh withGap = SlabMarchingCubes.merge( Arrays.asList( slab, tetrahedron ), Arrays.asList( null, null ) );
+		withGap.remove( withGap.vertices().iterator().next() );
+		assertEquals( 4, withGap.vertices().size() );
+
+		final TriMesh merged = SlabMarchingCubes.merge( Arrays.asList( withGap ), Arrays.asList( ( SlabVertexCache ) null ) );
+		assertSameTriangles( tetrahedron, merged, 5 );
+		assertClosed( merged );
+	}
+}
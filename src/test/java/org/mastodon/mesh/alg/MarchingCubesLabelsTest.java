@@ -0,0 +1,153 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class MarchingCubesLabelsTest
+{
+
+	/**
+	 * Two touching balls, an isolated one, and one cut by the image border.
+	 */
+	private static final double[][] BALLS = new double[][] {
+			{ 6, 7, 7, 4.6 },
+			{ 13, 8, 8, 4.1 },
+			{ 19, 13, 10, 2.8 },
+			{ 10, 0, 12, 3.9 } };
+
+	/**
+	 * Returns a label image where each voxel takes the label of the ball it is
+	 * the deepest in, or the specified background label if it is in no ball.
+	 */
+	private static ArrayImg< UnsignedShortType, ShortArray > labels( final int background, final int... ballLabels )
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > labels = ArrayImgs.unsignedShorts( 24, 18, 16 );
+		final Cursor< UnsignedShortType > c = labels.cursor();
+		final long[] p = new long[ 3 ];
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( p );
+			int label = background;
+			double depth = 0;
+			for ( int b = 0; b < BALLS.length; b++ )
+			{
+				final double dx = p[ 0 ] - BALLS[ b ][ 0 ];
+				final double dy = p[ 1 ] - BALLS[ b ][ 1 ];
+				final double dz = p[ 2 ] - BALLS[ b ][ 2 ];
+				final double d = BALLS[ b ][ 3 ] - Math.sqrt( dx * dx + dy * dy + dz * dz );
+				if ( d >= depth )
+				{
+					depth = d;
+					label = ballLabels[ b ];
+				}
+			}
+			c.get().set( label );
+		}
+		return labels;
+	}
+
+	/**
+	 * Returns the mask of the voxels with the specified label.
+	 */
+	private static ArrayImg< BitType, LongArray > mask( final ArrayImg< UnsignedShortType, ShortArray > labels, final long label )
+	{
+		final ArrayImg< BitType, LongArray > mask = ArrayImgs.bits( labels.dimension( 0 ), labels.dimension( 1 ), labels.dimension( 2 ) );
+		final Cursor< BitType > c = mask.cursor();
+		final Cursor< UnsignedShortType > l = labels.cursor();
+		while ( c.hasNext() )
+			c.next().set( l.next().getIntegerLong() == label );
+		return mask;
+	}
+
+	/**
+	 * Asserts that the mesh of each label is the mesh of its mask, with the
+	 * same triangles and the same shared vertices.
+	 */
+	private static void assertSameAsMasks( final ArrayImg< UnsignedShortType, ShortArray > labels, final Map< Long, TriMesh > meshes )
+	{
+		for ( final Map.Entry< Long, TriMesh > entry : meshes.entrySet() )
+		{
+			final TriMesh expected = MarchingCubesBooleanType.calculateIndexed( mask( labels, entry.getKey() ) );
+			final TriMesh actual = entry.getValue();
+			assertTrue( actual.triangles().size() > 0 );
+			assertEquals( expected.vertices().size(), actual.vertices().size() );
+			assertSameTriangles( expected, actual, 5 );
+			assertEquals( assertHalfEdges( expected ), assertHalfEdges( actual ) );
+		}
+	}
+
+	private static long[] keys( final Map< Long, TriMesh > meshes )
+	{
+		final long[] keys = new long[ meshes.size() ];
+		int i = 0;
+		for ( final Long key : meshes.keySet() )
+			keys[ i++ ] = key;
+		return keys;
+	}
+
+	@Test
+	public void testSameAsMasks()
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > labels = labels( 0, 3, 1, 12, 7 );
+		final Map< Long, TriMesh > meshes = MarchingCubesLabels.calculate( labels );
+		// In increasing label order, without the background.
+		assertArrayEquals( new long[] { 1, 3, 7, 12 }, keys( meshes ) );
+		assertSameAsMasks( labels, meshes );
+		// The isolated ball.
+		assertClosed( meshes.get( 12L ) );
+	}
+
+	@Test
+	public void testBackground()
+	{
+		// Label 0 is a ball, 5 the background.
+		final ArrayImg< UnsignedShortType, ShortArray > labels = labels( 5, 3, 1, 0, 7 );
+		final Map< Long, TriMesh > meshes = MarchingCubesLabels.calculate( labels, 5 );
+		assertArrayEquals( new long[] { 0, 1, 3, 7 }, keys( meshes ) );
+		assertSameAsMasks( labels, meshes );
+		assertClosed( meshes.get( 0L ) );
+
+		// With 0 as background, 5 is meshed as any other label.
+		final Map< Long, TriMesh > all = MarchingCubesLabels.calculate( labels );
+		assertArrayEquals( new long[] { 1, 3, 5, 7 }, keys( all ) );
+		assertSameAsMasks( labels, all );
+	}
+
+	@Test
+	public void testSingleLabel()
+	{
+		// One label, that is the mask of a sphere.
+		final ArrayImg< FloatType, FloatArray > sphere = TestImages.sphere( 15, 14, 13, 4.8 );
+		final ArrayImg< UnsignedShortType, ShortArray > labels = ArrayImgs.unsignedShorts( 15, 14, 13 );
+		final Cursor< UnsignedShortType > c = labels.cursor();
+		final Cursor< FloatType > f = sphere.cursor();
+		while ( c.hasNext() )
+			c.next().set( f.next().get() >= 0 ? 2 : 0 );
+
+		final Map< Long, TriMesh > meshes = MarchingCubesLabels.calculate( labels );
+		assertEquals( 1, meshes.size() );
+		assertSameAsMasks( labels, meshes );
+		assertClosed( meshes.get( 2L ) );
+	}
+}
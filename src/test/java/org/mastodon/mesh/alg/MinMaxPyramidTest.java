@@ -0,0 +1,113 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class MinMaxPyramidTest
+{
+
+	/**
+	 * Two blobs, one of them cut by the image border. There are 24 x 21 x 19
+	 * cubes, so most block sizes do not divide the number of cubes.
+	 */
+	private final ArrayImg< FloatType, FloatArray > blobs = TestImages.blobs( 23, 20, 18, new double[][] {
+			{ 8, 9, 8, 5.3 },
+			{ 19, 3, 1, 4.2 } } );
+
+	private static void assertSameAsPlain( final RandomAccessibleInterval< FloatType > input, final MinMaxPyramid pyramid, final double isoLevel )
+	{
+		final TriMesh expected = MarchingCubesRealType.calculateIndexed( input, isoLevel );
+		final TriMesh actual = MarchingCubesRealType.calculateIndexed( input, isoLevel, pyramid );
+		assertEquals( expected.vertices().size(), actual.vertices().size() );
+		assertEquals( expected.triangles().size(), actual.triangles().size() );
+		assertSameTriangles( expected, actual, 4 );
+	}
+
+	@Test
+	public void testSameAsPlain()
+	{
+		for ( final int blockSize : new int[] { 1, 3, 4, 5, 8, 32 } )
+		{
+			// Several iso-levels on the same pyramid.
+			final MinMaxPyramid pyramid = MinMaxPyramid.create( blobs, blockSize );
+			for ( final double isoLevel : new double[] { 0., 1.5, -2., 4. } )
+				assertSameAsPlain( blobs, pyramid, isoLevel );
+		}
+	}
+
+	@Test
+	public void testCrop()
+	{
+		// A crop with a non-zero min, that cuts both blobs.
+		final RandomAccessibleInterval< FloatType > crop = Views.interval( blobs, new long[] { 3, 2, 1 }, new long[] { 20, 12, 15 } );
+		for ( final int blockSize : new int[] { 3, 8 } )
+		{
+			final MinMaxPyramid pyramid = MinMaxPyramid.create( crop, blockSize );
+			for ( final double isoLevel : new double[] { 0., 2.5 } )
+				assertSameAsPlain( crop, pyramid, isoLevel );
+		}
+	}
+
+	@Test
+	public void testIsoLevelAtBlockRange()
+	{
+		/*
+		 * A ball whose values are clamped to 2, so that the blocks inside the
+		 * plateau have 2 as min and max, and the blocks on its border have 2
+		 * as max. At the iso-level 2, the corners on the plateau are inside.
+		 */
+		final int sx = 21;
+		final int sy = 19;
+		final int sz = 17;
+		final float[] values = new float[ sx * sy * sz ];
+		int i = 0;
+		for ( int z = 0; z < sz; z++ )
+			for ( int y = 0; y < sy; y++ )
+				for ( int x = 0; x < sx; x++ )
+				{
+					final double dx = x - 10;
+					final double dy = y - 9;
+					final double dz = z - 8;
+					values[ i++ ] = ( float ) Math.min( 2., 8. - Math.sqrt( dx * dx + dy * dy + dz * dz ) );
+				}
+		final ArrayImg< FloatType, FloatArray > plateau = TestImages.of( sx, sy, sz, values );
+		for ( final int blockSize : new int[] { 2, 4, 5 } )
+		{
+			final MinMaxPyramid pyramid = MinMaxPyramid.create( plateau, blockSize );
+			assertSameAsPlain( plateau, pyramid, 2. );
+			assertTrue( MarchingCubesRealType.calculateIndexed( plateau, 2., pyramid ).triangles().size() > 0 );
+		}
+
+		// The maximum of the image of the blobs, at the center of a blob.
+		final MinMaxPyramid pyramid = MinMaxPyramid.create( blobs, 4 );
+		final double max = ( float ) 5.3;
+		assertSameAsPlain( blobs, pyramid, max );
+		assertTrue( pyramid.countActiveBlocks( max ) > 0 );
+	}
+
+	@Test
+	public void testNoSurface()
+	{
+		final MinMaxPyramid pyramid = MinMaxPyramid.create( blobs, 4 );
+		assertEquals( 0, pyramid.countActiveBlocks( 100. ) );
+		assertEquals( 0, MarchingCubesRealType.calculateIndexed( blobs, 100., pyramid ).triangles().size() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testOtherInterval()
+	{
+		final MinMaxPyramid pyramid = MinMaxPyramid.create( blobs, 4 );
+		MarchingCubesRealType.calculateIndexed( Views.interval( blobs, new long[] { 1, 0, 0 }, new long[] { 22, 19, 17 } ), 0., pyramid );
+	}
+}
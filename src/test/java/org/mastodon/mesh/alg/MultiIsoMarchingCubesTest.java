@@ -0,0 +1,56 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class MultiIsoMarchingCubesTest
+{
+
+	private static final double[] ISO_LEVELS = new double[] { 1.5, -1., 0., 0.25 };
+
+	private final ArrayImg< FloatType, FloatArray > blobs = TestImages.blobs( 22, 19, 17, new double[][] {
+			{ 7, 8, 8, 4.6 },
+			{ 14, 10, 9, 5.1 } } );
+
+	@Test
+	public void testIndexedSameAsSingleLevel()
+	{
+		final List< TriMesh > meshes = MultiIsoMarchingCubes.calculate( blobs, ISO_LEVELS, true );
+		assertEquals( ISO_LEVELS.length, meshes.size() );
+		for ( int l = 0; l < ISO_LEVELS.length; l++ )
+		{
+			final TriMesh expected = MarchingCubesRealType.calculateIndexed( blobs, ISO_LEVELS[ l ] );
+			final TriMesh actual = meshes.get( l );
+			assertEquals( expected.vertices().size(), actual.vertices().size() );
+			assertSameTriangles( expected, actual, 5 );
+		}
+	}
+
+	@Test
+	public void testSoupSameAsSingleLevel()
+	{
+		final List< TriMesh > meshes = MultiIsoMarchingCubes.calculate( blobs, ISO_LEVELS, false );
+		assertEquals( ISO_LEVELS.length, meshes.size() );
+		for ( int l = 0; l < ISO_LEVELS.length; l++ )
+			assertSameTriangles( MarchingCubesRealType.calculate( blobs, ISO_LEVELS[ l ] ), meshes.get( l ), 5 );
+	}
+
+	@Test
+	public void testLevelWithoutSurface()
+	{
+		// Above the maximum of the image.
+		final List< TriMesh > meshes = MultiIsoMarchingCubes.calculate( blobs, new double[] { 0., 100. }, true );
+		assertEquals( 0, meshes.get( 1 ).triangles().size() );
+		assertSameTriangles( MarchingCubesRealType.calculateIndexed( blobs, 0. ), meshes.get( 0 ), 5 );
+	}
+}
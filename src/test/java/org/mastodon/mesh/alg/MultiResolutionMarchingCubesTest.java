@@ -0,0 +1,137 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTopology;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.Meshes;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class MultiResolutionMarchingCubesTest
+{
+
+	/**
+	 * A crop with a non-zero min of an image of a sphere centered on (20, 19,
+	 * 18), with a margin of at least 6 voxels around the sphere.
+	 */
+	private static RandomAccessibleInterval< FloatType > crop()
+	{
+		final RandomAccessibleInterval< FloatType > img = TestImages.blobs( 40, 38, 36, new double[][] { { 20, 19, 18, 8.3 } } );
+		return Views.interval( img, new long[] { 3, 2, 4 }, new long[] { 37, 35, 32 } );
+	}
+
+	/**
+	 * Asserts that the bounding box of a mesh is inside an interval.
+	 */
+	private static void assertInside( final Interval interval, final TriMesh mesh )
+	{
+		final FinalRealInterval bb = Meshes.boundingBox( mesh );
+		for ( int d = 0; d < 3; d++ )
+		{
+			assertTrue( bb.realMin( d ) >= interval.min( d ) );
+			assertTrue( bb.realMax( d ) <= interval.max( d ) );
+		}
+	}
+
+	private static double[] center( final TriMesh mesh )
+	{
+		final FinalRealInterval bb = Meshes.boundingBox( mesh );
+		final double[] center = new double[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			center[ d ] = ( bb.realMin( d ) + bb.realMax( d ) ) / 2;
+		return center;
+	}
+
+	@Test
+	public void testLevels()
+	{
+		final RandomAccessibleInterval< FloatType > input = crop();
+		final List< TriMesh > meshes = MultiResolutionMarchingCubes.calculate( input, 0., 3 );
+		assertEquals( 3, meshes.size() );
+
+		// Level 0 is the mesh of the input.
+		assertSameTopology( MarchingCubesRealType.calculateIndexed( input, 0. ), meshes.get( 0 ) );
+		assertSameTriangles( MarchingCubesRealType.calculate( input, 0. ), meshes.get( 0 ), 5 );
+
+		// The coarser levels are in the coordinates of the input, around the
+		// same center, with fewer triangles.
+		final double[] center = center( meshes.get( 0 ) );
+		for ( int level = 0; level < 3; level++ )
+		{
+			final TriMesh mesh = meshes.get( level );
+			assertClosed( mesh );
+			assertInside( input, mesh );
+			assertArrayEquals( center, center( mesh ), 0.5 * ( 1 << level ) );
+			if ( level > 0 )
+				assertTrue( mesh.triangles().size() < meshes.get( level - 1 ).triangles().size() );
+		}
+	}
+
+	@Test
+	public void testCoarsestFirst()
+	{
+		final List< Integer > order = new ArrayList<>();
+		MultiResolutionMarchingCubes.calculate( crop(), 0., 4, ( mesh, level ) -> order.add( level ) );
+		assertEquals( Arrays.asList( 3, 2, 1, 0 ), order );
+	}
+
+	@Test
+	public void testGivenLevels()
+	{
+		final RandomAccessibleInterval< FloatType > input = TestImages.sphere( 31, 29, 27, 9.3 );
+		final AffineTransform3D scale = new AffineTransform3D();
+		scale.set(
+				2, 0, 0, 0,
+				0, 2, 0, 0,
+				0, 0, 2, 0 );
+		final List< RandomAccessibleInterval< FloatType > > levels = Arrays.asList( input, Views.subsample( input, 2 ) );
+		final List< AffineTransform3D > transforms = Arrays.asList( new AffineTransform3D(), scale );
+
+		final TriMesh[] meshes = new TriMesh[ 2 ];
+		final List< Integer > order = new ArrayList<>();
+		MultiResolutionMarchingCubes.calculate( levels, transforms, 0., ( mesh, level ) -> {
+			meshes[ level ] = mesh;
+			order.add( level );
+		} );
+		assertEquals( Arrays.asList( 1, 0 ), order );
+		assertSameTriangles( MarchingCubesRealType.calculate( input, 0. ), meshes[ 0 ], 5 );
+		for ( final TriMesh mesh : meshes )
+		{
+			assertClosed( mesh );
+			assertInside( input, mesh );
+			assertArrayEquals( center( meshes[ 0 ] ), center( mesh ), 1. );
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testMissingTransform()
+	{
+		final RandomAccessibleInterval< FloatType > input = TestImages.sphere( 15, 14, 13, 4.3 );
+		MultiResolutionMarchingCubes.calculate(
+				Arrays.asList( input, Views.subsample( input, 2 ) ),
+				Arrays.asList( new AffineTransform3D() ),
+				0., ( mesh, level ) -> {} );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testNoLevel()
+	{
+		MultiResolutionMarchingCubes.calculate( crop(), 0., -1 );
+	}
+}
@@ -0,0 +1,157 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PlaneKernelsTest
+{
+
+	/**
+	 * Offsets of the row in the data and in the plane, so that the kernels do
+	 * not only work on whole arrays.
+	 */
+	private static final int FROM = 3;
+
+	private static final int TO = 5;
+
+	/**
+	 * Returns the plane expected after thresholding a row with the per-voxel
+	 * comparison in double precision.
+	 */
+	private static byte[] expected( final double[] values, final double isoLevel )
+	{
+		final byte[] plane = new byte[ TO + values.length + 2 ];
+		for ( int k = 0; k < values.length; k++ )
+			plane[ TO + k ] = ( byte ) ( values[ k ] >= isoLevel ? 1 : 0 );
+		return plane;
+	}
+
+	@Test
+	public void testUnsignedByte()
+	{
+		// All the values.
+		final byte[] data = new byte[ FROM + 256 ];
+		final double[] values = new double[ 256 ];
+		for ( int v = 0; v < 256; v++ )
+		{
+			data[ FROM + v ] = ( byte ) v;
+			values[ v ] = v;
+		}
+		for ( final double isoLevel : new double[] { -3., 0., 0.5, 1., 127., 127.5, 128., 254.5, 255., 255.5, 256., 1e9, Double.NaN } )
+		{
+			final byte[] plane = new byte[ TO + 256 + 2 ];
+			PlaneKernels.threshold( data, FROM, 256, PlaneKernels.threshold( isoLevel, 255 ), plane, TO );
+			assertArrayEquals( "Iso-level " + isoLevel, expected( values, isoLevel ), plane );
+		}
+	}
+
+	@Test
+	public void testUnsignedShort()
+	{
+		final int n = 65536;
+		final short[] data = new short[ FROM + n ];
+		final double[] values = new double[ n ];
+		for ( int v = 0; v < n; v++ )
+		{
+			data[ FROM + v ] = ( short ) v;
+			values[ v ] = v;
+		}
+		for ( final double isoLevel : new double[] { -3., 0., 0.5, 1., 255.5, 32767., 32767.5, 32768., 65534.5, 65535., 65535.5, 65536., Double.NaN } )
+		{
+			final byte[] plane = new byte[ TO + n + 2 ];
+			PlaneKernels.threshold( data, FROM, n, PlaneKernels.threshold( isoLevel, 65535 ), plane, TO );
+			assertArrayEquals( "Iso-level " + isoLevel, expected( values, isoLevel ), plane );
+		}
+	}
+
+	@Test
+	public void testFloat()
+	{
+		final double[] isoLevels = new double[] { 0., 1., -2.5, 0.1, 1. / 3., ( float ) 0.1, 1e-40, -1e-40, Double.NaN };
+		final Random ran = new Random( 1l );
+		for ( final double isoLevel : isoLevels )
+		{
+			// The float at the iso-level, its neighbours, and random values.
+			final float f = ( float ) isoLevel;
+			final float[] special = new float[] { f, Math.nextDown( f ), Math.nextUp( f ), 0f, -0f,
+					Float.MAX_VALUE, -Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN };
+			final int n = special.length + 100;
+			final float[] data = new float[ FROM + n ];
+			final double[] values = new double[ n ];
+			for ( int k = 0; k < n; k++ )
+			{
+				final float v = k < special.length ? special[ k ] : ( float ) ( 4 * ran.nextGaussian() );
+				data[ FROM + k ] = v;
+				values[ k ] = v;
+			}
+			final byte[] plane = new byte[ TO + n + 2 ];
+			PlaneKernels.threshold( data, FROM, n, PlaneKernels.threshold( isoLevel ), plane, TO );
+			assertArrayEquals( "Iso-level " + isoLevel, expected( values, isoLevel ), plane );
+		}
+	}
+
+	@Test
+	public void testIntegerThreshold()
+	{
+		assertEquals( 0, PlaneKernels.threshold( -0.5, 255 ) );
+		assertEquals( 0, PlaneKernels.threshold( 0., 255 ) );
+		assertEquals( 128, PlaneKernels.threshold( 128., 255 ) );
+		assertEquals( 129, PlaneKernels.threshold( 128.01, 255 ) );
+		assertEquals( 255, PlaneKernels.threshold( 255., 255 ) );
+		assertEquals( 256, PlaneKernels.threshold( 255.01, 255 ) );
+		assertEquals( 256, PlaneKernels.threshold( Double.NaN, 255 ) );
+	}
+
+	@Test
+	public void testCubeIndices()
+	{
+		final int isx = 13;
+		final int isy = 9;
+		final Random ran = new Random( 2l );
+		final byte[] lower = randomPlane( isx, isy, ran );
+		final byte[] upper = randomPlane( isx, isy, ran );
+
+		final byte[] lowerCodes = new byte[ isx * isy ];
+		final byte[] upperCodes = new byte[ isx * isy ];
+		final byte[] indices = new byte[ isx * isy ];
+		PlaneKernels.cornerCodes( lower, isx, lowerCodes );
+		PlaneKernels.cornerCodes( upper, isx, upperCodes );
+		PlaneKernels.cubeIndices( lowerCodes, upperCodes, indices );
+
+		// Per cube.
+		final byte[] expected = new byte[ isx * isy ];
+		for ( int y = 0; y < isy - 1; y++ )
+		{
+			for ( int x = 0; x < isx - 1; x++ )
+			{
+				final int i = y * isx + x;
+				expected[ i ] = ( byte ) ( lower[ i ]
+						| ( lower[ i + 1 ] << 1 )
+						| ( lower[ i + isx ] << 2 )
+						| ( lower[ i + isx + 1 ] << 3 )
+						| ( upper[ i ] << 4 )
+						| ( upper[ i + 1 ] << 5 )
+						| ( upper[ i + isx ] << 6 )
+						| ( upper[ i + isx + 1 ] << 7 ) );
+			}
+		}
+		assertArrayEquals( expected, indices );
+	}
+
+	/**
+	 * Returns a padded voxel plane, with random corner bits inside and 0 on
+	 * the border.
+	 */
+	private static byte[] randomPlane( final int isx, final int isy, final Random ran )
+	{
+		final byte[] plane = new byte[ isx * isy ];
+		for ( int y = 1; y < isy - 1; y++ )
+			for ( int x = 1; x < isx - 1; x++ )
+				plane[ y * isx + x ] = ( byte ) ( ran.nextBoolean() ? 1 : 0 );
+		return plane;
+	}
+}
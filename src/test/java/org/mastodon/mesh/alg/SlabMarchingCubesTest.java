@@ -0,0 +1,109 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.HalfEdge;
+import org.mastodon.mesh.Meshes;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.logic.BitType;
+
+public class SlabMarchingCubesTest
+{
+
+	private static final int N_THREADS = 3;
+
+	/**
+	 * A mask of two balls, one of them cut by the bottom of the image, that
+	 * span most of the image along Z. There are 19 layers of cubes along Z,
+	 * which is not a multiple of the number of slabs.
+	 */
+	private static ArrayImg< BitType, LongArray > mask()
+	{
+		final double[][] balls = new double[][] {
+				{ 8, 9, 9, 6.7 },
+				{ 16, 11, 2, 5.4 } };
+		final ArrayImg< BitType, LongArray > mask = ArrayImgs.bits( 23, 21, 18 );
+		final Cursor< BitType > c = mask.cursor();
+		final long[] p = new long[ 3 ];
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( p );
+			boolean inside = false;
+			for ( final double[] ball : balls )
+			{
+				final double dx = p[ 0 ] - ball[ 0 ];
+				final double dy = p[ 1 ] - ball[ 1 ];
+				final double dz = p[ 2 ] - ball[ 2 ];
+				inside |= dx * dx + dy * dy + dz * dz <= ball[ 3 ] * ball[ 3 ];
+			}
+			c.get().set( inside );
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns the vertex positions of the triangles of a mesh, in order.
+	 */
+	private static List< String > triangles( final TriMesh mesh )
+	{
+		final Vertex ref = mesh.vertexRef();
+		final List< String > list = new ArrayList<>();
+		for ( final Triangle t : mesh.triangles() )
+			list.add( position( t.getVertex0( ref ) ) + " " + position( t.getVertex1( ref ) ) + " " + position( t.getVertex2( ref ) ) );
+		mesh.releaseRef( ref );
+		return list;
+	}
+
+	private static String position( final Vertex v )
+	{
+		return "(" + v.getDoublePosition( 0 ) + ", " + v.getDoublePosition( 1 ) + ", " + v.getDoublePosition( 2 ) + ")";
+	}
+
+	/**
+	 * Returns the number of half-edges without twin of a mesh.
+	 */
+	private static int nBorderEdges( final TriMesh mesh )
+	{
+		final HalfEdge ref = mesh.edgeRef();
+		int n = 0;
+		for ( final HalfEdge e : mesh.edges() )
+			if ( e.twin( ref ) == null )
+				n++;
+		mesh.releaseRef( ref );
+		return n;
+	}
+
+	@Test
+	public void testBooleanParallel()
+	{
+		final ArrayImg< BitType, LongArray > mask = mask();
+		final int nCubesZ = ( int ) mask.dimension( 2 ) + 1;
+		assertNotEquals( 0, nCubesZ % SlabMarchingCubes.numSlabs( nCubesZ, N_THREADS ) );
+
+		// The same triangles, in the same order.
+		final TriMesh serial = MarchingCubesBooleanType.calculate( mask );
+		final TriMesh parallel = MarchingCubesBooleanType.calculate( mask, N_THREADS );
+		assertTrue( serial.triangles().size() > 0 );
+		assertEquals( triangles( serial ), triangles( parallel ) );
+
+		// Closed across the slab boundaries once the vertices are welded.
+		final TriMesh welded = Meshes.removeDuplicateVertices( parallel, 2 );
+		assertEquals( parallel.triangles().size(), welded.triangles().size() );
+		assertEquals( 3 * welded.triangles().size(), welded.edges().size() );
+		assertEquals( 0, nBorderEdges( welded ) );
+	}
+}
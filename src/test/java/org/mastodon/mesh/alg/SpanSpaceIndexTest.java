@@ -0,0 +1,53 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class SpanSpaceIndexTest
+{
+
+	private final ArrayImg< FloatType, FloatArray > blobs = TestImages.blobs( 19, 17, 16, new double[][] {
+			{ 6, 7, 7, 4.6 },
+			{ 12, 9, 8, 4.1 } } );
+
+	@Test
+	public void testSameAsRaster()
+	{
+		final SpanSpaceIndex index = SpanSpaceIndex.create( blobs );
+		for ( final double isoLevel : new double[] { -2.5, 0., 1.3, 3.9 } )
+		{
+			final TriMesh expected = MarchingCubesRealType.calculateIndexed( blobs, isoLevel );
+			final TriMesh mesh = MarchingCubesRealType.calculateIndexed( blobs, isoLevel, index );
+			assertEquals( expected.vertices().size(), mesh.vertices().size() );
+			assertSameTriangles( expected, mesh, 4 );
+			assertClosed( mesh );
+		}
+	}
+
+	@Test
+	public void testActiveCubesSorted()
+	{
+		final SpanSpaceIndex index = SpanSpaceIndex.create( blobs );
+		final long[] cubes = index.activeCubes( 0. );
+		assertTrue( cubes.length > 0 );
+		assertTrue( cubes.length <= index.size() );
+		for ( int i = 1; i < cubes.length; i++ )
+			assertTrue( cubes[ i - 1 ] < cubes[ i ] );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testTooManyCubes()
+	{
+		SpanSpaceIndex.create( blobs, 100 );
+	}
+}
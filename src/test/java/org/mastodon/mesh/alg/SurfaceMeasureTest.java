@@ -0,0 +1,59 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class SurfaceMeasureTest
+{
+
+	private static final double RADIUS = 6.3;
+
+	private final ArrayImg< FloatType, FloatArray > sphere = TestImages.sphere( 21, 19, 17, RADIUS );
+
+	@Test
+	public void testSameAsMesh()
+	{
+		// Same triangles in the same order: the same sums.
+		final SurfaceMeasure measure = SurfaceMeasure.calculate( sphere, 0. );
+		final SurfaceMeasure expected = SurfaceMeasure.of( MarchingCubesRealType.calculate( sphere, 0. ) );
+		assertEquals( expected.area(), measure.area(), 0. );
+		assertEquals( expected.volume(), measure.volume(), 0. );
+	}
+
+	@Test
+	public void testSameAsIndexedMesh()
+	{
+		final SurfaceMeasure measure = SurfaceMeasure.calculate( sphere, 0. );
+		final TriMesh mesh = MarchingCubesRealType.calculateIndexed( sphere, 0. );
+		final SurfaceMeasure expected = SurfaceMeasure.of( mesh );
+		assertEquals( expected.area(), measure.area(), 1e-9 * expected.area() );
+		assertEquals( expected.volume(), measure.volume(), 1e-9 * expected.volume() );
+	}
+
+	@Test
+	public void testMultithreaded()
+	{
+		final SurfaceMeasure expected = SurfaceMeasure.calculate( sphere, 0. );
+		for ( final int nThreads : new int[] { 2, 3, 8 } )
+		{
+			final SurfaceMeasure measure = SurfaceMeasure.calculate( sphere, 0., nThreads );
+			assertEquals( expected.area(), measure.area(), 1e-9 * expected.area() );
+			assertEquals( expected.volume(), measure.volume(), 1e-9 * expected.volume() );
+		}
+	}
+
+	@Test
+	public void testSphereVolume()
+	{
+		final SurfaceMeasure measure = SurfaceMeasure.calculate( sphere, 0. );
+		final double volume = 4. / 3. * Math.PI * RADIUS * RADIUS * RADIUS;
+		assertEquals( volume, measure.volume(), 0.05 * volume );
+	}
+}
@@ -0,0 +1,70 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class SurfaceNetsTest
+{
+
+	/**
+	 * Returns an image of the specified size, with the specified voxels at 1
+	 * and the others at -1.
+	 */
+	private static ArrayImg< FloatType, FloatArray > voxels( final int width, final int height, final int depth, final int[]... inside )
+	{
+		final float[] values = new float[ width * height * depth ];
+		Arrays.fill( values, -1f );
+		for ( final int[] p : inside )
+			values[ p[ 0 ] + width * ( p[ 1 ] + height * p[ 2 ] ) ] = 1f;
+		return TestImages.of( width, height, depth, values );
+	}
+
+	@Test
+	public void testSphere()
+	{
+		final long[] dropped = new long[ 1 ];
+		final TriMesh mesh = SurfaceNets.calculate( TestImages.sphere( 21, 19, 17, 6.3 ), 0., n -> dropped[ 0 ] = n );
+		assertEquals( 0, dropped[ 0 ] );
+		assertClosed( mesh );
+		// Euler characteristic of a sphere, with E = 3F/2.
+		assertEquals( 2, mesh.vertices().size() - mesh.triangles().size() / 2 );
+	}
+
+	@Test
+	public void testSingleVoxel()
+	{
+		final TriMesh mesh = SurfaceNets.calculate( voxels( 3, 3, 3, new int[] { 1, 1, 1 } ), 0. );
+		assertEquals( 8, mesh.vertices().size() );
+		assertEquals( 12, mesh.triangles().size() );
+		assertClosed( mesh );
+	}
+
+	@Test
+	public void testSaddle()
+	{
+		/*
+		 * Two voxels that touch by a voxel edge. The face of the cubes between
+		 * them has its 4 voxel edges crossed by the surface, and the mesh edge
+		 * through this face belongs to 4 quads: the 2 triangles that would
+		 * reuse it are dropped, and leave a hole.
+		 */
+		final long[] dropped = new long[ 1 ];
+		final TriMesh mesh = SurfaceNets.calculate( voxels( 4, 4, 3, new int[] { 1, 1, 1 }, new int[] { 2, 2, 1 } ), 0., n -> dropped[ 0 ] = n );
+		assertEquals( 14, mesh.vertices().size() );
+		assertEquals( 2, dropped[ 0 ] );
+		assertEquals( 22, mesh.triangles().size() );
+		// The half-edges are consistent, with the hole on the border.
+		assertEquals( 4, assertHalfEdges( mesh ) );
+	}
+}
@@ -0,0 +1,158 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+import org.junit.Test;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+public class TimeSeriesMarchingCubesTest
+{
+
+	private static final int SX = 15;
+
+	private static final int SY = 13;
+
+	private static final int SZ = 12;
+
+	private static final int ST = 9;
+
+	/**
+	 * Returns a 4D image of a ball that moves and grows over time, cut by the
+	 * image border in the last frames. The ball has a negative radius in frame
+	 * 3, so that this frame has no surface.
+	 */
+	private static ArrayImg< FloatType, FloatArray > movingBall()
+	{
+		final float[] data = new float[ SX * SY * SZ * ST ];
+		int i = 0;
+		for ( int t = 0; t < ST; t++ )
+		{
+			final double cx = 4 + t;
+			final double cy = 6 - 0.3 * t;
+			final double cz = 5.5;
+			final double r = t == 3 ? -1. : 2.2 + 0.4 * t;
+			for ( int z = 0; z < SZ; z++ )
+				for ( int y = 0; y < SY; y++ )
+					for ( int x = 0; x < SX; x++ )
+					{
+						final double dx = x - cx;
+						final double dy = y - cy;
+						final double dz = z - cz;
+						data[ i++ ] = ( float ) ( r - Math.sqrt( dx * dx + dy * dy + dz * dz ) );
+					}
+		}
+		return ArrayImgs.floats( data, SX, SY, SZ, ST );
+	}
+
+	private static ArrayImg< BitType, LongArray > mask( final ArrayImg< FloatType, FloatArray > img )
+	{
+		final ArrayImg< BitType, LongArray > mask = ArrayImgs.bits( SX, SY, SZ, ST );
+		final Cursor< BitType > c = mask.cursor();
+		final Cursor< FloatType > f = img.cursor();
+		while ( c.hasNext() )
+			c.next().set( f.next().get() >= 0 );
+		return mask;
+	}
+
+	/**
+	 * Returns the timepoints 1 to 7 of the specified image, so that the time
+	 * interval does not start at 0.
+	 */
+	private static < T > RandomAccessibleInterval< T > timepoints( final RandomAccessibleInterval< T > img )
+	{
+		return Views.interval( img, new long[] { 0, 0, 0, 1 }, new long[] { SX - 1, SY - 1, SZ - 1, ST - 2 } );
+	}
+
+	/**
+	 * Stores the meshes by timepoint, and fails if a timepoint is received
+	 * twice.
+	 */
+	private static final class Collector implements ObjLongConsumer< TriMesh >
+	{
+
+		private final Map< Long, TriMesh > meshes = new HashMap<>();
+
+		@Override
+		public void accept( final TriMesh mesh, final long t )
+		{
+			assertNull( "Timepoint " + t + " received twice.", meshes.put( t, mesh ) );
+		}
+	}
+
+	/**
+	 * Asserts that each timepoint was received once, with the mesh of its
+	 * frame.
+	 */
+	private static void assertSameAsFrames( final Map< Long, TriMesh > meshes, final Map< Long, TriMesh > expected )
+	{
+		assertEquals( expected.keySet(), meshes.keySet() );
+		for ( final Map.Entry< Long, TriMesh > entry : expected.entrySet() )
+		{
+			final TriMesh actual = meshes.get( entry.getKey() );
+			assertEquals( entry.getValue().vertices().size(), actual.vertices().size() );
+			assertSameTriangles( entry.getValue(), actual, 5 );
+			assertEquals( assertHalfEdges( entry.getValue() ), assertHalfEdges( actual ) );
+		}
+	}
+
+	@Test
+	public void testRealType()
+	{
+		final RandomAccessibleInterval< FloatType > input = timepoints( movingBall() );
+		final Map< Long, TriMesh > expected = new HashMap<>();
+		for ( long t = 1; t <= ST - 2; t++ )
+			expected.put( t, MarchingCubesRealType.calculateIndexed( Views.hyperSlice( input, 3, t ), 0. ) );
+		assertEquals( 0, expected.get( 3L ).triangles().size() );
+		assertTrue( expected.get( 7L ).triangles().size() > 0 );
+
+		// More timepoints than workers, so that the workers reuse their
+		// buffers.
+		for ( final int nThreads : new int[] { 1, 3, 16 } )
+		{
+			final Collector collector = new Collector();
+			TimeSeriesMarchingCubes.calculate( input, 0., nThreads, collector );
+			assertSameAsFrames( collector.meshes, expected );
+		}
+	}
+
+	@Test
+	public void testBooleanType()
+	{
+		final RandomAccessibleInterval< BitType > input = timepoints( mask( movingBall() ) );
+		final Map< Long, TriMesh > expected = new HashMap<>();
+		for ( long t = 1; t <= ST - 2; t++ )
+			expected.put( t, MarchingCubesBooleanType.calculateIndexed( Views.hyperSlice( input, 3, t ) ) );
+		assertEquals( 0, expected.get( 3L ).triangles().size() );
+
+		for ( final int nThreads : new int[] { 1, 3, 16 } )
+		{
+			final Collector collector = new Collector();
+			TimeSeriesMarchingCubes.calculate( input, nThreads, collector );
+			assertSameAsFrames( collector.meshes, expected );
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void test3D()
+	{
+		TimeSeriesMarchingCubes.calculate( ArrayImgs.floats( new float[ SX * SY * SZ ], SX, SY, SZ ), 0., 2, new Collector() );
+	}
+}
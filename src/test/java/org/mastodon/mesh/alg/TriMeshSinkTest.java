@@ -0,0 +1,62 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import org.junit.Test;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class TriMeshSinkTest
+{
+
+	private final ArrayImg< FloatType, FloatArray > sphere = TestImages.sphere( 21, 19, 17, 6.3 );
+
+	@Test
+	public void testStreamedSameAsSoup()
+	{
+		final TriMesh mesh = new TriMesh();
+		final TriMeshSink sink = new TriMeshSink( mesh );
+		final int[] count = new int[ 1 ];
+		MarchingCubesRealType.calculate( sphere, 0., ( x0, y0, z0, x1, y1, z1, x2, y2, z2 ) -> {
+			count[ 0 ]++;
+			sink.triangle( x0, y0, z0, x1, y1, z1, x2, y2, z2 );
+		} );
+		sink.release();
+
+		final TriMesh soup = MarchingCubesRealType.calculate( sphere, 0. );
+		assertEquals( soup.triangles().size(), count[ 0 ] );
+		assertEquals( 3 * count[ 0 ], mesh.vertices().size() );
+		assertSameTriangles( soup, mesh, 5 );
+	}
+
+	@Test
+	public void testHashVerticesSameAsIndexed()
+	{
+		// Cubes in reverse order, sharing their vertices through the map.
+		final TriMesh mesh = new TriMesh();
+		final HashVertexSink sink = new HashVertexSink( mesh, sphere, CellMarchingCubes.newSeams() );
+		final CubePolygonizer polygonizer = new CubePolygonizer( 0., sink );
+		final CubeSampler sampler = CubeSampler.create( sphere );
+		final double[] values = new double[ 8 ];
+		for ( int z = ( int ) sphere.max( 2 ); z >= -1; z-- )
+			for ( int y = ( int ) sphere.max( 1 ); y >= -1; y-- )
+				for ( int x = ( int ) sphere.max( 0 ); x >= -1; x-- )
+				{
+					sampler.sample( x, y, z, values );
+					final int mindex = CubePolygonizer.cubeIndex( values, 0., x, y, z, sphere );
+					polygonizer.polygonize( mindex, MarchingCubesRealType.EDGE_TABLE[ mindex ], values, x, y, z, 0, 0 );
+				}
+		sink.release();
+
+		final TriMesh expected = MarchingCubesRealType.calculateIndexed( sphere, 0. );
+		assertEquals( expected.vertices().size(), mesh.vertices().size() );
+		assertSameTriangles( expected, mesh, 4 );
+		assertClosed( mesh );
+	}
+}
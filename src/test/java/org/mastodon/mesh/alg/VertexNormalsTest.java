@@ -0,0 +1,157 @@
+package org.mastodon.mesh.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.mastodon.mesh.PoolStorage;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+import org.mastodon.mesh.VertexPool;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class VertexNormalsTest
+{
+
+	private static final double[] CENTER = new double[] { 10, 9, 8 };
+
+	private final ArrayImg< FloatType, FloatArray > sphere = TestImages.sphere( 21, 19, 17, 6.3 );
+
+	@Test
+	public void testNoNormalsByDefault()
+	{
+		final TriMesh mesh = MarchingCubesRealType.calculateIndexed( sphere, 0. );
+		assertFalse( mesh.hasVertexNormals() );
+		final float[] normal = new float[] { 1f, 1f, 1f };
+		final Vertex v = mesh.vertices().iterator().next();
+		v.normal( normal );
+		assertEquals( 0f, normal[ 0 ], 0f );
+		assertEquals( 0f, normal[ 1 ], 0f );
+		assertEquals( 0f, normal[ 2 ], 0f );
+	}
+
+	@Test( expected = IllegalStateException.class )
+	public void testSetNormalWithoutNormals()
+	{
+		final TriMesh mesh = new TriMesh();
+		mesh.addVertex().init( 0, 0, 0 ).setNormal( 1f, 0f, 0f );
+	}
+
+	@Test
+	public void testRadialNormals()
+	{
+		final TriMesh mesh = MarchingCubesRealType.calculateIndexed( sphere, 0., true );
+		assertTrue( mesh.hasVertexNormals() );
+		final float[] normal = new float[ 3 ];
+		for ( final Vertex v : mesh.vertices() )
+		{
+			v.normal( normal );
+			assertRadial( normal, v.x() - CENTER[ 0 ], v.y() - CENTER[ 1 ], v.z() - CENTER[ 2 ] );
+		}
+		assertOrientation( mesh );
+	}
+
+	@Test
+	public void testCalibratedNormals()
+	{
+		// Anisotropic, with Z mirrored.
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.set(
+				2, 0, 0, 1,
+				0, 1, 0, -2,
+				0, 0, -0.5, 3 );
+		final TriMesh mesh = MarchingCubesRealType.calculateIndexed( sphere, 0., transform, true );
+		final float[] normal = new float[ 3 ];
+		for ( final Vertex v : mesh.vertices() )
+		{
+			// Back to voxel coordinates.
+			final double dx = ( v.x() - 1 ) / 2 - CENTER[ 0 ];
+			final double dy = ( v.y() + 2 ) - CENTER[ 1 ];
+			final double dz = ( v.z() - 3 ) / -0.5 - CENTER[ 2 ];
+			// The normals transform with the inverse transpose.
+			v.normal( normal );
+			assertRadial( normal, dx / 2, dy, dz / -0.5 );
+		}
+		assertOrientation( mesh );
+	}
+
+	@Test
+	public void testNormalsInMeshWithGaps()
+	{
+		// Removed vertices leave free slots with ids below the vertex count,
+		// that the new vertices are created in.
+		final TriMesh mesh = new TriMesh( 1000, 1000, 3000, VertexPool.normalLayout, PoolStorage.SINGLE_ARRAY );
+		final Vertex ref = mesh.vertexRef();
+		for ( int i = 0; i < 100; i++ )
+			mesh.addVertex( ref ).init( i, 0, 0 );
+		for ( int i = 0; i < 50; i++ )
+			mesh.remove( mesh.vertices().getRefPool().getObject( i, ref ) );
+		mesh.releaseRef( ref );
+
+		final CubeSampler sampler = CubeSampler.create( sphere );
+		final TriMeshSink sink = new TriMeshSink( mesh, null, Calibration.NONE, sampler );
+		final CubePolygonizer polygonizer = new CubePolygonizer( 0., sink );
+		final double[] values = new double[ 8 ];
+		for ( int z = -1; z < sphere.dimension( 2 ); z++ )
+			for ( int y = -1; y < sphere.dimension( 1 ); y++ )
+				for ( int x = -1; x < sphere.dimension( 0 ); x++ )
+				{
+					sampler.sample( x, y, z, values );
+					final int mindex = CubePolygonizer.cubeIndex( values, 0., x, y, z, sphere );
+					final int edges = MarchingCubesRealType.EDGE_TABLE[ mindex ];
+					if ( edges != 0 )
+						polygonizer.polygonize( mindex, edges, values, x, y, z, 0, 0 );
+				}
+		sink.release();
+
+		final float[] normal = new float[ 3 ];
+		for ( final Vertex v : mesh.vertices() )
+		{
+			// The vertices left from before have no triangle.
+			if ( v.edges().isEmpty() )
+				continue;
+			v.normal( normal );
+			assertRadial( normal, v.x() - CENTER[ 0 ], v.y() - CENTER[ 1 ], v.z() - CENTER[ 2 ] );
+		}
+	}
+
+	/**
+	 * Asserts that the normal is a unit vector close to the specified
+	 * direction.
+	 */
+	private static void assertRadial( final float[] normal, final double dx, final double dy, final double dz )
+	{
+		final double norm = Math.sqrt( dx * dx + dy * dy + dz * dz );
+		final double length = Math.sqrt( normal[ 0 ] * normal[ 0 ] + normal[ 1 ] * normal[ 1 ] + normal[ 2 ] * normal[ 2 ] );
+		assertEquals( 1., length, 1e-5 );
+		final double cos = ( normal[ 0 ] * dx + normal[ 1 ] * dy + normal[ 2 ] * dz ) / norm;
+		assertTrue( "Normal deviates from the expected direction: cos = " + cos, cos > 0.95 );
+	}
+
+	/**
+	 * Asserts that the triangles face the same way as the normals of their
+	 * vertices, on average.
+	 */
+	private static void assertOrientation( final TriMesh mesh )
+	{
+		final float[] tn = new float[ 3 ];
+		final float[] vn = new float[ 3 ];
+		final Vertex ref = mesh.vertexRef();
+		double sum = 0;
+		for ( final Triangle t : mesh.triangles() )
+		{
+			t.normal( tn );
+			t.getVertex0( ref ).normal( vn );
+			sum += tn[ 0 ] * vn[ 0 ] + tn[ 1 ] * vn[ 1 ] + tn[ 2 ] * vn[ 2 ];
+		}
+		mesh.releaseRef( ref );
+		assertTrue( sum / mesh.triangles().size() > 0.9 );
+	}
+}
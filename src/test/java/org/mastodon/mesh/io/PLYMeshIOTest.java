@@ -0,0 +1,133 @@
+package org.mastodon.mesh.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertClosed;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+import static org.mastodon.mesh.MeshAssert.assertSameTriangles;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.Meshes;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+
+public class PLYMeshIOTest
+{
+
+	private static TriMesh sphere()
+	{
+		return Meshes.marchingCubesIndexed( TestImages.sphere( 21, 19, 17, 6.3 ), 0. );
+	}
+
+	private static TriMesh roundTrip( final TriMesh mesh ) throws IOException
+	{
+		final Path file = Files.createTempFile( "mesh", ".ply" );
+		try
+		{
+			PLYMeshIO.save( mesh, file.toString() );
+			return PLYMeshIO.open( file.toString() );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	/**
+	 * Reads the binary PLY of a mesh into a new mesh, with the triangle adder
+	 * rather than the builder.
+	 */
+	private static TriMesh readInto( final TriMesh mesh ) throws IOException
+	{
+		final TriMesh read = new TriMesh();
+		PLYMeshIO.read( new ByteArrayInputStream( PLYMeshIO.writeBinary( mesh ) ), read );
+		return read;
+	}
+
+	@Test
+	public void testOpen() throws IOException
+	{
+		final TriMesh mesh = sphere();
+		final TriMesh read = roundTrip( mesh );
+		assertEquals( mesh.vertices().size(), read.vertices().size() );
+		assertEquals( mesh.triangles().size(), read.triangles().size() );
+		// Positions are written in single precision.
+		assertSameTriangles( mesh, read, 4 );
+		assertClosed( read );
+	}
+
+	@Test
+	public void testRead() throws IOException
+	{
+		final TriMesh mesh = sphere();
+		final TriMesh read = readInto( mesh );
+		assertEquals( mesh.vertices().size(), read.vertices().size() );
+		assertEquals( mesh.triangles().size(), read.triangles().size() );
+		assertSameTriangles( mesh, read, 4 );
+		assertClosed( read );
+	}
+
+	@Test
+	public void testNumberOfVerticesAndFaces() throws IOException
+	{
+		final TriMesh mesh = sphere();
+		final Path file = Files.createTempFile( "mesh", ".ply" );
+		try
+		{
+			PLYMeshIO.save( mesh, file.toString() );
+			final int[] n = PLYMeshIO.getNVerticesFaces( file.toString() );
+			assertEquals( mesh.vertices().size(), n[ 0 ] );
+			assertEquals( mesh.triangles().size(), n[ 1 ] );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testRemovedObjects() throws IOException
+	{
+		// The ids written are the ranks of the vertices, not their pool
+		// indices.
+		final TriMesh mesh = sphere();
+		removeAroundFirstVertex( mesh );
+		final int nBorder = assertHalfEdges( mesh );
+		assertTrue( nBorder > 0 );
+
+		for ( final TriMesh read : new TriMesh[] { roundTrip( mesh ), readInto( mesh ) } )
+		{
+			assertEquals( mesh.vertices().size(), read.vertices().size() );
+			assertSameTriangles( mesh, read, 4 );
+			assertEquals( nBorder, assertHalfEdges( read ) );
+		}
+	}
+
+	/**
+	 * Removes the triangles around the first vertex, then the vertex, so that
+	 * the pools have gaps and some half-edges have no twin.
+	 */
+	private static void removeAroundFirstVertex( final TriMesh mesh )
+	{
+		final Vertex removed = mesh.vertices().getRefPool().getObject( 0, mesh.vertexRef() );
+		final List< Integer > ids = new ArrayList<>();
+		for ( final Triangle t : mesh.triangles() )
+			if ( t.v0() == 0 || t.v1() == 0 || t.v2() == 0 )
+				ids.add( t.getInternalPoolIndex() );
+		final Triangle tref = mesh.triangleRef();
+		for ( final int id : ids )
+			mesh.remove( mesh.triangles().getRefPool().getObject( id, tref ) );
+		mesh.releaseRef( tref );
+		mesh.remove( removed );
+		mesh.releaseRef( removed );
+	}
+}
@@ -0,0 +1,223 @@
+package org.mastodon.mesh.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mastodon.mesh.MeshAssert.assertHalfEdges;
+import static org.mastodon.mesh.MeshAssert.assertSameTopology;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.mesh.Meshes;
+import org.mastodon.mesh.TestImages;
+import org.mastodon.mesh.TriMesh;
+import org.mastodon.mesh.TriMeshBuilder;
+import org.mastodon.mesh.Triangle;
+import org.mastodon.mesh.Vertex;
+import org.mastodon.mesh.alg.MarchingCubesRealType;
+
+public class TMSHMeshIOTest
+{
+
+	private static TriMesh sphere()
+	{
+		return Meshes.marchingCubesIndexed( TestImages.sphere( 21, 19, 17, 6.3 ), 0. );
+	}
+
+	private static TriMesh roundTrip( final TriMesh mesh ) throws IOException
+	{
+		final Path file = Files.createTempFile( "mesh", ".tmsh" );
+		try
+		{
+			TMSHMeshIO.save( mesh, file.toString() );
+			return TMSHMeshIO.open( file.toString() );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	private static byte[] bytes( final TriMesh mesh ) throws IOException
+	{
+		final Path file = Files.createTempFile( "mesh", ".tmsh" );
+		try
+		{
+			TMSHMeshIO.save( mesh, file.toString() );
+			return Files.readAllBytes( file );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	private static TriMesh open( final byte[] bytes ) throws IOException
+	{
+		final Path file = Files.createTempFile( "mesh", ".tmsh" );
+		try
+		{
+			Files.write( file, bytes );
+			return TMSHMeshIO.open( file.toString() );
+		}
+		finally
+		{
+			Files.delete( file );
+		}
+	}
+
+	@Test
+	public void testDoublePrecision() throws IOException
+	{
+		final TriMesh mesh = sphere();
+		final TriMesh read = roundTrip( mesh );
+		assertFalse( read.isSinglePrecision() );
+		assertFalse( read.hasVertexNormals() );
+		assertSameTopology( mesh, read );
+		final Vertex ref = read.vertexRef();
+		for ( final Vertex v : mesh.vertices() )
+		{
+			final Vertex w = read.vertices().getRefPool().getObject( v.getInternalPoolIndex(), ref );
+			assertEquals( v.x(), w.x(), 0. );
+			assertEquals( v.y(), w.y(), 0. );
+			assertEquals( v.z(), w.z(), 0. );
+		}
+		read.releaseRef( ref );
+	}
+
+	@Test
+	public void testSinglePrecision() throws IOException
+	{
+		final TriMesh mesh = singlePrecisionSphere();
+		final TriMesh read = roundTrip( mesh );
+		assertTrue( read.isSinglePrecision() );
+		assertSameTopology( mesh, read );
+		final Vertex ref = read.vertexRef();
+		for ( final Vertex v : mesh.vertices() )
+		{
+			final Vertex w = read.vertices().getRefPool().getObject( v.getInternalPoolIndex(), ref );
+			for ( int d = 0; d < 3; d++ )
+				assertEquals( v.getFloatPosition( d ), w.getFloatPosition( d ), 0f );
+		}
+		read.releaseRef( ref );
+	}
+
+	@Test
+	public void testVertexNormals() throws IOException
+	{
+		final TriMesh mesh = MarchingCubesRealType.calculateIndexed( TestImages.sphere( 21, 19, 17, 6.3 ), 0., true );
+		final TriMesh read = roundTrip( mesh );
+		assertTrue( read.hasVertexNormals() );
+		assertSameTopology( mesh, read );
+		final float[] expected = new float[ 3 ];
+		final float[] actual = new float[ 3 ];
+		final Vertex ref = read.vertexRef();
+		for ( final Vertex v : mesh.vertices() )
+		{
+			v.normal( expected );
+			read.vertices().getRefPool().getObject( v.getInternalPoolIndex(), ref ).normal( actual );
+			for ( int d = 0; d < 3; d++ )
+				assertEquals( expected[ d ], actual[ d ], 0f );
+		}
+		read.releaseRef( ref );
+	}
+
+	@Test
+	public void testRemovedObjects() throws IOException
+	{
+		for ( final TriMesh mesh : new TriMesh[] { sphere(), singlePrecisionSphere() } )
+		{
+			removeAroundFirstVertex( mesh );
+			final int nBorder = assertHalfEdges( mesh );
+			assertTrue( nBorder > 0 );
+
+			final TriMesh read = roundTrip( mesh );
+			assertEquals( mesh.isSinglePrecision(), read.isSinglePrecision() );
+			assertEquals( mesh.vertices().size(), read.vertices().size() );
+			assertSameTopology( mesh, read );
+			assertEquals( nBorder, assertHalfEdges( read ) );
+		}
+	}
+
+	@Test( expected = IOException.class )
+	public void testTruncated() throws IOException
+	{
+		final byte[] bytes = bytes( sphere() );
+		final byte[] truncated = new byte[ bytes.length - 7 ];
+		System.arraycopy( bytes, 0, truncated, 0, truncated.length );
+		open( truncated );
+	}
+
+	@Test( expected = IOException.class )
+	public void testHeaderTooLarge() throws IOException
+	{
+		final byte[] bytes = bytes( sphere() );
+		// One billion half-edges: 6 billion ints.
+		ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).putInt( 20, 1_000_000_000 );
+		open( bytes );
+	}
+
+	@Test( expected = IOException.class )
+	public void testHeaderBeyondChannel() throws IOException
+	{
+		final byte[] bytes = bytes( sphere() );
+		ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).putInt( 12, 100_000_000 );
+		open( bytes );
+	}
+
+	@Test( expected = IOException.class )
+	public void testIndexOutOfRange() throws IOException
+	{
+		final TriMesh mesh = sphere();
+		final byte[] bytes = bytes( mesh );
+		// First vertex index of the first triangle, after the header and the
+		// double-precision positions.
+		final int offset = 24 + 3 * 8 * mesh.vertices().size();
+		ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).putInt( offset, mesh.vertices().size() );
+		open( bytes );
+	}
+
+	private static TriMesh singlePrecisionSphere()
+	{
+		final TriMesh source = sphere();
+		final float[] positions = new float[ 3 * source.vertices().size() ];
+		for ( final Vertex v : source.vertices() )
+			for ( int d = 0; d < 3; d++ )
+				positions[ 3 * v.getInternalPoolIndex() + d ] = v.getFloatPosition( d );
+		final int[] triangles = new int[ 3 * source.triangles().size() ];
+		int i = 0;
+		for ( final Triangle t : source.triangles() )
+		{
+			triangles[ i++ ] = t.v0();
+			triangles[ i++ ] = t.v1();
+			triangles[ i++ ] = t.v2();
+		}
+		return TriMeshBuilder.build( positions, triangles, true );
+	}
+
+	/**
+	 * Removes the triangles around the first vertex, then the vertex, so that
+	 * the pools have gaps and some half-edges have no twin.
+	 */
+	private static void removeAroundFirstVertex( final TriMesh mesh )
+	{
+		final Vertex removed = mesh.vertices().getRefPool().getObject( 0, mesh.vertexRef() );
+		final List< Integer > ids = new ArrayList<>();
+		for ( final Triangle t : mesh.triangles() )
+			if ( t.v0() == 0 || t.v1() == 0 || t.v2() == 0 )
+				ids.add( t.getInternalPoolIndex() );
+		final Triangle tref = mesh.triangleRef();
+		for ( final int id : ids )
+			mesh.remove( mesh.triangles().getRefPool().getObject( id, tref ) );
+		mesh.releaseRef( tref );
+		mesh.remove( removed );
+		mesh.releaseRef( removed );
+	}
+}